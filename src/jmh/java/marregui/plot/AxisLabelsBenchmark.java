@@ -0,0 +1,46 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+package marregui.plot;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Formatting of the values of the axes, which is also how the values are written to
+ * text files.
+ *
+ * @author marregui
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AxisLabelsBenchmark {
+    private float x = 50000.5F;
+    private float y = -0.0123F;
+
+    @Benchmark
+    public String formatForXAxis() {
+        return AxisLabels.formatForXAxis(this.x);
+    }
+
+    @Benchmark
+    public String formatForYAxis() {
+        return AxisLabels.formatForYAxis(this.y);
+    }
+}
@@ -0,0 +1,93 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+package marregui.plot;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import marregui.plot.io.DataSet;
+import marregui.plot.io.SyntheticData;
+
+/**
+ * Paint of a plot into an offscreen image, showing all of the data set or a hundredth of
+ * it, as when zoomed in. The plot caches its layers in images, paint redraws them after
+ * a change of size, which is alternated on each call, and only draws the overlay
+ * otherwise.
+ *
+ * @author marregui
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PlotViewerBenchmark {
+    private static final int WIDTH = 1400;
+    private static final int HEIGHT = 400;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"full", "zoomed"})
+    public String view;
+
+    private PlotViewer plotViewer;
+    private BufferedImage image;
+    private boolean isWider;
+
+    @Setup
+    public void setup() {
+        System.setProperty("java.awt.headless", "true");
+        DataSet dataSet = SyntheticData.dataSet("benchmark", this.size, 0L);
+        this.plotViewer = new PlotViewer("Days", null);
+        this.plotViewer.setDataSet(dataSet);
+        this.plotViewer.toggleErrorBarsMenuItem(true);
+        if ("zoomed".equals(this.view)) {
+            float xRange = dataSet.maxX - dataSet.minX;
+            float[] minMax = dataSet.getLocalMinMaxInYAxis(dataSet.minX + 0.5F * xRange, dataSet.minX + 0.51F * xRange);
+            this.plotViewer.changeXYRanges(dataSet.minX + 0.5F * xRange, dataSet.minX + 0.51F * xRange, minMax[0], minMax[1]);
+        }
+        this.plotViewer.setSize(WIDTH, HEIGHT);
+        this.image = new BufferedImage(WIDTH + 1, HEIGHT, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        this.isWider = false == this.isWider;
+        this.plotViewer.setSize(this.isWider ? WIDTH + 1 : WIDTH, HEIGHT);
+        return paintImage();
+    }
+
+    @Benchmark
+    public BufferedImage paintCachedLayers() {
+        return paintImage();
+    }
+
+    private BufferedImage paintImage() {
+        Graphics2D g2 = this.image.createGraphics();
+        try {
+            this.plotViewer.paint(g2);
+        } finally {
+            g2.dispose();
+        }
+        return this.image;
+    }
+}
@@ -0,0 +1,77 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Parse of a small file, the size of a light curve of the datachest, and of a large one.
+ * The text parsers are measured on their own, parse(File) reads the columnar cache,
+ * written in the setup next to the file.
+ *
+ * @author marregui
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DataFileParserBenchmark {
+
+    @Param({"5000", "2000000"})
+    public int rows;
+
+    private File folder;
+    private File file;
+
+    @Setup
+    public void setup() throws Exception {
+        this.folder = Files.createTempDirectory("parse-benchmark").toFile();
+        this.file = SyntheticData.textFile(this.rows, this.folder);
+        DataFileParser.parse(this.file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : this.folder.listFiles()) {
+            file.delete();
+        }
+        this.folder.delete();
+    }
+
+    @Benchmark
+    public Data parseBuffered() throws Exception {
+        return DataFileParser.parse(this.file, DataFileParser.ParseMode.BUFFERED);
+    }
+
+    @Benchmark
+    public Data parseMapped() throws Exception {
+        return DataFileParser.parse(this.file, DataFileParser.ParseMode.MAPPED);
+    }
+
+    @Benchmark
+    public Data parseCached() throws Exception {
+        return DataFileParser.parse(this.file);
+    }
+}
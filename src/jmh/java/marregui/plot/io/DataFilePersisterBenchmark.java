@@ -0,0 +1,68 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+package marregui.plot.io;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Persist of data in text format and in columnar format.
+ *
+ * @author marregui
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DataFilePersisterBenchmark {
+
+    @Param({"5000", "1000000"})
+    public int rows;
+
+    private Data data;
+    private File textFile, columnarFile;
+
+    @Setup
+    public void setup() throws Exception {
+        this.data = SyntheticData.data(this.rows);
+        this.textFile = File.createTempFile("persist-benchmark", ".txt");
+        this.columnarFile = File.createTempFile("persist-benchmark", ColumnarDataFile.EXTENSION);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.textFile.delete();
+        this.columnarFile.delete();
+    }
+
+    @Benchmark
+    public File persistText() throws Exception {
+        DataFilePersister.persist(this.data, this.textFile);
+        return this.textFile;
+    }
+
+    @Benchmark
+    public File persistColumnar() throws Exception {
+        DataFilePersister.persist(this.data, this.columnarFile);
+        return this.columnarFile;
+    }
+}
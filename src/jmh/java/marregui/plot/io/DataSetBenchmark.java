@@ -0,0 +1,73 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+package marregui.plot.io;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Range queries and validity edits on a data set, over a window of a tenth of it, as
+ * when zooming in, and over all of it.
+ *
+ * @author marregui
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DataSetBenchmark {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int size;
+
+    private DataSet dataSet;
+    private float windowStart, windowEnd;
+
+    @Setup
+    public void setup() {
+        this.dataSet = SyntheticData.dataSet("benchmark", this.size, 0L);
+        float xRange = this.dataSet.maxX - this.dataSet.minX;
+        this.windowStart = this.dataSet.minX + 0.45F * xRange;
+        this.windowEnd = this.dataSet.minX + 0.55F * xRange;
+        this.dataSet.getLocalMinMaxInYAxis(this.dataSet.minX, this.dataSet.maxX);
+    }
+
+    @Benchmark
+    public float[] localMinMaxInWindow() {
+        return this.dataSet.getLocalMinMaxInYAxis(this.windowStart, this.windowEnd);
+    }
+
+    @Benchmark
+    public float[] localMinMaxInFullRange() {
+        return this.dataSet.getLocalMinMaxInYAxis(this.dataSet.minX, this.dataSet.maxX);
+    }
+
+    @Benchmark
+    public DataSet validatePointsInWindow() {
+        this.dataSet.validatePoints(this.windowStart, this.windowEnd, true);
+        return this.dataSet;
+    }
+
+    @Benchmark
+    public DataSet invalidatePointsOutOfWindow() {
+        this.dataSet.invalidatePointsOut(this.windowStart, this.windowEnd);
+        return this.dataSet;
+    }
+}
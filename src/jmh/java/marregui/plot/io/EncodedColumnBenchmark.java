@@ -0,0 +1,91 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+package marregui.plot.io;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Access to the values of a column kept as a float[], or in each of the encodings of
+ * {@link EncodedColumn}, in order, as when drawing, and at random.
+ *
+ * @author marregui
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EncodedColumnBenchmark {
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"raw", "cadence", "runs", "dictionary"})
+    public String encoding;
+
+    private Points points;
+    private int[] randomIndexes;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0L);
+        float[] values = new float[this.size];
+        for (int i = 0; i < this.size; i++) {
+            switch (this.encoding) {
+                case "cadence":
+                    values[i] = 50000.0F + i;
+                    break;
+                case "runs":
+                    values[i] = 0 == i % 16 ? (float) random.nextGaussian() : values[i - 1];
+                    break;
+                case "dictionary":
+                    values[i] = Math.round(500.0F * random.nextFloat()) / 10000.0F;
+                    break;
+                default:
+                    values[i] = (float) random.nextGaussian();
+            }
+        }
+        this.points = new Points(values, null, 0.0F, 0.0F);
+        this.points.encode(false);
+        this.randomIndexes = new int[this.size];
+        for (int i = 0; i < this.size; i++) {
+            this.randomIndexes[i] = random.nextInt(this.size);
+        }
+    }
+
+    @Benchmark
+    public float sequentialAccess() {
+        float sum = 0.0F;
+        for (int i = 0; i < this.size; i++) {
+            sum += this.points.get(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float randomAccess() {
+        float sum = 0.0F;
+        for (int i : this.randomIndexes) {
+            sum += this.points.get(i);
+        }
+        return sum;
+    }
+}
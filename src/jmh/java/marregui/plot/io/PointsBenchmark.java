@@ -0,0 +1,59 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+package marregui.plot.io;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Growth of {@link Points} as the parser adds points to it, one at a time.
+ *
+ * @author marregui
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PointsBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    @Benchmark
+    public Points addValidPoint() {
+        Points points = new Points(false);
+        for (int i = 0; i < this.size; i++) {
+            points.addValidPoint(i);
+        }
+        return points;
+    }
+
+    @Benchmark
+    public Points addValidAndNonValidPoints() {
+        Points points = new Points(false);
+        for (int i = 0; i < this.size; i++) {
+            if (0 == i % 50) {
+                points.addNonValidPoint();
+            } else {
+                points.addValidPoint(i);
+            }
+        }
+        return points;
+    }
+}
@@ -0,0 +1,96 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Light curves for the benchmarks, shaped like the ones of the datachest: one point per
+ * day in X, a noisy sine with errors in Y, one in fifty points non valid. They are
+ * seeded, so that each run of a benchmark sees the same data.
+ *
+ * @author marregui
+ */
+public final class SyntheticData {
+    public static final String[] BAND_NAMES = {"1.5-3 keV", "3-5 keV", "5-12 keV"};
+    private static final float FIRST_DAY = 50000.0F;
+
+    public static DataSet dataSet(String id, int size, long seed) {
+        return new DataSet(id, xValues(size), yValues(size, seed, true));
+    }
+
+    /**
+     * @return data with the bands of {@link #BAND_NAMES}, which share the X values
+     */
+    public static Data data(int size) {
+        return data(size, true);
+    }
+
+    /**
+     * @return text data file with the data of {@link #data(int)}, all points valid, as
+     * the parser reports each point without value on the console
+     */
+    public static File textFile(int size, File folder) throws Exception {
+        File file = new File(folder, String.format("synthetic-%d.txt", size));
+        DataFilePersister.persist(data(size, false), file);
+        return file;
+    }
+
+    private static Data data(int size, boolean hasNonValidPoints) {
+        Points xValues = xValues(size);
+        Map<String, DataSet> dataSets = new LinkedHashMap<>();
+        for (int i = 0; i < BAND_NAMES.length; i++) {
+            dataSets.put(BAND_NAMES[i], new DataSet(BAND_NAMES[i], xValues, yValues(size, i, hasNonValidPoints)));
+        }
+        return new Data("Synthetic", dataSets);
+    }
+
+    private static Points xValues(int size) {
+        float[] x = new float[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = FIRST_DAY + i;
+        }
+        return new Points(x, null, FIRST_DAY, FIRST_DAY + size - 1);
+    }
+
+    private static Points[] yValues(int size, long seed, boolean hasNonValidPoints) {
+        Random random = new Random(seed);
+        float[] y = new float[size];
+        float[] error = new float[size];
+        long[] validity = new long[(size + Long.SIZE - 1) / Long.SIZE];
+        float minY = Float.POSITIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        float maxError = 0.0F;
+        for (int i = 0; i < size; i++) {
+            y[i] = (float) (10.0 * Math.sin(i / 500.0) + random.nextGaussian());
+            error[i] = 0.5F * random.nextFloat();
+            if (false == hasNonValidPoints || 0 != random.nextInt(50)) {
+                validity[i / Long.SIZE] |= 1L << i;
+            }
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+            maxError = Math.max(maxError, error[i]);
+        }
+        Points[] yValues = new Points[2];
+        yValues[DataFileParser.Y_VALUE_IDX] = new Points(y, validity, minY, maxY);
+        yValues[DataFileParser.Y_ERROR_IDX] = new Points(error, null, 0.0F, maxError);
+        return yValues;
+    }
+}
@@ -0,0 +1,198 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot;
+
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+import marregui.plot.rfs.IOUtils;
+
+/**
+ * Task that does I/O off the event dispatch thread, reports its progress, and hands its
+ * result back to the event dispatch thread, where {@link #succeeded}, {@link #failed} or
+ * {@link #cancelled} are called once the task is done.
+ * <p>
+ * Cancellation is cooperative: {@link #cancel(boolean)} interrupts the thread running the
+ * task, which the I/O loops check between reads. Progress is reported from the task's
+ * thread and delivered to the observers in the event dispatch thread, coalesced so that
+ * they only see the latest progress.
+ *
+ * @param <T> type of the result
+ * @param <V> type of the intermediate results, as in {@link SwingWorker}
+ * @author marregui
+ */
+public abstract class BackgroundTask<T, V> extends SwingWorker<T, V> {
+
+    /**
+     * Amount of work done out of a total, in bytes, with the estimated time left.
+     */
+    public static final class Progress {
+        public final String message;
+        public final long done, total, elapsedMillis;
+
+        private Progress(String message, long done, long total, long elapsedMillis) {
+            this.message = message;
+            this.done = done;
+            this.total = total;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return false when the total is not known
+         */
+        public boolean isDeterminate() {
+            return this.total > 0;
+        }
+
+        /**
+         * @return percentage of the total done, 0 when the total is not known
+         */
+        public int getPercentage() {
+            return this.isDeterminate() ? (int) Math.min(100L, 100L * this.done / this.total) : 0;
+        }
+
+        /**
+         * @return estimated time left, extrapolated from the pace so far, -1 when it cannot be estimated
+         */
+        public long getMillisLeft() {
+            if (false == this.isDeterminate() || this.done <= 0 || this.elapsedMillis <= 0) {
+                return -1L;
+            }
+            return (long) ((double) this.elapsedMillis * (this.total - this.done) / this.done);
+        }
+
+        @Override
+        public String toString() {
+            if (false == this.isDeterminate()) {
+                return String.format("%s: %s", this.message, IOUtils.shortSize(this.done));
+            }
+            long millisLeft = getMillisLeft();
+            return String.format("%s: %s of %s (%d%%)%s",
+                    this.message,
+                    IOUtils.shortSize(this.done),
+                    IOUtils.shortSize(this.total),
+                    getPercentage(),
+                    millisLeft < 0 ? "" : String.format(", %d s left", (millisLeft + 999L) / 1000L));
+        }
+    }
+
+    public interface ProgressObserver {
+        void progressed(Progress progress);
+    }
+
+    private final List<ProgressObserver> observers;
+    private final AtomicReference<Progress> pendingProgress;
+    private String message;
+    private long messageStartMillis;
+
+    protected BackgroundTask() {
+        this.observers = new CopyOnWriteArrayList<>();
+        this.pendingProgress = new AtomicReference<>();
+    }
+
+    public void addProgressObserver(ProgressObserver observer) {
+        this.observers.add(observer);
+    }
+
+    /**
+     * Called for from the task's thread. The time left is estimated from the time since
+     * the first report with the same message, so that each step of a task has its own.
+     *
+     * @param message what the task is doing
+     * @param done    bytes done so far
+     * @param total   total bytes, 0 or less when not known
+     */
+    protected final void reportProgress(String message, long done, long total) {
+        long now = System.currentTimeMillis();
+        if (false == message.equals(this.message)) {
+            this.message = message;
+            this.messageStartMillis = now;
+        }
+        Progress progress = new Progress(message, done, total, now - this.messageStartMillis);
+        if (null == this.pendingProgress.getAndSet(progress)) {
+            SwingUtilities.invokeLater(() -> {
+                Progress latest = this.pendingProgress.getAndSet(null);
+                if (false == isDone()) {
+                    for (ProgressObserver observer : this.observers) {
+                        observer.progressed(latest);
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    protected final void done() {
+        finished();
+        if (isCancelled()) {
+            cancelled();
+            return;
+        }
+        try {
+            succeeded(get());
+        } catch (InterruptedException | CancellationException e) {
+            cancelled();
+        } catch (ExecutionException e) {
+            Throwable cause = null != e.getCause() ? e.getCause() : e;
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException) {
+                cancelled();
+            } else {
+                failed(cause);
+            }
+        }
+    }
+
+    /**
+     * Called for in the event dispatch thread when the task is done, before any of
+     * succeeded, failed or cancelled.
+     */
+    protected void finished() {
+        // no-op
+    }
+
+    /**
+     * Called for in the event dispatch thread with the result of the task.
+     */
+    protected abstract void succeeded(T result);
+
+    /**
+     * Called for in the event dispatch thread when the task failed, shows the error.
+     */
+    protected void failed(Throwable cause) {
+        cause.printStackTrace();
+        JOptionPane.showMessageDialog(
+                null,
+                String.format("Problem: %s", cause.getMessage()),
+                "Error",
+                JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * Called for in the event dispatch thread when the task was cancelled.
+     */
+    protected void cancelled() {
+        // no-op
+    }
+}
@@ -0,0 +1,244 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import marregui.plot.io.ColumnarDataFile;
+import marregui.plot.io.Data;
+import marregui.plot.io.DataFileParser;
+import marregui.plot.io.DataSet;
+import marregui.plot.io.PngEncoder;
+
+/**
+ * Command line entry point that renders the data files of a folder tree into PNG
+ * thumbnails, without a display (java.awt.headless=true). Each file is parsed and
+ * rendered on a pool with a thread per core: its bands are stacked, one above the
+ * other, each drawn by a {@link PlotViewer} into an offscreen image, as they are shown
+ * by {@link SequenceViewer}, and encoded with {@link PngEncoder} in the same thread.
+ * <p>
+ * Thumbnails are written to the output folder with the relative path of their data
+ * file, plus '.png'. The fingerprint of each data file, its size and last modified
+ * time, and the size of the thumbnail are kept in the file {@link #INDEX_FILE_NAME} of
+ * the output folder, so that files that have not changed are not rendered again.
+ * <p>
+ * Usage: BatchRenderer input-folder output-folder [width band-height]
+ *
+ * @author marregui
+ */
+public final class BatchRenderer {
+    public static final int DEFAULT_WIDTH = 800;
+    public static final int DEFAULT_BAND_HEIGHT = 200;
+    public static final String INDEX_FILE_NAME = "thumbnails.properties";
+    private static final String THUMBNAIL_EXTENSION = ".png";
+
+    private final Path inputFolder, outputFolder;
+    private final int width, bandHeight;
+    private final Map<String, String> fingerprints;
+
+    public BatchRenderer(File inputFolder, File outputFolder, int width, int bandHeight) {
+        this.inputFolder = inputFolder.getAbsoluteFile().toPath();
+        this.outputFolder = outputFolder.getAbsoluteFile().toPath();
+        this.width = width;
+        this.bandHeight = bandHeight;
+        this.fingerprints = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Renders the data files of the input folder whose thumbnail is missing or out of date.
+     *
+     * @param threads size of the pool
+     * @return number of thumbnails {rendered, up to date, failed}
+     * @throws Exception when the folders cannot be read/written
+     */
+    public int[] render(int threads) throws Exception {
+        List<Path> dataFiles;
+        try (Stream<Path> paths = Files.walk(this.inputFolder)) {
+            dataFiles = paths
+                    .filter(Files::isRegularFile)
+                    .filter(path -> false == path.getFileName().toString().startsWith("."))
+                    .filter(path -> false == path.startsWith(this.outputFolder))
+                    .filter(path -> false == isCache(path))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        Files.createDirectories(this.outputFolder);
+        loadIndex();
+        AtomicInteger rendered = new AtomicInteger();
+        AtomicInteger upToDate = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>(dataFiles.size());
+            for (Path dataFile : dataFiles) {
+                tasks.add(pool.submit(() -> {
+                    try {
+                        if (renderIfChanged(dataFile)) {
+                            rendered.incrementAndGet();
+                        } else {
+                            upToDate.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        System.err.printf("Could not render %s: %s\n", dataFile, e.getMessage());
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            pool.shutdown();
+            storeIndex();
+        }
+        return new int[]{rendered.get(), upToDate.get(), failed.get()};
+    }
+
+    /**
+     * Columnar caches written beside their text data file are not data files of their own.
+     */
+    private static boolean isCache(Path path) {
+        String name = path.getFileName().toString();
+        return ColumnarDataFile.isColumnarDataFile(path.toFile()) &&
+                Files.exists(path.resolveSibling(name.substring(0, name.length() - ColumnarDataFile.EXTENSION.length())));
+    }
+
+    /**
+     * @return false when the thumbnail is up to date
+     */
+    private boolean renderIfChanged(Path dataFile) throws Exception {
+        String relativePath = this.inputFolder.relativize(dataFile).toString();
+        File thumbnail = this.outputFolder.resolve(relativePath + THUMBNAIL_EXTENSION).toFile();
+        String fingerprint = fingerprint(dataFile.toFile());
+        if (fingerprint.equals(this.fingerprints.get(relativePath)) && thumbnail.exists()) {
+            return false;
+        }
+        Data data = DataFileParser.parse(dataFile.toFile());
+        BufferedImage image = render(data, this.width, this.bandHeight);
+        thumbnail.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(thumbnail))) {
+            PngEncoder.encode(image, out, 1); // the files are rendered in parallel already
+        }
+        this.fingerprints.put(relativePath, fingerprint);
+        return true;
+    }
+
+    private String fingerprint(File dataFile) {
+        return String.format("%x_%x_%dx%d",
+                Long.valueOf(dataFile.length()),
+                Long.valueOf(dataFile.lastModified()),
+                Integer.valueOf(this.width),
+                Integer.valueOf(this.bandHeight));
+    }
+
+    /**
+     * Draws the bands of the data, one above the other, as {@link SequenceViewer} does.
+     *
+     * @param data       the data
+     * @param width      width of the image
+     * @param bandHeight height of each band
+     * @return the image
+     */
+    public static BufferedImage render(Data data, int width, int bandHeight) {
+        BufferedImage image = new BufferedImage(width, bandHeight * Math.max(1, data.pointsPerBand.size()), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        try {
+            g2.setColor(Color.WHITE);
+            g2.fillRect(0, 0, image.getWidth(), image.getHeight());
+            int y = 0;
+            for (Map.Entry<String, DataSet> band : data.pointsPerBand.entrySet()) {
+                PlotViewer plotViewer = new PlotViewer(band.getKey(), null);
+                plotViewer.setBackground(Color.WHITE);
+                plotViewer.setOpaque(true);
+                plotViewer.setDataSet(band.getValue());
+                plotViewer.setSize(width, bandHeight);
+                Graphics2D bandGraphics = (Graphics2D) g2.create(0, y, width, bandHeight);
+                try {
+                    plotViewer.paint(bandGraphics);
+                } finally {
+                    bandGraphics.dispose();
+                }
+                y += bandHeight;
+            }
+        } finally {
+            g2.dispose();
+        }
+        return image;
+    }
+
+    private void loadIndex() {
+        File index = this.outputFolder.resolve(INDEX_FILE_NAME).toFile();
+        if (index.exists()) {
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(index)) {
+                properties.load(in);
+                for (String relativePath : properties.stringPropertyNames()) {
+                    this.fingerprints.put(relativePath, properties.getProperty(relativePath));
+                }
+            } catch (Exception e) {
+                System.err.printf("Ignoring index %s: %s\n", index.getAbsolutePath(), e.getMessage());
+            }
+        }
+    }
+
+    private void storeIndex() {
+        File index = this.outputFolder.resolve(INDEX_FILE_NAME).toFile();
+        Properties properties = new Properties();
+        properties.putAll(this.fingerprints);
+        try (OutputStream out = new FileOutputStream(index)) {
+            properties.store(out, "Fingerprints of the data files: size_lastModified_thumbnailSize");
+        } catch (Exception e) {
+            System.err.printf("Could not write index %s: %s\n", index.getAbsolutePath(), e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 && args.length != 4) {
+            System.err.printf("Usage: %s input-folder output-folder [width band-height]\n", BatchRenderer.class.getName());
+            System.exit(1);
+        }
+        System.setProperty("java.awt.headless", "true");
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WIDTH;
+        int bandHeight = args.length > 2 ? Integer.parseInt(args[3]) : DEFAULT_BAND_HEIGHT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long start = System.currentTimeMillis();
+        int[] counts = new BatchRenderer(new File(args[0]), new File(args[1]), width, bandHeight).render(threads);
+        System.out.printf("Rendered %d thumbnails, %d up to date, %d failed, in %d ms with %d threads\n",
+                counts[0], counts[1], counts[2], System.currentTimeMillis() - start, threads);
+    }
+}
@@ -27,23 +27,76 @@ import java.awt.geom.Rectangle2D;
 import java.util.Timer;
 import java.util.TimerTask;
 
-public class InfiniteProgress extends JFrame {
+/**
+ * Window that shows the progress of a {@link BackgroundTask}: what it is doing, how much
+ * of it is done and the time left, when known, or an animation otherwise, and a button
+ * to cancel it. It closes itself when the task is done.
+ *
+ * @author marregui
+ */
+public class InfiniteProgress extends JFrame implements BackgroundTask.ProgressObserver {
     public static InfiniteProgress get() {
         return new InfiniteProgress();
     }
 
+    /**
+     * @param task    task to follow, before it is executed
+     * @param message shown until the task reports its progress
+     * @return the progress window, visible
+     */
+    public static InfiniteProgress showFor(BackgroundTask<?, ?> task, String message) {
+        InfiniteProgress progress = get();
+        progress.messageLabel.setText(message);
+        progress.cancelButton.addActionListener(e -> task.cancel(true));
+        progress.cancelButton.setVisible(true);
+        task.addProgressObserver(progress);
+        task.addPropertyChangeListener(e -> {
+            if ("state".equals(e.getPropertyName()) && SwingWorker.StateValue.DONE == e.getNewValue()) {
+                progress.stopAnimation();
+            }
+        });
+        progress.startAnimation();
+        return progress;
+    }
+
     private static int SIDE = 100;
+    private static int WIDTH = 480;
 
     private InfiniteProgressPanel progressPanel;
+    private JLabel messageLabel;
+    private JProgressBar progressBar;
+    private JButton cancelButton;
 
     private InfiniteProgress() {
         this.progressPanel = new InfiniteProgressPanel();
+        this.progressPanel.setPreferredSize(new Dimension(SIDE, SIDE));
+        this.messageLabel = new JLabel();
+        this.progressBar = new JProgressBar(0, 100);
+        this.progressBar.setIndeterminate(true);
+        this.cancelButton = new JButton("Cancel");
+        this.cancelButton.setVisible(false);
+        JPanel buttonsPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonsPanel.add(this.cancelButton);
+        JPanel statusPanel = new JPanel(new GridLayout(3, 1));
+        statusPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        statusPanel.add(this.messageLabel);
+        statusPanel.add(this.progressBar);
+        statusPanel.add(buttonsPanel);
         setAlwaysOnTop(true);
         setUndecorated(true);
-        setSize(SIDE, SIDE);
+        setSize(WIDTH, SIDE);
         Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
-        setLocation((screen.width - SIDE) / 2, (screen.height - SIDE) / 2);
-        add(this.progressPanel);
+        setLocation((screen.width - WIDTH) / 2, (screen.height - SIDE) / 2);
+        setLayout(new BorderLayout());
+        add(this.progressPanel, BorderLayout.WEST);
+        add(statusPanel, BorderLayout.CENTER);
+    }
+
+    @Override
+    public void progressed(BackgroundTask.Progress progress) {
+        this.messageLabel.setText(progress.toString());
+        this.progressBar.setIndeterminate(false == progress.isDeterminate());
+        this.progressBar.setValue(progress.getPercentage());
     }
 
     public void startAnimation() {
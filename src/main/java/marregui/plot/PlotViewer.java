@@ -16,6 +16,7 @@
 
 package marregui.plot;
 
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.BorderLayout;
 import java.awt.Color;
@@ -24,7 +25,9 @@ import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Insets;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Stroke;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
@@ -37,10 +40,15 @@ import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
 import java.util.Stack;
+import java.util.function.Consumer;
 
+import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
@@ -48,12 +56,17 @@ import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.JRadioButtonMenuItem;
 
 import marregui.plot.ModeSelectionToolBar.Mode;
 import marregui.plot.io.Data;
 import marregui.plot.io.DataFileParser;
 import marregui.plot.io.DataSet;
+import marregui.plot.io.DecimationPyramid;
+import marregui.plot.io.DecimationPyramid.Column;
 import marregui.plot.io.Points;
+import marregui.plot.io.RangeStatistics;
+import marregui.plot.io.ValidityHistory;
 import marregui.plot.range.RangeDialog;
 import marregui.plot.range.RangeDialog.RangeValues;
 import marregui.plot.range.RangeDialog.RangeValuesObserver;
@@ -66,7 +79,10 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
     private static final Color UNITS_COLOR = new Color(105, 105, 105);
     private static final Color ERROR_BARS_COLOR = new Color(0x770000);
     private static final Color INVALID_POINT_COLOR = new Color(105, 105, 105);
+    private static final Color REBINNED_COLOR = new Color(0xCC5500);
     private static final float[] DASHED_LINE = new float[]{1, 8};
+    private static final BasicStroke DASHED_STROKE = new BasicStroke(
+            1.0F, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 10.0F, DASHED_LINE, 0);
     private static final int X_RANGE_NUMBER_OF_TICKS = 15;
     private static final int Y_RANGE_NUMBER_OF_TICKS = 10;
     private static final int INSET_TOP = 10;
@@ -78,8 +94,14 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
     );
     private static final float X_AXIS_EXTRA_VISIBILITY_DELTA = 0.01F;
     private static final float Y_AXIS_EXTRA_VISIBILITY_DELTA = 0.04F;
-
-    private DataSet dataSet;
+    private static final int DECIMATION_POINTS_PER_COLUMN = 4;
+    private static final int DATA_LAYER_DATA_SET_IDX = 4;
+    /**
+     * Bin widths offered to rebin the data sets, in units of X
+     */
+    public static final float[] BIN_WIDTHS = {1.0F, 5.0F, 10.0F, 30.0F};
+
+    private DataSet dataSet, previousDataSet;
     private String xAxisLabel;
     private AxisLabels xTickLabels, yTickLabels;
     private PlotRange plotRange;
@@ -87,14 +109,21 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
     private boolean selectionAreaFirstPointIsInsidePlotArea, selectionOriginatesInOtherPlot;
     private Stack<PlotRange> zoomStack;
     private int clickedMouseButton, plotHeight, plotWidth;
-    private float xRange, yRange, xScale, yScale, pointSizeFactor;
-    private AffineTransform pointTransformForZoom;
+    private float xRange, yRange, xScale, yScale, pointSizeFactor, binWidth;
+    private AffineTransform plotTransform, pointTransformForZoom;
+    private BasicStroke plotStroke;
+    private final Layer axesLayer, dataLayer;
     private boolean hasTickLines, isVisibible, hasErrorBars, hasBaseLine, showNonValidPoints;
     private JCheckBoxMenuItem isVisibibleMenuItem, hasErrorBarsMenuItem, hasBaseLineMenuItem, hasTickLinesMenuItem, showNonValidPointsMenuItem;
-    private JMenu plotMenu;
+    private JMenu plotMenu, rebinMenu;
+    private JRadioButtonMenuItem[] binWidthMenuItems;
     private JPopupMenu plotPopupMenu;
     private JMenuItem yDataBandNameMenuItem, yDataRangeMenuItem;
     private SequenceViewer multiPlotViewer;
+    private RangeStatistics zoomStatistics;
+    private DataSet zoomStatisticsDataSet;
+    private int zoomStatisticsModificationCount;
+    private float zoomStatisticsMinX, zoomStatisticsMaxX;
     private RangeSlider horizontalRangeSlider, verticalRangeSlider;
 
 
@@ -106,6 +135,8 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         this.selectionAreaStartPoint = new Point2D.Float(0, 0);
         this.selectionAreaEndPoint = new Point2D.Float(0, 0);
         this.zoomStack = new Stack<PlotRange>();
+        this.axesLayer = new Layer(BufferedImage.TYPE_INT_RGB);
+        this.dataLayer = new Layer(BufferedImage.TYPE_INT_ARGB);
         this.clickedMouseButton = MouseEvent.BUTTON1;
         this.selectionOriginatesInOtherPlot = false;
         createPlotMenu();
@@ -170,8 +201,15 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         validateAllPointsMenuItem.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                PlotViewer.this.dataSet.validateAllPoints(true);
-                repaint();
+                if (canChangeValidity()) {
+                    ValidityHistory history = PlotViewer.this.dataSet.getValidityHistory();
+                    if (null != history) {
+                        history.beginEdit("Validate all points");
+                    }
+                    PlotViewer.this.dataSet.validateAllPoints(true);
+                    validityEdited(history);
+                    repaint();
+                }
             }
         });
         this.plotMenu.add(validateAllPointsMenuItem);
@@ -233,6 +271,20 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         });
         this.plotMenu.add(this.showNonValidPointsMenuItem);
 
+        // Rebinned curve, drawn over the data
+        this.rebinMenu = new JMenu("Rebin X");
+        ButtonGroup binWidthGroup = new ButtonGroup();
+        this.binWidthMenuItems = new JRadioButtonMenuItem[BIN_WIDTHS.length + 1];
+        for (int i = 0; i < this.binWidthMenuItems.length; i++) {
+            float width = 0 == i ? 0.0F : BIN_WIDTHS[i - 1];
+            String text = 0 == i ? "No rebinning" : String.format("Bins of %s", Float.toString(width));
+            this.binWidthMenuItems[i] = new JRadioButtonMenuItem(text, 0 == i);
+            this.binWidthMenuItems[i].addActionListener(e -> setBinWidth(width));
+            binWidthGroup.add(this.binWidthMenuItems[i]);
+            this.rebinMenu.add(this.binWidthMenuItems[i]);
+        }
+        this.plotMenu.add(this.rebinMenu);
+
         this.plotPopupMenu = this.plotMenu.getPopupMenu();
     }
 
@@ -315,6 +367,21 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         toggleBaseLineMenuItem(!this.hasBaseLine);
     }
 
+    /**
+     * @param binWidth width of the bins of X the data set is rebinned to, drawn over it,
+     *                 0 for none, see {@link DataSet#rebin(float)}
+     */
+    public void setBinWidth(float binWidth) {
+        this.binWidth = binWidth;
+        for (int i = 0; i < this.binWidthMenuItems.length; i++) {
+            float width = 0 == i ? 0.0F : BIN_WIDTHS[i - 1];
+            if (width == binWidth) {
+                this.binWidthMenuItems[i].setSelected(true);
+            }
+        }
+        repaint();
+    }
+
     @Override
     public boolean isVisible() {
         return this.isVisibible;
@@ -331,42 +398,203 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
 
     public void setDataSet(DataSet dataSet) {
         this.dataSet = dataSet;
+        this.previousDataSet = null;
+        updateDataSetMenuItems();
+
+        // Plot ranges
+        resetPlotRanges();
+    }
+
+    /**
+     * Replaces the data set with a bigger version of it, as the file is being loaded or
+     * followed. The plot follows the data, extending its ranges, unless it is zoomed in.
+     * The indexes of the data set are carried over, and when the ranges of the plot do
+     * not change only the points added are drawn.
+     */
+    public void updateDataSet(DataSet dataSet) {
+        if (null != this.dataSet) {
+            dataSet.extendIndexesOf(this.dataSet);
+        }
+        this.previousDataSet = this.dataSet;
+        this.dataSet = dataSet;
+        updateDataSetMenuItems();
+        boolean showsAllData = this.zoomStack.isEmpty() &&
+                (null == this.horizontalRangeSlider || this.horizontalRangeSlider.isFullyStretched());
+        if (showsAllData) {
+            resetPlotRanges();
+        } else {
+            adjustHorizontalRangeSlider();
+        }
+        repaint();
+    }
+
+    private void updateDataSetMenuItems() {
         this.plotMenu.setText(this.dataSet.id);
         this.yDataBandNameMenuItem.setText(String.format("Band name: %s", this.dataSet.id));
         this.yDataRangeMenuItem.setText(String.format(
                 "Data range Y: [%s, %s]",
                 AxisLabels.formatForYAxis(this.dataSet.minY), AxisLabels.formatForYAxis(this.dataSet.maxY)));
-
-        // Plot ranges
-        resetPlotRanges();
+        this.rebinMenu.setEnabled(this.dataSet.xValues.isNonDecreasing());
     }
 
+    /**
+     * @return delta added to both ends of [min, max] so that the points at them are
+     * visible, a fraction of the value when all the points have the same value, so that
+     * the axis still has a range
+     */
     private static float getAxisExtraVisibilityDelta(float min, float max, float factor) {
-        return Math.abs(max - min) * factor;
+        if (max > min) {
+            return (max - min) * factor;
+        }
+        return (0.0F == min ? 1.0F : Math.abs(min)) * factor;
     }
 
     private float getXAxisExtraVisibilityDelta() {
         return (null != this.dataSet) ? getAxisExtraVisibilityDelta(this.dataSet.minX, this.dataSet.maxX, X_AXIS_EXTRA_VISIBILITY_DELTA) : 0.0F;
     }
 
-    private float getYAxisExtraVisibilityDelta() {
-        return (null != this.dataSet) ? getAxisExtraVisibilityDelta(this.dataSet.minY, this.dataSet.maxY, Y_AXIS_EXTRA_VISIBILITY_DELTA) : 0.0F;
+    /**
+     * Sets the Y range to [min, max] plus the extra visibility delta. Data sets without
+     * valid points have min above max, their range is set about 0.
+     */
+    private void setYRangeAround(float min, float max) {
+        if (min > max) {
+            min = max = 0.0F;
+        }
+        float deltaY = getAxisExtraVisibilityDelta(min, max, Y_AXIS_EXTRA_VISIBILITY_DELTA);
+        this.plotRange.min.y = min - deltaY;
+        this.plotRange.max.y = max + deltaY;
     }
 
     private void resetPlotRanges() {
         if (null != this.dataSet) {
             float xdelta = getXAxisExtraVisibilityDelta();
-            float ydelta = getYAxisExtraVisibilityDelta();
             this.plotRange.min.x = this.dataSet.minX - xdelta;
             this.plotRange.max.x = this.dataSet.maxX + xdelta;
-            this.plotRange.min.y = this.dataSet.minY - ydelta;
-            this.plotRange.max.y = this.dataSet.maxY + ydelta;
+            setYRangeAround(this.dataSet.minY, this.dataSet.maxY);
         }
     }
 
+    /**
+     * The plot is painted in three layers: the axes (background, ticks, labels and grid),
+     * the data set, and the selection overlay. The first two are cached in images, which
+     * are redrawn only when any of the values they are drawn from changes, so that
+     * dragging a selection only draws the overlay on top of them.
+     */
     @Override
     public void paint(Graphics g) {
         Graphics2D g2 = (Graphics2D) g;
+        super.paintComponent(g2);
+        Dimension size = getSize();
+        updatePlotGeometry(size);
+        AffineTransform deviceTransform = g2.getDeviceConfiguration().getDefaultTransform();
+        Object[] axesLayerKey = {
+                size, deviceTransform, this.plotRange.min.clone(), this.plotRange.max.clone(),
+                this.hasTickLines, this.xAxisLabel, null != this.dataSet, getFont()
+        };
+        g2.drawImage(this.axesLayer.get(axesLayerKey, size, deviceTransform, this::drawCanvasXYAxisAndTicks),
+                0, 0, size.width, size.height, null);
+        if (null != this.dataSet) {
+            Object[] dataLayerKey = {
+                    size, deviceTransform, this.plotRange.min.clone(), this.plotRange.max.clone(),
+                    this.dataSet, this.dataSet.getModificationCount(), this.dataSet.getColor(),
+                    this.hasErrorBars, this.hasBaseLine, this.showNonValidPoints, this.pointSizeFactor, this.binWidth
+            };
+            BufferedImage dataImage;
+            if (null != this.previousDataSet && 0.0F == this.binWidth &&
+                    this.dataLayer.differsOnlyIn(dataLayerKey, DATA_LAYER_DATA_SET_IDX, this.previousDataSet)) {
+                int firstAddedPoint = this.previousDataSet.getSize();
+                dataImage = this.dataLayer.drawOver(dataLayerKey, deviceTransform, layer -> drawDataLayer(layer, firstAddedPoint));
+            } else {
+                dataImage = this.dataLayer.get(dataLayerKey, size, deviceTransform, layer -> drawDataLayer(layer, 0));
+            }
+            g2.drawImage(dataImage, 0, 0, size.width, size.height, null);
+        }
+        setRenderingHints(g2);
+        Graphics2D statistics = (Graphics2D) g2.create();
+        try {
+            drawZoomStatistics(statistics);
+        } finally {
+            statistics.dispose();
+        }
+        toPlotCoordinates(g2);
+        drawZoomRectangle(g2);
+    }
+
+    /**
+     * Paints the axes and the data straight onto the graphics, without the images of the
+     * layers, which are as big as the plot, so that plots bigger than the heap could hold
+     * them are painted a tile at a time: the graphics translated and clipped to the tile.
+     *
+     * @param g2 the graphics
+     */
+    public void paintUncached(Graphics2D g2) {
+        updatePlotGeometry(getSize());
+        Graphics2D axes = (Graphics2D) g2.create();
+        try {
+            setRenderingHints(axes);
+            drawCanvasXYAxisAndTicks(axes);
+        } finally {
+            axes.dispose();
+        }
+        if (null != this.dataSet) {
+            Graphics2D data = (Graphics2D) g2.create();
+            try {
+                setRenderingHints(data);
+                drawDataLayer(data, 0);
+            } finally {
+                data.dispose();
+            }
+            Graphics2D statistics = (Graphics2D) g2.create();
+            try {
+                setRenderingHints(statistics);
+                drawZoomStatistics(statistics);
+            } finally {
+                statistics.dispose();
+            }
+        }
+    }
+
+    /**
+     * @param width  width of the copy
+     * @param height height of the copy
+     * @return a plot of the given size that shows the same data, with the same ranges and
+     * options, to be painted offscreen
+     */
+    public PlotViewer copy(int width, int height) {
+        PlotViewer copy = new PlotViewer(this.xAxisLabel, null);
+        copy.setBackground(getBackground());
+        copy.setOpaque(isOpaque());
+        copy.setFont(getFont());
+        if (null != this.dataSet) {
+            copy.setDataSet(this.dataSet);
+        }
+        copy.plotRange.setMin(this.plotRange.min.x, this.plotRange.min.y);
+        copy.plotRange.setMax(this.plotRange.max.x, this.plotRange.max.y);
+        copy.hasTickLines = this.hasTickLines;
+        copy.hasErrorBars = this.hasErrorBars;
+        copy.hasBaseLine = this.hasBaseLine;
+        copy.showNonValidPoints = this.showNonValidPoints;
+        copy.pointSizeFactor = this.pointSizeFactor;
+        copy.binWidth = this.binWidth;
+        copy.setSize(width, height);
+        return copy;
+    }
+
+    /**
+     * Replaces the data set with a frozen copy of it, see {@link DataSet#frozenCopy()}, so
+     * that this plot, and copies of it, can be painted by other threads while the data set
+     * it was copied from is edited. The data set rebinned to the bin width is resolved
+     * here too, so that those threads only read it.
+     */
+    void freezeDataSet() {
+        if (null != this.dataSet) {
+            this.dataSet = this.dataSet.frozenCopy();
+            this.dataSet.rebin(this.binWidth);
+        }
+    }
+
+    private static void setRenderingHints(Graphics2D g2) {
         g2.setRenderingHint(
                 RenderingHints.KEY_TEXT_ANTIALIASING,
                 RenderingHints.VALUE_TEXT_ANTIALIAS_ON
@@ -375,19 +603,103 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
                 RenderingHints.KEY_RENDERING,
                 RenderingHints.VALUE_RENDER_SPEED
         );
-        super.paintComponent(g2);
-        drawCanvasXYAxisAndTicks(g2);
-        drawCurve(g2);
-        drawZoomRectangle(g2);
     }
 
-    private void drawZoomRectangle(Graphics2D g2) {
+    /**
+     * Image of one of the layers of the plot, drawn at the resolution of the device. It is
+     * redrawn only when the values it is drawn from, its key, change.
+     */
+    private static class Layer {
+        private final int imageType;
+        private BufferedImage image;
+        private Object[] key;
+
+        private Layer(int imageType) {
+            this.imageType = imageType;
+        }
+
+        private BufferedImage get(Object[] key, Dimension size, AffineTransform deviceTransform, Consumer<Graphics2D> painter) {
+            if (null == this.image || false == Arrays.equals(this.key, key)) {
+                int width = Math.max(1, (int) Math.ceil(size.width * deviceTransform.getScaleX()));
+                int height = Math.max(1, (int) Math.ceil(size.height * deviceTransform.getScaleY()));
+                if (null == this.image || this.image.getWidth() != width || this.image.getHeight() != height) {
+                    this.image = new BufferedImage(width, height, this.imageType);
+                }
+                Graphics2D g2 = this.image.createGraphics();
+                try {
+                    g2.setComposite(AlphaComposite.Clear);
+                    g2.fillRect(0, 0, width, height);
+                    g2.setComposite(AlphaComposite.SrcOver);
+                    g2.scale(deviceTransform.getScaleX(), deviceTransform.getScaleY());
+                    setRenderingHints(g2);
+                    painter.accept(g2);
+                } finally {
+                    g2.dispose();
+                }
+                this.key = key;
+            }
+            return this.image;
+        }
+
+        /**
+         * @return true when the image was drawn for a key that only differs from this one
+         * in the value at idx, which was the given value
+         */
+        private boolean differsOnlyIn(Object[] key, int idx, Object value) {
+            if (null == this.image || null == this.key || this.key.length != key.length || this.key[idx] != value) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (i != idx && false == Objects.equals(this.key[i], key[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Draws on top of the image as it is, which is then up to date for the key.
+         */
+        private BufferedImage drawOver(Object[] key, AffineTransform deviceTransform, Consumer<Graphics2D> painter) {
+            Graphics2D g2 = this.image.createGraphics();
+            try {
+                g2.scale(deviceTransform.getScaleX(), deviceTransform.getScaleY());
+                setRenderingHints(g2);
+                painter.accept(g2);
+            } finally {
+                g2.dispose();
+            }
+            this.key = key;
+            return this.image;
+        }
+    }
 
+    /**
+     * @param firstPoint points before it are already drawn, 0 to draw the data set
+     */
+    private void drawDataLayer(Graphics2D g2, int firstPoint) {
+        g2.setFont(getFont());
+        toPlotCoordinates(g2);
+        drawCurve(g2, firstPoint);
+        drawRebinnedCurve(g2);
+    }
+
+    /**
+     * Transforms the graphics from component coordinates to plot coordinates, clipped to
+     * the plotting area.
+     */
+    private void toPlotCoordinates(Graphics2D g2) {
+        g2.transform(this.plotTransform);
+        g2.clip(new Rectangle2D.Float(this.plotRange.min.x, this.plotRange.min.y, this.xRange, this.yRange));
+        g2.setStroke(this.plotStroke);
+    }
+
+    private void drawZoomRectangle(Graphics2D g2) {
         if (false == this.selectionAreaStartPoint.equals(this.selectionAreaEndPoint)) {
             g2.setColor(Color.GREEN);
             float startx = this.selectionAreaStartPoint.x;
             float endx = this.selectionAreaEndPoint.x;
-            float y = this.selectionOriginatesInOtherPlot ? this.plotRange.min.y + (this.yRange / 2.0F) : this.selectionAreaEndPoint.y;
+            float y = getZoomRectangleY();
             float len = 2.0F / this.yScale;
             g2.draw(new Line2D.Float(startx, y - len, startx, y + len));
             g2.draw(new Line2D.Float(startx, y, endx, y));
@@ -395,45 +707,89 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         }
     }
 
-    private void drawCurve(Graphics2D g2) {
+    private float getZoomRectangleY() {
+        return this.selectionOriginatesInOtherPlot ? this.plotRange.min.y + (this.yRange / 2.0F) : this.selectionAreaEndPoint.y;
+    }
+
+    /**
+     * @return area of the component covered by the zoom rectangle, empty when there is no selection
+     */
+    private Rectangle getZoomRectangleBounds() {
+        if (this.selectionAreaStartPoint.equals(this.selectionAreaEndPoint) || null == this.plotTransform) {
+            return new Rectangle();
+        }
+        float y = getZoomRectangleY();
+        float len = 2.0F / this.yScale;
+        Rectangle2D.Float plotBounds = new Rectangle2D.Float(this.selectionAreaStartPoint.x, y - len, 0.0F, 0.0F);
+        plotBounds.add(this.selectionAreaEndPoint.x, y + len);
+        Rectangle bounds = this.plotTransform.createTransformedShape(plotBounds).getBounds();
+        bounds.grow(2, 2);
+        return bounds;
+    }
+
+    /**
+     * Curves with more points than DECIMATION_POINTS_PER_COLUMN per pixel column of the plot
+     * are drawn from their level of detail, when their X values are sorted. Pixel columns
+     * with more points than that are drawn as the envelope of their points: a line joining
+     * the min and max, with the markers of the first, last, min and max points (M4), one
+     * line for the error bars and the M4 path for the base line. Other columns are drawn
+     * point by point.
+     */
+    private void drawCurve(Graphics2D g2, int firstPoint) {
         if (null != this.dataSet) {
-            // Error bars
-            Points x = this.dataSet.xValues;
-            Points y = this.dataSet.yValues;
-            Points error = this.dataSet.yError;
             float xTick = this.pointSizeFactor / this.xScale;
             float yTick = this.pointSizeFactor / this.yScale;
-            float xPointWidth = xTick * 2.0F;
-            float yPointWidth = yTick * 2.0F;
-
-            GeneralPath path = new GeneralPath(GeneralPath.WIND_NON_ZERO, dataSet.getSize());
-            boolean fistPointFound = false;
-            for (int i = 0; i < this.dataSet.getSize(); i++) {
-                // Error tick
-                if (this.hasErrorBars & (this.dataSet.isValid(i) || this.showNonValidPoints)) {
-                    g2.setColor(this.dataSet.isValid(i) ? ERROR_BARS_COLOR : INVALID_POINT_COLOR);
-                    float y1 = y.get(i) - error.get(i); // Bottom
-                    float y2 = y.get(i) + error.get(i); // Up
-                    g2.draw(new Line2D.Float(x.get(i), y1, x.get(i), y2));
+            int from = 0;
+            int to = this.dataSet.getSize();
+            Points x = this.dataSet.xValues;
+            if (x.isNonDecreasing()) {
+                // Points whose marker falls within the plot, plus the closest valid point on
+                // each side, which the base line joins to the points within the plot
+                from = x.indexOfFirstAtOrAbove(this.plotRange.min.x - xTick);
+                to = x.indexOfFirstAbove(this.plotRange.max.x + xTick);
+                while (from > 0) {
+                    from--;
+                    if (this.dataSet.isValid(from)) {
+                        break;
+                    }
                 }
-
-                g2.setColor(this.dataSet.isValid(i) ? this.dataSet.getColor() : INVALID_POINT_COLOR);
-
-                if (this.dataSet.isValid(i)) {
-                    if (this.hasBaseLine) {
-                        // Point
-                        if (false == fistPointFound) {
-                            path.moveTo(x.get(i), y.get(i));
-                            fistPointFound = true;
-                        } else {
-                            path.lineTo(x.get(i), y.get(i));
-                        }
+                while (to < this.dataSet.getSize()) {
+                    to++;
+                    if (this.dataSet.isValid(to - 1)) {
+                        break;
                     }
                 }
-
-                // The point
-                if (this.dataSet.isValid(i) || this.showNonValidPoints) {
-                    g2.fill(new Ellipse2D.Float(x.get(i) - xTick, y.get(i) - yTick, xPointWidth, yPointWidth));
+            }
+            if (firstPoint > 0) {
+                // Points added, plus the last valid point drawn, which the base line joins them to
+                int start = Math.min(firstPoint, this.dataSet.getSize());
+                while (start > 0) {
+                    start--;
+                    if (this.dataSet.isValid(start)) {
+                        break;
+                    }
+                }
+                from = Math.max(from, start);
+                to = Math.max(from, to);
+            }
+            DecimationPyramid decimationPyramid = null;
+            if (to - from > DECIMATION_POINTS_PER_COLUMN * this.plotWidth) {
+                decimationPyramid = this.dataSet.getDecimationPyramid();
+            }
+            GeneralPath path;
+            if (null != decimationPyramid) {
+                path = new GeneralPath(GeneralPath.WIND_NON_ZERO, 4 * Math.max(1, this.plotWidth));
+                decimationPyramid.decimate(
+                        from,
+                        to,
+                        this.plotRange.min.x,
+                        1.0F / this.xScale,
+                        this.plotWidth,
+                        column -> drawColumn(g2, path, column, xTick, yTick));
+            } else {
+                path = new GeneralPath(GeneralPath.WIND_NON_ZERO, Math.max(1, to - from));
+                for (int i = from; i < to; i++) {
+                    drawPoint(g2, path, i, xTick, yTick);
                 }
             }
 
@@ -445,8 +801,132 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         }
     }
 
-    private void drawCanvasXYAxisAndTicks(Graphics2D g2) {
-        Dimension windowDimension = getSize();
+    /**
+     * The data set rebinned to the bin width, over the curve: the error weighted mean of
+     * each bin, with its error bar, joined by a line. When there are more bins within the
+     * plot than pixel columns only the line is drawn.
+     */
+    private void drawRebinnedCurve(Graphics2D g2) {
+        DataSet rebinned = null != this.dataSet ? this.dataSet.rebin(this.binWidth) : null;
+        if (null == rebinned || 0 == rebinned.getSize()) {
+            return;
+        }
+        float xTick = this.pointSizeFactor / this.xScale;
+        float yTick = this.pointSizeFactor / this.yScale;
+        Points x = rebinned.xValues;
+        Points y = rebinned.yValues;
+        Points error = rebinned.yError;
+        // Bins within the plot, plus one on each side, which the line joins them to
+        int from = Math.max(0, x.indexOfFirstAtOrAbove(this.plotRange.min.x) - 1);
+        int to = Math.min(rebinned.getSize(), x.indexOfFirstAbove(this.plotRange.max.x) + 1);
+        boolean hasMarkers = to - from <= this.plotWidth;
+        GeneralPath path = new GeneralPath(GeneralPath.WIND_NON_ZERO, Math.max(1, to - from));
+        g2.setColor(REBINNED_COLOR);
+        for (int i = from; i < to; i++) {
+            float px = x.get(i);
+            float py = y.get(i);
+            addToPath(path, px, py);
+            if (hasMarkers) {
+                float e = error.get(i);
+                g2.draw(new Line2D.Float(px, py - e, px, py + e));
+                g2.fill(new Rectangle2D.Float(px - xTick, py - yTick, xTick * 2.0F, yTick * 2.0F));
+            }
+        }
+        g2.draw(path);
+    }
+
+    private void drawPoint(Graphics2D g2, GeneralPath path, int i, float xTick, float yTick) {
+        Points x = this.dataSet.xValues;
+        Points y = this.dataSet.yValues;
+        Points error = this.dataSet.yError;
+
+        // Error tick
+        if (this.hasErrorBars & (this.dataSet.isValid(i) || this.showNonValidPoints)) {
+            g2.setColor(this.dataSet.isValid(i) ? ERROR_BARS_COLOR : INVALID_POINT_COLOR);
+            float y1 = y.get(i) - error.get(i); // Bottom
+            float y2 = y.get(i) + error.get(i); // Up
+            g2.draw(new Line2D.Float(x.get(i), y1, x.get(i), y2));
+        }
+
+        g2.setColor(this.dataSet.isValid(i) ? this.dataSet.getColor() : INVALID_POINT_COLOR);
+
+        if (this.dataSet.isValid(i)) {
+            if (this.hasBaseLine) {
+                // Point
+                addToPath(path, x.get(i), y.get(i));
+            }
+        }
+
+        // The point
+        if (this.dataSet.isValid(i) || this.showNonValidPoints) {
+            g2.fill(new Ellipse2D.Float(x.get(i) - xTick, y.get(i) - yTick, xTick * 2.0F, yTick * 2.0F));
+        }
+    }
+
+    private void drawColumn(Graphics2D g2, GeneralPath path, Column column, float xTick, float yTick) {
+        if (column.to - column.from <= DECIMATION_POINTS_PER_COLUMN) {
+            for (int i = column.from; i < column.to; i++) {
+                drawPoint(g2, path, i, xTick, yTick);
+            }
+            return;
+        }
+        Points x = this.dataSet.xValues;
+        Points y = this.dataSet.yValues;
+        boolean drawsNonValidPoints = this.showNonValidPoints && column.hasNonValidPoints();
+        if (column.isVisible) {
+            float startx = x.get(column.from);
+
+            // Error ticks
+            if (this.hasErrorBars) {
+                if (drawsNonValidPoints) {
+                    g2.setColor(INVALID_POINT_COLOR);
+                    g2.draw(new Line2D.Float(startx, column.invalidMinErrorY, startx, column.invalidMaxErrorY));
+                }
+                if (column.hasValidPoints()) {
+                    g2.setColor(ERROR_BARS_COLOR);
+                    g2.draw(new Line2D.Float(startx, column.minErrorY, startx, column.maxErrorY));
+                }
+            }
+
+            // The points, the extremes of the column joined by a line
+            if (drawsNonValidPoints) {
+                g2.setColor(INVALID_POINT_COLOR);
+                g2.draw(new Line2D.Float(startx, column.invalidMinY, startx, column.invalidMaxY));
+                g2.fill(new Ellipse2D.Float(startx - xTick, column.invalidMinY - yTick, xTick * 2.0F, yTick * 2.0F));
+                g2.fill(new Ellipse2D.Float(startx - xTick, column.invalidMaxY - yTick, xTick * 2.0F, yTick * 2.0F));
+            }
+            if (column.hasValidPoints()) {
+                g2.setColor(this.dataSet.getColor());
+                g2.draw(new Line2D.Float(startx, column.minY, startx, column.maxY));
+                g2.fill(new Ellipse2D.Float(startx - xTick, column.minY - yTick, xTick * 2.0F, yTick * 2.0F));
+                g2.fill(new Ellipse2D.Float(startx - xTick, column.maxY - yTick, xTick * 2.0F, yTick * 2.0F));
+                for (int i : new int[]{column.first, column.last}) {
+                    g2.fill(new Ellipse2D.Float(x.get(i) - xTick, y.get(i) - yTick, xTick * 2.0F, yTick * 2.0F));
+                }
+            }
+        }
+
+        // Point, only the first and last are needed to join the columns outside of the plot
+        if (this.hasBaseLine && column.hasValidPoints()) {
+            float firstx = x.get(column.first);
+            addToPath(path, firstx, y.get(column.first));
+            if (column.isVisible) {
+                path.lineTo(firstx, column.minY);
+                path.lineTo(firstx, column.maxY);
+            }
+            path.lineTo(x.get(column.last), y.get(column.last));
+        }
+    }
+
+    private static void addToPath(GeneralPath path, float x, float y) {
+        if (null == path.getCurrentPoint()) {
+            path.moveTo(x, y);
+        } else {
+            path.lineTo(x, y);
+        }
+    }
+
+    private void updatePlotGeometry(Dimension windowDimension) {
         this.plotWidth = windowDimension.width - (PLOT_INSETS.left + PLOT_INSETS.right);
         this.plotHeight = windowDimension.height - (PLOT_INSETS.top + PLOT_INSETS.bottom);
         if (this.plotRange.isUndefined()) {
@@ -459,6 +939,28 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         this.xScale = this.plotWidth / this.xRange;
         this.yScale = this.plotHeight / this.yRange;
 
+        // Shift coordinate centre to bottom-left corner of the internal rectangle and
+        // scale the coordinate system to match plot coordinates
+        this.plotTransform = AffineTransform.getTranslateInstance(PLOT_INSETS.left, windowDimension.height - PLOT_INSETS.bottom);
+        this.plotTransform.scale(this.xScale, -1.0F * this.yScale);
+        this.plotTransform.translate(-1.0F * this.plotRange.min.x, -1.0F * this.plotRange.min.y);
+        try {
+            this.pointTransformForZoom = this.plotTransform.createInverse();
+        } catch (NoninvertibleTransformException ex) {
+            System.err.println(ex.getMessage());
+        }
+
+        // Stroke for curve and zoom
+        float strokeWidth = Math.abs(1.0F / (100.0F * Math.max(this.xScale, this.yScale)));
+        if (null == this.plotStroke || strokeWidth != this.plotStroke.getLineWidth()) {
+            this.plotStroke = new BasicStroke(strokeWidth);
+        }
+    }
+
+    private void drawCanvasXYAxisAndTicks(Graphics2D g2) {
+        Dimension windowDimension = getSize();
+        g2.setFont(getFont());
+
         // Fill background and draw border around plot area.
         g2.setColor(Color.WHITE);
         g2.fillRect(0, 0, windowDimension.width, windowDimension.height);
@@ -472,24 +974,6 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         drawTicksX(g2);
         drawTicksY(g2);
         drawAxisLabelsAndUnits(g2);
-
-        // Scale the coordinate system to match plot coordinates
-        this.pointTransformForZoom = g2.getTransform();
-        this.pointTransformForZoom.scale(this.xScale, -1.0F * this.yScale);
-        this.pointTransformForZoom.translate(-1.0F * this.plotRange.min.x, -1.0F * this.plotRange.min.y);
-        try {
-            this.pointTransformForZoom = this.pointTransformForZoom.createInverse();
-        } catch (NoninvertibleTransformException ex) {
-            System.err.println(ex.getMessage());
-        }
-        g2.scale(xScale, -yScale);
-        g2.translate(-1.0F * this.plotRange.min.x, -1.0F * this.plotRange.min.y);
-
-        // Draw only within plotting area
-        g2.setClip(new Rectangle2D.Float(this.plotRange.min.x, this.plotRange.min.y, this.xRange, this.yRange));
-
-        // Set stroke for curve and zoom
-        g2.setStroke(new BasicStroke(Math.abs(1.0F / (100.0F * Math.max(this.xScale, this.yScale)))));
     }
 
     private void drawAxisLabelsAndUnits(Graphics2D g2) {
@@ -499,14 +983,7 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         g2.setColor(UNITS_COLOR);
         g2.drawString(this.xAxisLabel, this.plotWidth - xAxisUnitsWidth, INSET_BOTTOM * 3 / 4);
         if (null != this.dataSet) {
-            g2.drawString(
-                    String.format(
-                            "Zoom Range x:[%s, %s], y:[%s, %s]",
-                            AxisLabels.formatForXAxis(this.plotRange.min.x),
-                            AxisLabels.formatForXAxis(this.plotRange.max.x),
-                            AxisLabels.formatForYAxis(this.plotRange.min.y),
-                            AxisLabels.formatForYAxis(this.plotRange.max.y)),
-                    0, Math.round(INSET_BOTTOM * 3 / 4));
+            g2.drawString(getZoomRangeText(), 0, Math.round(INSET_BOTTOM * 3 / 4));
         }
         // Draw Zero line
         int yPositionOfZero = this.yTickLabels.getYPositionOfZeroLabel();
@@ -516,6 +993,74 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         }
     }
 
+    private String getZoomRangeText() {
+        return String.format(
+                "Zoom Range x:[%s, %s], y:[%s, %s]",
+                AxisLabels.formatForXAxis(this.plotRange.min.x),
+                AxisLabels.formatForXAxis(this.plotRange.max.x),
+                AxisLabels.formatForYAxis(this.plotRange.min.y),
+                AxisLabels.formatForYAxis(this.plotRange.max.y));
+    }
+
+    /**
+     * Statistics of the points within the zoom range, as many as fit between the zoom range
+     * and the X axis label, in the order they are listed. They are drawn over the layers,
+     * rather than in the axes layer, as they change with the validity of the points.
+     */
+    private void drawZoomStatistics(Graphics2D g2) {
+        if (null == this.dataSet) {
+            return;
+        }
+        g2.setFont(getFont());
+        g2.translate(PLOT_INSETS.left, getHeight() - PLOT_INSETS.bottom);
+        FontMetrics fontMetrics = g2.getFontMetrics();
+        int from = fontMetrics.stringWidth(getZoomRangeText()) + fontMetrics.charWidth(' ') * 3;
+        int to = this.plotWidth - fontMetrics.stringWidth(this.xAxisLabel) - fontMetrics.charWidth(' ') * 3;
+        RangeStatistics statistics = getZoomStatistics();
+        String[] parts = {
+                String.format("n:%d", Integer.valueOf(statistics.count)),
+                String.format("mean:%.4g", Double.valueOf(statistics.mean)),
+                String.format("wmean:%.4g+-%.2g", Double.valueOf(statistics.weightedMean), Double.valueOf(statistics.weightedMeanError)),
+                String.format("var:%.4g", Double.valueOf(statistics.variance)),
+                String.format("chi2/dof:%.4g", Double.valueOf(statistics.getReducedChiSquare())),
+                String.format("sum:%.4g", Double.valueOf(statistics.sum))
+        };
+        StringBuilder text = new StringBuilder();
+        for (String part : parts) {
+            String next = text.length() > 0 ? text + "  " + part : part;
+            if (from + fontMetrics.stringWidth(next) > to) {
+                break;
+            }
+            text.setLength(0);
+            text.append(next);
+        }
+        if (text.length() > 0) {
+            g2.setColor(UNITS_COLOR);
+            g2.drawString(text.toString(), from, Math.round(INSET_BOTTOM * 3 / 4));
+        }
+    }
+
+    /**
+     * The statistics are computed again only when the X range, the data set or the validity
+     * of its points change, not on every paint of the overlay: for unsorted X they are a
+     * scan of the data set. Data sets are compared by identity, not by their points.
+     */
+    private RangeStatistics getZoomStatistics() {
+        float minx = this.plotRange.min.x;
+        float maxx = this.plotRange.max.x;
+        int modificationCount = this.dataSet.getModificationCount();
+        if (null == this.zoomStatistics || this.zoomStatisticsDataSet != this.dataSet ||
+                this.zoomStatisticsModificationCount != modificationCount ||
+                this.zoomStatisticsMinX != minx || this.zoomStatisticsMaxX != maxx) {
+            this.zoomStatistics = this.dataSet.getStatistics(minx, maxx);
+            this.zoomStatisticsDataSet = this.dataSet;
+            this.zoomStatisticsModificationCount = modificationCount;
+            this.zoomStatisticsMinX = minx;
+            this.zoomStatisticsMaxX = maxx;
+        }
+        return this.zoomStatistics;
+    }
+
     private void drawTicksX(Graphics2D g2) {
         float xRangeTickInterval = this.xRange / X_RANGE_NUMBER_OF_TICKS;
         int[] xTickPositions = getTickPositions(this.plotRange.min.x, this.xRange, this.xScale, xRangeTickInterval, false);
@@ -523,13 +1068,12 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
             this.xTickLabels = initLabels(g2, this.plotRange.min.x, this.xRange, this.xScale, xRangeTickInterval, xTickPositions, AxisLabels.X_AXIS_SIGNIFICANT_FIGURES);
             int tickLength = this.xTickLabels.getTickLength();
             int labelVerticalPosition = tickLength + this.xTickLabels.getLabelHeight(0);
-            BasicStroke stroke = (BasicStroke) g2.getStroke();
-            BasicStroke dashedStroke = createDashedStroke(stroke);
+            Stroke stroke = g2.getStroke();
             for (int i = 0; i < this.xTickLabels.getSize(); i++) {
                 int pos = this.xTickLabels.getTickPosition(i);
                 g2.drawLine(pos, 0, pos, tickLength);
                 g2.drawString(this.xTickLabels.getLabel(i), pos - this.xTickLabels.getLabelWidth(i) / 2, labelVerticalPosition);
-                g2.setStroke(dashedStroke);
+                g2.setStroke(DASHED_STROKE);
                 if (this.hasTickLines) {
                     g2.drawLine(pos, 0, pos, -this.plotHeight);
                 }
@@ -544,13 +1088,12 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         if (null != yTickPositions) {
             this.yTickLabels = initLabels(g2, this.plotRange.min.y, this.yRange, this.yScale, yRangeTickInterval, yTickPositions, AxisLabels.Y_AXIS_SIGNIFICANT_FIGURES);
             int tickLength = this.yTickLabels.getTickLength();
-            BasicStroke stroke = (BasicStroke) g2.getStroke();
-            BasicStroke dashedStroke = createDashedStroke(stroke);
+            Stroke stroke = g2.getStroke();
             for (int i = 0; i < this.yTickLabels.getSize(); i++) {
                 int pos = this.yTickLabels.getTickPosition(i);
                 g2.drawLine(0, pos, -tickLength, pos);
                 g2.drawString(this.yTickLabels.getLabel(i), -(this.yTickLabels.getLabelWidth(i) + tickLength + 2), pos + this.yTickLabels.getLabelHeight(i) / 2 - 2);
-                g2.setStroke(dashedStroke);
+                g2.setStroke(DASHED_STROKE);
                 if (this.hasTickLines) {
                     g2.drawLine(0, pos, this.plotWidth, pos);
                 }
@@ -597,17 +1140,6 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         return tickPositions;
     }
 
-    private BasicStroke createDashedStroke(BasicStroke srcStroke) {
-        return new BasicStroke(
-                srcStroke.getLineWidth(),
-                srcStroke.getEndCap(),
-                srcStroke.getLineJoin(),
-                srcStroke.getMiterLimit(),
-                DASHED_LINE,
-                0
-        );
-    }
-
     private float calculateStartValue(float minValue, float interval) {
         return (float) (Math.ceil(minValue / interval) * interval - minValue);
     }
@@ -624,8 +1156,10 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
 
     private void keepMarkingSelectionArea(Point2D cursorPosition) {
         Point2D.Float endPoint = (Point2D.Float) this.pointTransformForZoom.transform(cursorPosition, null);
+        Rectangle dirtyArea = getZoomRectangleBounds();
         this.selectionAreaEndPoint = this.plotRange.getInside((Point2D.Float) endPoint);
-        repaint();
+        dirtyArea.add(getZoomRectangleBounds());
+        repaint(dirtyArea);
     }
 
     private boolean isInside(int x, int y) {
@@ -671,10 +1205,25 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
     @Override
     public void mouseReleased(MouseEvent e) {
         if (this.selectionAreaFirstPointIsInsidePlotArea) {
+            // the changes to the validity of the points in all the plots are one edit
+            ValidityHistory history = null;
+            if (null != this.dataSet && null != this.multiPlotViewer) {
+                history = this.dataSet.getValidityHistory();
+                if (null != history) {
+                    history.beginEdit(this.multiPlotViewer.getModeSelectionToolbar().getCurrentMode().getCaption());
+                }
+            }
             mouseReleasedAction(e, false);
             if (null != this.multiPlotViewer && this.multiPlotViewer.getModeSelectionToolbar().affectsAllPlots()) {
                 this.multiPlotViewer.mouseReleasedOnPlot(this.dataSet.id, e);
             }
+            validityEdited(history);
+        }
+    }
+
+    private void validityEdited(ValidityHistory history) {
+        if (null != history && history.endEdit() && null != this.multiPlotViewer) {
+            this.multiPlotViewer.validityHistoryChanged();
         }
     }
 
@@ -708,8 +1257,16 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
         }
     }
 
+    /**
+     * While the file is loading the data set is a snapshot whose arrays are shared with
+     * the parser, its points cannot be validated/invalidated.
+     */
+    private boolean canChangeValidity() {
+        return null != this.dataSet && (null == this.multiPlotViewer || false == this.multiPlotViewer.isLoading());
+    }
+
     private void invalidatePointsOut() {
-        if (null != this.dataSet) {
+        if (canChangeValidity()) {
             float startx = Math.min(this.selectionAreaStartPoint.x, this.selectionAreaEndPoint.x);
             float endx = Math.max(this.selectionAreaStartPoint.x, this.selectionAreaEndPoint.x);
             this.dataSet.invalidatePointsOut(startx, endx);
@@ -717,7 +1274,7 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
     }
 
     private void validatePoints(boolean pointsAreValid) {
-        if (null != this.dataSet) {
+        if (canChangeValidity()) {
             float startx = Math.min(this.selectionAreaStartPoint.x, this.selectionAreaEndPoint.x);
             float endx = Math.max(this.selectionAreaStartPoint.x, this.selectionAreaEndPoint.x);
             this.dataSet.validatePoints(startx, endx, pointsAreValid);
@@ -830,7 +1387,7 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
 
     private void adjustYRangeToLocalMinMax() {
         if (null != this.dataSet) {
-            float min = -1.0F, max = -1.0F, deltaY = -1.0F;
+            float min = -1.0F, max = -1.0F;
             System.out.println("this.verticalRangeSlider.isfullyStretched? " + this.verticalRangeSlider.isFullyStretched());
             System.out.println("min: " + verticalRangeSlider.getMin() + ", max: " + verticalRangeSlider.getMax() + ", minVal:" + verticalRangeSlider.getLowValue() + ", max val: " + verticalRangeSlider.getHighValue());
 
@@ -852,9 +1409,7 @@ public class PlotViewer extends JPanel implements MouseListener, MouseMotionList
                 min = this.dataSet.minY + (sliderMinValue * dataScale);
                 max = this.dataSet.minY + (sliderMaxValue * dataScale);
             }
-            deltaY = getAxisExtraVisibilityDelta(min, max, Y_AXIS_EXTRA_VISIBILITY_DELTA);
-            this.plotRange.min.y = min - deltaY;
-            this.plotRange.max.y = max + deltaY;
+            setYRangeAround(min, max);
         }
     }
 
@@ -0,0 +1,217 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import marregui.plot.io.DataSet;
+import marregui.plot.io.PngEncoder;
+import marregui.plot.io.SvgGraphics2D;
+
+/**
+ * Exports plots, stacked one above the other as {@link SequenceViewer} shows them, into
+ * PNG posters of any size, e.g. 20000x8000, without ever holding the whole image in
+ * memory. The poster is rendered in tiles that span its width, {@link #TILE_PIXELS}
+ * pixels at most, each painted by copies of the plots, translated and clipped to it.
+ * Tiles are rendered and compressed concurrently, and written in order by a
+ * {@link PngEncoder.StripWriter} as soon as those above them are, so that only a few
+ * tiles per thread are in memory at any time, regardless of the size of the poster.
+ * <p>
+ * Posters are also written as SVG, streamed by a {@link SvgGraphics2D} the plots are
+ * painted on, as on screen, so curves with more points than columns of pixels are
+ * decimated to their extremes per column, and the size of the file depends on the width
+ * of the poster rather than on the number of points.
+ *
+ * @author marregui
+ */
+public final class PosterExporter {
+    public static final int TILE_PIXELS = 1 << 22;
+
+    private final List<PlotViewer> plotViewers;
+    private final int width, height, bandCount;
+
+    /**
+     * The plots are copied, with frozen copies of their data sets, see
+     * {@link DataSet#frozenCopy()}, so the poster shows them as they are when it is
+     * created, while they are edited, and its tiles are rendered by threads that only read
+     * the data sets. It is created on the event dispatch thread, which edits them.
+     *
+     * @param plotViewers plots, top to bottom, each takes an equal share of the height
+     * @param width       width of the poster
+     * @param height      height of the poster, at least one row per plot
+     */
+    public PosterExporter(List<PlotViewer> plotViewers, int width, int height) {
+        if (plotViewers.isEmpty() || width < 1 || height < plotViewers.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot export %d plots into a poster of %dx%d", plotViewers.size(), width, height));
+        }
+        this.width = width;
+        this.height = height;
+        this.bandCount = plotViewers.size();
+        this.plotViewers = new ArrayList<>(plotViewers.size());
+        for (int i = 0; i < plotViewers.size(); i++) {
+            PlotViewer plotViewer = plotViewers.get(i).copy(width, getBandBottom(i) - getBandTop(i));
+            plotViewer.freezeDataSet();
+            this.plotViewers.add(plotViewer);
+        }
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @param file        the PNG file
+     * @param parallelism number of threads that render the tiles
+     * @throws Exception when the poster cannot be rendered or written
+     */
+    public void write(File file, int parallelism) throws Exception {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(out, parallelism);
+        }
+    }
+
+    /**
+     * @param out         receives the PNG, it is not closed
+     * @param parallelism number of threads that render the tiles
+     * @throws Exception when the poster cannot be rendered or written
+     */
+    public void write(OutputStream out, int parallelism) throws Exception {
+        int threads = Math.max(1, parallelism);
+        int tileHeight = Math.max(1, Math.min(this.height, TILE_PIXELS / this.width));
+        PngEncoder.StripWriter writer = new PngEncoder.StripWriter(out, this.width, this.height, false);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Deque<CompletableFuture<PngEncoder.Band>> pending = new ArrayDeque<>();
+            CompletableFuture<BufferedImage> previousTile = null;
+            for (int top = 0; top < this.height; top += tileHeight) {
+                int firstRow = top;
+                int lastRow = Math.min(this.height, top + tileHeight);
+                CompletableFuture<BufferedImage> tile = CompletableFuture.supplyAsync(() -> renderTile(firstRow, lastRow), pool);
+                // the filters of the first row of a tile read the last row of the tile above
+                CompletableFuture<PngEncoder.Band> band = null == previousTile ?
+                        tile.thenApplyAsync(image -> writer.compress(image, firstRow, null), pool) :
+                        tile.thenCombineAsync(previousTile, (image, above) -> writer.compress(image, firstRow, above), pool);
+                pending.addLast(band);
+                previousTile = tile;
+                // bounds the tiles in memory: those pending, plus the one above them
+                while (pending.size() > threads) {
+                    writer.write(pending.removeFirst().get());
+                }
+            }
+            while (false == pending.isEmpty()) {
+                writer.write(pending.removeFirst().get());
+            }
+            writer.finish();
+        } catch (ExecutionException e) {
+            Throwable cause = null != e.getCause() ? e.getCause() : e;
+            throw new Exception(String.format("Could not render the poster: %s", cause.getMessage()), cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @param file the SVG file
+     * @throws Exception when the poster cannot be written
+     */
+    public void writeSvg(File file) throws Exception {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writeSvg(out);
+        }
+    }
+
+    /**
+     * @param out receives the SVG, it is not closed
+     * @throws Exception when the poster cannot be written
+     */
+    public void writeSvg(Writer out) throws Exception {
+        SvgGraphics2D g2 = new SvgGraphics2D(out, this.width, this.height);
+        g2.setColor(Color.WHITE);
+        g2.fillRect(0, 0, this.width, this.height);
+        for (int i = 0; i < this.bandCount; i++) {
+            int bandTop = getBandTop(i);
+            Graphics2D bandGraphics = (Graphics2D) g2.create(0, bandTop, this.width, getBandBottom(i) - bandTop);
+            this.plotViewers.get(i).paintUncached(bandGraphics);
+            bandGraphics.dispose();
+        }
+        g2.finish();
+    }
+
+    /**
+     * @param firstRow first row of the poster in the tile
+     * @param lastRow  row of the poster after the last one in the tile
+     * @return the tile, an image of the width of the poster
+     */
+    BufferedImage renderTile(int firstRow, int lastRow) {
+        BufferedImage tile = new BufferedImage(this.width, lastRow - firstRow, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = tile.createGraphics();
+        try {
+            g2.setColor(Color.WHITE);
+            g2.fillRect(0, 0, tile.getWidth(), tile.getHeight());
+            for (int i = 0; i < this.bandCount; i++) {
+                int bandTop = getBandTop(i);
+                int bandBottom = getBandBottom(i);
+                if (bandBottom <= firstRow || bandTop >= lastRow) {
+                    continue;
+                }
+                // each tile paints its own copy, painting updates the geometry of the plot,
+                // the copies share the frozen data set, and its indexes, which they only read
+                PlotViewer plotViewer = this.plotViewers.get(i).copy(this.width, bandBottom - bandTop);
+                Graphics2D bandGraphics = (Graphics2D) g2.create(0, bandTop - firstRow, this.width, bandBottom - bandTop);
+                try {
+                    plotViewer.paintUncached(bandGraphics);
+                } finally {
+                    bandGraphics.dispose();
+                }
+            }
+        } finally {
+            g2.dispose();
+        }
+        return tile;
+    }
+
+    private int getBandTop(int idx) {
+        return (int) ((long) this.height * idx / this.bandCount);
+    }
+
+    private int getBandBottom(int idx) {
+        return getBandTop(idx + 1);
+    }
+}
@@ -29,13 +29,18 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.BorderFactory;
+import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
+import javax.swing.JButton;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -46,15 +51,23 @@ import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 
 import marregui.plot.io.ImageSaver;
 import marregui.plot.io.Data;
+import marregui.plot.io.DataFileFollower;
 import marregui.plot.io.DataFileParser;
 import marregui.plot.io.DataFilePersister;
 import marregui.plot.io.DataSet;
+import marregui.plot.io.ValidityHistory;
 import marregui.plot.range.Axis;
 import marregui.plot.range.AxisRangePanel;
+import marregui.plot.rfs.ArchiveFile;
+import marregui.plot.rfs.ArchiveFileSystemView;
+import marregui.plot.rfs.CatalogAccessory;
+import marregui.plot.rfs.DataCatalog;
 import marregui.plot.rfs.FileChooser;
 
 
@@ -66,21 +79,29 @@ public class SequenceViewer extends JPanel {
     private static final Color TITLE_COLOR = new Color(0x003399);
     private static final Font TITLE_FONT = new Font("Arial", Font.BOLD, 12);
     private static final String WINDOW_TITLE = "SequenceViewer v1.0";
+    private static final String UNDO_CAPTION = "Undo";
+    private static final String REDO_CAPTION = "Redo";
     private static final float WINDOW_WIDTH = 0.9F;
     private static final float WINDOW_HEIGHT = 0.85F;
 
     private final ModeSelectionToolBar modeSelectionToolbar;
     private JMenuBar menuBar;
-    private JMenuItem saveTraceMenuItem, saveSnapshotMenuItem;
+    private JMenuItem saveTraceMenuItem, saveSnapshotMenuItem, savePosterMenuItem;
+    private JMenuItem undoMenuItem, redoMenuItem;
+    private JCheckBoxMenuItem followFileMenuItem;
     private JMenu plotsTopLevelMenu;
     private final AxisRangePanel xRange;
-    private final JLabel titleLabel;
+    private final JLabel titleLabel, loadingLabel;
+    private final JButton cancelLoadingButton;
     private final JPanel plotsPanel;
     private final ScreenSaver screenSaver;
     private final GridLayout plotsPanelLayout;
     private Data data;
     private final Map<String, RangedPlotViewer> plotViewers;
     private File currentDataFolder;
+    private BackgroundTask<Data, Data> loader;
+    private BackgroundTask.Progress loadingProgress;
+    private DataFileFollower follower;
 
 
     public SequenceViewer() {
@@ -104,6 +125,11 @@ public class SequenceViewer extends JPanel {
         // Arrangement of the gui components
         this.titleLabel = new JLabel();
         this.titleLabel.setForeground(TITLE_COLOR);
+        this.loadingLabel = new JLabel();
+        this.loadingLabel.setVisible(false);
+        this.cancelLoadingButton = new JButton("Cancel");
+        this.cancelLoadingButton.addActionListener(e -> stopLoading());
+        this.cancelLoadingButton.setVisible(false);
         this.setFont(TITLE_FONT);
         this.plotsPanelLayout = new GridLayout();
         this.plotsPanelLayout.setHgap(0);
@@ -117,6 +143,8 @@ public class SequenceViewer extends JPanel {
         setLayout(new BorderLayout());
         JPanel titlePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         titlePanel.add(this.titleLabel);
+        titlePanel.add(this.loadingLabel);
+        titlePanel.add(this.cancelLoadingButton);
         JPanel xRangePanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         xRangePanel.add(this.xRange);
         JPanel southPanel = new JPanel(new BorderLayout());
@@ -153,6 +181,10 @@ public class SequenceViewer extends JPanel {
         openMenu.add(openLocalFileMenuItem);
         openMenu.add(openRemoteFileMenuItem);
         fileMenu.add(openMenu);
+        // Follow the file as rows are appended to it
+        this.followFileMenuItem = new JCheckBoxMenuItem("Follow file", false);
+        this.followFileMenuItem.addActionListener(e -> followFileChanged());
+        fileMenu.add(this.followFileMenuItem);
         // Save trace
         JMenuItem downloadRemoteData = new JMenuItem("Download data", new ImageIcon(ImageUtils.loadImage("Download.png")));
         downloadRemoteData.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_D, ActionEvent.CTRL_MASK));
@@ -170,6 +202,24 @@ public class SequenceViewer extends JPanel {
         this.saveSnapshotMenuItem.addActionListener(e -> saveSnapshotFile());
         fileMenu.add(this.saveSnapshotMenuItem);
         this.saveSnapshotMenuItem.setEnabled(false);
+        // Poster
+        this.savePosterMenuItem = new JMenuItem("Poster", new ImageIcon(ImageUtils.loadImage("Snapshot.png")));
+        this.savePosterMenuItem.addActionListener(e -> savePosterFile());
+        fileMenu.add(this.savePosterMenuItem);
+        this.savePosterMenuItem.setEnabled(false);
+
+        // Undo/redo the changes to the validity of the points
+        JMenu editMenu = new JMenu("Edit");
+        editMenu.setMnemonic(KeyEvent.VK_E);
+        this.undoMenuItem = new JMenuItem(UNDO_CAPTION);
+        this.undoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, ActionEvent.CTRL_MASK));
+        this.undoMenuItem.addActionListener(e -> undoValidityEdit());
+        editMenu.add(this.undoMenuItem);
+        this.redoMenuItem = new JMenuItem(REDO_CAPTION);
+        this.redoMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, ActionEvent.CTRL_MASK));
+        this.redoMenuItem.addActionListener(e -> redoValidityEdit());
+        editMenu.add(this.redoMenuItem);
+        validityHistoryChanged();
 
         // Open trace
         this.plotsTopLevelMenu = new JMenu("Plots");
@@ -180,6 +230,7 @@ public class SequenceViewer extends JPanel {
         this.menuBar = new JMenuBar();
         this.menuBar.setBorder(BorderFactory.createEmptyBorder());
         this.menuBar.add(fileMenu);
+        this.menuBar.add(editMenu);
         this.menuBar.add(this.plotsTopLevelMenu);
     }
 
@@ -247,6 +298,22 @@ public class SequenceViewer extends JPanel {
             }
         });
         this.plotsTopLevelMenu.add(showAllNonValidPointsMenuItem);
+        // Rebin all plots
+        JMenu rebinAllMenu = new JMenu("Rebin all plots X");
+        ButtonGroup binWidthGroup = new ButtonGroup();
+        for (int i = 0; i <= PlotViewer.BIN_WIDTHS.length; i++) {
+            float width = 0 == i ? 0.0F : PlotViewer.BIN_WIDTHS[i - 1];
+            String text = 0 == i ? "No rebinning" : String.format("Bins of %s", Float.toString(width));
+            JRadioButtonMenuItem binWidthMenuItem = new JRadioButtonMenuItem(text, 0 == i);
+            binWidthMenuItem.addActionListener(e -> {
+                for (RangedPlotViewer pv : SequenceViewer.this.plotViewers.values()) {
+                    pv.plotViewer.setBinWidth(width);
+                }
+            });
+            binWidthGroup.add(binWidthMenuItem);
+            rebinAllMenu.add(binWidthMenuItem);
+        }
+        this.plotsTopLevelMenu.add(rebinAllMenu);
 
         // Menus specific to each plot
         for (final String bandName : pointsPerBand.keySet()) {
@@ -261,36 +328,250 @@ public class SequenceViewer extends JPanel {
         this.plotsTopLevelMenu.setVisible(true);
     }
 
+    /**
+     * The file is parsed in the background. The plots are created with the first snapshot
+     * of the data and updated with each of the following, until the parse completes, when
+     * the data can be edited and saved. When following the file, the plots are updated
+     * with the rows appended to it until it is no longer followed.
+     */
     private void selectLightCurveFile(File selectedFile) {
         if (null != selectedFile) {
+            cancelLoading();
             this.data = null;
-            try {
-                this.data = DataFileParser.parse(selectedFile);
-                createPlots();
-                renderAllPlots();
-                this.saveTraceMenuItem.setEnabled(true);
-                this.saveSnapshotMenuItem.setEnabled(true);
-                this.xRange.setEnabled(true);
-                this.modeSelectionToolbar.setEnabled(true);
-            } catch (Exception e) {
-                JOptionPane.showMessageDialog(
-                        SequenceViewer.this,
-                        e.getMessage(),
-                        "Error",
-                        JOptionPane.ERROR_MESSAGE
-                );
-                e.printStackTrace();
+            this.loadingProgress = null;
+            setDataIsEditable(false);
+            DataFileFollower follower = this.followFileMenuItem.isSelected() && DataFileFollower.canFollow(selectedFile) ?
+                    new DataFileFollower(selectedFile) : null;
+            this.follower = follower;
+            String message = String.format("%s %s", null != follower ? "Following" : "Loading", selectedFile.getName());
+            this.loadingLabel.setText(String.format("%s ...", message));
+            this.loadingLabel.setVisible(true);
+            this.cancelLoadingButton.setVisible(true);
+            this.loader = new BackgroundTask<Data, Data>() {
+                private boolean isCurrentLoader;
+
+                @Override
+                protected Data doInBackground() throws Exception {
+                    DataFileParser.SnapshotListener listener = (snapshot, parsedBytes, fileSize) -> {
+                        publish(snapshot);
+                        // once the file is parsed the size of what is followed is shown
+                        reportProgress(message, parsedBytes, parsedBytes < fileSize ? fileSize : 0L);
+                    };
+                    if (null != follower) {
+                        return follower.follow(listener);
+                    }
+                    return selectedFile instanceof ArchiveFile ?
+                            ((ArchiveFile) selectedFile).parse(listener) : DataFileParser.parse(selectedFile, listener);
+                }
+
+                @Override
+                protected void process(List<Data> snapshots) {
+                    if (this == SequenceViewer.this.loader && false == isDone()) {
+                        showData(snapshots.get(snapshots.size() - 1), false);
+                    }
+                }
+
+                @Override
+                protected void finished() {
+                    this.isCurrentLoader = this == SequenceViewer.this.loader;
+                    if (this.isCurrentLoader) {
+                        SequenceViewer.this.loader = null;
+                        SequenceViewer.this.follower = null;
+                        SequenceViewer.this.loadingProgress = null;
+                        SequenceViewer.this.loadingLabel.setVisible(false);
+                        SequenceViewer.this.cancelLoadingButton.setVisible(false);
+                    }
+                }
+
+                @Override
+                protected void succeeded(Data data) {
+                    if (this.isCurrentLoader) {
+                        showData(data, true);
+                    }
+                }
+
+                @Override
+                protected void failed(Throwable cause) {
+                    if (this.isCurrentLoader && cause instanceof DataFileFollower.FileResetException) {
+                        selectLightCurveFile(selectedFile); // its rows are not those parsed
+                    } else if (this.isCurrentLoader) {
+                        clearData();
+                        JOptionPane.showMessageDialog(
+                                SequenceViewer.this,
+                                cause.getMessage(),
+                                "Error",
+                                JOptionPane.ERROR_MESSAGE
+                        );
+                        cause.printStackTrace();
+                    }
+                }
+
+                @Override
+                protected void cancelled() {
+                    if (this.isCurrentLoader) {
+                        clearData();
+                    }
+                }
+            };
+            BackgroundTask<Data, Data> loader = this.loader;
+            this.loader.addProgressObserver(progress -> {
+                if (loader == this.loader) {
+                    this.loadingProgress = progress;
+                    updateLoadingLabel();
+                }
+            });
+            this.loader.execute();
+        }
+    }
+
+    protected boolean isLoading() {
+        return null != this.loader;
+    }
+
+    private void cancelLoading() {
+        if (null != this.loader) {
+            this.loader.cancel(true);
+        }
+    }
+
+    /**
+     * A file being followed is no longer followed, its data is kept, otherwise the loading
+     * is cancelled.
+     */
+    private void stopLoading() {
+        if (null != this.follower) {
+            this.followFileMenuItem.setSelected(false);
+            this.follower.stop();
+        } else {
+            cancelLoading();
+        }
+    }
+
+    /**
+     * Following the open file opens it again, to follow it from the start, which discards
+     * its edits. Not following it any more completes its data, which can then be edited.
+     */
+    private void followFileChanged() {
+        if (this.followFileMenuItem.isSelected()) {
+            if (null != this.data && null != this.data.getFilePath()) {
+                File file = new File(this.data.getFilePath());
+                if (DataFileFollower.canFollow(file)) {
+                    selectLightCurveFile(file);
+                } else {
+                    this.followFileMenuItem.setSelected(false);
+                    JOptionPane.showMessageDialog(
+                            this,
+                            String.format("Only text data files can be followed: %s", file.getName()),
+                            "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                }
             }
+        } else if (null != this.follower) {
+            this.follower.stop();
         }
     }
 
+    private void showData(Data data, boolean isComplete) {
+        if (null == this.data) {
+            this.data = data;
+            createPlots();
+            renderAllPlots();
+        } else {
+            this.data = data;
+            updatePlots();
+            if (isComplete) {
+                createPlotsMenuItem(this.data.pointsPerBand);
+            }
+        }
+        if (isComplete) {
+            setDataIsEditable(true);
+        } else {
+            updateLoadingLabel();
+        }
+    }
+
+    private void updateLoadingLabel() {
+        String rows = "";
+        if (null != this.data) {
+            DataSet firstDataSet = this.data.pointsPerBand.values().iterator().next();
+            rows = String.format(", %d rows", firstDataSet.getSize());
+        }
+        String progress = null != this.loadingProgress ? this.loadingProgress.toString() : "Loading ...";
+        this.loadingLabel.setText(String.format("%s%s", progress, rows));
+    }
+
+    private void clearData() {
+        this.data = null;
+        validityHistoryChanged();
+        this.plotViewers.clear();
+        this.plotsTopLevelMenu.removeAll();
+        this.plotsTopLevelMenu.setVisible(false);
+        this.titleLabel.setText("");
+        this.plotsPanel.removeAll();
+        this.plotsPanelLayout.setRows(1);
+        this.plotsPanel.add(this.screenSaver);
+        this.screenSaver.start();
+        this.plotsPanel.revalidate();
+        this.plotsPanel.repaint();
+    }
+
+    private void setDataIsEditable(boolean isEditable) {
+        this.saveTraceMenuItem.setEnabled(isEditable);
+        this.saveSnapshotMenuItem.setEnabled(isEditable);
+        this.savePosterMenuItem.setEnabled(isEditable);
+        this.xRange.setEnabled(isEditable);
+        this.modeSelectionToolbar.setEnabled(isEditable);
+        validityHistoryChanged();
+    }
+
+    /**
+     * Undo/redo are available once the data is loaded, and named after the edit they act on.
+     */
+    protected void validityHistoryChanged() {
+        ValidityHistory history = null != this.data && false == isLoading() ? this.data.getValidityHistory() : null;
+        boolean canUndo = null != history && history.canUndo();
+        boolean canRedo = null != history && history.canRedo();
+        this.undoMenuItem.setEnabled(canUndo);
+        this.undoMenuItem.setText(editCaption(UNDO_CAPTION, canUndo ? history.getUndoName() : null));
+        this.redoMenuItem.setEnabled(canRedo);
+        this.redoMenuItem.setText(editCaption(REDO_CAPTION, canRedo ? history.getRedoName() : null));
+    }
+
+    private static String editCaption(String caption, String editName) {
+        return null == editName ? caption : String.format("%s %s", caption, editName);
+    }
+
+    private void undoValidityEdit() {
+        if (null != this.data && false == isLoading() && this.data.getValidityHistory().undo()) {
+            validityEdited();
+        }
+    }
+
+    private void redoValidityEdit() {
+        if (null != this.data && false == isLoading() && this.data.getValidityHistory().redo()) {
+            validityEdited();
+        }
+    }
+
+    private void validityEdited() {
+        for (RangedPlotViewer pv : this.plotViewers.values()) {
+            pv.plotViewer.repaint();
+        }
+        validityHistoryChanged();
+    }
+
     private void selectLocalLightCurveFile() {
-        JFileChooser fileChooser = new JFileChooser(this.currentDataFolder);
+        JFileChooser fileChooser = new JFileChooser(this.currentDataFolder, new ArchiveFileSystemView());
         fileChooser.setDialogTitle("Select");
         fileChooser.setDialogType(JFileChooser.OPEN_DIALOG);
         fileChooser.setMultiSelectionEnabled(false);
+        fileChooser.setAccessory(new CatalogAccessory(fileChooser, DataCatalog.open(new File(FileChooser.DOWNLOAD_FOLDER))));
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            this.currentDataFolder = fileChooser.getCurrentDirectory().getAbsoluteFile();
+            File folder = fileChooser.getCurrentDirectory();
+            if (folder instanceof ArchiveFile) {
+                folder = ((ArchiveFile) folder).getArchiveFile().getParentFile(); // other dialogs cannot browse it
+            }
+            this.currentDataFolder = folder.getAbsoluteFile();
             selectLightCurveFile(fileChooser.getSelectedFile());
         }
     }
@@ -301,13 +582,90 @@ public class SequenceViewer extends JPanel {
 
 
     private void selectRemoteLightCurveFile() {
-        selectLightCurveFile(FileChooser.selectFile());
+        FileChooser.selectFile(file -> selectLightCurveFile(file));
     }
 
     private void saveSnapshotFile() {
         ImageSaver.save(this.plotsPanel, this.plotsPanel.getWidth(), this.plotsPanel.getHeight());
     }
 
+    /**
+     * Exports the visible plots into a PNG of any size, rendered a tile at a time, or into
+     * a SVG when the name of the file ends with '.svg'.
+     */
+    private void savePosterFile() {
+        List<PlotViewer> visiblePlotViewers = new ArrayList<>();
+        if (null != this.data) {
+            for (String bandName : this.data.pointsPerBand.keySet()) {
+                RangedPlotViewer pv = this.plotViewers.get(bandName);
+                if (null != pv && pv.plotViewer.isVisible()) {
+                    visiblePlotViewers.add(pv.plotViewer);
+                }
+            }
+        }
+        if (visiblePlotViewers.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No plots to be saved", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        Object size = JOptionPane.showInputDialog(
+                this,
+                "Width x height, in pixels (units of the SVG)",
+                "Poster size",
+                JOptionPane.QUESTION_MESSAGE,
+                null,
+                null,
+                String.format("%dx%d", this.plotsPanel.getWidth() * 4, this.plotsPanel.getHeight() * 4));
+        if (null == size) {
+            return;
+        }
+        PosterExporter posterExporter;
+        try {
+            String[] widthHeight = size.toString().toLowerCase().split("x");
+            if (widthHeight.length != 2) {
+                throw new IllegalArgumentException(String.format("Expected width x height: %s", size));
+            }
+            posterExporter = new PosterExporter(
+                    visiblePlotViewers,
+                    Integer.parseInt(widthHeight[0].trim()),
+                    Integer.parseInt(widthHeight[1].trim()));
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser(this.currentDataFolder);
+        fileChooser.setDialogTitle("Give a name to the poster");
+        fileChooser.setDialogType(JFileChooser.SAVE_DIALOG);
+        fileChooser.setMultiSelectionEnabled(false);
+        fileChooser.setSelectedFile(new File("poster.png"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File selectedFile = fileChooser.getSelectedFile();
+        String fileName = selectedFile.getName().toLowerCase();
+        boolean isSvg = fileName.endsWith(".svg");
+        File posterFile = isSvg || fileName.endsWith(".png") ?
+                selectedFile : new File(selectedFile.getAbsolutePath() + ".png");
+        CompletableFuture.runAsync(() -> {
+            try {
+                if (isSvg) {
+                    posterExporter.writeSvg(posterFile);
+                } else {
+                    posterExporter.write(posterFile, Runtime.getRuntime().availableProcessors());
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }).exceptionally(t -> {
+            Throwable cause = null != t.getCause() ? t.getCause() : t;
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(
+                    this,
+                    String.format("Could not save poster '%s': %s", posterFile.getName(), cause.getMessage()),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE));
+            return null;
+        });
+    }
+
     private void saveTraceFile() {
         if (null == this.data) {
             JOptionPane.showMessageDialog(
@@ -360,7 +718,11 @@ public class SequenceViewer extends JPanel {
 
     private void createPlots() {
         if (null != this.data) {
-            this.titleLabel.setText(String.format("%s  -  %s", data.sourceName, data.getFilePath()));
+            String title = String.format("%s  -  %s", data.sourceName, data.getFilePath());
+            if (null != data.getXDescription()) {
+                title = String.format("%s  -  X: %s", title, data.getXDescription());
+            }
+            this.titleLabel.setText(title);
             this.plotViewers.clear();
             for (String bandName : data.pointsPerBand.keySet()) {
                 PlotViewer plotViewer = new PlotViewer(bandName, this);
@@ -373,6 +735,24 @@ public class SequenceViewer extends JPanel {
         }
     }
 
+    private void updatePlots() {
+        float minx = Float.MAX_VALUE;
+        float maxx = -Float.MAX_VALUE;
+        for (String bandName : this.plotViewers.keySet()) {
+            PlotViewer pv = this.plotViewers.get(bandName).plotViewer;
+            DataSet dataSet = this.data.pointsPerBand.get(bandName);
+            pv.updateDataSet(dataSet);
+            if (pv.isVisible()) {
+                minx = Math.min(minx, dataSet.minX);
+                maxx = Math.max(maxx, dataSet.maxX);
+            }
+        }
+        if (minx <= maxx) {
+            this.xRange.setMin(minx);
+            this.xRange.setMax(maxx);
+        }
+    }
+
     protected void transformXRange(String bandName, int minValue, int maxValue, int sliderMin, int sliderMax) {
         if (null != this.data && null != bandName) {
             for (String targetBandName : this.plotViewers.keySet()) {
@@ -453,7 +833,7 @@ public class SequenceViewer extends JPanel {
     protected void renderAllPlots() {
         if (null != this.data) {
             float minx = Float.MAX_VALUE;
-            float maxx = Float.MIN_VALUE;
+            float maxx = -Float.MAX_VALUE;
             Set<String> visibleBandNames = new HashSet<>();
             for (String bandName : this.plotViewers.keySet()) {
                 PlotViewer pv = this.plotViewers.get(bandName).plotViewer;
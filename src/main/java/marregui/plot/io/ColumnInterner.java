@@ -0,0 +1,176 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process wide table of the values of the complete columns, so that columns with the same
+ * values, such as the MJD grid of the RXTE-ASM files, share one read only backing: a
+ * float[] or an {@link EncodedColumn}. Columns are looked up by the fingerprint that
+ * {@link Points} computes as values are added, and compared value by value on a match.
+ * <p>
+ * The table refers to the backings weakly, the columns that share one are what keeps
+ * it alive. When the last of them is no longer reachable, e.g. the file is closed,
+ * the backing is collected and its entry purged from the table.
+ *
+ * @author marregui
+ */
+final class ColumnInterner {
+
+    private static final class Key {
+        final long fingerprint;
+        final int size;
+        final boolean allowsHalfPrecision;
+
+        Key(long fingerprint, int size, boolean allowsHalfPrecision) {
+            this.fingerprint = fingerprint;
+            this.size = size;
+            this.allowsHalfPrecision = allowsHalfPrecision;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Key) {
+                Key that = (Key) o;
+                return this.fingerprint == that.fingerprint &&
+                        this.size == that.size &&
+                        this.allowsHalfPrecision == that.allowsHalfPrecision;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.fingerprint) * 31 + this.size;
+        }
+    }
+
+    private static final class Entry extends WeakReference<Object> {
+        final Key key;
+
+        Entry(Key key, Object backing, ReferenceQueue<Object> queue) {
+            super(backing, queue);
+            this.key = key;
+        }
+    }
+
+    private static final Map<Key, List<Entry>> ENTRIES = new HashMap<>();
+    private static final ReferenceQueue<Object> COLLECTED = new ReferenceQueue<>();
+
+    /**
+     * The column is encoded only when there is no backing with the same values, outside
+     * of the lock, so that columns of different files are encoded concurrently.
+     *
+     * @param values              the values of the column, trimmed to its size
+     * @param fingerprint         fingerprint of the values
+     * @param isNonDecreasing     true when the values are sorted
+     * @param allowsHalfPrecision true when the values can be kept as float16
+     * @return the backing shared by the columns with these values: the values array itself,
+     * or the {@link EncodedColumn} that takes the least memory
+     */
+    static Object intern(float[] values, long fingerprint, boolean isNonDecreasing, boolean allowsHalfPrecision) {
+        Key key = new Key(fingerprint, values.length, allowsHalfPrecision);
+        Object backing = lookup(key, values);
+        if (null != backing) {
+            return backing;
+        }
+        EncodedColumn encodedValues = EncodedColumn.encode(values, values.length, isNonDecreasing, allowsHalfPrecision);
+        backing = null != encodedValues ? encodedValues : values;
+        synchronized (ENTRIES) {
+            Object sharedBacking = lookup(key, values);
+            if (null != sharedBacking) {
+                return sharedBacking; // interned concurrently
+            }
+            ENTRIES.computeIfAbsent(key, k -> new ArrayList<>(1)).add(new Entry(key, backing, COLLECTED));
+        }
+        return backing;
+    }
+
+    /**
+     * @return number of backings in the table that have not been collected
+     */
+    static int size() {
+        synchronized (ENTRIES) {
+            purgeCollected();
+            int size = 0;
+            for (List<Entry> entries : ENTRIES.values()) {
+                for (Entry entry : entries) {
+                    if (null != entry.get()) {
+                        size++;
+                    }
+                }
+            }
+            return size;
+        }
+    }
+
+    private static Object lookup(Key key, float[] values) {
+        synchronized (ENTRIES) {
+            purgeCollected();
+            List<Entry> entries = ENTRIES.get(key);
+            if (null != entries) {
+                for (Entry entry : entries) {
+                    Object backing = entry.get();
+                    if (null != backing && hasValues(backing, values)) {
+                        return backing;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private static void purgeCollected() {
+        for (Entry collected; null != (collected = (Entry) COLLECTED.poll()); ) {
+            List<Entry> entries = ENTRIES.get(collected.key);
+            if (null != entries) {
+                for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+                    if (it.next() == collected) {
+                        it.remove();
+                    }
+                }
+                if (entries.isEmpty()) {
+                    ENTRIES.remove(collected.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Half precision backings are compared with the values they were encoded from, which
+     * have the same fingerprint, as they encode them the same way.
+     */
+    private static boolean hasValues(Object backing, float[] values) {
+        if (backing instanceof float[]) {
+            float[] backingValues = (float[]) backing;
+            for (int i = 0; i < values.length; i++) {
+                if (Float.floatToIntBits(backingValues[i]) != Float.floatToIntBits(values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return ((EncodedColumn) backing).hasValues(values);
+    }
+}
@@ -0,0 +1,333 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Binary columnar format for parsed traces, extension '.svcol'. Layout, little endian:
+ * <pre>
+ *   header:  magic, version, source path, source size, source last modified,
+ *            source name, number of bands, number of rows, band names,
+ *            min/max of the X column, min/max of each band's flux and error columns
+ *   columns: X, then for each band: flux, error, validity bitmap (one bit per row)
+ * </pre>
+ * Columns start at 8 byte aligned offsets, so they are moved with bulk copies out of
+ * the memory mapped file. It is used:
+ * <ul>
+ *     <li>as a cache of {@link DataFileParser#parse(File)}, written beside the source file,
+ *     or into the folder given by the system property {@link #CACHE_FOLDER_PROPERTY}
+ *     under a name derived from the path, size and last modified time of the source.
+ *     The cache is valid while the source path, size and last modified time match.</li>
+ *     <li>as a trace format of its own through {@link DataFilePersister}, which keeps
+ *     invalid points and does not go through text formatting.</li>
+ * </ul>
+ *
+ * @author marregui
+ */
+public class ColumnarDataFile {
+    public static final String EXTENSION = ".svcol";
+    public static final String CACHE_FOLDER_PROPERTY = "sequenceviewer.cache.folder";
+
+    private static final int MAGIC = 0x4C4F4356; // "VCOL"
+    private static final int VERSION = 1;
+    private static final int ALIGNMENT = 8;
+    private static final long NO_SOURCE_VALUE = -1L;
+
+    public static boolean isColumnarDataFile(File file) {
+        return file.getName().toLowerCase().endsWith(EXTENSION);
+    }
+
+    public static Data read(File file) throws Exception {
+        Data data = new ColumnarDataFile(file).readData(null);
+        data.setFilePath(file.getAbsolutePath());
+        return data;
+    }
+
+    public static void write(Data data, File file) throws Exception {
+        new ColumnarDataFile(file).writeData(data, null);
+    }
+
+    /**
+     * @param source text file
+     * @return the Data cached for the source, or null if there is no valid cache
+     */
+    static Data readCache(File source) {
+        File cache = cacheFileFor(source);
+        if (cache.exists()) {
+            try {
+                Data data = new ColumnarDataFile(cache).readData(source);
+                if (null != data) {
+                    data.setFilePath(source.getAbsolutePath());
+                }
+                return data;
+            } catch (Exception e) {
+                System.err.printf("Ignoring cache %s: %s\n", cache.getAbsolutePath(), e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    static void writeCache(Data data, File source) {
+        File cache = cacheFileFor(source);
+        try {
+            new ColumnarDataFile(cache).writeData(data, source);
+        } catch (Exception e) {
+            // the message of a FileSystemException is the path of the temporary file
+            String reason = e.getMessage();
+            if (e instanceof FileSystemException) {
+                reason = null != ((FileSystemException) e).getReason() ?
+                        ((FileSystemException) e).getReason() : e.getClass().getSimpleName();
+            }
+            System.err.printf("Could not write cache %s: %s\n", cache.getAbsolutePath(), reason);
+        }
+    }
+
+    static File cacheFileFor(File source) {
+        File absoluteSource = source.getAbsoluteFile();
+        String cacheFolder = System.getProperty(CACHE_FOLDER_PROPERTY);
+        if (null == cacheFolder) {
+            return new File(absoluteSource.getPath() + EXTENSION);
+        }
+        String key = String.format("%s_%08x_%x_%x%s",
+                absoluteSource.getName(),
+                Integer.valueOf(absoluteSource.getPath().hashCode()),
+                Long.valueOf(absoluteSource.length()),
+                Long.valueOf(absoluteSource.lastModified()),
+                EXTENSION);
+        return new File(cacheFolder, key);
+    }
+
+    private final File file;
+
+    private ColumnarDataFile(File file) {
+        this.file = file;
+    }
+
+    private static int align(int position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static int bitmapWords(int rows) {
+        return (rows + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putInt(value.length);
+        buffer.put(value);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static void putColumn(ByteBuffer buffer, Points points) {
+        buffer.position(align(buffer.position()));
+        for (int i = 0; i < points.getSize(); i++) {
+            buffer.putFloat(points.get(i));
+        }
+    }
+
+    private static float[] getColumn(ByteBuffer buffer, int rows) {
+        buffer.position(align(buffer.position()));
+        float[] column = new float[rows];
+        buffer.asFloatBuffer().get(column);
+        buffer.position(buffer.position() + rows * Float.BYTES);
+        return column;
+    }
+
+    private static void putBitmap(ByteBuffer buffer, Points points) {
+        buffer.position(align(buffer.position()));
+        int words = bitmapWords(points.getSize());
+        for (int w = 0; w < words; w++) {
+            buffer.putLong(points.getValidityWord(w));
+        }
+    }
+
+    private static long[] getBitmap(ByteBuffer buffer, int rows) {
+        buffer.position(align(buffer.position()));
+        long[] validity = new long[bitmapWords(rows)];
+        buffer.asLongBuffer().get(validity);
+        buffer.position(buffer.position() + validity.length * Long.BYTES);
+        return validity;
+    }
+
+    /**
+     * @param source when not null, the file is a cache of the source and is only read if
+     *               it was written for the same path, size and last modified time
+     * @return the data, or null if it is a stale cache
+     */
+    private Data readData(File source) throws Exception {
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (MAGIC != buffer.getInt() || VERSION != buffer.getInt()) {
+                throw new IOException("Not a columnar data file, or unsupported version");
+            }
+            String sourcePath = getString(buffer);
+            long sourceSize = buffer.getLong();
+            long sourceLastModified = buffer.getLong();
+            if (null != source) {
+                File absoluteSource = source.getAbsoluteFile();
+                if (false == sourcePath.equals(absoluteSource.getPath()) ||
+                        sourceSize != absoluteSource.length() ||
+                        sourceLastModified != absoluteSource.lastModified()) {
+                    return null;
+                }
+            }
+            String sourceName = getString(buffer);
+            int numberOfBands = buffer.getInt();
+            int rows = buffer.getInt();
+            String[] bandNames = new String[numberOfBands];
+            for (int i = 0; i < numberOfBands; i++) {
+                bandNames[i] = getString(buffer);
+            }
+            float minX = buffer.getFloat();
+            float maxX = buffer.getFloat();
+            float[][] minMax = new float[numberOfBands][4];
+            for (int i = 0; i < numberOfBands; i++) {
+                for (int j = 0; j < minMax[i].length; j++) {
+                    minMax[i][j] = buffer.getFloat();
+                }
+            }
+            Points xPoints = new Points(getColumn(buffer, rows), null, minX, maxX);
+            xPoints.encode(false);
+            Map<String, DataSet> data = new LinkedHashMap<String, DataSet>();
+            for (int i = 0; i < numberOfBands; i++) {
+                float[] flux = getColumn(buffer, rows);
+                float[] error = getColumn(buffer, rows);
+                long[] validity = getBitmap(buffer, rows);
+                Points[] yValues = new Points[2];
+                yValues[DataFileParser.Y_VALUE_IDX] = new Points(flux, validity, minMax[i][0], minMax[i][1]);
+                yValues[DataFileParser.Y_ERROR_IDX] = new Points(error, null, minMax[i][2], minMax[i][3]);
+                yValues[DataFileParser.Y_VALUE_IDX].encode(false);
+                yValues[DataFileParser.Y_ERROR_IDX].encode(true);
+                data.put(bandNames[i], new DataSet(bandNames[i], xPoints, yValues));
+            }
+            return new Data(sourceName, data);
+        }
+    }
+
+    /**
+     * The file is written under a temporary name of its own and then moved into place, so
+     * that a reader never maps a partially written file, and concurrent writers of the same
+     * cache do not write over each other. The temporary file is deleted if the write fails.
+     * The folder, e.g. that of the caches, is created if it does not exist.
+     */
+    private void writeData(Data data, File source) throws Exception {
+        String sourcePath = "";
+        long sourceSize = NO_SOURCE_VALUE;
+        long sourceLastModified = NO_SOURCE_VALUE;
+        if (null != source) {
+            File absoluteSource = source.getAbsoluteFile();
+            sourcePath = absoluteSource.getPath();
+            sourceSize = absoluteSource.length();
+            sourceLastModified = absoluteSource.lastModified();
+        }
+        byte[] sourcePathBytes = utf8(sourcePath);
+        byte[] sourceNameBytes = utf8(data.sourceName);
+        int numberOfBands = data.pointsPerBand.size();
+        byte[][] bandNameBytes = new byte[numberOfBands][];
+        int rows = 0;
+        int headerSize = 4 * Integer.BYTES + 2 * Long.BYTES + sourcePathBytes.length + sourceNameBytes.length + Integer.BYTES * 2;
+        int b = 0;
+        for (Map.Entry<String, DataSet> entry : data.pointsPerBand.entrySet()) {
+            bandNameBytes[b] = utf8(entry.getKey());
+            headerSize += Integer.BYTES + bandNameBytes[b].length;
+            rows = entry.getValue().getSize();
+            b++;
+        }
+        headerSize += (2 + numberOfBands * 4) * Float.BYTES;
+        int columnSize = align(rows * Float.BYTES);
+        long fileSize = (long) align(headerSize) + columnSize +
+                (long) numberOfBands * (2L * columnSize + (long) bitmapWords(rows) * Long.BYTES);
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Data too large");
+        }
+
+        File absoluteFile = this.file.getAbsoluteFile();
+        File folder = absoluteFile.getParentFile();
+        if (false == folder.exists()) {
+            folder.mkdirs();
+        }
+        File tmpFile = Files.createTempFile(folder.toPath(), absoluteFile.getName(), ".tmp").toFile();
+        boolean isMoved = false;
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+                raf.setLength(fileSize);
+                MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                putString(buffer, sourcePathBytes);
+                buffer.putLong(sourceSize);
+                buffer.putLong(sourceLastModified);
+                putString(buffer, sourceNameBytes);
+                buffer.putInt(numberOfBands);
+                buffer.putInt(rows);
+                for (byte[] bandName : bandNameBytes) {
+                    putString(buffer, bandName);
+                }
+                DataSet firstDataSet = data.pointsPerBand.values().iterator().next();
+                buffer.putFloat(firstDataSet.xValues.min());
+                buffer.putFloat(firstDataSet.xValues.max());
+                for (DataSet dataSet : data.pointsPerBand.values()) {
+                    buffer.putFloat(dataSet.yValues.min());
+                    buffer.putFloat(dataSet.yValues.max());
+                    buffer.putFloat(dataSet.yError.min());
+                    buffer.putFloat(dataSet.yError.max());
+                }
+                putColumn(buffer, firstDataSet.xValues);
+                for (DataSet dataSet : data.pointsPerBand.values()) {
+                    putColumn(buffer, dataSet.yValues);
+                    putColumn(buffer, dataSet.yError);
+                    putBitmap(buffer, dataSet.yValues);
+                }
+                buffer.force();
+            }
+            Files.move(tmpFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            isMoved = true;
+        } finally {
+            if (false == isMoved) {
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+        }
+    }
+}
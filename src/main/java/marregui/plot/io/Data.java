@@ -20,12 +20,25 @@ import java.util.Map;
 
 public class Data {
     private String filePath;
+    private String xDescription;
     public final String sourceName;
     public final Map<String, DataSet> pointsPerBand;
+    private final ValidityHistory validityHistory;
 
     public Data(String sourceName, Map<String, DataSet> data) {
         this.sourceName = sourceName;
         this.pointsPerBand = data;
+        this.validityHistory = new ValidityHistory();
+        for (DataSet dataSet : data.values()) {
+            dataSet.setValidityHistory(this.validityHistory);
+        }
+    }
+
+    /**
+     * @return the undo/redo log of the validity changes to the points of all the bands
+     */
+    public ValidityHistory getValidityHistory() {
+        return this.validityHistory;
     }
 
     public void setFilePath(String filePath) {
@@ -35,4 +48,18 @@ public class Data {
     public String getFilePath() {
         return this.filePath;
     }
+
+    /**
+     * @param xDescription what the X values are, e.g. the time they are relative to
+     */
+    public void setXDescription(String xDescription) {
+        this.xDescription = xDescription;
+    }
+
+    /**
+     * @return what the X values are, null when the format does not say
+     */
+    public String getXDescription() {
+        return this.xDescription;
+    }
 }
@@ -0,0 +1,168 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import marregui.plot.io.DataFileParser.SnapshotListener;
+
+/**
+ * Follows a text data file that is being appended to, as are the light curves of
+ * monitoring campaigns, which get new rows every day. The file, of any of the text
+ * formats of {@link DataFormats}, is parsed once, then its folder is watched and each
+ * time the file grows only the bytes after those consumed so far are parsed, into the
+ * same columns. A snapshot of all the rows is published each time there are new ones,
+ * they are views over the columns, as when loading.
+ * <p>
+ * The file is also checked every {@link #POLL_MILLIS} milliseconds, as file systems that
+ * do not notify changes are polled by the watch service at a slower pace, or not at all.
+ * When the file is truncated or replaced by a new one, its rows are no longer those
+ * parsed and {@link FileResetException} is thrown, the file must be opened again.
+ *
+ * @author marregui
+ */
+public final class DataFileFollower {
+    public static final long POLL_MILLIS = 1000L;
+
+    /**
+     * The file was truncated, or replaced by another one.
+     */
+    public static final class FileResetException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private FileResetException(Path path) {
+            super(String.format("File %s was truncated or replaced", path));
+        }
+    }
+
+    private final File file;
+    private volatile boolean isStopped;
+    private volatile WatchService watchService;
+
+    /**
+     * @param file text data file
+     */
+    public DataFileFollower(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param file data file
+     * @return false for columnar data files, and other binary formats, which are not appended to
+     */
+    public static boolean canFollow(File file) {
+        return false == ColumnarDataFile.isColumnarDataFile(file) && DataFormats.isTextFormat(file);
+    }
+
+    /**
+     * Parses the file and follows it until {@link #stop()} is called, or the calling thread
+     * is interrupted, in which case InterruptedException is thrown.
+     *
+     * @param listener receives the snapshots, in the calling thread
+     * @return the data parsed until stopped
+     * @throws Exception when the file cannot be read, does not have the expected format,
+     *                   or is truncated/replaced ({@link FileResetException})
+     */
+    public Data follow(SnapshotListener listener) throws Exception {
+        if (false == canFollow(this.file)) {
+            throw new Exception(String.format("Only text data files can be followed: %s", this.file.getName()));
+        }
+        Path path = this.file.getAbsoluteFile().toPath();
+        String filePath = path.toString();
+        MappedDataFileParser parser = MappedDataFileParser.forFollowing(DataFormats.detectTextFormat(this.file), (snapshot, parsedBytes, fileSize) -> {
+            snapshot.setFilePath(filePath);
+            listener.snapshotAvailable(snapshot, parsedBytes, fileSize);
+        });
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+             WatchService watchService = path.getFileSystem().newWatchService()) {
+            Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            path.getParent().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            this.watchService = watchService;
+            parser.parseAppended(channel);
+            while (false == this.isStopped && awaitChange(watchService)) {
+                if (isReplaced(path, fileKey) || channel.size() < parser.getPosition()) {
+                    throw new FileResetException(path);
+                }
+                parser.parseAppended(channel);
+            }
+        } finally {
+            this.watchService = null;
+        }
+        Data data = parser.finish();
+        data.setFilePath(filePath);
+        return data;
+    }
+
+    /**
+     * Stops following the file, {@link #follow(SnapshotListener)} returns the data parsed so far.
+     */
+    public void stop() {
+        this.isStopped = true;
+        WatchService watchService = this.watchService;
+        if (null != watchService) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                /* no-op */
+            }
+        }
+    }
+
+    /**
+     * Any change in the folder is a hint to check the file, which is cheap: its size.
+     *
+     * @return false when the watch service was closed by {@link #stop()}
+     */
+    private static boolean awaitChange(WatchService watchService) throws InterruptedException {
+        try {
+            WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (null != key) {
+                key.pollEvents();
+                key.reset();
+            }
+            return true;
+        } catch (ClosedWatchServiceException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A file that does not exist, momentarily while it is being replaced, is not yet replaced.
+     */
+    private static boolean isReplaced(Path path, Object fileKey) throws IOException {
+        try {
+            return false == Objects.equals(fileKey, Files.readAttributes(path, BasicFileAttributes.class).fileKey());
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+}
@@ -17,15 +17,140 @@
 package marregui.plot.io;
 
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.InputStream;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class DataFileParser {
+
+    /**
+     * How the file is read:
+     * <ul>
+     *     <li><b>BUFFERED:</b> line by line through a BufferedReader, each line is split into Strings</li>
+     *     <li><b>MAPPED:</b> the file is memory mapped and tokenized in place, floats are parsed
+     *                        straight from the bytes without creating intermediate Strings</li>
+     * </ul>
+     * Both modes produce the same Data.
+     */
+    public enum ParseMode {
+        BUFFERED, MAPPED
+    }
+
+    /**
+     * Receives the data parsed so far while a text file is being parsed, so that it can be
+     * shown before the parse completes. Snapshots are called for from the parsing thread.
+     * Their points are views over the rows available at the time, which do not change as
+     * the parse progresses, and they must not be modified.
+     */
+    public interface SnapshotListener {
+        /**
+         * @param snapshot    data parsed so far
+         * @param parsedBytes bytes of the file parsed so far
+         * @param fileSize    size of the file in bytes
+         */
+        void snapshotAvailable(Data snapshot, long parsedBytes, long fileSize);
+    }
+
+    /**
+     * A snapshot is published as soon as the first rows are parsed, then every
+     * SNAPSHOT_ROWS rows or SNAPSHOT_MILLIS milliseconds, whichever comes first.
+     */
+    public static final int SNAPSHOT_ROWS = 1 << 18;
+    public static final long SNAPSHOT_MILLIS = 200L;
+
+    /**
+     * Columnar data files are read as such. Other files are read from their columnar cache,
+     * if there is a valid one, otherwise they are read by the reader of their format, see
+     * {@link DataFormats}, and the cache is written, unless the format is not worth caching.
+     *
+     * @param file data file
+     * @return the data
+     * @throws Exception when the file cannot be read or does not have the expected format
+     */
     public static Data parse(File file) throws Exception {
-        return new DataFileParser(file).parse();
+        return parse(file, (SnapshotListener) null);
+    }
+
+    /**
+     * Same as {@link #parse(File)}, when the text file needs to be parsed the listener
+     * receives snapshots of the data parsed so far. The parse is cancelled by interrupting
+     * the parsing thread, in which case InterruptedException is thrown.
+     *
+     * @param file     data file
+     * @param listener receives the snapshots, may be null
+     * @return the data
+     * @throws Exception when the file cannot be read or does not have the expected format
+     */
+    public static Data parse(File file, SnapshotListener listener) throws Exception {
+        return parse(file, listener, true);
+    }
+
+    /**
+     * Same as {@link #parse(File)}, the columnar cache is read when there is a valid one,
+     * but it is not written, for readers of many files that are not opened, such as the
+     * catalog of the downloads folder.
+     *
+     * @param file data file
+     * @return the data
+     * @throws Exception when the file cannot be read or does not have the expected format
+     */
+    public static Data parseWithoutCaching(File file) throws Exception {
+        return parse(file, null, false);
+    }
+
+    private static Data parse(File file, SnapshotListener listener, boolean writesCache) throws Exception {
+        if (ColumnarDataFile.isColumnarDataFile(file)) {
+            return ColumnarDataFile.read(file);
+        }
+        DataFormatReader reader = DataFormats.detect(file);
+        Data data = reader.isCacheable() ? ColumnarDataFile.readCache(file) : null;
+        if (null == data) {
+            String filePath = file.getAbsolutePath();
+            data = null == listener ? reader.read(file, null) : reader.read(file, (snapshot, parsedBytes, fileSize) -> {
+                snapshot.setFilePath(filePath);
+                listener.snapshotAvailable(snapshot, parsedBytes, fileSize);
+            });
+            data.setFilePath(filePath);
+            if (writesCache && reader.isCacheable()) {
+                ColumnarDataFile.writeCache(data, file);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Same as {@link #parse(File, SnapshotListener)}, for data that is not in a file of its
+     * own, e.g. a member of an archive, which is streamed into the reader of its format.
+     * It is not cached.
+     *
+     * @param filePath path the data is known by, its name is used to detect the format
+     * @param in       the data
+     * @param size     number of bytes of the data
+     * @param listener receives the snapshots, may be null
+     * @return the data
+     * @throws Exception when the data cannot be read or does not have the expected format
+     */
+    public static Data parse(String filePath, InputStream in, long size, SnapshotListener listener) throws Exception {
+        String fileName = new File(filePath).getName();
+        InputStream data = new BufferedInputStream(in, DataFormats.SNIFF_SIZE);
+        DataFormatReader reader = DataFormats.detect(fileName, data);
+        Data parsed = reader.read(fileName, data, size, null == listener ? null : (snapshot, parsedBytes, dataSize) -> {
+            snapshot.setFilePath(filePath);
+            listener.snapshotAvailable(snapshot, parsedBytes, dataSize);
+        });
+        parsed.setFilePath(filePath);
+        return parsed;
+    }
+
+    public static Data parse(File file, ParseMode parseMode) throws Exception {
+        Data data = ParseMode.MAPPED == parseMode ?
+                MappedDataFileParser.parse(file) : new DataFileParser(file).parse();
+        data.setFilePath(file.getAbsolutePath());
+        return data;
     }
 
     public static final String NO_VALUE = "n";
@@ -58,18 +183,73 @@ public class DataFileParser {
         try {
             return Float.valueOf(candidate).floatValue();
         } catch (Exception e) {
-            throw new Exception(String.format(
-                    "Data Line %s, column %d is not a valid value: %s",
-                    String.valueOf(lineNumber), String.valueOf(fieldNumber), candidate));
+            throw invalidValue(candidate, lineNumber, fieldNumber);
+        }
+    }
+
+    static Exception invalidValue(String candidate, long lineNumber, int fieldNumber) {
+        return new Exception(String.format(
+                "Data Line %s, column %s is not a valid value: %s",
+                String.valueOf(lineNumber), String.valueOf(fieldNumber), candidate));
+    }
+
+    static void reportNoValue(long lineNumber, int bandStartOffset) {
+        System.out.printf(
+                "Data Line %s, columns %s, %s have no value\n",
+                String.valueOf(lineNumber), String.valueOf(1 + bandStartOffset), String.valueOf(1 + bandStartOffset + 1));
+    }
+
+    static void reportIncorrectNumberOfFields(long lineNumber, String line) {
+        System.err.printf(
+                "Data Line %s does not contain the correct number of fields: %s\r\n",
+                String.valueOf(lineNumber), line);
+    }
+
+    static Map<String, Points[]> createBandPoints(Header header) {
+        Map<String, Points[]> pointsInBand = new LinkedHashMap<String, Points[]>();
+        for (int i = 0; i < header.numberOfBands; i++) {
+            // Flux, negative error, positive error
+            pointsInBand.put(header.bandNames[i], new Points[]{new Points(false), new Points(true)});
         }
+        return pointsInBand;
     }
 
-    private static class Header {
+    static Data createData(Header header, Points xPoints, Map<String, Points[]> pointsInBand) throws Exception {
+        if (0 == xPoints.getSize()) {
+            throw new Exception("No data available");
+        }
+        for (int i = 0; i < header.numberOfBands; i++) {
+            Points[] points = pointsInBand.get(header.bandNames[i]);
+            points[Y_VALUE_IDX].done();
+            points[Y_ERROR_IDX].encode(true);
+        }
+
+        Map<String, DataSet> data = new LinkedHashMap<String, DataSet>();
+        xPoints.done();
+        for (String bandName : pointsInBand.keySet()) {
+            data.put(bandName, new DataSet(bandName, xPoints, pointsInBand.get(bandName)));
+        }
+        return new Data(header.sourceName, data);
+    }
+
+    static Data createSnapshot(Header header, Points xPoints, Map<String, Points[]> pointsInBand) {
+        Map<String, DataSet> data = new LinkedHashMap<String, DataSet>();
+        Points xSnapshot = xPoints.snapshot();
+        for (String bandName : pointsInBand.keySet()) {
+            Points[] points = pointsInBand.get(bandName);
+            data.put(bandName, new DataSet(bandName, xSnapshot, new Points[]{
+                    points[Y_VALUE_IDX].snapshot(), points[Y_ERROR_IDX].snapshot()
+            }));
+        }
+        return new Data(header.sourceName, data);
+    }
+
+    static class Header {
         final String sourceName;
         final int numberOfBands;
         final String[] bandNames;
 
-        private Header(String[] parts) throws Exception {
+        Header(String[] parts) throws Exception {
             if (parts.length <= 1) {
                 throw new Exception("Header format should be: src name, flux name 1, ..., flux name n");
             }
@@ -115,9 +295,7 @@ public class DataFileParser {
             String yerr = parts[bandStartOffset + 1];
             if (null == yval || yval.trim().toLowerCase().equals(NO_VALUE) ||
                     null == yerr || yerr.trim().toLowerCase().equals(NO_VALUE)) {
-                System.out.printf(
-                        "Data Line %s, columns %s, %s have no value\n",
-                        String.valueOf(lineNumber), String.valueOf(1 + bandStartOffset), String.valueOf(1 + bandStartOffset + 1));
+                reportNoValue(lineNumber, bandStartOffset);
                 return;
             }
             this.flux = parseFloat(yval, lineNumber, 1 + bandStartOffset);
@@ -131,11 +309,7 @@ public class DataFileParser {
                 throw new Exception("No header found");
             }
             Points xPoints = new Points(true);
-            Map<String, Points[]> pointsInBand = new LinkedHashMap<String, Points[]>();
-            for (int i = 0; i < header.numberOfBands; i++) {
-                // Flux, negative error, positive error
-                pointsInBand.put(header.bandNames[i], new Points[]{new Points(false), new Points(true)});
-            }
+            Map<String, Points[]> pointsInBand = createBandPoints(header);
 
             // The parsing
             long lineNumber = 1;
@@ -144,9 +318,7 @@ public class DataFileParser {
                 if (EMPTY_LINE != line) {
                     String[] parts = line.split("[,]");
                     if (parts.length != expectedNumberOfFields) {
-                        System.err.printf(
-                                "Data Line %s does not contain the correct number of fields: %s\r\n",
-                                String.valueOf(lineNumber), line);
+                        reportIncorrectNumberOfFields(lineNumber, line);
                         continue;
                     }
                     Band band = new Band();
@@ -165,19 +337,7 @@ public class DataFileParser {
                 }
                 lineNumber++;
             }
-            if (0 == xPoints.getSize()) {
-                throw new Exception("No data available");
-            }
-            for (int i = 0; i < header.numberOfBands; i++) {
-                pointsInBand.get(header.bandNames[i])[0].done();
-            }
-
-            Map<String, DataSet> data = new LinkedHashMap<String, DataSet>();
-            xPoints.done();
-            for (String bandName : pointsInBand.keySet()) {
-                data.put(bandName, new DataSet(bandName, xPoints, pointsInBand.get(bandName)));
-            }
-            return new Data(header.sourceName, data);
+            return createData(header, xPoints, pointsInBand);
         }
     }
 
@@ -185,9 +345,7 @@ public class DataFileParser {
         BufferedReader br = null;
         try {
             br = new BufferedReader(new FileReader(this.file));
-            Data data = Band.parseData(br);
-            data.setFilePath(this.file.getAbsolutePath());
-            return data;
+            return Band.parseData(br);
         } finally {
             if (null != br) {
                 try {
@@ -25,8 +25,20 @@ import marregui.plot.AxisLabels;
 public class DataFilePersister {
 
 
+    /**
+     * Writes the data in columnar binary format when the file has extension
+     * {@link ColumnarDataFile#EXTENSION}, otherwise in text format.
+     *
+     * @param data data to persist
+     * @param file target file
+     * @throws Exception when the file cannot be written
+     */
     public static void persist(Data data, File file) throws Exception {
-        new DataFilePersister(data, file).persist();
+        if (ColumnarDataFile.isColumnarDataFile(file)) {
+            ColumnarDataFile.write(data, file);
+        } else {
+            new DataFilePersister(data, file).persist();
+        }
     }
 
     private static final String SEPARATOR = ", ";
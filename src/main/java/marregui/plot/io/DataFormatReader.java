@@ -0,0 +1,81 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.io.File;
+import java.io.InputStream;
+
+import marregui.plot.io.DataFileParser.SnapshotListener;
+
+/**
+ * Reader of a format of data files. Readers are looked up by {@link DataFormats}, which
+ * offers the first {@link DataFormats#SNIFF_SIZE} bytes of a file to each of them, in
+ * turn, until one recognises its format. Readers other than the built in ones are
+ * plugged in as services: listed, by class name, in the resource
+ * META-INF/services/marregui.plot.io.DataFormatReader of a jar in the class path, and
+ * constructed with their public no arguments constructor.
+ *
+ * @author marregui
+ */
+public interface DataFormatReader {
+
+    /**
+     * @return name of the format
+     */
+    String getName();
+
+    /**
+     * Called for from any thread, it must be cheap: it decides from the head alone.
+     *
+     * @param fileName name of the file
+     * @param head     first bytes of the file, the whole file when length is smaller than head.length
+     * @param length   number of bytes of the head
+     * @return true when the head is of this format
+     */
+    boolean canRead(String fileName, byte[] head, int length);
+
+    /**
+     * @return true when the data read is worth keeping in a columnar cache, see
+     * {@link DataFileParser#parse(File)}, false when the format is read as fast as the cache
+     */
+    default boolean isCacheable() {
+        return true;
+    }
+
+    /**
+     * @param file     data file of this format
+     * @param listener receives snapshots of the data read so far, may be null
+     * @return the data
+     * @throws Exception when the file cannot be read or does not have the expected format
+     */
+    Data read(File file, SnapshotListener listener) throws Exception;
+
+    /**
+     * Reads data that is not in a file of its own, e.g. a member of an archive.
+     *
+     * @param fileName name of the data
+     * @param in       the data, it supports mark/reset of at least {@link DataFormats#SNIFF_SIZE} bytes
+     * @param size     number of bytes of the data
+     * @param listener receives snapshots of the data read so far, may be null
+     * @return the data
+     * @throws Exception when the data cannot be read or does not have the expected format,
+     *                   or the format is only read from files
+     */
+    default Data read(String fileName, InputStream in, long size, SnapshotListener listener) throws Exception {
+        throw new Exception(String.format("%s data is only read from files: %s", getName(), fileName));
+    }
+}
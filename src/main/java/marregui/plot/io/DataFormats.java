@@ -0,0 +1,164 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of the {@link DataFormatReader}s: those plugged in as services, which are
+ * asked first so that they can take over the formats of the built in ones, then the
+ * built in ones, FITS binary tables, the format of {@link DataFileParser}, MAXI CSV, QDP
+ * and plain columns.
+ * The format of a file is detected from its first {@link #SNIFF_SIZE} bytes, read once
+ * and offered to each reader in turn, so detection costs one small read however large
+ * the file, and however many readers there are.
+ *
+ * @author marregui
+ */
+public final class DataFormats {
+    public static final int SNIFF_SIZE = 8 * 1024;
+
+    private static final DataFormatReader LIGHT_CURVE = new TextFormatReader.LightCurve();
+    private static final List<DataFormatReader> READERS = loadReaders();
+
+    private static List<DataFormatReader> loadReaders() {
+        List<DataFormatReader> readers = new ArrayList<>();
+        try {
+            for (DataFormatReader reader : ServiceLoader.load(DataFormatReader.class)) {
+                readers.add(reader);
+            }
+        } catch (ServiceConfigurationError e) {
+            System.err.printf("Ignoring data format plug-ins: %s\n", e.getMessage());
+        }
+        readers.add(new FitsReader());
+        readers.add(LIGHT_CURVE);
+        readers.add(new TextFormatReader.MaxiCsv());
+        readers.add(new TextFormatReader.Qdp());
+        readers.add(new TextFormatReader.Columns());
+        return Collections.unmodifiableList(readers);
+    }
+
+    /**
+     * @return the readers, in the order they are asked
+     */
+    public static List<DataFormatReader> getReaders() {
+        return READERS;
+    }
+
+    /**
+     * @param file data file
+     * @return the first reader that recognises the format of the file, the reader of the
+     * format of {@link DataFileParser} when none does, so that its errors are reported
+     * @throws Exception when the file cannot be read
+     */
+    public static DataFormatReader detect(File file) throws Exception {
+        byte[] head = new byte[SNIFF_SIZE];
+        return detect(file.getName(), head, readHead(file, head));
+    }
+
+    /**
+     * @param fileName name of the data
+     * @param in       the data, positioned where it was, it must support mark/reset
+     * @return the first reader that recognises the format of the data, as {@link #detect(File)}
+     * @throws Exception when the data cannot be read
+     */
+    public static DataFormatReader detect(String fileName, InputStream in) throws Exception {
+        byte[] head = new byte[SNIFF_SIZE];
+        return detect(fileName, head, readHead(in, head));
+    }
+
+    private static DataFormatReader detect(String fileName, byte[] head, int length) {
+        for (DataFormatReader reader : READERS) {
+            if (reader.canRead(fileName, head, length)) {
+                return reader;
+            }
+        }
+        return LIGHT_CURVE;
+    }
+
+    /**
+     * @param file data file
+     * @return true when the file is of one of the text formats
+     */
+    static boolean isTextFormat(File file) {
+        try {
+            return detect(file) instanceof TextFormatReader;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param file text data file
+     * @return the layout of the rows of the file, that of {@link DataFileParser} when it is
+     * not one of the text formats
+     * @throws Exception when the file cannot be read
+     */
+    static TextFormat detectTextFormat(File file) throws Exception {
+        byte[] head = new byte[SNIFF_SIZE];
+        int length = readHead(file, head);
+        String fileName = file.getName();
+        for (DataFormatReader reader : READERS) {
+            if (reader.canRead(fileName, head, length)) {
+                TextFormat format = reader instanceof TextFormatReader ?
+                        ((TextFormatReader) reader).sniff(fileName, head, length) : null;
+                return null != format ? format : TextFormat.LIGHT_CURVE;
+            }
+        }
+        return TextFormat.LIGHT_CURVE;
+    }
+
+    /**
+     * @return number of bytes read, smaller than head.length only when the file is
+     */
+    static int readHead(File file, byte[] head) throws Exception {
+        try (InputStream in = new FileInputStream(file)) {
+            return readFully(in, head);
+        }
+    }
+
+    /**
+     * @param in the data, it is reset to where it was
+     * @return number of bytes read, smaller than head.length only when the data is
+     */
+    static int readHead(InputStream in, byte[] head) throws Exception {
+        if (false == in.markSupported()) {
+            throw new Exception("The data cannot be sniffed, its stream does not support mark/reset");
+        }
+        in.mark(head.length);
+        try {
+            return readFully(in, head);
+        } finally {
+            in.reset();
+        }
+    }
+
+    static int readFully(InputStream in, byte[] bytes) throws Exception {
+        int length = 0;
+        for (int read; length < bytes.length && (read = in.read(bytes, length, bytes.length - length)) > 0; ) {
+            length += read;
+        }
+        return length;
+    }
+}
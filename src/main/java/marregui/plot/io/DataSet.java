@@ -17,6 +17,8 @@
 package marregui.plot.io;
 
 import java.awt.Color;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DataSet {
     private static final int DEFAULT_HASH_CODE = 0;
@@ -27,6 +29,12 @@ public class DataSet {
     public final Points xValues, yValues, yError;
     private int hashCode;
     private Color color;
+    private MinMaxIndex yIndex;
+    private StatisticsIndex statisticsIndex;
+    private DecimationPyramid decimationPyramid;
+    private final Map<Float, DataSet> rebinnedDataSets = new ConcurrentHashMap<>();
+    private int modificationCount;
+    private ValidityHistory validityHistory;
 
     public DataSet(String id, Points xValues, Points[] yValues) {
         this.id = id;
@@ -46,45 +54,237 @@ public class DataSet {
     }
 
     public void validatePoints(float startx, float endx, boolean pointsAreValid) {
-        for (int i = 0; i < getSize(); i++) {
-            float x = this.xValues.get(i);
-            if (x >= startx && x <= endx) {
-                this.yValues.setValid(i, pointsAreValid);
+        if (this.xValues.isNonDecreasing()) {
+            int from = this.xValues.indexOfFirstAtOrAbove(startx);
+            int to = this.xValues.indexOfFirstAbove(endx);
+            long[] before = encodeValidity(from, to);
+            this.yValues.validatePoints(from, to, pointsAreValid);
+            validityChanged(from, to, before);
+        } else {
+            long[] before = encodeValidity(0, getSize());
+            int from = getSize();
+            int to = 0;
+            for (int i = 0; i < getSize(); i++) {
+                float x = this.xValues.get(i);
+                if (x >= startx && x <= endx) {
+                    this.yValues.setValid(i, pointsAreValid);
+                    from = Math.min(from, i);
+                    to = i + 1;
+                }
+            }
+            if (from < to) {
+                validityChanged(0, getSize(), before);
             }
         }
     }
 
+    /**
+     * Min and max of the valid Y values whose X value is within range. When the X values
+     * are sorted in time, the range of indexes is found with a binary search and the min
+     * and max are queried from an index over the Y values, built on the first call.
+     *
+     * @return {min, max}, the min/max of all the valid Y values if there are none in range,
+     * or the min/max found when the data was loaded if there are no valid Y values
+     */
     public float[] getLocalMinMaxInYAxis(float minx, float maxx) {
+        float[] minMax = new float[2];
         boolean valuesFound = false;
-        float miny = Float.MAX_VALUE;
-        float maxy = Float.MIN_VALUE;
         if (maxx > minx) {
-            for (int i = 0; i < getSize(); i++) {
-                float x = this.xValues.get(i);
-                if (x >= minx && x <= maxx) {
+            if (this.xValues.isNonDecreasing()) {
+                if (null == this.yIndex) {
+                    this.yIndex = new MinMaxIndex(this.yValues);
+                }
+                int from = this.xValues.indexOfFirstAtOrAbove(minx);
+                int to = this.xValues.indexOfFirstAbove(maxx);
+                valuesFound = this.yIndex.query(from, to, minMax) || this.yIndex.query(0, getSize(), minMax);
+            } else {
+                float miny = Float.POSITIVE_INFINITY;
+                float maxy = Float.NEGATIVE_INFINITY;
+                for (int i = 0; i < getSize(); i++) {
+                    float x = this.xValues.get(i);
                     float y = this.yValues.get(i);
-                    miny = Math.min(miny, y);
-                    maxy = Math.max(maxy, y);
-                    valuesFound = true;
+                    if (x >= minx && x <= maxx && this.yValues.isValid(i) && false == Float.isNaN(y)) {
+                        miny = Math.min(miny, y);
+                        maxy = Math.max(maxy, y);
+                        valuesFound = true;
+                    }
                 }
+                minMax[0] = miny;
+                minMax[1] = maxy;
             }
         }
         if (false == valuesFound) {
-            miny = this.yValues.min();
-            maxy = this.yValues.max();
+            minMax[0] = this.yValues.min();
+            minMax[1] = this.yValues.max();
+        }
+        return minMax;
+    }
+
+    /**
+     * Statistics of the valid Y values whose X value is in the range. When the X values are
+     * sorted they are queried from an index of prefix sums, built on the first call, in
+     * O(log n) however wide the range, otherwise the points are scanned.
+     *
+     * @param minx start of the range, inclusive
+     * @param maxx end of the range, inclusive
+     * @return the statistics
+     */
+    public RangeStatistics getStatistics(float minx, float maxx) {
+        if (false == this.xValues.isNonDecreasing()) {
+            return StatisticsIndex.scan(this.xValues, this.yValues, this.yError, minx, maxx);
+        }
+        if (null == this.statisticsIndex) {
+            this.statisticsIndex = new StatisticsIndex(this.yValues, this.yError);
         }
-        return new float[]{miny, maxy};
+        return this.statisticsIndex.query(
+                this.xValues.indexOfFirstAtOrAbove(minx),
+                this.xValues.indexOfFirstAbove(maxx));
     }
 
     public void invalidatePointsOut(float startx, float endx) {
-        for (int i = 0; i < getSize(); i++) {
-            float x = this.xValues.get(i);
-            this.yValues.setValid(i, (x >= startx && x <= endx));
+        long[] before = encodeValidity(0, getSize());
+        if (this.xValues.isNonDecreasing()) {
+            int from = this.xValues.indexOfFirstAtOrAbove(startx);
+            int to = this.xValues.indexOfFirstAbove(endx);
+            this.yValues.validatePoints(0, from, false);
+            this.yValues.validatePoints(from, to, true);
+            this.yValues.validatePoints(to, getSize(), false);
+        } else {
+            for (int i = 0; i < getSize(); i++) {
+                float x = this.xValues.get(i);
+                this.yValues.setValid(i, (x >= startx && x <= endx));
+            }
         }
+        validityChanged(0, getSize(), before);
     }
 
     public void validateAllPoints(boolean pointsAreValid) {
+        long[] before = encodeValidity(0, getSize());
         this.yValues.validateAllPoints(pointsAreValid);
+        validityChanged(0, getSize(), before);
+    }
+
+    /**
+     * @return the undo/redo log of the validity changes, shared by the data sets of the
+     * same {@link Data}, null when the data set does not belong to one
+     */
+    public ValidityHistory getValidityHistory() {
+        return this.validityHistory;
+    }
+
+    void setValidityHistory(ValidityHistory validityHistory) {
+        this.validityHistory = validityHistory;
+    }
+
+    /**
+     * Called for by the history to undo/redo a change.
+     */
+    void restoreValidity(int from, int to, long[] runs) {
+        this.yValues.decodeValidity(from, to, runs);
+        validityChanged(from, to);
+    }
+
+    private long[] encodeValidity(int from, int to) {
+        return null != this.validityHistory ? this.yValues.encodeValidity(from, to) : null;
+    }
+
+    private void validityChanged(int from, int to, long[] before) {
+        if (from < to && null != this.validityHistory) {
+            this.validityHistory.record(this, from, to, before, this.yValues.encodeValidity(from, to));
+        }
+        validityChanged(from, to);
+    }
+
+    /**
+     * @return the level of detail used to render the data set, built on the first call,
+     * null when the X values are not sorted
+     */
+    public DecimationPyramid getDecimationPyramid() {
+        if (null == this.decimationPyramid && this.xValues.isNonDecreasing()) {
+            this.decimationPyramid = new DecimationPyramid(this);
+        }
+        return this.decimationPyramid;
+    }
+
+    /**
+     * Copy of the data set for other threads to read while this one is edited: it shares
+     * the values, with a copy of their validity as it is now, and has its own indexes,
+     * built up front rather than on first use, so that reading it never writes to it.
+     *
+     * @return the copy
+     */
+    public DataSet frozenCopy() {
+        Points[] yValues = new Points[2];
+        yValues[DataFileParser.Y_VALUE_IDX] = this.yValues.frozenCopy();
+        yValues[DataFileParser.Y_ERROR_IDX] = this.yError;
+        DataSet copy = new DataSet(this.id, this.xValues, yValues);
+        copy.color = this.color;
+        if (this.xValues.isNonDecreasing()) {
+            copy.yIndex = new MinMaxIndex(copy.yValues);
+            copy.statisticsIndex = new StatisticsIndex(copy.yValues, copy.yError);
+            copy.decimationPyramid = new DecimationPyramid(copy);
+        }
+        return copy;
+    }
+
+    /**
+     * The rebinned data sets are kept per bin width, until the validity of the points
+     * changes, so that going back to a width does not rebin again. The cache is safe to
+     * read and fill from the threads that paint posters.
+     *
+     * @param binWidth width of the bins of X, see {@link Rebinner}
+     * @return data set with the error weighted mean of the valid points of each bin, null
+     * when the X values are not sorted or the width is not positive
+     */
+    public DataSet rebin(float binWidth) {
+        if (false == this.xValues.isNonDecreasing() || false == (binWidth > 0.0F)) {
+            return null;
+        }
+        return this.rebinnedDataSets.computeIfAbsent(Float.valueOf(binWidth), width -> Rebinner.rebin(this, width.floatValue()));
+    }
+
+    /**
+     * Takes over the indexes built for an earlier version of the data set, a snapshot of
+     * the same file with fewer rows, extending them with the points added since, rather
+     * than building them again on first use.
+     *
+     * @param previous data set whose points are the first points of this one, unmodified
+     */
+    public void extendIndexesOf(DataSet previous) {
+        if (previous.getSize() > getSize() || previous.getModificationCount() > 0) {
+            return;
+        }
+        if (null != previous.yIndex && this.xValues.isNonDecreasing()) {
+            this.yIndex = previous.yIndex.extendTo(this.yValues);
+        }
+        if (null != previous.statisticsIndex && this.xValues.isNonDecreasing()) {
+            this.statisticsIndex = previous.statisticsIndex.extendTo(this.yValues, this.yError);
+        }
+        if (null != previous.decimationPyramid && this.xValues.isNonDecreasing()) {
+            this.decimationPyramid = previous.decimationPyramid.extendTo(this);
+        }
+    }
+
+    /**
+     * @return number of times the validity of the points has changed, for views to tell
+     * whether what they have drawn is up to date
+     */
+    public int getModificationCount() {
+        return this.modificationCount;
+    }
+
+    private void validityChanged(int from, int to) {
+        this.modificationCount++;
+        if (null != this.yIndex) {
+            this.yIndex.update(from, to);
+        }
+        if (null != this.statisticsIndex) {
+            this.statisticsIndex.update(from, to);
+        }
+        if (null != this.decimationPyramid) {
+            this.decimationPyramid.update(from, to);
+        }
+        this.rebinnedDataSets.clear();
     }
 
     public int getSize() {
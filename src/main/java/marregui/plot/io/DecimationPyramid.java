@@ -0,0 +1,337 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+/**
+ * Level of detail of a {@link DataSet} whose X values are sorted, for rendering. The
+ * points are grouped in buckets of consecutive points, 16 at the first level, twice as
+ * many at each next level. Each bucket holds the M4 aggregates of its points: first
+ * and last valid points, min and max Y, and the extent of the error bars, for the valid
+ * points and separately for the non valid ones. Points without value (NaN) are ignored.
+ * <p>
+ * {@link #decimate} walks the points in X order, taking the biggest bucket that falls
+ * within one pixel column at a time, and publishes one {@link Column} per pixel column.
+ * Rendering costs in proportion to the width of the plot, rather than to the number of
+ * points.
+ *
+ * @author marregui
+ */
+public final class DecimationPyramid {
+    private static final int FIRST_LEVEL_SHIFT = 4;
+
+    /**
+     * Aggregate of the points within one pixel column, the instance is reused.
+     */
+    public static final class Column {
+        /**
+         * Range of indexes of the points in the column, from inclusive, to exclusive
+         */
+        public int from, to;
+        /**
+         * False for the points to the left, or to the right, of the plot, which form one column each
+         */
+        public boolean isVisible;
+        /**
+         * Indexes of the first and last valid points, -1 when there are no valid points
+         */
+        public int first, last;
+        public float minY, maxY, minErrorY, maxErrorY;
+        public float invalidMinY, invalidMaxY, invalidMinErrorY, invalidMaxErrorY;
+
+        public boolean hasValidPoints() {
+            return this.first >= 0;
+        }
+
+        public boolean hasNonValidPoints() {
+            return this.invalidMinY <= this.invalidMaxY;
+        }
+
+        private void reset(int from, boolean isVisible) {
+            this.from = from;
+            this.to = from;
+            this.isVisible = isVisible;
+            this.first = -1;
+            this.last = -1;
+            this.minY = this.minErrorY = this.invalidMinY = this.invalidMinErrorY = Float.POSITIVE_INFINITY;
+            this.maxY = this.maxErrorY = this.invalidMaxY = this.invalidMaxErrorY = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    public interface ColumnListener {
+        void columnAvailable(Column column);
+    }
+
+    /**
+     * Buckets of one level, the aggregates are stored column wise, one array per aggregate.
+     */
+    private static final class Level {
+        private final int shift;
+        private final int[] first, last;
+        private final float[] minY, maxY, minErrorY, maxErrorY;
+        private final float[] invalidMinY, invalidMaxY, invalidMinErrorY, invalidMaxErrorY;
+
+        private Level(int shift, int bucketCount) {
+            this.shift = shift;
+            this.first = new int[bucketCount];
+            this.last = new int[bucketCount];
+            this.minY = new float[bucketCount];
+            this.maxY = new float[bucketCount];
+            this.minErrorY = new float[bucketCount];
+            this.maxErrorY = new float[bucketCount];
+            this.invalidMinY = new float[bucketCount];
+            this.invalidMaxY = new float[bucketCount];
+            this.invalidMinErrorY = new float[bucketCount];
+            this.invalidMaxErrorY = new float[bucketCount];
+        }
+
+        private int bucketCount() {
+            return this.first.length;
+        }
+
+        private void reset(int b) {
+            this.first[b] = this.last[b] = -1;
+            this.minY[b] = this.minErrorY[b] = this.invalidMinY[b] = this.invalidMinErrorY[b] = Float.POSITIVE_INFINITY;
+            this.maxY[b] = this.maxErrorY[b] = this.invalidMaxY[b] = this.invalidMaxErrorY[b] = Float.NEGATIVE_INFINITY;
+        }
+
+        private void set(int b, Column bucket) {
+            this.first[b] = bucket.first;
+            this.last[b] = bucket.last;
+            this.minY[b] = bucket.minY;
+            this.maxY[b] = bucket.maxY;
+            this.minErrorY[b] = bucket.minErrorY;
+            this.maxErrorY[b] = bucket.maxErrorY;
+            this.invalidMinY[b] = bucket.invalidMinY;
+            this.invalidMaxY[b] = bucket.invalidMaxY;
+            this.invalidMinErrorY[b] = bucket.invalidMinErrorY;
+            this.invalidMaxErrorY[b] = bucket.invalidMaxErrorY;
+        }
+
+        private void copy(Level level, int bucketCount) {
+            System.arraycopy(level.first, 0, this.first, 0, bucketCount);
+            System.arraycopy(level.last, 0, this.last, 0, bucketCount);
+            System.arraycopy(level.minY, 0, this.minY, 0, bucketCount);
+            System.arraycopy(level.maxY, 0, this.maxY, 0, bucketCount);
+            System.arraycopy(level.minErrorY, 0, this.minErrorY, 0, bucketCount);
+            System.arraycopy(level.maxErrorY, 0, this.maxErrorY, 0, bucketCount);
+            System.arraycopy(level.invalidMinY, 0, this.invalidMinY, 0, bucketCount);
+            System.arraycopy(level.invalidMaxY, 0, this.invalidMaxY, 0, bucketCount);
+            System.arraycopy(level.invalidMinErrorY, 0, this.invalidMinErrorY, 0, bucketCount);
+            System.arraycopy(level.invalidMaxErrorY, 0, this.invalidMaxErrorY, 0, bucketCount);
+        }
+
+        private void merge(int b, Level children, int c) {
+            if (this.first[b] < 0) {
+                this.first[b] = children.first[c];
+            }
+            if (children.last[c] >= 0) {
+                this.last[b] = children.last[c];
+            }
+            this.minY[b] = Math.min(this.minY[b], children.minY[c]);
+            this.maxY[b] = Math.max(this.maxY[b], children.maxY[c]);
+            this.minErrorY[b] = Math.min(this.minErrorY[b], children.minErrorY[c]);
+            this.maxErrorY[b] = Math.max(this.maxErrorY[b], children.maxErrorY[c]);
+            this.invalidMinY[b] = Math.min(this.invalidMinY[b], children.invalidMinY[c]);
+            this.invalidMaxY[b] = Math.max(this.invalidMaxY[b], children.invalidMaxY[c]);
+            this.invalidMinErrorY[b] = Math.min(this.invalidMinErrorY[b], children.invalidMinErrorY[c]);
+            this.invalidMaxErrorY[b] = Math.max(this.invalidMaxErrorY[b], children.invalidMaxErrorY[c]);
+        }
+    }
+
+    private final Points xValues, yValues, yError;
+    private final int size;
+    private final Level[] levels;
+
+    DecimationPyramid(DataSet dataSet) {
+        this(dataSet, null);
+    }
+
+    /**
+     * Pyramid of a data set whose first points are those of a pyramid built earlier, as are
+     * the snapshots of a file being parsed or followed. The buckets of the earlier pyramid
+     * that are full are copied, only the buckets of the points added since are computed.
+     */
+    private DecimationPyramid(DataSet dataSet, DecimationPyramid prefix) {
+        this.xValues = dataSet.xValues;
+        this.yValues = dataSet.yValues;
+        this.yError = dataSet.yError;
+        this.size = dataSet.getSize();
+        int levelCount = 1;
+        while ((this.size - 1) >> (FIRST_LEVEL_SHIFT + levelCount - 1) > 0) {
+            levelCount++;
+        }
+        this.levels = new Level[levelCount];
+        for (int i = 0; i < levelCount; i++) {
+            int shift = FIRST_LEVEL_SHIFT + i;
+            this.levels[i] = new Level(shift, Math.max(1, (this.size + (1 << shift) - 1) >> shift));
+        }
+        int from = 0;
+        if (null != prefix) {
+            // levels the prefix does not have, have no full buckets in it
+            for (int i = 0; i < prefix.levels.length; i++) {
+                this.levels[i].copy(prefix.levels[i], prefix.size >> this.levels[i].shift);
+            }
+            from = (prefix.size >> FIRST_LEVEL_SHIFT) << FIRST_LEVEL_SHIFT;
+        }
+        update(from, this.size);
+    }
+
+    /**
+     * @param dataSet data set whose points start with the points of this pyramid
+     * @return pyramid of the data set
+     */
+    DecimationPyramid extendTo(DataSet dataSet) {
+        return new DecimationPyramid(dataSet, this);
+    }
+
+    /**
+     * Recomputes the buckets that contain a range of points whose validity changed.
+     *
+     * @param from first index, inclusive
+     * @param to   last index, exclusive
+     */
+    void update(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        Level level = this.levels[0];
+        int firstBucket = from >> level.shift;
+        int lastBucket = (to - 1) >> level.shift;
+        Column bucket = new Column();
+        for (int b = firstBucket; b <= lastBucket; b++) {
+            bucket.reset(b << level.shift, true);
+            int end = Math.min(this.size, (b + 1) << level.shift);
+            for (int i = b << level.shift; i < end; i++) {
+                merge(bucket, i);
+            }
+            level.set(b, bucket);
+        }
+        for (int i = 1; i < this.levels.length; i++) {
+            Level children = this.levels[i - 1];
+            level = this.levels[i];
+            firstBucket >>= 1;
+            lastBucket >>= 1;
+            for (int b = firstBucket; b <= lastBucket; b++) {
+                level.reset(b);
+                for (int c = 2 * b; c <= 2 * b + 1 && c < children.bucketCount(); c++) {
+                    level.merge(b, children, c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes, in X order, the aggregates of the points in a range of indexes that fall
+     * within each pixel column. The points to the left of startx are published as one
+     * column, as are the points to the right of the last column, both flagged as not
+     * visible, so that the curve can be joined to the points outside of the plot.
+     *
+     * @param from        first index, inclusive
+     * @param to          last index, exclusive
+     * @param startx      X value at the left edge of the first column
+     * @param columnWidth X range of a column
+     * @param columnCount number of columns
+     * @param listener    receives the columns
+     */
+    public void decimate(int from, int to, float startx, float columnWidth, int columnCount, ColumnListener listener) {
+        Column column = new Column();
+        int currentColumn = Integer.MIN_VALUE;
+        int topShift = this.levels[this.levels.length - 1].shift;
+        int i = from;
+        while (i < to) {
+            int shift = Math.min(topShift, Integer.numberOfTrailingZeros(i | (1 << topShift)));
+            int end = i + 1;
+            int columnIdx = columnOf(this.xValues.get(i), startx, columnWidth, columnCount);
+            Level level = null;
+            for (; shift >= FIRST_LEVEL_SHIFT; shift--) {
+                end = Math.min(this.size, i + (1 << shift));
+                if (end <= to && columnIdx == columnOf(this.xValues.get(end - 1), startx, columnWidth, columnCount)) {
+                    level = this.levels[shift - FIRST_LEVEL_SHIFT];
+                    break;
+                }
+            }
+            if (null == level) {
+                end = i + 1;
+            }
+            if (columnIdx != currentColumn) {
+                if (Integer.MIN_VALUE != currentColumn) {
+                    listener.columnAvailable(column);
+                }
+                currentColumn = columnIdx;
+                column.reset(i, columnIdx >= 0 && columnIdx < columnCount);
+            }
+            if (null != level) {
+                merge(column, level, i >> level.shift);
+            } else {
+                merge(column, i);
+            }
+            column.to = end;
+            i = end;
+        }
+        if (Integer.MIN_VALUE != currentColumn) {
+            listener.columnAvailable(column);
+        }
+    }
+
+    private static int columnOf(float x, float startx, float columnWidth, int columnCount) {
+        if (x < startx) {
+            return -1;
+        }
+        float column = (x - startx) / columnWidth;
+        return column >= columnCount ? columnCount : (int) column;
+    }
+
+    private static void merge(Column column, Level level, int b) {
+        if (column.first < 0) {
+            column.first = level.first[b];
+        }
+        if (level.last[b] >= 0) {
+            column.last = level.last[b];
+        }
+        column.minY = Math.min(column.minY, level.minY[b]);
+        column.maxY = Math.max(column.maxY, level.maxY[b]);
+        column.minErrorY = Math.min(column.minErrorY, level.minErrorY[b]);
+        column.maxErrorY = Math.max(column.maxErrorY, level.maxErrorY[b]);
+        column.invalidMinY = Math.min(column.invalidMinY, level.invalidMinY[b]);
+        column.invalidMaxY = Math.max(column.invalidMaxY, level.invalidMaxY[b]);
+        column.invalidMinErrorY = Math.min(column.invalidMinErrorY, level.invalidMinErrorY[b]);
+        column.invalidMaxErrorY = Math.max(column.invalidMaxErrorY, level.invalidMaxErrorY[b]);
+    }
+
+    private void merge(Column column, int i) {
+        float y = this.yValues.get(i);
+        if (Float.isNaN(y)) {
+            return;
+        }
+        float error = this.yError.get(i);
+        if (this.yValues.isValid(i)) {
+            if (column.first < 0) {
+                column.first = i;
+            }
+            column.last = i;
+            column.minY = Math.min(column.minY, y);
+            column.maxY = Math.max(column.maxY, y);
+            column.minErrorY = Math.min(column.minErrorY, y - error);
+            column.maxErrorY = Math.max(column.maxErrorY, y + error);
+        } else {
+            column.invalidMinY = Math.min(column.invalidMinY, y);
+            column.invalidMaxY = Math.max(column.invalidMaxY, y);
+            column.invalidMinErrorY = Math.min(column.invalidMinErrorY, y - error);
+            column.invalidMaxErrorY = Math.max(column.invalidMaxErrorY, y + error);
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.util.Arrays;
+
+/**
+ * Read only representation of a complete column of floats that takes less memory than
+ * a float[], with constant time access to any value:
+ * <ul>
+ *     <li><b>Cadence:</b> values sampled at a regular step, such as one per day. Each
+ *     block of 64 values keeps its first value, the others are the first plus their
+ *     offset in the block times the step. Values that do not fit, e.g. after a gap,
+ *     are exceptions, flagged in a bitmap and kept in the order they appear.</li>
+ *     <li><b>Runs:</b> values that repeat in runs, such as rows of zeros. A bitmap flags
+ *     the first value of each run, which is kept. The value of a point is that of the
+ *     run it belongs to, found by counting the bits set up to it.</li>
+ *     <li><b>Dictionary:</b> values that take few distinct values, such as fluxes and
+ *     errors written with four decimals. The distinct values are kept once, each point
+ *     keeps the index of its value in a byte, or a short.</li>
+ * </ul>
+ * Runs keep their values as float16 when half precision is allowed, the case of error
+ * columns when {@link Points#HALF_PRECISION_ERRORS_PROPERTY} is set. Other encodings
+ * are exact, the values read back have the same bits as those encoded.
+ *
+ * @author marregui
+ */
+abstract class EncodedColumn {
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    /**
+     * @param values              the column
+     * @param size                number of values in the column
+     * @param isNonDecreasing     true when the values are sorted, only then is cadence tried
+     * @param allowsHalfPrecision true when the values can be kept as float16
+     * @return the encoding that takes the least memory, null when none takes at most
+     * three quarters of the float[]
+     */
+    static EncodedColumn encode(float[] values, int size, boolean isNonDecreasing, boolean allowsHalfPrecision) {
+        long budget = 3L * size * Float.BYTES / 4L;
+        EncodedColumn best = isNonDecreasing ? Cadence.encode(values, size, budget) : null;
+        if (null != best) {
+            budget = best.sizeInBytes();
+        }
+        EncodedColumn runs = Runs.encode(values, size, allowsHalfPrecision, budget);
+        if (null != runs) {
+            best = runs;
+            budget = runs.sizeInBytes();
+        }
+        EncodedColumn dictionary = Dictionary.encode(values, size, budget);
+        return null != dictionary ? dictionary : best;
+    }
+
+    abstract float get(int i);
+
+    /**
+     * @return true when the column is the encoding of the values
+     */
+    boolean hasValues(float[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (false == isSame(get(i), encoded(values[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the value as read back once encoded, the same value unless it loses precision
+     */
+    float encoded(float value) {
+        return value;
+    }
+
+    /**
+     * @return memory taken by the arrays of the encoding
+     */
+    abstract long sizeInBytes();
+
+    private static int blocks(int size) {
+        return (size + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+    }
+
+    private static boolean isSame(float a, float b) {
+        return Float.floatToIntBits(a) == Float.floatToIntBits(b);
+    }
+
+    private static long bitmapSizeInBytes(int size) {
+        return (long) blocks(size) * (Long.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * Bitmap that counts the bits set up to any position in constant time, with the
+     * count before each word.
+     */
+    private static final class CountingBitmap {
+        private final long[] words;
+        private final int[] counts;
+
+        CountingBitmap(long[] words) {
+            this.words = words;
+            this.counts = new int[words.length];
+            int count = 0;
+            for (int w = 0; w < words.length; w++) {
+                this.counts[w] = count;
+                count += Long.bitCount(words[w]);
+            }
+        }
+
+        boolean get(int i) {
+            return 0L != (this.words[i >>> BLOCK_SHIFT] & (1L << i));
+        }
+
+        /**
+         * @return number of bits set in [0, i]
+         */
+        int countUpTo(int i) {
+            int w = i >>> BLOCK_SHIFT;
+            return this.counts[w] + Long.bitCount(this.words[w] & (-1L >>> (Long.SIZE - 1 - (i & (Long.SIZE - 1)))));
+        }
+    }
+
+    private static final class Cadence extends EncodedColumn {
+        private final float[] blockStarts;
+        private final double step;
+        private final CountingBitmap exceptions;
+        private final float[] exceptionValues;
+
+        private Cadence(float[] blockStarts, double step, CountingBitmap exceptions, float[] exceptionValues) {
+            this.blockStarts = blockStarts;
+            this.step = step;
+            this.exceptions = exceptions;
+            this.exceptionValues = exceptionValues;
+        }
+
+        /**
+         * The step is that between the first two values. The encoding is given up as soon
+         * as the exceptions take it over budget.
+         */
+        static Cadence encode(float[] values, int size, long budget) {
+            if (size < 2) {
+                return null;
+            }
+            double step = (double) values[1] - values[0];
+            int blocks = blocks(size);
+            long fixedSize = (long) blocks * Float.BYTES;
+            float[] blockStarts = new float[blocks];
+            long[] words = new long[blocks];
+            float[] exceptionValues = new float[BLOCK_SIZE];
+            int exceptionCount = 0;
+            for (int b = 0; b < blocks; b++) {
+                int first = b << BLOCK_SHIFT;
+                int last = Math.min(size, first + BLOCK_SIZE);
+                double blockStart = blockStarts[b] = values[first];
+                for (int i = first + 1; i < last; i++) {
+                    if (false == isSame(values[i], (float) (blockStart + (i - first) * step))) {
+                        words[b] |= 1L << i;
+                        if (exceptionCount == exceptionValues.length) {
+                            exceptionValues = Arrays.copyOf(exceptionValues, exceptionCount * 2);
+                        }
+                        exceptionValues[exceptionCount++] = values[i];
+                        if (fixedSize + bitmapSizeInBytes(size) + (long) exceptionCount * Float.BYTES > budget) {
+                            return null;
+                        }
+                    }
+                }
+            }
+            if (fixedSize > budget) {
+                return null;
+            }
+            if (0 == exceptionCount) {
+                return new Cadence(blockStarts, step, null, null);
+            }
+            return new Cadence(blockStarts, step, new CountingBitmap(words), Arrays.copyOf(exceptionValues, exceptionCount));
+        }
+
+        @Override
+        float get(int i) {
+            if (null != this.exceptions && this.exceptions.get(i)) {
+                return this.exceptionValues[this.exceptions.countUpTo(i) - 1];
+            }
+            return (float) (this.blockStarts[i >>> BLOCK_SHIFT] + (i & (BLOCK_SIZE - 1)) * this.step);
+        }
+
+        @Override
+        long sizeInBytes() {
+            long size = (long) this.blockStarts.length * Float.BYTES;
+            if (null != this.exceptions) {
+                size += (long) this.blockStarts.length * (Long.BYTES + Integer.BYTES);
+                size += (long) this.exceptionValues.length * Float.BYTES;
+            }
+            return size;
+        }
+    }
+
+    private static final class Runs extends EncodedColumn {
+        private final CountingBitmap runStarts;
+        private final float[] values;
+        private final short[] halfValues;
+
+        private Runs(CountingBitmap runStarts, float[] values, short[] halfValues) {
+            this.runStarts = runStarts;
+            this.values = values;
+            this.halfValues = halfValues;
+        }
+
+        /**
+         * Runs are not flagged when they are too short to pay for the bitmap, in which case
+         * the values are kept one by one, which only saves memory when they are float16.
+         */
+        static Runs encode(float[] values, int size, boolean allowsHalfPrecision, long budget) {
+            if (0 == size) {
+                return null;
+            }
+            int runCount = 1;
+            boolean fitsInHalf = allowsHalfPrecision;
+            for (int i = 0; i < size; i++) {
+                if (i > 0 && false == isSame(values[i], values[i - 1])) {
+                    runCount++;
+                }
+                fitsInHalf &= false == (Math.abs(values[i]) > HALF_MAX_VALUE);
+            }
+            int valueBytes = fitsInHalf ? Short.BYTES : Float.BYTES;
+            long runsSize = (long) runCount * valueBytes + bitmapSizeInBytes(size);
+            long valuesSize = (long) size * valueBytes;
+            boolean hasRunStarts = runsSize < valuesSize;
+            if (Math.min(runsSize, valuesSize) > budget) {
+                return null;
+            }
+            int count = hasRunStarts ? runCount : size;
+            float[] runValues = fitsInHalf ? null : new float[count];
+            short[] halfValues = fitsInHalf ? new short[count] : null;
+            long[] words = hasRunStarts ? new long[blocks(size)] : null;
+            for (int i = 0, j = 0; i < size; i++) {
+                if (false == hasRunStarts || 0 == i || false == isSame(values[i], values[i - 1])) {
+                    if (hasRunStarts) {
+                        words[i >>> BLOCK_SHIFT] |= 1L << i;
+                    }
+                    if (fitsInHalf) {
+                        halfValues[j++] = toHalf(values[i]);
+                    } else {
+                        runValues[j++] = values[i];
+                    }
+                }
+            }
+            return new Runs(hasRunStarts ? new CountingBitmap(words) : null, runValues, halfValues);
+        }
+
+        @Override
+        float encoded(float value) {
+            return null == this.halfValues ? value : toFloat(toHalf(value));
+        }
+
+        @Override
+        float get(int i) {
+            int j = null == this.runStarts ? i : this.runStarts.countUpTo(i) - 1;
+            return null == this.halfValues ? this.values[j] : toFloat(this.halfValues[j]);
+        }
+
+        @Override
+        long sizeInBytes() {
+            long size = null == this.halfValues ?
+                    (long) this.values.length * Float.BYTES : (long) this.halfValues.length * Short.BYTES;
+            if (null != this.runStarts) {
+                size += (long) this.runStarts.words.length * (Long.BYTES + Integer.BYTES);
+            }
+            return size;
+        }
+    }
+
+    private static final class Dictionary extends EncodedColumn {
+        private static final int MAX_BYTE_CODES = 1 << Byte.SIZE;
+        private static final int MAX_SHORT_CODES = 1 << Short.SIZE;
+        private static final int NO_CODE = -1;
+
+        private final float[] values;
+        private final byte[] byteCodes;
+        private final short[] shortCodes;
+
+        private Dictionary(float[] values, byte[] byteCodes, short[] shortCodes) {
+            this.values = values;
+            this.byteCodes = byteCodes;
+            this.shortCodes = shortCodes;
+        }
+
+        /**
+         * The distinct values are found with an open addressing hash table of their bits,
+         * the encoding is given up as soon as there are too many to pay for the codes.
+         */
+        static Dictionary encode(float[] values, int size, long budget) {
+            if (0 == size || size > budget) {
+                return null; // the codes alone would take one byte per point
+            }
+            int tableSize = 2 * Integer.highestOneBit(2 * Math.min(size, MAX_SHORT_CODES) - 1);
+            int[] tableKeys = new int[tableSize];
+            int[] tableCodes = new int[tableSize];
+            Arrays.fill(tableCodes, NO_CODE);
+            int mask = tableSize - 1;
+            int hashShift = Integer.SIZE - Integer.numberOfTrailingZeros(tableSize);
+            float[] distinct = new float[MAX_BYTE_CODES];
+            int distinctCount = 0;
+            short[] codes = new short[size];
+            for (int i = 0; i < size; i++) {
+                int bits = Float.floatToIntBits(values[i]);
+                int slot = (bits * 0x9E3779B9) >>> hashShift;
+                while (NO_CODE != tableCodes[slot] && tableKeys[slot] != bits) {
+                    slot = (slot + 1) & mask;
+                }
+                if (NO_CODE == tableCodes[slot]) {
+                    boolean needsShortCodes = distinctCount >= MAX_BYTE_CODES;
+                    if (distinctCount == MAX_SHORT_CODES || (needsShortCodes &&
+                            (long) size * Short.BYTES + (long) (distinctCount + 1) * Float.BYTES > budget)) {
+                        return null;
+                    }
+                    if (distinctCount == distinct.length) {
+                        distinct = Arrays.copyOf(distinct, distinctCount * 2);
+                    }
+                    tableKeys[slot] = bits;
+                    tableCodes[slot] = distinctCount;
+                    distinct[distinctCount++] = values[i];
+                }
+                codes[i] = (short) tableCodes[slot];
+            }
+            int codeBytes = distinctCount <= MAX_BYTE_CODES ? Byte.BYTES : Short.BYTES;
+            if ((long) size * codeBytes + (long) distinctCount * Float.BYTES > budget) {
+                return null;
+            }
+            if (Byte.BYTES == codeBytes) {
+                byte[] byteCodes = new byte[size];
+                for (int i = 0; i < size; i++) {
+                    byteCodes[i] = (byte) codes[i];
+                }
+                return new Dictionary(Arrays.copyOf(distinct, distinctCount), byteCodes, null);
+            }
+            return new Dictionary(Arrays.copyOf(distinct, distinctCount), null, codes);
+        }
+
+        @Override
+        float get(int i) {
+            return this.values[null != this.byteCodes ? this.byteCodes[i] & 0xFF : this.shortCodes[i] & 0xFFFF];
+        }
+
+        @Override
+        long sizeInBytes() {
+            long codesSize = null != this.byteCodes ?
+                    this.byteCodes.length : (long) this.shortCodes.length * Short.BYTES;
+            return codesSize + (long) this.values.length * Float.BYTES;
+        }
+    }
+
+    private static final float HALF_MAX_VALUE = 65504.0F;
+
+    /**
+     * @return the float16 nearest to the value, ties to even
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent == 0xFF - 127 + 15) {
+            return (short) (sign | 0x7C00 | (0 != mantissa ? 0x200 : 0)); // infinity, NaN
+        }
+        if (exponent >= 0x1F) {
+            return (short) (sign | 0x7C00); // overflow
+        }
+        int shift = 13;
+        int half;
+        if (exponent <= 0) {
+            if (exponent < -10) {
+                return (short) sign; // underflow
+            }
+            mantissa |= 0x800000;
+            shift = 14 - exponent;
+            half = mantissa >>> shift; // subnormal
+        } else {
+            half = (exponent << 10) | (mantissa >>> shift);
+        }
+        int remainder = mantissa & ((1 << shift) - 1);
+        int midpoint = 1 << (shift - 1);
+        if (remainder > midpoint || (remainder == midpoint && 0 != (half & 1))) {
+            half++; // may carry into the exponent, up to infinity
+        }
+        return (short) (sign | half);
+    }
+
+    static float toFloat(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1F;
+        int mantissa = half & 0x3FF;
+        if (0x1F == exponent) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        if (0 == exponent) {
+            float value = mantissa * 0x1p-24F; // zero, subnormal
+            return 0 == sign ? value : -value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,624 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import marregui.plot.io.DataFileParser.SnapshotListener;
+
+/**
+ * Reader of light curves in FITS binary tables (XTENSION = 'BINTABLE'), such as those of
+ * XRONOS, lcurve or the mission pipelines: TIME, RATE, ERROR columns. The headers, blocks
+ * of 2880 bytes of 80 character cards, are parsed up to the first binary table with a
+ * TIME column, or else the first binary table. The rows of the table are memory mapped
+ * and each column is a {@link Column} view over them, an {@link EncodedColumn}, which
+ * reads its big-endian values, and scales them, when they are accessed. The table is not
+ * copied into the heap, only the valid flags of the bands are, one bit per row.
+ * <p>
+ * X is TIME, or the first column when there is no TIME column. Floats cannot hold
+ * absolute times finely, a float MJD around 55000 steps by 337 s and 3e8 mission
+ * seconds by 32 s, so TIME is taken relative to a reference from the table, TSTART or
+ * else the first TIME, in its own unit, see {@link Data#getXDescription()}. It is
+ * converted to MJD, as text light curves are, only when the header has the reference
+ * time (MJDREF, or MJDREFI + MJDREFF) and a float MJD resolves the time bins of the
+ * table, TIMEDEL or else the step between the first rows. Each column that has an error
+ * column, named ERROR for RATE, or as the column plus _ERR, _ERROR or ERR_ in front, is
+ * a band. Tables without error columns have a band, without errors, per numeric column.
+ * Rows whose value or error is NaN, or TNULL for integer columns, are not valid.
+ * <p>
+ * Only columns of one number, of types B, I, J, K, E and D, are read, other columns are
+ * skipped. Rows are mapped in windows of at most {@link #MAX_MAPPING_SIZE} bytes, a power
+ * of two rows each, so that tables larger than 2 GB are read too.
+ *
+ * @author marregui
+ */
+public final class FitsReader implements DataFormatReader {
+    public static final int BLOCK_SIZE = 2880;
+    private static final int CARD_SIZE = 80;
+    private static final long MAX_MAPPING_SIZE = 1L << 30;
+    private static final double SECONDS_PER_DAY = 86400.0;
+    private static final int MJD_STEPS_PER_BIN = 16;
+    private static final String[] ERROR_SUFFIXES = {"_ERR", "_ERROR"};
+
+    @Override
+    public String getName() {
+        return "FITS";
+    }
+
+    @Override
+    public boolean canRead(String fileName, byte[] head, int length) {
+        return length >= CARD_SIZE && keyword(head, 0).equals("SIMPLE") && 'T' == head[29];
+    }
+
+    /**
+     * The columns are mapped, reading them is as fast as reading a columnar cache.
+     */
+    @Override
+    public boolean isCacheable() {
+        return false;
+    }
+
+    /**
+     * @param listener not called, the table is mapped at once
+     */
+    @Override
+    public Data read(File file, SnapshotListener listener) throws Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Table table = findTable(channel, file.getName());
+            return table.createData(channel, TextFormat.sourceName(file.getName()));
+        }
+    }
+
+    /**
+     * Header and data unit: the cards of the header, and where its data starts.
+     */
+    private static final class Hdu {
+        private final Map<String, String> cards;
+        private final long dataStart;
+
+        private Hdu(Map<String, String> cards, long dataStart) {
+            this.cards = cards;
+            this.dataStart = dataStart;
+        }
+
+        private String getString(String keyword) {
+            String value = this.cards.get(keyword);
+            if (null == value || false == value.startsWith("'")) {
+                return value;
+            }
+            int end = value.lastIndexOf('\'');
+            return (end > 0 ? value.substring(1, end) : value.substring(1)).replace("''", "'").trim();
+        }
+
+        private long getLong(String keyword, long defaultValue) throws Exception {
+            String value = this.cards.get(keyword);
+            if (null == value) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new Exception(String.format("Keyword %s is not an integer: %s", keyword, value));
+            }
+        }
+
+        private double getDouble(String keyword, double defaultValue) throws Exception {
+            String value = this.cards.get(keyword);
+            if (null == value) {
+                return defaultValue;
+            }
+            try {
+                return Double.parseDouble(value.replace('D', 'E').replace('d', 'e'));
+            } catch (NumberFormatException e) {
+                throw new Exception(String.format("Keyword %s is not a number: %s", keyword, value));
+            }
+        }
+
+        /**
+         * @return size of the data of the unit, padded to a whole number of blocks
+         */
+        private long dataSize() throws Exception {
+            long naxis = getLong("NAXIS", 0L);
+            long size = 0L;
+            if (naxis > 0) {
+                size = 1L;
+                for (int i = 1; i <= naxis; i++) {
+                    size *= getLong("NAXIS" + i, 0L);
+                }
+            }
+            size = Math.abs(getLong("BITPIX", 8L)) / 8 * getLong("GCOUNT", 1L) * (getLong("PCOUNT", 0L) + size);
+            return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+        }
+
+        private boolean isBinaryTable() {
+            return "BINTABLE".equals(getString("XTENSION"));
+        }
+    }
+
+    /**
+     * @return the first binary table with a TIME column, the first binary table otherwise
+     */
+    private static Table findTable(FileChannel channel, String fileName) throws Exception {
+        long size = channel.size();
+        Table firstTable = null;
+        String objectName = null;
+        for (long position = 0; position < size; ) {
+            Hdu hdu = readHeader(channel, position);
+            if (null == hdu) {
+                break;
+            }
+            if (null == objectName) {
+                objectName = hdu.getString("OBJECT");
+            }
+            if (hdu.isBinaryTable()) {
+                Table table = new Table(hdu, objectName);
+                if (table.hasTime()) {
+                    return table;
+                }
+                if (null == firstTable) {
+                    firstTable = table;
+                }
+            }
+            position = hdu.dataStart + hdu.dataSize();
+        }
+        if (null == firstTable) {
+            throw new Exception(String.format("File %s has no binary table", fileName));
+        }
+        return firstTable;
+    }
+
+    /**
+     * @return the header at the position, null when there is no complete header
+     */
+    private static Hdu readHeader(FileChannel channel, long position) throws Exception {
+        Map<String, String> cards = new LinkedHashMap<>();
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        byte[] bytes = block.array();
+        for (long blockStart = position; ; blockStart += BLOCK_SIZE) {
+            block.clear();
+            while (block.hasRemaining()) {
+                if (channel.read(block, blockStart + block.position()) < 0) {
+                    return null;
+                }
+            }
+            for (int card = 0; card < BLOCK_SIZE; card += CARD_SIZE) {
+                String keyword = keyword(bytes, card);
+                if ("END".equals(keyword)) {
+                    return new Hdu(cards, blockStart + BLOCK_SIZE);
+                }
+                if (false == keyword.isEmpty() && '=' == bytes[card + 8] && false == cards.containsKey(keyword)) {
+                    cards.put(keyword, value(new String(bytes, card + 10, CARD_SIZE - 10, StandardCharsets.US_ASCII)));
+                }
+            }
+        }
+    }
+
+    private static String keyword(byte[] bytes, int card) {
+        return new String(bytes, card, 8, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * @return the value of the card, quotes included for strings, without comment
+     */
+    private static String value(String text) {
+        text = text.trim();
+        if (text.startsWith("'")) {
+            int end = 1;
+            while (end < text.length()) {
+                if ('\'' == text.charAt(end)) {
+                    if (end + 1 < text.length() && '\'' == text.charAt(end + 1)) {
+                        end += 2;
+                        continue;
+                    }
+                    break;
+                }
+                end++;
+            }
+            return text.substring(0, Math.min(text.length(), end + 1));
+        }
+        int comment = text.indexOf('/');
+        return (comment >= 0 ? text.substring(0, comment) : text).trim();
+    }
+
+    /**
+     * Binary table: the layout of its rows, and its columns.
+     */
+    private static final class Table {
+        private final Hdu hdu;
+        private final String objectName;
+        private final long rowLength, rows;
+        private final List<ColumnLayout> columns;
+
+        private Table(Hdu hdu, String objectName) throws Exception {
+            this.hdu = hdu;
+            this.objectName = objectName;
+            this.rowLength = hdu.getLong("NAXIS1", 0L);
+            this.rows = hdu.getLong("NAXIS2", 0L);
+            this.columns = new ArrayList<>();
+            long fields = hdu.getLong("TFIELDS", 0L);
+            int offset = 0;
+            for (int i = 1; i <= fields; i++) {
+                String form = hdu.getString("TFORM" + i);
+                if (null == form) {
+                    throw new Exception(String.format("Column %d has no TFORM", Integer.valueOf(i)));
+                }
+                form = form.trim().toUpperCase(Locale.ROOT);
+                int typeIdx = 0;
+                while (typeIdx < form.length() && Character.isDigit(form.charAt(typeIdx))) {
+                    typeIdx++;
+                }
+                if (typeIdx == form.length()) {
+                    throw new Exception(String.format("Column %d has an invalid TFORM: %s", Integer.valueOf(i), form));
+                }
+                int repeat = typeIdx > 0 ? Integer.parseInt(form.substring(0, typeIdx)) : 1;
+                char type = form.charAt(typeIdx);
+                String name = hdu.getString("TTYPE" + i);
+                ColumnLayout column = new ColumnLayout(
+                        null != name && false == name.isEmpty() ? name : String.format("column %d", Integer.valueOf(i)),
+                        type,
+                        offset,
+                        hdu.getDouble("TSCAL" + i, 1.0),
+                        hdu.getDouble("TZERO" + i, 0.0),
+                        hdu.cards.containsKey("TNULL" + i) ? Long.valueOf(hdu.getLong("TNULL" + i, 0L)) : null);
+                if (1 == repeat && column.isNumber) {
+                    this.columns.add(column);
+                }
+                offset += 'X' == type ? (repeat + 7) / 8 : repeat * fieldWidth(type);
+            }
+            if (offset != this.rowLength) {
+                throw new Exception(String.format("Columns take %d bytes, rows are %d bytes long",
+                        Integer.valueOf(offset), Long.valueOf(this.rowLength)));
+            }
+            if (this.rows > Integer.MAX_VALUE - 8) {
+                throw new Exception(String.format("Too many rows: %d", Long.valueOf(this.rows)));
+            }
+        }
+
+        private boolean hasTime() {
+            return null != find("TIME");
+        }
+
+        private ColumnLayout find(String name) {
+            for (ColumnLayout column : this.columns) {
+                if (column.name.equalsIgnoreCase(name)) {
+                    return column;
+                }
+            }
+            return null;
+        }
+
+        private ColumnLayout findError(ColumnLayout column) {
+            if (column.name.equalsIgnoreCase("RATE")) {
+                ColumnLayout error = find("ERROR");
+                if (null != error) {
+                    return error;
+                }
+            }
+            for (String suffix : ERROR_SUFFIXES) {
+                ColumnLayout error = find(column.name + suffix);
+                if (null != error) {
+                    return error;
+                }
+            }
+            return find("ERR_" + column.name);
+        }
+
+        private Data createData(FileChannel channel, String fileSourceName) throws Exception {
+            if (this.columns.isEmpty() || 0 == this.rows) {
+                throw new Exception("No data available");
+            }
+            ByteBuffer[] windows = map(channel);
+            int windowShift = windowShift(this.rowLength);
+            ColumnLayout time = find("TIME");
+            ColumnLayout xLayout = null != time ? time : this.columns.get(0);
+            int size = (int) this.rows;
+            double scale = 1.0, zero = 0.0;
+            String xDescription = null;
+            if (null != time) {
+                Column times = new Column(windows, windowShift, this.rowLength, time, 1.0, 0.0);
+                int first = nextValid(times, 0, 1, size);
+                int last = nextValid(times, size - 1, -1, -1);
+                boolean hasStart = this.hdu.cards.containsKey("TSTART");
+                double reference = hasStart ? this.hdu.getDouble("TSTART", 0.0) : first >= 0 ? times.getDouble(first) : 0.0;
+                String referenceName = hasStart ? "TSTART" : "first TIME";
+                boolean isInDays = "d".equalsIgnoreCase(this.hdu.getString("TIMEUNIT"));
+                String unit = isInDays ? "d" : "s";
+                zero = -reference;
+                xDescription = String.format("TIME - %s %s (%s)", Double.toString(reference), unit, referenceName);
+                if (this.hdu.cards.containsKey("MJDREF") || this.hdu.cards.containsKey("MJDREFI")) {
+                    double mjdRef = this.hdu.cards.containsKey("MJDREF") ? this.hdu.getDouble("MJDREF", 0.0) :
+                            this.hdu.getDouble("MJDREFI", 0.0) + this.hdu.getDouble("MJDREFF", 0.0);
+                    double daysPerUnit = isInDays ? 1.0 : 1.0 / SECONDS_PER_DAY;
+                    double mjdZero = mjdRef + this.hdu.getDouble("TIMEZERO", 0.0) * daysPerUnit;
+                    double lastMjd = mjdZero + (last >= 0 ? times.getDouble(last) : reference) * daysPerUnit;
+                    double resolution = this.hdu.getDouble("TIMEDEL", 0.0);
+                    if (false == (resolution > 0.0)) {
+                        int second = first >= 0 ? nextValid(times, first + 1, 1, size) : -1;
+                        resolution = second >= 0 ? Math.abs(times.getDouble(second) - times.getDouble(first)) : Double.POSITIVE_INFINITY;
+                    }
+                    if (Math.ulp((float) Math.abs(lastMjd)) * MJD_STEPS_PER_BIN <= resolution * daysPerUnit) {
+                        scale = daysPerUnit;
+                        zero = mjdZero;
+                        xDescription = "MJD";
+                    } else {
+                        xDescription = String.format(Locale.ENGLISH, "%s since MJD %.8f (%s)",
+                                unit, Double.valueOf(mjdZero + reference * daysPerUnit), referenceName);
+                    }
+                }
+            }
+            Points xPoints = new Points(new Column(windows, windowShift, this.rowLength, xLayout, scale, zero), size, null);
+            Map<ColumnLayout, ColumnLayout> bands = new LinkedHashMap<>();
+            for (ColumnLayout column : this.columns) {
+                ColumnLayout error = column != xLayout ? findError(column) : null;
+                if (null != error) {
+                    bands.put(column, error);
+                }
+            }
+            if (bands.isEmpty()) {
+                for (ColumnLayout column : this.columns) {
+                    if (column != xLayout) {
+                        bands.put(column, null);
+                    }
+                }
+            }
+            if (bands.isEmpty()) {
+                throw new Exception("No columns other than x");
+            }
+            Map<String, DataSet> data = new LinkedHashMap<>();
+            for (Map.Entry<ColumnLayout, ColumnLayout> band : bands.entrySet()) {
+                Column values = new Column(windows, windowShift, this.rowLength, band.getKey(), 1.0, 0.0);
+                Column errors = null != band.getValue() ?
+                        new Column(windows, windowShift, this.rowLength, band.getValue(), 1.0, 0.0) : null;
+                long[] validity = new long[(size + Long.SIZE - 1) / Long.SIZE];
+                for (int i = 0; i < size; i++) {
+                    if (values.isValid(i) && (null == errors || errors.isValid(i))) {
+                        validity[i >>> 6] |= 1L << i;
+                    }
+                }
+                String bandName = band.getKey().name;
+                data.put(bandName, new DataSet(bandName, xPoints, new Points[]{
+                        new Points(values, size, validity),
+                        new Points(null != errors ? errors : new Zeros(), size, null)
+                }));
+            }
+            Data parsed = new Data(null != this.objectName && false == this.objectName.isEmpty() ?
+                    this.objectName : fileSourceName, data);
+            parsed.setXDescription(xDescription);
+            return parsed;
+        }
+
+        /**
+         * @return index of the first row with a valid value, from a row stepping by step
+         * up to end, excluded, -1 when there is none
+         */
+        private static int nextValid(Column column, int from, int step, int end) {
+            for (int i = from; i != end; i += step) {
+                if (column.isValid(i)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the rows, in windows of 2^windowShift rows, the last one with the rest
+         */
+        private ByteBuffer[] map(FileChannel channel) throws Exception {
+            long tableSize = this.rowLength * this.rows;
+            if (this.hdu.dataStart + tableSize > channel.size()) {
+                throw new Exception(String.format("The table is truncated, %d bytes of %d",
+                        Long.valueOf(Math.max(0L, channel.size() - this.hdu.dataStart)), Long.valueOf(tableSize)));
+            }
+            long windowSize = this.rowLength << windowShift(this.rowLength);
+            ByteBuffer[] windows = new ByteBuffer[(int) ((tableSize + windowSize - 1) / windowSize)];
+            for (int w = 0; w < windows.length; w++) {
+                long start = w * windowSize;
+                windows[w] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        this.hdu.dataStart + start, Math.min(windowSize, tableSize - start)).order(ByteOrder.BIG_ENDIAN);
+            }
+            return windows;
+        }
+    }
+
+    /**
+     * @return log2 of the rows per window, the most that fit in {@link #MAX_MAPPING_SIZE}
+     */
+    private static int windowShift(long rowLength) {
+        int shift = 0;
+        while (rowLength << (shift + 1) <= MAX_MAPPING_SIZE) {
+            shift++;
+        }
+        return shift;
+    }
+
+    /**
+     * @return bytes taken by one value of the type, bits are counted apart
+     */
+    private static int fieldWidth(char type) throws Exception {
+        switch (type) {
+            case 'L':
+            case 'X':
+            case 'B':
+            case 'A':
+                return 1;
+            case 'I':
+                return 2;
+            case 'J':
+            case 'E':
+                return 4;
+            case 'K':
+            case 'D':
+            case 'C':
+            case 'P':
+                return 8;
+            case 'M':
+            case 'Q':
+                return 16;
+            default:
+                throw new Exception(String.format("Unknown column type: %c", Character.valueOf(type)));
+        }
+    }
+
+    private static final class ColumnLayout {
+        private final String name;
+        private final char type;
+        private final int offset;
+        private final boolean isNumber;
+        private final double scale, zero;
+        private final Long nullValue;
+
+        private ColumnLayout(String name, char type, int offset, double scale, double zero, Long nullValue) {
+            this.name = name;
+            this.type = type;
+            this.offset = offset;
+            this.isNumber = "BIJKED".indexOf(type) >= 0;
+            this.scale = scale;
+            this.zero = zero;
+            this.nullValue = nullValue;
+        }
+    }
+
+    /**
+     * Column of a mapped table: value = zero + scale * (TZERO + TSCAL * field), where
+     * the field is big-endian.
+     */
+    private static final class Column extends EncodedColumn {
+        private final ByteBuffer[] windows;
+        private final int windowShift, windowMask;
+        private final long rowLength;
+        private final int offset;
+        private final char type;
+        private final double scale, zero;
+        private final boolean isScaled;
+        private final long nullValue;
+        private final boolean hasNullValue;
+
+        private Column(ByteBuffer[] windows, int windowShift, long rowLength, ColumnLayout layout, double scale, double zero) {
+            this.windows = windows;
+            this.windowShift = windowShift;
+            this.windowMask = (1 << windowShift) - 1;
+            this.rowLength = rowLength;
+            this.offset = layout.offset;
+            this.type = layout.type;
+            this.scale = scale * layout.scale;
+            this.zero = zero + scale * layout.zero;
+            this.isScaled = 1.0 != this.scale || 0.0 != this.zero;
+            this.hasNullValue = null != layout.nullValue;
+            this.nullValue = this.hasNullValue ? layout.nullValue.longValue() : 0L;
+        }
+
+        private int position(int i) {
+            return (int) ((i & this.windowMask) * this.rowLength) + this.offset;
+        }
+
+        private ByteBuffer window(int i) {
+            return this.windows[i >>> this.windowShift];
+        }
+
+        @Override
+        float get(int i) {
+            ByteBuffer window = window(i);
+            int position = position(i);
+            switch (this.type) {
+                case 'E':
+                    float value = window.getFloat(position);
+                    return this.isScaled ? (float) (this.zero + this.scale * value) : value;
+                case 'D':
+                    return (float) (this.zero + this.scale * window.getDouble(position));
+                default:
+                    return (float) (this.zero + this.scale * integer(window, position));
+            }
+        }
+
+        /**
+         * @return the value, scaled in double precision
+         */
+        double getDouble(int i) {
+            ByteBuffer window = window(i);
+            int position = position(i);
+            switch (this.type) {
+                case 'E':
+                    return this.zero + this.scale * window.getFloat(position);
+                case 'D':
+                    return this.zero + this.scale * window.getDouble(position);
+                default:
+                    return this.zero + this.scale * integer(window, position);
+            }
+        }
+
+        private long integer(ByteBuffer window, int position) {
+            switch (this.type) {
+                case 'B':
+                    return window.get(position) & 0xFF;
+                case 'I':
+                    return window.getShort(position);
+                case 'J':
+                    return window.getInt(position);
+                default:
+                    return window.getLong(position);
+            }
+        }
+
+        /**
+         * @return false for NaN, and TNULL of integer columns
+         */
+        boolean isValid(int i) {
+            switch (this.type) {
+                case 'E':
+                    return false == Float.isNaN(window(i).getFloat(position(i)));
+                case 'D':
+                    return false == Double.isNaN(window(i).getDouble(position(i)));
+                default:
+                    return false == this.hasNullValue || this.nullValue != integer(window(i), position(i));
+            }
+        }
+
+        /**
+         * The rows are mapped, not in the heap.
+         */
+        @Override
+        long sizeInBytes() {
+            return 0L;
+        }
+    }
+
+    /**
+     * Errors of bands without error column.
+     */
+    private static final class Zeros extends EncodedColumn {
+
+        @Override
+        float get(int i) {
+            return 0.0F;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 0L;
+        }
+    }
+}
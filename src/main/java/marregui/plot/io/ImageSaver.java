@@ -20,49 +20,131 @@ package marregui.plot.io;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.security.InvalidParameterException;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.stream.FileImageOutputStream;
+import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileFilter;
 
 
+/**
+ * Saves snapshots of components. The component is painted into an image in the event
+ * dispatch thread, as Swing requires, and the image is encoded and written to file in
+ * the background, PNG with {@link PngEncoder}, other formats with ImageIO.
+ *
+ * @author marregui
+ */
 public class ImageSaver {
-    public static void save(final JPanel painter, int width, int height) {
-        final BufferedImage image = new BufferedImage(
-                width, height, BufferedImage.TYPE_INT_RGB
-        );
-        final AtomicBoolean painterThreadIsDone = new AtomicBoolean(false);
-        Thread painterThread = new Thread(() -> {
-            // Create an image of the PlotControlPanel
-            Graphics2D g2d = (Graphics2D) image.getGraphics();
-            g2d.setRenderingHint(
-                    RenderingHints.KEY_INTERPOLATION,
-                    RenderingHints.VALUE_INTERPOLATION_BICUBIC
-            );
-            g2d.setRenderingHint(
-                    RenderingHints.KEY_ANTIALIASING,
-                    RenderingHints.VALUE_ANTIALIAS_ON
-            );
-            painter.paint(g2d);
-            painterThreadIsDone.set(true);
+    private static final String PNG = "png";
+
+    /**
+     * Paints the component into an image, in the event dispatch thread: right away when
+     * called for from it, otherwise as soon as the thread gets to it.
+     *
+     * @param painter component
+     * @param width   width of the image
+     * @param height  height of the image
+     * @return the image, once painted
+     */
+    public static CompletableFuture<BufferedImage> render(JComponent painter, int width, int height) {
+        CompletableFuture<BufferedImage> image = new CompletableFuture<>();
+        Runnable paint = () -> {
+            try {
+                BufferedImage snapshot = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g2d = snapshot.createGraphics();
+                try {
+                    g2d.setRenderingHint(
+                            RenderingHints.KEY_INTERPOLATION,
+                            RenderingHints.VALUE_INTERPOLATION_BICUBIC
+                    );
+                    g2d.setRenderingHint(
+                            RenderingHints.KEY_ANTIALIASING,
+                            RenderingHints.VALUE_ANTIALIAS_ON
+                    );
+                    painter.paint(g2d);
+                } finally {
+                    g2d.dispose();
+                }
+                image.complete(snapshot);
+            } catch (Throwable t) {
+                image.completeExceptionally(t);
+            }
+        };
+        if (SwingUtilities.isEventDispatchThread()) {
+            paint.run();
+        } else {
+            SwingUtilities.invokeLater(paint);
+        }
+        return image;
+    }
+
+    /**
+     * Writes the image once rendered, in the common fork-join pool.
+     *
+     * @param image     the image
+     * @param file      target file
+     * @param extension format of the image
+     * @return the file, once written
+     */
+    public static CompletableFuture<File> write(CompletableFuture<BufferedImage> image, File file, String extension) {
+        return image.thenApplyAsync(snapshot -> {
+            try {
+                write(snapshot, file, extension);
+                return file;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
         });
-        painterThread.setDaemon(true);
-        painterThread.start();
+    }
+
+    private static void write(BufferedImage image, File file, String extension) throws Exception {
+        if (PNG.equals(extension)) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                PngEncoder.encode(image, out);
+            }
+            return;
+        }
+        Iterator<ImageWriter> imageWriterIterator = ImageIO.getImageWritersBySuffix(extension);
+        if (false == imageWriterIterator.hasNext()) {
+            throw new InvalidParameterException("Unsupported file extension " + extension);
+        }
+        ImageWriter imageWriter = imageWriterIterator.next();
+        ImageWriteParam imageWriterParams = imageWriter.getDefaultWriteParam();
+        if (imageWriterParams.canWriteCompressed()) {
+            imageWriterParams.setCompressionMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        try (FileImageOutputStream fileOutputStream = new FileImageOutputStream(file)) {
+            imageWriter.setOutput(fileOutputStream);
+            imageWriter.write(null, new IIOImage(image, null, null), imageWriterParams);
+        } finally {
+            imageWriter.dispose();
+        }
+    }
+
+    public static void save(final JPanel painter, int width, int height) {
+        final CompletableFuture<BufferedImage> image = render(painter, width, height);
 
         // Permitted Image File Extensions
         final Set<String> imgFileExtensions = new TreeSet<>();
-        ImageTypeSpecifier spec = ImageTypeSpecifier.createFromRenderedImage(image);
+        ImageTypeSpecifier spec = ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB);
         for (String imgFileExtension : ImageIO.getWriterFormatNames()) {
             Iterator<ImageWriter> itWriters = ImageIO.getImageWriters(spec, imgFileExtension);
             if (itWriters.hasNext()) {
@@ -113,46 +195,25 @@ public class ImageSaver {
         if (returnVal == JFileChooser.APPROVE_OPTION) {
             File selectedFile = imageFileChooser.getSelectedFile();
             String fileName = selectedFile.getName();
-            try {
-                if (fileName.length() > 0) {
-                    int idx = fileName.lastIndexOf(".");
-                    String ext = imgFileExtensions.toArray()[0].toString();
-                    if (idx != -1) {
-                        ext = fileName.substring(idx + 1).toLowerCase();
-                    } else {
-                        selectedFile = new File(selectedFile.getAbsolutePath() + "." + ext);
-                        fileName = selectedFile.getName();
-                    }
-                    Iterator<ImageWriter> imgageWriterIterator = ImageIO.getImageWritersBySuffix(ext);
-                    ImageWriter imgageWriter = null;
-                    if (imgageWriterIterator.hasNext()) {
-                        imgageWriter = imgageWriterIterator.next();
-                    }
-                    if (null != imgageWriter) {
-                        ImageWriteParam imageWriterParams = imgageWriter.getDefaultWriteParam();
-                        if (imageWriterParams.canWriteCompressed()) {
-                            imageWriterParams.setCompressionMode(ImageWriteParam.MODE_DEFAULT);
-                        }
-                        FileImageOutputStream fileOutputStream = new FileImageOutputStream(selectedFile);
-                        imgageWriter.setOutput(fileOutputStream);
-                        while (!painterThreadIsDone.get()) {
-                            try {
-                                Thread.sleep(200L);
-                            } catch (InterruptedException ie) { /* no-op */ }
-                        }
-                        imgageWriter.write(image);
-                        fileOutputStream.close();
-                    } else {
-                        throw new InvalidParameterException("Unsupported file extension " + ext);
-                    }
+            if (fileName.length() > 0) {
+                int idx = fileName.lastIndexOf(".");
+                String ext = imgFileExtensions.contains(PNG) ? PNG : imgFileExtensions.toArray()[0].toString();
+                if (idx != -1) {
+                    ext = fileName.substring(idx + 1).toLowerCase();
+                } else {
+                    selectedFile = new File(selectedFile.getAbsolutePath() + "." + ext);
                 }
-            } catch (Throwable t) {
-                JOptionPane.showMessageDialog(
-                        null,
-                        String.format("Could not save file '%s': %s", fileName, t.getMessage()),
-                        "Error",
-                        JOptionPane.ERROR_MESSAGE
-                );
+                final String savedFileName = selectedFile.getName();
+                write(image, selectedFile, ext).exceptionally(t -> {
+                    Throwable cause = null != t.getCause() ? t.getCause() : t;
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(
+                            null,
+                            String.format("Could not save file '%s': %s", savedFileName, cause.getMessage()),
+                            "Error",
+                            JOptionPane.ERROR_MESSAGE
+                    ));
+                    return null;
+                });
             }
         }
     }
@@ -0,0 +1,769 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import marregui.plot.io.DataFileParser.Header;
+import marregui.plot.io.DataFileParser.SnapshotListener;
+
+/**
+ * Parses the same format as {@link DataFileParser}, or any other {@link TextFormat}, by
+ * memory mapping the file and tokenizing the ASCII bytes in place. Floats are parsed straight from the bytes
+ * into the {@link Points}, no String is created per line or per field, with the
+ * exception of values the fast path cannot decode exactly (very long mantissas,
+ * big exponents, NaN, Infinity...), which are handed over to Float.valueOf.
+ * <p>
+ * Files larger than {@link #MAX_MAPPING_SIZE} are mapped in consecutive windows.
+ * Files larger than {@link #PARALLEL_THRESHOLD} have their body split in ranges aligned
+ * on new lines, parsed concurrently on the common fork-join pool into column segments
+ * that are then appended, in file order, into the final {@link Points}.
+ * <p>
+ * When there is a {@link SnapshotListener} the file is parsed sequentially, whatever its
+ * size, and snapshots of the rows parsed so far are published between blocks.
+ *
+ * @author marregui
+ */
+final class MappedDataFileParser {
+    private static final long MAX_MAPPING_SIZE = 1L << 30;
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int STREAM_WINDOW_SIZE = 1 << 20;
+    private static final long PARALLEL_THRESHOLD = 1L << 24;
+    private static final long MIN_CHUNK_SIZE = 1L << 22;
+    private static final int CHUNKS_PER_CORE = 4;
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int MAX_EXACT_POW10 = 22;
+    private static final long FLOAT_MIDPOINT_MASK = (1L << 29) - 1;
+    private static final long FLOAT_MIDPOINT = 1L << 28;
+    private static final double[] POW10 = new double[MAX_EXACT_POW10 + 1];
+
+    static {
+        POW10[0] = 1.0;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10.0;
+        }
+    }
+
+    static Data parse(File file) throws Exception {
+        return parse(file, TextFormat.LIGHT_CURVE, null);
+    }
+
+    static Data parse(File file, SnapshotListener listener) throws Exception {
+        return parse(file, TextFormat.LIGHT_CURVE, listener);
+    }
+
+    /**
+     * @param file     the file
+     * @param format   layout of the rows, with the header, or without when it is the first line of the file
+     * @param listener receives snapshots of the rows parsed so far, may be null
+     * @return the data
+     * @throws Exception when the file cannot be read or does not have the expected format
+     */
+    static Data parse(File file, TextFormat format, SnapshotListener listener) throws Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int parallelism = ForkJoinPool.getCommonPoolParallelism();
+            MappedDataFileParser parser = new MappedDataFileParser(format, 1, false);
+            parser.listener = listener;
+            parser.fileSize = size;
+            if (null != listener || parallelism < 2 || size < PARALLEL_THRESHOLD) {
+                parser.parseRange(channel, 0, size);
+                return parser.createData();
+            }
+            parser.stopAfterHeader = true;
+            parser.parseRange(channel, 0, size);
+            if (null == parser.header) {
+                throw new Exception("No header found");
+            }
+            List<Chunk> chunks = split(channel, parser.position, size, parallelism, parser.format);
+            ForkJoinTask.invokeAll(chunks);
+            return parser.stitch(chunks);
+        }
+    }
+
+    /**
+     * Parses data streamed from elsewhere, e.g. a member of an archive, sequentially, in
+     * windows the size of a mapping block.
+     *
+     * @param in       the data
+     * @param size     number of bytes of the data, to size the columns and report progress
+     * @param format   layout of the rows, with the header, or without when it is the first line of the data
+     * @param listener receives snapshots of the rows parsed so far, may be null
+     * @return the data
+     * @throws Exception when the data cannot be read or does not have the expected format
+     */
+    static Data parse(InputStream in, long size, TextFormat format, SnapshotListener listener) throws Exception {
+        MappedDataFileParser parser = new MappedDataFileParser(format, 1, false);
+        parser.listener = listener;
+        parser.fileSize = size;
+        parser.rangeEnd = size;
+        byte[] bytes = new byte[STREAM_WINDOW_SIZE];
+        for (boolean isLastWindow = false; false == isLastWindow; ) {
+            int length = DataFormats.readFully(in, bytes);
+            isLastWindow = length < bytes.length;
+            parser.parseWindow(ByteBuffer.wrap(bytes, 0, length), isLastWindow);
+        }
+        return parser.createData();
+    }
+
+    /**
+     * Parser of a file that is being appended to, whose columns are kept open. Each call to
+     * {@link #parseAppended(FileChannel)} parses the lines added since the previous call
+     * and publishes a snapshot of all the rows parsed so far.
+     *
+     * @param format   layout of the rows
+     * @param listener receives the snapshots
+     * @return the parser, positioned at the beginning of the file
+     */
+    static MappedDataFileParser forFollowing(TextFormat format, SnapshotListener listener) {
+        MappedDataFileParser parser = new MappedDataFileParser(format, 1, false);
+        parser.listener = listener;
+        return parser;
+    }
+
+    /**
+     * @return bytes of the file consumed so far, always the end of a complete line
+     */
+    long getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Parses the complete lines between the position and the end of the file. A line
+     * without a line terminator at the end of the file may be being written, it is left
+     * for the next call.
+     *
+     * @param channel the file
+     * @return true when rows were added
+     * @throws Exception when the file cannot be read or does not have the expected format
+     */
+    boolean parseAppended(FileChannel channel) throws Exception {
+        long size = channel.size();
+        long end = endOfLastLine(channel, this.position, size);
+        if (end <= this.position) {
+            return false;
+        }
+        int rows = null != this.header ? this.xPoints.getSize() : 0;
+        this.fileSize = size;
+        parseRange(channel, this.position, end);
+        publishLatestSnapshot();
+        return null != this.header && this.xPoints.getSize() > rows;
+    }
+
+    /**
+     * @return offset after the last line terminator in the range, start if there is none
+     */
+    private static long endOfLastLine(FileChannel channel, long start, long end) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        for (long blockEnd = end; blockEnd > start; ) {
+            long blockStart = Math.max(start, blockEnd - BLOCK_SIZE);
+            buffer.clear().limit((int) (blockEnd - blockStart));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, blockStart + buffer.position()) < 0) {
+                    return start; // truncated meanwhile
+                }
+            }
+            for (int i = buffer.limit() - 1; i >= 0; i--) {
+                byte b = buffer.get(i);
+                long next = blockStart + i + 1;
+                // a CR at the end of the file may be followed by a LF yet to be written
+                if (LF == b || (CR == b && next < end)) {
+                    return next;
+                }
+            }
+            blockEnd = blockStart;
+        }
+        return start;
+    }
+
+    /**
+     * Completes the columns of a parser created with {@link #forFollowing(TextFormat, SnapshotListener)},
+     * which cannot be used afterwards.
+     *
+     * @return the data parsed so far
+     * @throws Exception when there is no header or no rows
+     */
+    Data finish() throws Exception {
+        return createData();
+    }
+
+    /**
+     * Splits the body of the file, the bytes after the header line, if any, in ranges that start
+     * at the beginning of a line. There are a few ranges per core so that cores finishing
+     * early can steal work.
+     */
+    private static List<Chunk> split(FileChannel channel, long bodyStart, long size, int parallelism, TextFormat format) throws Exception {
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, (size - bodyStart) / (parallelism * CHUNKS_PER_CORE));
+        chunkSize = Math.min(chunkSize, MAX_MAPPING_SIZE);
+        List<Chunk> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(BLOCK_SIZE);
+        long start = bodyStart;
+        while (start < size) {
+            long end = Math.min(size, start + chunkSize);
+            while (end < size) {
+                probe.clear();
+                int read = channel.read(probe, end);
+                int i = 0;
+                while (i < read && LF != probe.get(i)) {
+                    i++;
+                }
+                end += i < read ? i + 1 : read;
+                if (i < read) {
+                    break;
+                }
+            }
+            chunks.add(new Chunk(channel, start, end, format));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Range of the body of the file parsed by its own parser into its own column segments.
+     * Line numbers are local to the chunk, they become file line numbers once the line
+     * counts of the previous chunks are known, which is when diagnostics are reported.
+     */
+    private static class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long start, end;
+        private final MappedDataFileParser parser;
+
+        private Chunk(FileChannel channel, long start, long end, TextFormat format) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.parser = new MappedDataFileParser(format, 0, true);
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                this.parser.parseRange(this.channel, this.start, this.end);
+            } catch (Exception e) {
+                this.parser.failure = e;
+            }
+        }
+    }
+
+    /**
+     * Deferred report of a line that is not parsed as expected, one of: no value,
+     * incorrect number of fields, invalid value.
+     */
+    private static class Diagnostic {
+        private final long lineNumber;
+        private final int column;
+        private final String text;
+        private final boolean isInvalidValue;
+
+        private Diagnostic(long lineNumber, int column, String text, boolean isInvalidValue) {
+            this.lineNumber = lineNumber;
+            this.column = column;
+            this.text = text;
+            this.isInvalidValue = isInvalidValue;
+        }
+
+        private void report(long firstLineNumber) throws Exception {
+            long line = firstLineNumber + this.lineNumber;
+            if (this.isInvalidValue) {
+                throw DataFileParser.invalidValue(this.text, line, this.column);
+            }
+            if (null == this.text) {
+                DataFileParser.reportNoValue(line, this.column);
+            } else {
+                DataFileParser.reportIncorrectNumberOfFields(line, this.text);
+            }
+        }
+    }
+
+    private static final class InvalidValueException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private InvalidValueException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private TextFormat format;
+    private Header header;
+    private Points xPoints;
+    private Map<String, Points[]> pointsInBand;
+    private Points[] yValues, yErrors;
+    private int[] fieldStarts, fieldEnds;
+    private int expectedNumberOfFields;
+    private long lineNumber;
+    private final List<Diagnostic> diagnostics;
+    private Exception failure;
+    private boolean stopAfterHeader;
+    private long position;
+    private long rangeStart, rangeEnd;
+    private boolean areColumnsSized;
+    private byte[] block;
+    private int blockLimit;
+    private SnapshotListener listener;
+    private long fileSize;
+    private int snapshotRows;
+    private long snapshotTime;
+
+    private MappedDataFileParser(TextFormat format, long firstLineNumber, boolean defersDiagnostics) {
+        this.format = format;
+        this.lineNumber = firstLineNumber;
+        this.diagnostics = defersDiagnostics ? new ArrayList<>() : null;
+        this.block = new byte[BLOCK_SIZE];
+        this.blockLimit = 0;
+        if (null != format.header) {
+            setHeader(format.header);
+        }
+    }
+
+    private Data createData() throws Exception {
+        if (null == this.header) {
+            throw new Exception("No header found");
+        }
+        return DataFileParser.createData(this.header, this.xPoints, this.pointsInBand);
+    }
+
+    /**
+     * Appends the column segments of each chunk, in file order, and reports their
+     * diagnostics with file line numbers, as the sequential parse would have.
+     */
+    private Data stitch(List<Chunk> chunks) throws Exception {
+        long rows = this.xPoints.getSize();
+        for (Chunk chunk : chunks) {
+            rows += chunk.parser.xPoints.getSize();
+        }
+        ensureCapacity((int) Math.min(Integer.MAX_VALUE - 8, rows));
+        for (Chunk chunk : chunks) {
+            MappedDataFileParser segment = chunk.parser;
+            for (Diagnostic diagnostic : segment.diagnostics) {
+                diagnostic.report(this.lineNumber);
+            }
+            if (null != segment.failure) {
+                throw segment.failure;
+            }
+            this.xPoints.append(segment.xPoints);
+            for (String bandName : this.pointsInBand.keySet()) {
+                Points[] points = this.pointsInBand.get(bandName);
+                Points[] segmentPoints = segment.pointsInBand.get(bandName);
+                points[DataFileParser.Y_VALUE_IDX].append(segmentPoints[DataFileParser.Y_VALUE_IDX]);
+                points[DataFileParser.Y_ERROR_IDX].append(segmentPoints[DataFileParser.Y_ERROR_IDX]);
+            }
+            this.lineNumber += segment.lineNumber;
+        }
+        return createData();
+    }
+
+    private void parseRange(FileChannel channel, long start, long end) throws Exception {
+        this.position = start;
+        this.rangeStart = start;
+        this.rangeEnd = end;
+        long windowStart = start;
+        while (windowStart < end && false == isStoppedAtHeader()) {
+            long windowSize = Math.min(MAX_MAPPING_SIZE, end - windowStart);
+            windowStart += windowSize;
+            parseWindow(channel.map(FileChannel.MapMode.READ_ONLY, windowStart - windowSize, windowSize), windowStart == end);
+        }
+    }
+
+    private boolean isStoppedAtHeader() {
+        return this.stopAfterHeader && null != this.header;
+    }
+
+    /**
+     * The mapped window is moved in blocks into a reusable array (a memory copy), where it
+     * is tokenized in place. Bytes of incomplete lines stay at the beginning of the block
+     * and are completed with the bytes of the next block, or window.
+     */
+    private void parseWindow(ByteBuffer window, boolean isLastWindow) throws Exception {
+        while ((window.hasRemaining() || (isLastWindow && this.blockLimit > 0)) && false == isStoppedAtHeader()) {
+            if (this.blockLimit == this.block.length) {
+                this.block = Arrays.copyOf(this.block, this.block.length * 2); // line longer than a block
+            }
+            int length = Math.min(window.remaining(), this.block.length - this.blockLimit);
+            window.get(this.block, this.blockLimit, length);
+            this.blockLimit += length;
+            boolean isLastBlock = isLastWindow && false == window.hasRemaining();
+            int consumed = parseLines(this.block, this.blockLimit, isLastBlock);
+            System.arraycopy(this.block, consumed, this.block, 0, this.blockLimit - consumed);
+            this.blockLimit -= consumed;
+            this.position += consumed;
+            if (false == this.areColumnsSized && null != this.header && this.xPoints.getSize() > 0) {
+                sizeColumns();
+            }
+            if (null != this.listener) {
+                publishSnapshot();
+            }
+        }
+    }
+
+    /**
+     * Sizes the columns, in one pass, for the rows expected in the range: the rows parsed
+     * so far, plus the bytes left over the average length of the lines parsed so far, with
+     * some slack. The columns are trimmed to their size when done.
+     */
+    private void sizeColumns() {
+        this.areColumnsSized = true;
+        int rows = this.xPoints.getSize();
+        long parsedBytes = this.position - this.rangeStart;
+        long expectedRows = rows + (long) ((double) (this.rangeEnd - this.position) * rows / parsedBytes);
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, expectedRows + (expectedRows >> 4));
+        ensureCapacity(capacity);
+    }
+
+    private void ensureCapacity(int capacity) {
+        this.xPoints.ensureCapacity(capacity);
+        for (int i = 0; i < this.header.numberOfBands; i++) {
+            this.yValues[i].ensureCapacity(capacity);
+            this.yErrors[i].ensureCapacity(capacity);
+        }
+    }
+
+    private void publishSnapshot() throws Exception {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException(String.format("Parsing cancelled at line %d", this.lineNumber));
+        }
+        if (null == this.header) {
+            return;
+        }
+        int rows = this.xPoints.getSize();
+        long now = System.currentTimeMillis();
+        if (rows > this.snapshotRows && (0 == this.snapshotRows ||
+                rows - this.snapshotRows >= DataFileParser.SNAPSHOT_ROWS ||
+                now - this.snapshotTime >= DataFileParser.SNAPSHOT_MILLIS)) {
+            publishLatestSnapshot();
+        }
+    }
+
+    private void publishLatestSnapshot() {
+        int rows = null != this.header ? this.xPoints.getSize() : 0;
+        if (rows > this.snapshotRows) {
+            this.listener.snapshotAvailable(
+                    DataFileParser.createSnapshot(this.header, this.xPoints, this.pointsInBand),
+                    this.position,
+                    this.fileSize);
+            this.snapshotRows = rows;
+            this.snapshotTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return number of bytes consumed, always the end of a complete line
+     */
+    private int parseLines(byte[] bytes, int limit, boolean isLastBlock) throws Exception {
+        int lineStart = 0;
+        while (lineStart < limit && false == isStoppedAtHeader()) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && LF != bytes[lineEnd] && CR != bytes[lineEnd]) {
+                lineEnd++;
+            }
+            int next;
+            if (lineEnd < limit) {
+                next = lineEnd + 1;
+                if (CR == bytes[lineEnd]) {
+                    if (next < limit) {
+                        if (LF == bytes[next]) {
+                            next++;
+                        }
+                    } else if (false == isLastBlock) {
+                        break; // the LF may be in the next block
+                    }
+                }
+            } else if (isLastBlock) {
+                next = limit;
+            } else {
+                break; // incomplete line, it is parsed with the next block
+            }
+            parseLine(bytes, lineStart, lineEnd);
+            lineStart = next;
+        }
+        return lineStart;
+    }
+
+    private void parseLine(byte[] bytes, int start, int end) throws Exception {
+        start = trimStart(bytes, start, end);
+        end = trimEnd(bytes, start, end);
+        if (null == this.header) {
+            if (start < end && this.format.isCommentPrefix(bytes[start])) {
+                start++;
+            }
+            if (start < end) {
+                Header header = new Header(TextFormat.split(decode(bytes, start, end), this.format.separator));
+                this.format = this.format.withHeader(header);
+                setHeader(header);
+            }
+            return;
+        }
+        if (start == end || this.format.isCommentPrefix(bytes[start])) {
+            this.lineNumber++;
+            return;
+        }
+        int numberOfFields = tokenize(bytes, start, end);
+        if (this.format.hasCommands && (isLetter(bytes[start]) || isNoValue(bytes, 0))) {
+            this.lineNumber++; // commands, and rows without x, which separate groups of rows
+            return;
+        }
+        if (this.expectedNumberOfFields != numberOfFields) {
+            if (null == this.diagnostics) {
+                DataFileParser.reportIncorrectNumberOfFields(this.lineNumber, decode(bytes, start, end));
+            } else {
+                this.diagnostics.add(new Diagnostic(this.lineNumber, 0, decode(bytes, start, end), false));
+            }
+            return;
+        }
+        this.xPoints.addValidPoint(parseFloat(bytes, this.fieldStarts[0], this.fieldEnds[0], 0));
+        for (int i = 0; i < this.header.numberOfBands; i++) {
+            int valueField = this.format.valueColumns[i];
+            int errorField = this.format.errorColumns[i];
+            int lowerErrorField = this.format.lowerErrorColumns[i];
+            Points values = this.yValues[i];
+            Points errors = this.yErrors[i];
+            if (isNoValue(bytes, valueField) || isNoValue(bytes, errorField) || isNoValue(bytes, lowerErrorField)) {
+                if (null == this.diagnostics) {
+                    DataFileParser.reportNoValue(this.lineNumber, valueField);
+                } else {
+                    this.diagnostics.add(new Diagnostic(this.lineNumber, valueField, null, false));
+                }
+                values.addNonValidPoint();
+                errors.addNonValidPoint();
+            } else {
+                float flux = parseFloat(bytes, this.fieldStarts[valueField], this.fieldEnds[valueField], 1 + valueField);
+                float error = TextFormat.NO_COLUMN == errorField ? 0.0F :
+                        parseFloat(bytes, this.fieldStarts[errorField], this.fieldEnds[errorField], 1 + errorField);
+                if (TextFormat.NO_COLUMN != lowerErrorField) {
+                    float lowerError = parseFloat(bytes, this.fieldStarts[lowerErrorField], this.fieldEnds[lowerErrorField], 1 + lowerErrorField);
+                    error = Math.max(Math.abs(error), Math.abs(lowerError));
+                }
+                values.addValidPoint(flux);
+                errors.addValidPoint(error);
+            }
+        }
+        this.lineNumber++;
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private void setHeader(Header header) {
+        this.header = header;
+        this.expectedNumberOfFields = this.format.numberOfFields;
+        this.fieldStarts = new int[this.expectedNumberOfFields];
+        this.fieldEnds = new int[this.expectedNumberOfFields];
+        this.xPoints = new Points(true);
+        this.pointsInBand = DataFileParser.createBandPoints(header);
+        this.yValues = new Points[header.numberOfBands];
+        this.yErrors = new Points[header.numberOfBands];
+        for (int i = 0; i < header.numberOfBands; i++) {
+            Points[] points = this.pointsInBand.get(header.bandNames[i]);
+            this.yValues[i] = points[DataFileParser.Y_VALUE_IDX];
+            this.yErrors[i] = points[DataFileParser.Y_ERROR_IDX];
+        }
+    }
+
+    /**
+     * Splits the line in fields at each separator, with the same outcome as String.split("[,]"),
+     * which discards trailing empty fields, or at each run of blanks.
+     *
+     * @return the number of fields in the line, only the first expectedNumberOfFields boundaries
+     * are recorded
+     */
+    private int tokenize(byte[] bytes, int start, int end) {
+        byte separator = this.format.separator;
+        if (TextFormat.BLANKS == separator) {
+            return tokenizeBlanks(bytes, start, end);
+        }
+        int fieldCount = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || separator == bytes[i]) {
+                if (fieldCount < this.expectedNumberOfFields) {
+                    this.fieldStarts[fieldCount] = fieldStart;
+                    this.fieldEnds[fieldCount] = i;
+                }
+                fieldCount++;
+                fieldStart = i + 1;
+            }
+        }
+        int trailingSeparators = 0;
+        for (int i = end - 1; i >= start && separator == bytes[i]; i--) {
+            trailingSeparators++;
+        }
+        fieldCount -= trailingSeparators;
+        if (1 == fieldCount && end - start == trailingSeparators) {
+            fieldCount = 0; // the line consists only of separators
+        }
+        return fieldCount;
+    }
+
+    /**
+     * The line is trimmed, its fields are separated by one or more blanks.
+     */
+    private int tokenizeBlanks(byte[] bytes, int start, int end) {
+        int fieldCount = 0;
+        int i = start;
+        while (i < end) {
+            int fieldStart = i;
+            while (i < end && (bytes[i] & 0xFF) > ' ') {
+                i++;
+            }
+            if (fieldCount < this.expectedNumberOfFields) {
+                this.fieldStarts[fieldCount] = fieldStart;
+                this.fieldEnds[fieldCount] = i;
+            }
+            fieldCount++;
+            while (i < end && (bytes[i] & 0xFF) <= ' ') {
+                i++;
+            }
+        }
+        return fieldCount;
+    }
+
+    private static int trimStart(byte[] bytes, int start, int end) {
+        while (start < end && (bytes[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(byte[] bytes, int start, int end) {
+        while (end > start && (bytes[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private boolean isNoValue(byte[] bytes, int field) {
+        return TextFormat.NO_COLUMN != field && isNoValue(bytes, this.fieldStarts[field], this.fieldEnds[field]);
+    }
+
+    private boolean isNoValue(byte[] bytes, int start, int end) {
+        start = trimStart(bytes, start, end);
+        end = trimEnd(bytes, start, end);
+        byte[] noValue = this.format.noValue;
+        if (end - start != noValue.length) {
+            return false;
+        }
+        for (int i = 0; i < noValue.length; i++) {
+            if (noValue[i] != Character.toLowerCase(bytes[start + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, Charset.defaultCharset());
+    }
+
+    private float parseFloat(byte[] bytes, int start, int end, int fieldNumber) throws Exception {
+        try {
+            return parseFloat(bytes, start, end);
+        } catch (NumberFormatException e) {
+            if (null == this.diagnostics) {
+                throw DataFileParser.invalidValue(decode(bytes, start, end), this.lineNumber, fieldNumber);
+            }
+            this.diagnostics.add(new Diagnostic(this.lineNumber, fieldNumber, decode(bytes, start, end), true));
+            throw new InvalidValueException(); // the chunk ends here, stitch reports the diagnostic
+        }
+    }
+
+    /**
+     * Parses [+-]digits[.digits][(e|E)[+-]digits] directly from the bytes. The mantissa and
+     * the power of ten are exact doubles, so their quotient/product is the correctly rounded
+     * double, and narrowing it to float is correct unless the double lies exactly halfway
+     * between two floats. Anything outside of these conditions goes through Float.valueOf,
+     * which yields exactly the same value the BUFFERED parse mode would yield.
+     */
+    static float parseFloat(byte[] bytes, int start, int end) {
+        start = trimStart(bytes, start, end);
+        end = trimEnd(bytes, start, end);
+        int i = start;
+        boolean isNegative = false;
+        if (i < end && ('-' == bytes[i] || '+' == bytes[i])) {
+            isNegative = '-' == bytes[i];
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean mantissaOverflows = false;
+        boolean seenDot = false;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                if (mantissa < MAX_EXACT_MANTISSA) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (seenDot) {
+                        exponent--;
+                    }
+                } else {
+                    mantissaOverflows = true;
+                }
+                digits++;
+            } else if ('.' == b && false == seenDot) {
+                seenDot = true;
+            } else {
+                break;
+            }
+        }
+        if (i < end && ('e' == bytes[i] || 'E' == bytes[i]) && digits > 0) {
+            i++;
+            boolean isNegativeExponent = false;
+            if (i < end && ('-' == bytes[i] || '+' == bytes[i])) {
+                isNegativeExponent = '-' == bytes[i];
+                i++;
+            }
+            int explicitExponent = 0;
+            int exponentDigits = 0;
+            for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                if (explicitExponent < 1000) {
+                    explicitExponent = explicitExponent * 10 + (bytes[i] - '0');
+                }
+                exponentDigits++;
+            }
+            if (0 == exponentDigits) {
+                return Float.valueOf(decode(bytes, start, end)).floatValue();
+            }
+            exponent += isNegativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (i != end || 0 == digits || mantissaOverflows ||
+                mantissa >= MAX_EXACT_MANTISSA || Math.abs(exponent) > MAX_EXACT_POW10) {
+            return Float.valueOf(decode(bytes, start, end)).floatValue();
+        }
+        double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+        if (0 != mantissa && FLOAT_MIDPOINT == (Double.doubleToRawLongBits(value) & FLOAT_MIDPOINT_MASK)) {
+            return Float.valueOf(decode(bytes, start, end)).floatValue();
+        }
+        float result = (float) value;
+        return isNegative ? -result : result;
+    }
+}
@@ -0,0 +1,169 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.util.Arrays;
+
+/**
+ * Segment tree with the min and max of the valid points of a {@link Points}, it answers
+ * the min/max of any range of indexes in O(log n). Points without value (NaN), which
+ * may have been validated after loading, are ignored. The leaves of the tree are blocks of
+ * {@link #BLOCK_SIZE} consecutive points, which keeps the tree small (two floats per
+ * block and level) at the cost of scanning at most two partial blocks per query.
+ * <p>
+ * The tree is laid out as an implicit binary heap: node 1 is the root, the children of
+ * node i are 2i and 2i + 1, and the leaf of block b is node leafCount + b.
+ *
+ * @author marregui
+ */
+final class MinMaxIndex {
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private final Points points;
+    private final int size, leafCount;
+    private final float[] min, max;
+
+    MinMaxIndex(Points points) {
+        this(points, null);
+    }
+
+    /**
+     * Index over points whose first points are those of an index built earlier, as are the
+     * snapshots of a file being parsed or followed. The leaves of the earlier index are
+     * copied, only the blocks of the points added since are computed.
+     */
+    private MinMaxIndex(Points points, MinMaxIndex prefix) {
+        this.points = points;
+        this.size = points.getSize();
+        int blockCount = Math.max(1, (this.size + BLOCK_SIZE - 1) >> BLOCK_SHIFT);
+        this.leafCount = Integer.highestOneBit(blockCount) << (Integer.bitCount(blockCount) > 1 ? 1 : 0);
+        this.min = new float[2 * this.leafCount];
+        this.max = new float[2 * this.leafCount];
+        Arrays.fill(this.min, Float.POSITIVE_INFINITY);
+        Arrays.fill(this.max, Float.NEGATIVE_INFINITY);
+        int from = 0;
+        if (null != prefix) {
+            // the last block of the prefix may be partial, it is computed again
+            int fullBlocks = prefix.size >> BLOCK_SHIFT;
+            System.arraycopy(prefix.min, prefix.leafCount, this.min, this.leafCount, fullBlocks);
+            System.arraycopy(prefix.max, prefix.leafCount, this.max, this.leafCount, fullBlocks);
+            for (int node = this.leafCount - 1; node >= 1; node--) {
+                this.min[node] = Math.min(this.min[2 * node], this.min[2 * node + 1]);
+                this.max[node] = Math.max(this.max[2 * node], this.max[2 * node + 1]);
+            }
+            from = fullBlocks << BLOCK_SHIFT;
+        }
+        update(from, this.size);
+    }
+
+    /**
+     * @param points points that start with the points of this index
+     * @return index over the points
+     */
+    MinMaxIndex extendTo(Points points) {
+        return new MinMaxIndex(points, this);
+    }
+
+    /**
+     * Recomputes the nodes that cover a range of points whose value or validity changed.
+     *
+     * @param from first index, inclusive
+     * @param to   last index, exclusive
+     */
+    void update(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int firstBlock = from >> BLOCK_SHIFT;
+        int lastBlock = (to - 1) >> BLOCK_SHIFT;
+        for (int block = firstBlock; block <= lastBlock; block++) {
+            int node = this.leafCount + block;
+            this.min[node] = Float.POSITIVE_INFINITY;
+            this.max[node] = Float.NEGATIVE_INFINITY;
+            int blockStart = block << BLOCK_SHIFT;
+            int blockEnd = Math.min(this.size, blockStart + BLOCK_SIZE);
+            for (int i = blockStart; i < blockEnd; i++) {
+                float value = this.points.get(i);
+                if (this.points.isValid(i) && false == Float.isNaN(value)) {
+                    this.min[node] = Math.min(this.min[node], value);
+                    this.max[node] = Math.max(this.max[node], value);
+                }
+            }
+        }
+        // parents of the updated nodes, level by level up to the root
+        for (int low = (this.leafCount + firstBlock) >> 1, high = (this.leafCount + lastBlock) >> 1;
+             low >= 1;
+             low >>= 1, high >>= 1) {
+            for (int node = low; node <= high; node++) {
+                this.min[node] = Math.min(this.min[2 * node], this.min[2 * node + 1]);
+                this.max[node] = Math.max(this.max[2 * node], this.max[2 * node + 1]);
+            }
+        }
+    }
+
+    /**
+     * @param from   first index, inclusive
+     * @param to     last index, exclusive
+     * @param minMax receives the min and max of the valid points in the range
+     * @return false when there are no valid points in the range, minMax is left untouched
+     */
+    boolean query(int from, int to, float[] minMax) {
+        float[] rangeMinMax = {Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        to = Math.min(to, this.size);
+        int firstFullBlock = (from + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        int lastFullBlock = to >> BLOCK_SHIFT; // exclusive
+        boolean valuesFound;
+        if (firstFullBlock >= lastFullBlock) {
+            valuesFound = scan(from, to, rangeMinMax);
+        } else {
+            valuesFound = scan(from, firstFullBlock << BLOCK_SHIFT, rangeMinMax);
+            valuesFound |= scan(lastFullBlock << BLOCK_SHIFT, to, rangeMinMax);
+            for (int low = this.leafCount + firstFullBlock, high = this.leafCount + lastFullBlock;
+                 low < high;
+                 low >>= 1, high >>= 1) {
+                if (1 == (low & 1)) {
+                    rangeMinMax[0] = Math.min(rangeMinMax[0], this.min[low]);
+                    rangeMinMax[1] = Math.max(rangeMinMax[1], this.max[low++]);
+                }
+                if (1 == (high & 1)) {
+                    rangeMinMax[0] = Math.min(rangeMinMax[0], this.min[--high]);
+                    rangeMinMax[1] = Math.max(rangeMinMax[1], this.max[high]);
+                }
+            }
+            valuesFound |= rangeMinMax[0] <= rangeMinMax[1];
+        }
+        if (valuesFound) {
+            minMax[0] = rangeMinMax[0];
+            minMax[1] = rangeMinMax[1];
+        }
+        return valuesFound;
+    }
+
+    private boolean scan(int from, int to, float[] minMax) {
+        boolean valuesFound = false;
+        for (int i = from; i < to; i++) {
+            float value = this.points.get(i);
+            if (this.points.isValid(i) && false == Float.isNaN(value)) {
+                minMax[0] = Math.min(minMax[0], value);
+                minMax[1] = Math.max(minMax[1], value);
+                valuesFound = true;
+            }
+        }
+        return valuesFound;
+    }
+}
@@ -0,0 +1,505 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder that compresses bands of rows concurrently, on the common fork-join pool.
+ * Each band is filtered row by row (adaptive filter, as libpng does: the filter with the
+ * least sum of absolute differences) and deflated on its own, primed with the last 32 KB
+ * of the previous band as dictionary, so that the compression ratio is close to that
+ * of a single stream. Bands other than the last are ended with a sync flush, which leaves
+ * them byte aligned, and so they are concatenated into one zlib stream, whose Adler-32 is
+ * combined from those of the bands.
+ * <p>
+ * Images with alpha are encoded as 8 bit RGBA, other images as 8 bit RGB.
+ * <p>
+ * Images too big to be held in memory are written with a {@link StripWriter}, in strips
+ * of rows, top to bottom, each compressed as a band.
+ *
+ * @author marregui
+ */
+public final class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int MIN_BAND_BYTES = 1 << 18;
+    private static final int BANDS_PER_CORE = 2;
+    private static final int WINDOW_SIZE = 1 << 15;
+    private static final int ADLER_BASE = 65521;
+    private static final int COMPRESSION_LEVEL = 4;
+
+    private final BufferedImage image;
+    private final PngEncoder above;
+    private final boolean isTop;
+    private final int width, height, bytesPerPixel, rowSize;
+    private final boolean hasAlpha;
+    private final int[] packedPixels;
+    private final int packedOffset, packedStride;
+
+    private PngEncoder(BufferedImage image) {
+        this(image, null, true);
+    }
+
+    /**
+     * @param image strip of rows of the PNG
+     * @param above encoder of the strip right above it, null when there is none
+     * @param isTop true when the first row of the strip is the first row of the PNG
+     */
+    private PngEncoder(BufferedImage image, PngEncoder above, boolean isTop) {
+        this.image = image;
+        this.above = above;
+        this.isTop = isTop;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.hasAlpha = image.getColorModel().hasAlpha();
+        this.bytesPerPixel = this.hasAlpha ? 4 : 3;
+        this.rowSize = 1 + this.width * this.bytesPerPixel; // filter type, then the pixels
+        // the pixels of the images plots are drawn into are read straight from their raster
+        int type = image.getType();
+        Raster raster = image.getRaster();
+        if ((BufferedImage.TYPE_INT_RGB == type || BufferedImage.TYPE_INT_ARGB == type) &&
+                raster.getDataBuffer() instanceof DataBufferInt &&
+                raster.getSampleModel() instanceof SinglePixelPackedSampleModel &&
+                null == raster.getParent()) {
+            SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+            this.packedPixels = dataBuffer.getData();
+            this.packedOffset = dataBuffer.getOffset();
+            this.packedStride = sampleModel.getScanlineStride();
+        } else {
+            this.packedPixels = null;
+            this.packedOffset = 0;
+            this.packedStride = 0;
+        }
+    }
+
+    /**
+     * @param image the image
+     * @param out   receives the PNG, it is not closed
+     * @throws IOException when the output cannot be written
+     */
+    public static void encode(BufferedImage image, OutputStream out) throws IOException {
+        new PngEncoder(image).encode(out, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * @param image       the image
+     * @param out         receives the PNG, it is not closed
+     * @param parallelism number of bands per core is relative to it, 1 to encode in the calling thread
+     * @throws IOException when the output cannot be written
+     */
+    public static void encode(BufferedImage image, OutputStream out, int parallelism) throws IOException {
+        new PngEncoder(image).encode(out, parallelism);
+    }
+
+    /**
+     * Rows of a PNG, filtered and compressed, which a {@link StripWriter} writes in order.
+     */
+    public static final class Band {
+        private PngEncoder encoder;
+        private final int firstRow, lastRow; // of the image of the encoder, last exclusive
+        private final int topRow; // of the PNG
+        private final boolean isLast;
+        private byte[] compressed;
+        private int compressedSize;
+        private int adler;
+
+        private Band(PngEncoder encoder, int firstRow, int lastRow, int topRow, boolean isLast) {
+            this.encoder = encoder;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+            this.topRow = topRow;
+            this.isLast = isLast;
+        }
+
+        private int getRowCount() {
+            return this.lastRow - this.firstRow;
+        }
+
+        private void compress() {
+            PngEncoder encoder = this.encoder;
+            byte[] filtered = encoder.filterRows(this.firstRow, this.lastRow);
+            Adler32 adler32 = new Adler32();
+            adler32.update(filtered, 0, filtered.length);
+            this.adler = (int) adler32.getValue();
+            Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+            try {
+                // the bytes preceding the band, as the decoder will have inflated them
+                byte[] preceding = encoder.filterRowsBefore(this.firstRow);
+                if (null != preceding && preceding.length > 0) {
+                    int dictionarySize = Math.min(WINDOW_SIZE, preceding.length);
+                    deflater.setDictionary(preceding, preceding.length - dictionarySize, dictionarySize);
+                }
+                deflater.setInput(filtered);
+                if (this.isLast) {
+                    deflater.finish();
+                }
+                this.compressed = new byte[Math.max(64, filtered.length / 4)];
+                int flush = this.isLast ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+                while (true) {
+                    if (this.compressedSize == this.compressed.length) {
+                        this.compressed = Arrays.copyOf(this.compressed, this.compressed.length * 2);
+                    }
+                    int space = this.compressed.length - this.compressedSize;
+                    int n = deflater.deflate(this.compressed, this.compressedSize, space, flush);
+                    this.compressedSize += n;
+                    // a flush is complete when it does not fill the space
+                    if (this.isLast ? deflater.finished() : n < space) {
+                        break;
+                    }
+                }
+            } finally {
+                deflater.end();
+            }
+            this.encoder = null; // the rows are no longer needed
+        }
+    }
+
+    /**
+     * Writes a PNG whose rows come in strips, top to bottom, as images of the width of the
+     * PNG, so that only a few of them need to be in memory at any time. Strips are
+     * compressed with {@link #compress(BufferedImage, int, BufferedImage)}, which can be
+     * called concurrently for different strips, and the bands it returns are written with
+     * {@link #write(Band)}, in the order of the rows.
+     */
+    public static final class StripWriter {
+        private final DataOutputStream out;
+        private final int width, height;
+        private final boolean hasAlpha;
+        private final long rowSize;
+        private int rowsWritten;
+        private int adler;
+
+        /**
+         * Writes the header of the PNG.
+         *
+         * @param out      receives the PNG, it is not closed
+         * @param width    width of the PNG
+         * @param height   height of the PNG
+         * @param hasAlpha true for 8 bit RGBA, false for 8 bit RGB
+         * @throws IOException when the output cannot be written
+         */
+        public StripWriter(OutputStream out, int width, int height, boolean hasAlpha) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.width = width;
+            this.height = height;
+            this.hasAlpha = hasAlpha;
+            this.rowSize = 1 + (long) width * (hasAlpha ? 4 : 3);
+            this.adler = 1;
+            writeHeader(this.out, width, height, hasAlpha);
+        }
+
+        /**
+         * @param strip    rows of the PNG, from firstRow, its type has alpha when the PNG does
+         * @param firstRow row of the PNG where the strip starts
+         * @param above    the strip right above, of which the last rows are read, null for the first strip
+         * @return the rows of the strip, compressed
+         */
+        public Band compress(BufferedImage strip, int firstRow, BufferedImage above) {
+            if (strip.getWidth() != this.width || firstRow < 0 || firstRow + strip.getHeight() > this.height) {
+                throw new IllegalArgumentException(String.format("Strip %dx%d at row %d is outside of the image %dx%d",
+                        strip.getWidth(), strip.getHeight(), firstRow, this.width, this.height));
+            }
+            if ((firstRow > 0) != (null != above)) {
+                throw new IllegalArgumentException(String.format(
+                        "Strip at row %d must have the strip above it, only the first one does not", firstRow));
+            }
+            PngEncoder aboveEncoder = null;
+            if (null != above) {
+                aboveEncoder = new PngEncoder(above, null, firstRow == above.getHeight());
+                if (aboveEncoder.hasAlpha != this.hasAlpha || above.getWidth() != this.width) {
+                    throw new IllegalArgumentException("Strips must have the same type and width");
+                }
+            }
+            PngEncoder encoder = new PngEncoder(strip, aboveEncoder, 0 == firstRow);
+            if (encoder.hasAlpha != this.hasAlpha) {
+                throw new IllegalArgumentException("Strips must have the same type and width");
+            }
+            Band band = new Band(encoder, 0, strip.getHeight(), firstRow, firstRow + strip.getHeight() == this.height);
+            band.compress();
+            return band;
+        }
+
+        /**
+         * @param band the band of the rows that follow those written so far
+         * @throws IOException when the output cannot be written
+         */
+        public void write(Band band) throws IOException {
+            if (band.topRow != this.rowsWritten) {
+                throw new IllegalArgumentException(String.format(
+                        "Band at row %d is out of order, row %d is next", band.topRow, this.rowsWritten));
+            }
+            long length = this.rowSize * band.getRowCount();
+            this.adler = 0 == this.rowsWritten ? band.adler : combineAdler32(this.adler, band.adler, length);
+            this.rowsWritten += band.getRowCount();
+            if (band.compressedSize > 0) {
+                writeChunk(this.out, "IDAT", band.compressed, 0, band.compressedSize);
+            }
+        }
+
+        /**
+         * Writes the end of the PNG, once all the rows have been written.
+         *
+         * @throws IOException when the output cannot be written
+         */
+        public void finish() throws IOException {
+            if (this.rowsWritten != this.height) {
+                throw new IllegalStateException(String.format("%d rows of %d written", this.rowsWritten, this.height));
+            }
+            int adler = this.adler;
+            byte[] trailer = {(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler};
+            writeChunk(this.out, "IDAT", trailer, 0, trailer.length);
+            writeChunk(this.out, "IEND", new byte[0], 0, 0);
+            this.out.flush();
+        }
+    }
+
+    private void encode(OutputStream out, int parallelism) throws IOException {
+        long imageBytes = (long) this.rowSize * this.height;
+        int bandCount = (int) Math.max(1L, Math.min(
+                (long) Math.max(1, parallelism) * BANDS_PER_CORE,
+                imageBytes / MIN_BAND_BYTES));
+        bandCount = Math.min(bandCount, Math.max(1, this.height));
+        List<Band> bands = new ArrayList<>(bandCount);
+        for (int i = 0; i < bandCount; i++) {
+            int firstRow = (int) ((long) this.height * i / bandCount);
+            int lastRow = (int) ((long) this.height * (i + 1) / bandCount);
+            bands.add(new Band(this, firstRow, lastRow, firstRow, i == bandCount - 1));
+        }
+        if (bandCount > 1 && parallelism > 1) {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(bandCount);
+            for (Band band : bands) {
+                tasks.add(ForkJoinTask.adapt(band::compress));
+            }
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (Band band : bands) {
+                band.compress();
+            }
+        }
+        StripWriter writer = new StripWriter(out, this.width, this.height, this.hasAlpha);
+        for (Band band : bands) {
+            writer.write(band);
+        }
+        writer.finish();
+    }
+
+    private static void writeHeader(DataOutputStream dos, int width, int height, boolean hasAlpha) throws IOException {
+        dos.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(width);
+        headerOut.writeInt(height);
+        headerOut.writeByte(8); // bit depth
+        headerOut.writeByte(hasAlpha ? 6 : 2); // color type: RGBA, RGB
+        headerOut.writeByte(0); // compression: deflate
+        headerOut.writeByte(0); // filter method: adaptive
+        headerOut.writeByte(0); // no interlace
+        writeChunk(dos, "IHDR", header.toByteArray(), 0, header.size());
+        // zlib header: deflate with a 32 KB window, default level, FCHECK so that it is a multiple of 31
+        writeChunk(dos, "IDAT", new byte[]{0x78, (byte) 0x9C}, 0, 2);
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Adler-32 of the concatenation of two byte sequences, from theirs, as zlib's adler32_combine.
+     *
+     * @param adler1  Adler-32 of the first sequence
+     * @param adler2  Adler-32 of the second sequence
+     * @param length2 length of the second sequence
+     */
+    static int combineAdler32(int adler1, int adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFFL;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFFL) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFFL) + ((adler2 >>> 16) & 0xFFFFL) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= ((long) ADLER_BASE << 1)) {
+            sum2 -= ((long) ADLER_BASE << 1);
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return (int) (sum1 | (sum2 << 16));
+    }
+
+    /**
+     * @return the rows, each preceded by the type of the filter applied to it
+     */
+    private byte[] filterRows(int firstRow, int lastRow) {
+        int pixelBytes = this.rowSize - 1;
+        byte[] filtered = new byte[this.rowSize * (lastRow - firstRow)];
+        byte[] previous = new byte[pixelBytes];
+        byte[] current = new byte[pixelBytes];
+        byte[] candidate = new byte[pixelBytes];
+        int[] argb = new int[this.width];
+        if (firstRow > 0) {
+            toBytes(firstRow - 1, argb, previous);
+        } else if (null != this.above) {
+            this.above.toBytes(this.above.height - 1, argb, previous);
+        }
+        for (int y = firstRow; y < lastRow; y++) {
+            toBytes(y, argb, current);
+            int offset = (y - firstRow) * this.rowSize;
+            int bestFilter = 0;
+            long bestSum = Long.MAX_VALUE;
+            for (int filter = 0; filter < 5; filter++) {
+                long sum = filter(filter, current, previous, candidate, bestSum);
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    bestFilter = filter;
+                    System.arraycopy(candidate, 0, filtered, offset + 1, pixelBytes);
+                }
+            }
+            filtered[offset] = (byte) bestFilter;
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return filtered;
+    }
+
+    /**
+     * @return the filtered rows that precede the row, up to the size of the window of deflate,
+     * null when there are none
+     */
+    private byte[] filterRowsBefore(int row) {
+        int windowRows = (WINDOW_SIZE + this.rowSize - 1) / this.rowSize;
+        if (row > 0) {
+            return filterRows(row - Math.min(row, windowRows), row);
+        }
+        if (null != this.above) {
+            // the first row of the strip above can only be filtered when it is the first of the image
+            int firstRow = Math.max(this.above.isTop ? 0 : 1, this.above.height - windowRows);
+            return this.above.filterRows(firstRow, this.above.height);
+        }
+        return null;
+    }
+
+    private void toBytes(int y, int[] argb, byte[] row) {
+        int[] pixels = argb;
+        int offset = 0;
+        if (null != this.packedPixels) {
+            pixels = this.packedPixels;
+            offset = this.packedOffset + y * this.packedStride;
+        } else {
+            this.image.getRGB(0, y, this.width, 1, argb, 0, this.width);
+        }
+        for (int x = 0, i = 0; x < this.width; x++) {
+            int pixel = pixels[offset + x];
+            row[i++] = (byte) (pixel >>> 16);
+            row[i++] = (byte) (pixel >>> 8);
+            row[i++] = (byte) pixel;
+            if (this.hasAlpha) {
+                row[i++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    /**
+     * @param bound the filtering stops once the sum reaches it
+     * @return sum of the absolute values of the filtered bytes, as signed bytes, at least
+     * bound when the filtering stopped
+     */
+    private long filter(int filter, byte[] row, byte[] previous, byte[] out, long bound) {
+        int bpp = this.bytesPerPixel;
+        int length = row.length;
+        long sum = 0;
+        switch (filter) {
+            case 0: // none
+                for (int i = 0; i < length && sum < bound; i++) {
+                    out[i] = row[i];
+                    sum += Math.abs(row[i]);
+                }
+                break;
+            case 1: // sub
+                for (int i = 0; i < length && sum < bound; i++) {
+                    byte value = (byte) (row[i] - (i >= bpp ? row[i - bpp] : 0));
+                    out[i] = value;
+                    sum += Math.abs(value);
+                }
+                break;
+            case 2: // up
+                for (int i = 0; i < length && sum < bound; i++) {
+                    byte value = (byte) (row[i] - previous[i]);
+                    out[i] = value;
+                    sum += Math.abs(value);
+                }
+                break;
+            case 3: // average
+                for (int i = 0; i < length && sum < bound; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    byte value = (byte) (row[i] - ((a + (previous[i] & 0xFF)) >>> 1));
+                    out[i] = value;
+                    sum += Math.abs(value);
+                }
+                break;
+            default: // paeth
+                for (int i = 0; i < length && sum < bound; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                    int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+                    byte value = (byte) (row[i] - paeth(a, previous[i] & 0xFF, c));
+                    out[i] = value;
+                    sum += Math.abs(value);
+                }
+        }
+        return sum;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+}
@@ -18,25 +18,109 @@ package marregui.plot.io;
 
 import java.util.Arrays;
 
+/**
+ * Column of float values, each flagged as valid or not, unless they are always valid.
+ * Values are added at the end of the column, which grows geometrically, by half its
+ * capacity, and is trimmed to its size when done. A column can be created with the
+ * number of values expected, when known, so that it is allocated once.
+ * <p>
+ * Once complete, the column is kept in the most compact {@link EncodedColumn}, when one
+ * saves at least a quarter of its memory: regular cadence for X values, runs for rows
+ * that repeat, and optionally float16 for error columns, with system property
+ * {@link #HALF_PRECISION_ERRORS_PROPERTY} set to true. Access stays constant time.
+ * Complete columns with the same values, of different bands or files, share the same
+ * read only float[] or encoding through the {@link ColumnInterner}. To find them, each
+ * column keeps a fingerprint of its values, updated as they are added.
+ * <p>
+ * The flags are a bitmap, bit i % 64 of word i / 64 is set when point i is valid, and
+ * the bits past the size of the column are always clear. Ranges of points are validated
+ * a word at a time.
+ */
 public class Points {
-    private static final int SCALE = 100;
+    public static final String HALF_PRECISION_ERRORS_PROPERTY = "sequenceviewer.errors.halfprecision";
+    private static final int INITIAL_CAPACITY = 100;
+    private static final long FINGERPRINT_MULTIPLIER = 0x9E3779B97F4A7C15L;
 
     private float[] points;
-    private boolean[] pointIsValid;
+    private EncodedColumn encodedPoints;
+    private long[] validity;
     private boolean pointsAreAlwaysValid;
     private int offset;
     private int size;
+    private int snapshotOffset;
+    private boolean isNonDecreasing;
+    private long fingerprint;
     private float min, max;
 
     public Points(boolean pointsAreAlwaysValid) {
+        this(pointsAreAlwaysValid, INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param pointsAreAlwaysValid true when the points are always valid
+     * @param expectedSize         number of points expected, the initial capacity
+     */
+    public Points(boolean pointsAreAlwaysValid, int expectedSize) {
         this.pointsAreAlwaysValid = pointsAreAlwaysValid;
-        this.points = new float[SCALE];
+        this.size = Math.max(1, expectedSize);
+        this.points = new float[this.size];
         if (!this.pointsAreAlwaysValid) {
-            this.pointIsValid = new boolean[SCALE];
-            Arrays.fill(this.pointIsValid, false);
+            this.validity = new long[words(this.size)];
         }
         this.offset = 0;
-        this.size = SCALE;
+        this.isNonDecreasing = true;
+    }
+
+    /**
+     * @param validity bitmap with the valid flags, null when the points are always valid
+     */
+    Points(float[] points, long[] validity, float min, float max) {
+        this(points, validity, points.length, isNonDecreasing(points), fingerprint(points, points.length), min, max);
+    }
+
+    /**
+     * Complete column over values kept elsewhere, e.g. mapped from a file, which are read
+     * once to work out min/max of the valid points, whether they are sorted and their
+     * fingerprint.
+     *
+     * @param values   the values
+     * @param size     number of values
+     * @param validity bitmap with the valid flags, null when the points are always valid
+     */
+    Points(EncodedColumn values, int size, long[] validity) {
+        this.pointsAreAlwaysValid = null == validity;
+        this.encodedPoints = values;
+        this.validity = validity;
+        this.offset = size;
+        this.size = size;
+        this.isNonDecreasing = true;
+        this.min = Float.MAX_VALUE;
+        this.max = -Float.MAX_VALUE;
+        float previous = Float.NaN;
+        for (int i = 0; i < size; i++) {
+            float value = values.get(i);
+            if (i > 0 && false == (value >= previous)) {
+                this.isNonDecreasing = false;
+            }
+            if (isValid(i)) {
+                this.min = Math.min(this.min, value);
+                this.max = Math.max(this.max, value);
+            }
+            this.fingerprint = this.fingerprint * FINGERPRINT_MULTIPLIER + Float.floatToIntBits(value);
+            previous = value;
+        }
+    }
+
+    private Points(float[] points, long[] validity, int offset, boolean isNonDecreasing, long fingerprint, float min, float max) {
+        this.pointsAreAlwaysValid = null == validity;
+        this.points = points;
+        this.validity = validity;
+        this.offset = offset;
+        this.size = null != points ? points.length : offset; // null for encoded values
+        this.isNonDecreasing = isNonDecreasing;
+        this.fingerprint = fingerprint;
+        this.min = min;
+        this.max = max;
     }
 
     public int getSize() {
@@ -52,33 +136,185 @@ public class Points {
     }
 
     private void addPoint(float value, boolean isValid) {
+        decode();
         if (this.offset >= this.size) {
-            float[] tmpPoints = new float[this.size + SCALE];
-            System.arraycopy(this.points, 0, tmpPoints, 0, this.size);
-            this.points = tmpPoints;
-            if (!this.pointsAreAlwaysValid) {
-                boolean[] tmpPointIsValid = new boolean[this.size + SCALE];
-                System.arraycopy(this.pointIsValid, 0, tmpPointIsValid, 0, this.size);
-                this.pointIsValid = tmpPointIsValid;
-            }
-            this.size += SCALE;
+            ensureCapacity(this.offset + 1);
+        }
+        if (this.offset > 0 && false == (value >= this.points[this.offset - 1])) {
+            this.isNonDecreasing = false; // also for NaN
         }
         this.points[this.offset] = value;
-        if (false == this.pointsAreAlwaysValid) {
-            this.pointIsValid[this.offset] = isValid;
+        this.fingerprint = this.fingerprint * FINGERPRINT_MULTIPLIER + Float.floatToIntBits(value);
+        if (false == this.pointsAreAlwaysValid && isValid) {
+            this.validity[this.offset >>> 6] |= 1L << this.offset;
         }
         this.offset++;
     }
 
+    /**
+     * Grows the column, when needed, to hold at least capacity points. It grows by half
+     * its capacity at least, so that adding n points one at a time costs O(n) copies.
+     * Snapshots keep the arrays they were taken from.
+     */
+    void ensureCapacity(int capacity) {
+        decode();
+        if (capacity > this.size) {
+            int newSize = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(capacity, this.size + ((long) this.size >> 1)));
+            this.points = Arrays.copyOf(this.points, newSize);
+            if (!this.pointsAreAlwaysValid) {
+                this.validity = Arrays.copyOf(this.validity, words(newSize));
+            }
+            this.size = newSize;
+        }
+    }
+
+    void append(Points segment) {
+        int requiredSize = this.offset + segment.offset;
+        ensureCapacity(requiredSize);
+        segment.decode();
+        System.arraycopy(segment.points, 0, this.points, this.offset, segment.offset);
+        if (this.offset > 0 && segment.offset > 0 && false == (segment.points[0] >= this.points[this.offset - 1])) {
+            this.isNonDecreasing = false;
+        }
+        this.isNonDecreasing &= segment.isNonDecreasing;
+        this.fingerprint = this.fingerprint * power(FINGERPRINT_MULTIPLIER, segment.offset) + segment.fingerprint;
+        if (!this.pointsAreAlwaysValid) {
+            if (segment.pointsAreAlwaysValid) {
+                fill(this.validity, this.offset, requiredSize, true);
+            } else {
+                copyBits(segment.validity, segment.offset, this.validity, this.offset);
+            }
+        }
+        this.offset = requiredSize;
+    }
+
+    /**
+     * Read only view of the points added so far, which shares the arrays. Points added
+     * later are written past the end of the view, or into new arrays when these grow,
+     * so the view does not change. min/max are updated from the points added since the
+     * previous snapshot, the same values done() computes from scratch.
+     */
+    Points snapshot() {
+        if (0 == this.snapshotOffset) {
+            this.min = Float.MAX_VALUE;
+            this.max = -Float.MAX_VALUE;
+        }
+        for (int i = this.snapshotOffset; i < this.offset; i++) {
+            if (isValid(i)) {
+                this.min = Math.min(this.min, this.points[i]);
+                this.max = Math.max(this.max, this.points[i]);
+            }
+        }
+        this.snapshotOffset = this.offset;
+        return new Points(this.points, this.validity, this.offset, this.isNonDecreasing, this.fingerprint, this.min, this.max);
+    }
+
+    /**
+     * Read only view of the points that shares their values, but not their validity, which
+     * is copied, so that the view keeps the validity the points have now while theirs is
+     * changed in place.
+     */
+    Points frozenCopy() {
+        long[] validity = null == this.validity ? null : Arrays.copyOf(this.validity, words(this.offset));
+        Points copy = new Points(this.points, validity, this.offset, this.isNonDecreasing, this.fingerprint, this.min, this.max);
+        copy.encodedPoints = this.encodedPoints;
+        copy.size = this.offset; // points added to the copy go into arrays of its own
+        return copy;
+    }
+
+    /**
+     * Releases the capacity beyond the size of the column.
+     */
+    void trimToSize() {
+        decode();
+        if (this.offset < this.size) {
+            this.points = Arrays.copyOf(this.points, this.offset);
+            if (!this.pointsAreAlwaysValid) {
+                this.validity = Arrays.copyOf(this.validity, words(this.offset));
+            }
+            this.size = this.offset;
+        }
+    }
+
+    /**
+     * Trims the column to its size, computes min/max of the valid points and encodes it.
+     */
     protected void done() {
+        trimToSize();
         this.min = Float.MAX_VALUE;
-        this.max = Float.MIN_VALUE;
+        this.max = -Float.MAX_VALUE;
         for (int i = 0; i < this.offset; i++) {
-            if (this.pointsAreAlwaysValid || this.pointIsValid[i]) {
+            if (isValid(i)) {
                 this.min = Math.min(this.min, this.points[i]);
                 this.max = Math.max(this.max, this.points[i]);
             }
         }
+        encode(false);
+    }
+
+    /**
+     * Replaces the float[] with the values shared by the columns with the same values,
+     * an {@link EncodedColumn} when one takes less memory. The column must be complete,
+     * it is decoded back into a float[] of its own if points are added.
+     *
+     * @param isErrorColumn true for columns of errors, which may be kept in half precision
+     */
+    void encode(boolean isErrorColumn) {
+        trimToSize();
+        boolean allowsHalfPrecision = isErrorColumn && Boolean.getBoolean(HALF_PRECISION_ERRORS_PROPERTY);
+        Object sharedPoints = ColumnInterner.intern(this.points, this.fingerprint, this.isNonDecreasing, allowsHalfPrecision);
+        if (sharedPoints instanceof EncodedColumn) {
+            this.encodedPoints = (EncodedColumn) sharedPoints;
+            this.points = null;
+        } else {
+            this.points = (float[]) sharedPoints;
+        }
+    }
+
+    /**
+     * Shared float[] are never written, as they are full, points added go into a copy.
+     */
+    private void decode() {
+        if (null != this.encodedPoints) {
+            float[] points = new float[this.offset];
+            for (int i = 0; i < this.offset; i++) {
+                points[i] = this.encodedPoints.get(i);
+            }
+            this.points = points;
+            this.size = this.offset;
+            this.fingerprint = fingerprint(points, this.offset); // float16 values are not those added
+            this.encodedPoints = null;
+        }
+    }
+
+    private static long fingerprint(float[] points, int size) {
+        long fingerprint = 0L;
+        for (int i = 0; i < size; i++) {
+            fingerprint = fingerprint * FINGERPRINT_MULTIPLIER + Float.floatToIntBits(points[i]);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return base to the exponent, modulo 2^64, by repeated squaring
+     */
+    private static long power(long base, int exponent) {
+        long power = 1L;
+        for (long square = base; exponent > 0; exponent >>>= 1, square *= square) {
+            if (0 != (exponent & 1)) {
+                power *= square;
+            }
+        }
+        return power;
+    }
+
+    /**
+     * @return memory taken by the values and their valid flags, without the object headers
+     */
+    public long getSizeInBytes() {
+        long valuesSize = null != this.encodedPoints ?
+                this.encodedPoints.sizeInBytes() : (long) this.points.length * Float.BYTES;
+        return valuesSize + (null != this.validity ? (long) this.validity.length * Long.BYTES : 0L);
     }
 
     @Override
@@ -99,27 +335,209 @@ public class Points {
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(this.points);
+        return Long.hashCode(this.fingerprint);
     }
 
     public float get(int i) {
-        return this.points[i];
+        return null == this.encodedPoints ? this.points[i] : this.encodedPoints.get(i);
     }
 
     public boolean isValid(int i) {
-        return this.pointsAreAlwaysValid || this.pointIsValid[i];
+        return this.pointsAreAlwaysValid || 0L != (this.validity[i >>> 6] & (1L << i));
     }
 
     public void setValid(int i, boolean isValid) {
         if (false == this.pointsAreAlwaysValid) {
-            this.pointIsValid[i] = isValid;
+            if (isValid) {
+                this.validity[i >>> 6] |= 1L << i;
+            } else {
+                this.validity[i >>> 6] &= ~(1L << i);
+            }
         }
     }
 
     public void validateAllPoints(boolean pointsAreValid) {
+        validatePoints(0, getSize(), pointsAreValid);
+    }
+
+    /**
+     * @param from first index, inclusive
+     * @param to   last index, exclusive
+     */
+    public void validatePoints(int from, int to, boolean pointsAreValid) {
         if (false == this.pointsAreAlwaysValid) {
-            Arrays.fill(this.pointIsValid, 0, getSize(), pointsAreValid);
+            fill(this.validity, from, to, pointsAreValid);
+        }
+    }
+
+    /**
+     * @param w index of a word of the bitmap, less than words(getSize())
+     * @return the word, with the valid flags of points [w * 64, w * 64 + 64)
+     */
+    long getValidityWord(int w) {
+        if (this.pointsAreAlwaysValid) {
+            return -1L >>> -Math.min(Long.SIZE, this.offset - w * Long.SIZE);
+        }
+        return this.validity[w];
+    }
+
+    /**
+     * Words of the bitmap that hold the valid flags of points [from, to), run length
+     * encoded as pairs {number of words, word}. Ranges validated at once are runs of
+     * equal words, so they take a few longs however many points they span.
+     *
+     * @param from first index, inclusive
+     * @param to   last index, exclusive
+     * @return the runs, empty when the points are always valid or the range is empty
+     */
+    long[] encodeValidity(int from, int to) {
+        if (this.pointsAreAlwaysValid || from >= to) {
+            return new long[0];
+        }
+        int fromWord = from >>> 6;
+        int toWord = words(to);
+        long[] runs = new long[8];
+        int runCount = 0;
+        for (int w = fromWord; w < toWord; ) {
+            long word = this.validity[w];
+            int end = w + 1;
+            while (end < toWord && this.validity[end] == word) {
+                end++;
+            }
+            if (runCount + 2 > runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            runs[runCount++] = end - w;
+            runs[runCount++] = word;
+            w = end;
+        }
+        return Arrays.copyOf(runs, runCount);
+    }
+
+    /**
+     * Writes back the words encoded by {@link #encodeValidity(int, int)} for the same range.
+     * Whole words are written, the flags of the points that share the first and last word
+     * with the range are those they had when encoded.
+     */
+    void decodeValidity(int from, int to, long[] runs) {
+        if (this.pointsAreAlwaysValid || from >= to) {
+            return;
+        }
+        int w = from >>> 6;
+        for (int i = 0; i < runs.length; i += 2) {
+            int end = w + (int) runs[i];
+            Arrays.fill(this.validity, w, end, runs[i + 1]);
+            w = end;
+        }
+    }
+
+    private static int words(int bits) {
+        return (bits + Long.SIZE - 1) >>> 6;
+    }
+
+    /**
+     * Sets, or clears, bits [from, to), the words in between are written whole.
+     */
+    private static void fill(long[] bits, int from, int to, boolean value) {
+        if (from >= to) {
+            return;
+        }
+        int fromWord = from >>> 6;
+        int lastWord = (to - 1) >>> 6;
+        long fromMask = -1L << from;
+        long toMask = -1L >>> -to;
+        if (fromWord == lastWord) {
+            setMasked(bits, fromWord, fromMask & toMask, value);
+        } else {
+            setMasked(bits, fromWord, fromMask, value);
+            Arrays.fill(bits, fromWord + 1, lastWord, value ? -1L : 0L);
+            setMasked(bits, lastWord, toMask, value);
+        }
+    }
+
+    private static void setMasked(long[] bits, int w, long mask, boolean value) {
+        if (value) {
+            bits[w] |= mask;
+        } else {
+            bits[w] &= ~mask;
+        }
+    }
+
+    /**
+     * Copies bits [0, count) of src onto bits [dstOffset, dstOffset + count) of dst,
+     * which must be clear, as are the bits of src past count.
+     */
+    private static void copyBits(long[] src, int count, long[] dst, int dstOffset) {
+        int shift = dstOffset & (Long.SIZE - 1);
+        int dstWord = dstOffset >>> 6;
+        int srcWords = words(count);
+        if (0 == shift) {
+            System.arraycopy(src, 0, dst, dstWord, srcWords);
+            return;
+        }
+        for (int i = 0; i < srcWords; i++) {
+            long word = src[i];
+            dst[dstWord + i] |= word << shift;
+            long carry = word >>> (Long.SIZE - shift);
+            if (0L != carry) {
+                dst[dstWord + i + 1] |= carry;
+            }
+        }
+    }
+
+    /**
+     * @return true when each point is greater than or equal to the previous one, which
+     * is the case of X values sorted in time, and allows for binary searches
+     */
+    public boolean isNonDecreasing() {
+        return this.isNonDecreasing;
+    }
+
+    /**
+     * Binary search, the points must be non decreasing.
+     *
+     * @return index of the first point greater than or equal to the value, size if there is none
+     */
+    public int indexOfFirstAtOrAbove(float value) {
+        int low = 0;
+        int high = this.offset;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (get(mid) < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Binary search, the points must be non decreasing.
+     *
+     * @return index of the first point greater than the value, size if there is none
+     */
+    public int indexOfFirstAbove(float value) {
+        int low = 0;
+        int high = this.offset;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (get(mid) <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static boolean isNonDecreasing(float[] points) {
+        for (int i = 1; i < points.length; i++) {
+            if (false == (points[i] >= points[i - 1])) {
+                return false;
+            }
         }
+        return true;
     }
 
     public float min() {
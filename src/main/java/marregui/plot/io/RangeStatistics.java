@@ -0,0 +1,75 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+/**
+ * Statistics of the valid Y values of a range of a {@link DataSet}, see
+ * {@link DataSet#getStatistics(float, float)}. The error weighted ones only take the
+ * points with a positive error, each weighted by 1 / error^2. Statistics that are not
+ * defined for the number of points are NaN.
+ *
+ * @author marregui
+ */
+public final class RangeStatistics {
+    public final int count;
+    public final double sum; // the summed flux
+    public final double mean, variance;
+    public final int weightedCount;
+    public final double weightedMean, weightedMeanError;
+    public final double chiSquare; // against the weighted mean, with weightedCount - 1 degrees of freedom
+
+    /**
+     * @param moments {@link StatisticsIndex} moments of the values less the offset
+     * @param offset  subtracted from the values before they were summed
+     */
+    RangeStatistics(double[] moments, double offset) {
+        double n = moments[StatisticsIndex.COUNT];
+        double sum = moments[StatisticsIndex.SUM];
+        double weights = moments[StatisticsIndex.WEIGHTS];
+        double weightedSum = moments[StatisticsIndex.WEIGHTED_SUM];
+        this.count = (int) n;
+        this.sum = sum + n * offset;
+        this.mean = this.count > 0 ? offset + sum / n : Double.NaN;
+        this.variance = this.count > 1 ?
+                Math.max(0.0, (moments[StatisticsIndex.SUM_OF_SQUARES] - sum * sum / n) / (n - 1)) : Double.NaN;
+        this.weightedCount = (int) moments[StatisticsIndex.WEIGHTED_COUNT];
+        boolean isWeighted = this.weightedCount > 0 && weights > 0.0;
+        this.weightedMean = isWeighted ? offset + weightedSum / weights : Double.NaN;
+        this.weightedMeanError = isWeighted ? Math.sqrt(1.0 / weights) : Double.NaN;
+        this.chiSquare = this.weightedCount > 1 && weights > 0.0 ?
+                Math.max(0.0, moments[StatisticsIndex.WEIGHTED_SUM_OF_SQUARES] - weightedSum * weightedSum / weights) : Double.NaN;
+    }
+
+    /**
+     * @return chi-square per degree of freedom, NaN with fewer than two weighted points
+     */
+    public double getReducedChiSquare() {
+        return this.chiSquare / (this.weightedCount - 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n:%d mean:%.4g var:%.4g wmean:%.4g+-%.3g chi2/dof:%.4g sum:%.4g",
+                Integer.valueOf(this.count),
+                Double.valueOf(this.mean),
+                Double.valueOf(this.variance),
+                Double.valueOf(this.weightedMean),
+                Double.valueOf(this.weightedMeanError),
+                Double.valueOf(getReducedChiSquare()),
+                Double.valueOf(this.sum));
+    }
+}
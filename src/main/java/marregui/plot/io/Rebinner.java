@@ -0,0 +1,244 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Rebins a {@link DataSet} whose X values are sorted into bins of X of a given width,
+ * aligned to multiples of it, see {@link DataSet#rebin(float)}. Each bin with valid points
+ * becomes one point: X is the mean X of its valid points, Y the mean of their Y weighted
+ * by 1 / error^2, and the error that of the weighted mean, sqrt(1 / sum(1 / error^2)).
+ * Bins whose points have no positive error take the plain mean, with the standard error
+ * of the mean as error, 0 for a single point. Points without a finite value (NaN, or
+ * the infinity of an overflowing token) are ignored, bins without valid points are left
+ * out.
+ * <p>
+ * The points are split in ranges that start at the start of a bin, which are rebinned in
+ * parallel in the common fork-join pool, and the bins of each range joined in X order.
+ *
+ * @author marregui
+ */
+final class Rebinner extends RecursiveTask<Rebinner.Bins> {
+    private static final long serialVersionUID = 1L;
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 16;
+
+    private final DataSet dataSet;
+    private final double binWidth;
+    private final int from, to;
+
+    private Rebinner(DataSet dataSet, double binWidth, int from, int to) {
+        this.dataSet = dataSet;
+        this.binWidth = binWidth;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @param dataSet  data set whose X values are sorted
+     * @param binWidth width of the bins, positive
+     * @return data set with one always valid point per bin with valid points
+     */
+    static DataSet rebin(DataSet dataSet, float binWidth) {
+        Bins bins = ForkJoinPool.commonPool().invoke(new Rebinner(dataSet, binWidth, 0, dataSet.getSize()));
+        float[] x = Arrays.copyOf(bins.x, bins.size);
+        float[] y = Arrays.copyOf(bins.y, bins.size);
+        float[] error = Arrays.copyOf(bins.error, bins.size);
+        Points[] yValues = new Points[2];
+        yValues[DataFileParser.Y_VALUE_IDX] = new Points(y, null, min(y), max(y));
+        yValues[DataFileParser.Y_ERROR_IDX] = new Points(error, null, min(error), max(error));
+        Points xValues = new Points(x, null, min(x), max(x));
+        return new DataSet(String.format("%s binned by %s", dataSet.id, Float.toString(binWidth)), xValues, yValues);
+    }
+
+    @Override
+    protected Bins compute() {
+        if (this.to - this.from > SEQUENTIAL_THRESHOLD) {
+            int split = firstOfBinAfter(this.from + (this.to - this.from) / 2);
+            if (split > this.from && split < this.to) {
+                Rebinner left = new Rebinner(this.dataSet, this.binWidth, this.from, split);
+                Rebinner right = new Rebinner(this.dataSet, this.binWidth, split, this.to);
+                left.fork();
+                Bins rightBins = right.compute();
+                return left.join().append(rightBins);
+            }
+        }
+        return rebinRange();
+    }
+
+    private long binOf(int i) {
+        return (long) Math.floor(this.dataSet.xValues.get(i) / this.binWidth);
+    }
+
+    /**
+     * @return index of the first point of the bin of point i, or when that is the first
+     * point of the range, of the next bin, to at most
+     */
+    private int firstOfBinAfter(int i) {
+        long bin = binOf(i);
+        int low = this.from;
+        int high = i;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (binOf(mid) < bin) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low > this.from) {
+            return low;
+        }
+        low = i;
+        high = this.to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (binOf(mid) <= bin) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Bins rebinRange() {
+        Points x = this.dataSet.xValues;
+        Points y = this.dataSet.yValues;
+        Points error = this.dataSet.yError;
+        Bins bins = new Bins(Math.max(16, (this.to - this.from) >> 4));
+        Bin bin = new Bin();
+        long currentBin = Long.MIN_VALUE;
+        for (int i = this.from; i < this.to; i++) {
+            float value = y.get(i);
+            if (false == y.isValid(i) || false == Float.isFinite(value)) {
+                continue;
+            }
+            long binIdx = binOf(i);
+            if (binIdx != currentBin) {
+                bin.addTo(bins);
+                bin.reset(value);
+                currentBin = binIdx;
+            }
+            bin.add(x.get(i), value, error.get(i));
+        }
+        bin.addTo(bins);
+        return bins;
+    }
+
+    private static float min(float[] values) {
+        float min = Float.MAX_VALUE;
+        for (float value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private static float max(float[] values) {
+        float max = -Float.MAX_VALUE;
+        for (float value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    /**
+     * Sums of the valid points of one bin. Y is summed less the first Y of the bin, so
+     * that the variance of values far from zero does not vanish in rounding.
+     */
+    private static class Bin {
+        private int count;
+        private double offset, sumX, sum, sumOfSquares, weights, weightedSum;
+
+        private void reset(double offset) {
+            this.offset = offset;
+            this.count = 0;
+            this.sumX = this.sum = this.sumOfSquares = this.weights = this.weightedSum = 0.0;
+        }
+
+        private void add(float x, float y, float error) {
+            double d = y - this.offset;
+            this.count++;
+            this.sumX += x;
+            this.sum += d;
+            this.sumOfSquares += d * d;
+            if (error > 0.0f && error < Float.POSITIVE_INFINITY) {
+                double weight = 1.0 / ((double) error * error);
+                this.weights += weight;
+                this.weightedSum += weight * d;
+            }
+        }
+
+        private void addTo(Bins bins) {
+            if (0 == this.count) {
+                return;
+            }
+            float x = (float) (this.sumX / this.count);
+            if (this.weights > 0.0) {
+                bins.add(x, (float) (this.offset + this.weightedSum / this.weights), (float) Math.sqrt(1.0 / this.weights));
+            } else {
+                double n = this.count;
+                double variance = n > 1 ? Math.max(0.0, (this.sumOfSquares - this.sum * this.sum / n) / (n - 1)) : 0.0;
+                bins.add(x, (float) (this.offset + this.sum / n), (float) Math.sqrt(variance / n));
+            }
+        }
+    }
+
+    /**
+     * Points of the bins of a range, in X order.
+     */
+    static final class Bins {
+        private float[] x, y, error;
+        private int size;
+
+        private Bins(int capacity) {
+            this.x = new float[capacity];
+            this.y = new float[capacity];
+            this.error = new float[capacity];
+        }
+
+        private void add(float x, float y, float error) {
+            if (this.size == this.x.length) {
+                grow(this.size + 1);
+            }
+            this.x[this.size] = x;
+            this.y[this.size] = y;
+            this.error[this.size] = error;
+            this.size++;
+        }
+
+        private Bins append(Bins bins) {
+            if (this.size + bins.size > this.x.length) {
+                grow(this.size + bins.size);
+            }
+            System.arraycopy(bins.x, 0, this.x, this.size, bins.size);
+            System.arraycopy(bins.y, 0, this.y, this.size, bins.size);
+            System.arraycopy(bins.error, 0, this.error, this.size, bins.size);
+            this.size += bins.size;
+            return this;
+        }
+
+        private void grow(int minCapacity) {
+            int capacity = Math.max(minCapacity, this.x.length + (this.x.length >> 1));
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            this.error = Arrays.copyOf(this.error, capacity);
+        }
+    }
+}
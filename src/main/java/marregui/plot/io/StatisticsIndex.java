@@ -0,0 +1,234 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+/**
+ * Fenwick tree (binary indexed tree) of the prefix sums of the moments of the valid
+ * points of a {@link Points}: count, sum and sum of squares, and their error weighted
+ * counterparts, from which {@link RangeStatistics} of any range of indexes are answered
+ * in O(log n), however long the range. Changes of validity update the sums of the
+ * blocks they touch, and the tree, in O(log n) per block.
+ * <p>
+ * As in {@link MinMaxIndex} the leaves are blocks of {@link #BLOCK_SIZE} consecutive
+ * points, which keeps the tree small, at the cost of scanning at most two partial blocks
+ * per query. The values are summed less an offset, the first valid value, so that the
+ * variance of values far from zero does not vanish in the rounding of their squares.
+ * Values that are not finite, NaN and the infinities of overflowing tokens, are left out,
+ * as an infinity in the sums would leave NaN in the tree once its point changes.
+ *
+ * @author marregui
+ */
+final class StatisticsIndex {
+    static final int COUNT = 0;
+    static final int SUM = 1;
+    static final int SUM_OF_SQUARES = 2;
+    static final int WEIGHTED_COUNT = 3;
+    static final int WEIGHTS = 4;
+    static final int WEIGHTED_SUM = 5;
+    static final int WEIGHTED_SUM_OF_SQUARES = 6;
+    static final int MOMENTS = 7;
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private final Points values, errors;
+    private final int size, blockCount;
+    private final double offset;
+    private final double[] blocks; // MOMENTS per block
+    private final double[] tree; // MOMENTS per node, node i (1 based) sums blocks (i - lowestOneBit(i), i]
+
+    StatisticsIndex(Points values, Points errors) {
+        this(values, errors, null);
+    }
+
+    /**
+     * Index over points whose first points are those of an index built earlier, as are the
+     * snapshots of a file being parsed or followed. The sums of the full blocks of the
+     * earlier index are copied, only the blocks of the points added since are computed.
+     */
+    private StatisticsIndex(Points values, Points errors, StatisticsIndex prefix) {
+        this.values = values;
+        this.errors = errors;
+        this.size = values.getSize();
+        this.blockCount = (this.size + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        this.blocks = new double[this.blockCount * MOMENTS];
+        this.tree = new double[(this.blockCount + 1) * MOMENTS];
+        int firstBlock = 0;
+        if (null != prefix) {
+            this.offset = prefix.offset;
+            firstBlock = prefix.size >> BLOCK_SHIFT; // the last block of the prefix may be partial
+            System.arraycopy(prefix.blocks, 0, this.blocks, 0, firstBlock * MOMENTS);
+        } else {
+            this.offset = offsetOf(values);
+        }
+        for (int block = firstBlock; block < this.blockCount; block++) {
+            sumBlock(block);
+        }
+        buildTree();
+    }
+
+    /**
+     * @param values points that start with the points of this index
+     * @param errors their errors
+     * @return index over the points
+     */
+    StatisticsIndex extendTo(Points values, Points errors) {
+        return new StatisticsIndex(values, errors, this);
+    }
+
+    /**
+     * Recomputes the sums of the blocks that cover a range of points whose value or
+     * validity changed, and the nodes of the tree that include them. When most of the
+     * blocks change the tree is built again, in O(n), rather than updated per block.
+     *
+     * @param from first index, inclusive
+     * @param to   last index, exclusive
+     */
+    void update(int from, int to) {
+        to = Math.min(to, this.size);
+        if (from >= to) {
+            return;
+        }
+        int firstBlock = from >> BLOCK_SHIFT;
+        int lastBlock = (to - 1) >> BLOCK_SHIFT;
+        if (lastBlock - firstBlock + 1 > this.blockCount / Math.max(1, 32 - Integer.numberOfLeadingZeros(this.blockCount))) {
+            for (int block = firstBlock; block <= lastBlock; block++) {
+                sumBlock(block);
+            }
+            buildTree();
+            return;
+        }
+        double[] delta = new double[MOMENTS];
+        for (int block = firstBlock; block <= lastBlock; block++) {
+            int start = block * MOMENTS;
+            System.arraycopy(this.blocks, start, delta, 0, MOMENTS);
+            sumBlock(block);
+            for (int m = 0; m < MOMENTS; m++) {
+                delta[m] = this.blocks[start + m] - delta[m];
+            }
+            for (int node = block + 1; node <= this.blockCount; node += node & -node) {
+                for (int m = 0; m < MOMENTS; m++) {
+                    this.tree[node * MOMENTS + m] += delta[m];
+                }
+            }
+        }
+    }
+
+    /**
+     * @param from first index, inclusive
+     * @param to   last index, exclusive
+     * @return statistics of the valid points in the range
+     */
+    RangeStatistics query(int from, int to) {
+        double[] moments = new double[MOMENTS];
+        to = Math.min(to, this.size);
+        from = Math.max(0, from);
+        int firstFullBlock = (from + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+        int lastFullBlock = to >> BLOCK_SHIFT; // exclusive
+        if (firstFullBlock >= lastFullBlock) {
+            accumulate(from, to, moments);
+        } else {
+            accumulate(from, firstFullBlock << BLOCK_SHIFT, moments);
+            accumulate(lastFullBlock << BLOCK_SHIFT, to, moments);
+            prefixSum(lastFullBlock, moments, 1.0);
+            prefixSum(firstFullBlock, moments, -1.0);
+        }
+        return new RangeStatistics(moments, this.offset);
+    }
+
+    /**
+     * Statistics of the valid points whose X is in a range, for points whose X values are
+     * not sorted, which are scanned.
+     */
+    static RangeStatistics scan(Points xValues, Points values, Points errors, float minx, float maxx) {
+        double offset = offsetOf(values);
+        double[] moments = new double[MOMENTS];
+        for (int i = 0, size = values.getSize(); i < size; i++) {
+            float x = xValues.get(i);
+            if (x >= minx && x <= maxx) {
+                accumulate(values, errors, i, offset, moments);
+            }
+        }
+        return new RangeStatistics(moments, offset);
+    }
+
+    /**
+     * @return the first valid value, 0 when there is none
+     */
+    private static double offsetOf(Points values) {
+        for (int i = 0, size = values.getSize(); i < size; i++) {
+            float value = values.get(i);
+            if (values.isValid(i) && Float.isFinite(value)) {
+                return value;
+            }
+        }
+        return 0.0;
+    }
+
+    private void sumBlock(int block) {
+        double[] moments = new double[MOMENTS];
+        accumulate(block << BLOCK_SHIFT, Math.min(this.size, (block + 1) << BLOCK_SHIFT), moments);
+        System.arraycopy(moments, 0, this.blocks, block * MOMENTS, MOMENTS);
+    }
+
+    private void buildTree() {
+        System.arraycopy(this.blocks, 0, this.tree, MOMENTS, this.blocks.length);
+        for (int node = 1; node <= this.blockCount; node++) {
+            int parent = node + (node & -node);
+            if (parent <= this.blockCount) {
+                for (int m = 0; m < MOMENTS; m++) {
+                    this.tree[parent * MOMENTS + m] += this.tree[node * MOMENTS + m];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the sums of the blocks [0, blockCount), times the sign, to the moments.
+     */
+    private void prefixSum(int blockCount, double[] moments, double sign) {
+        for (int node = blockCount; node > 0; node -= node & -node) {
+            for (int m = 0; m < MOMENTS; m++) {
+                moments[m] += sign * this.tree[node * MOMENTS + m];
+            }
+        }
+    }
+
+    private void accumulate(int from, int to, double[] moments) {
+        for (int i = from; i < to; i++) {
+            accumulate(this.values, this.errors, i, this.offset, moments);
+        }
+    }
+
+    private static void accumulate(Points values, Points errors, int i, double offset, double[] moments) {
+        float value = values.get(i);
+        if (false == values.isValid(i) || false == Float.isFinite(value)) {
+            return;
+        }
+        double d = value - offset;
+        moments[COUNT]++;
+        moments[SUM] += d;
+        moments[SUM_OF_SQUARES] += d * d;
+        float error = errors.get(i);
+        if (error > 0.0f && error < Float.POSITIVE_INFINITY) {
+            double weight = 1.0 / ((double) error * error);
+            moments[WEIGHTED_COUNT]++;
+            moments[WEIGHTS] += weight;
+            moments[WEIGHTED_SUM] += weight * d;
+            moments[WEIGHTED_SUM_OF_SQUARES] += weight * d * d;
+        }
+    }
+}
@@ -0,0 +1,875 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.text.AttributedCharacterIterator;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Graphics that writes what is drawn on it as SVG, streamed to a writer as it is drawn,
+ * so that plots are exported as vectors by the same code that paints them. Shapes are
+ * written in device coordinates, the user space transformed, and lines keep the width
+ * they have on screen, one pixel at least, as Java2D draws thinner lines.
+ * <p>
+ * Shapes drawn with the same opaque colour, stroke and clip, e.g. the error bars of a
+ * curve, are batched into one path element per style, written in the order their style
+ * was first used, when text or an image is drawn, the batches grow too big, or the
+ * document is finished. Overlapping shapes of different styles drawn in between may
+ * thus end up in a different order, which is not noticeable in plots.
+ * <p>
+ * Paints other than colours, XOR mode, and images that are not buffered images are not
+ * supported, they are drawn with the current colour, or not at all.
+ *
+ * @author marregui
+ */
+public final class SvgGraphics2D extends Graphics2D {
+    private static final int MAX_BATCHES = 16;
+    private static final int MAX_BATCHED_CHARS = 1 << 20;
+    private static final Graphics2D METRICS = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+
+    /**
+     * Output shared by the graphics created from one another.
+     */
+    private static final class Document {
+        private final Writer out;
+        private final Map<String, StringBuilder> batches;
+        private int batchedChars;
+        private int clipCount;
+
+        private Document(Writer out) {
+            this.out = out;
+            this.batches = new LinkedHashMap<>();
+        }
+
+        private void write(String text) {
+            try {
+                this.out.write(text);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void batch(String style, CharSequence pathData) {
+            StringBuilder batch = this.batches.get(style);
+            if (null == batch) {
+                if (this.batches.size() == MAX_BATCHES) {
+                    flush();
+                }
+                batch = new StringBuilder(256);
+                this.batches.put(style, batch);
+            }
+            batch.append(pathData);
+            this.batchedChars += pathData.length();
+            if (this.batchedChars > MAX_BATCHED_CHARS) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            for (Map.Entry<String, StringBuilder> batch : this.batches.entrySet()) {
+                write(String.format("<path d=\"%s\" %s/>\n", batch.getValue(), batch.getKey()));
+            }
+            this.batches.clear();
+            this.batchedChars = 0;
+        }
+    }
+
+    private final Document document;
+    private AffineTransform transform;
+    private Shape clip; // device space
+    private String clipId;
+    private Color color, background;
+    private Paint paint;
+    private Stroke stroke;
+    private Font font;
+    private Composite composite;
+    private RenderingHints hints;
+
+    /**
+     * Writes the header of the document.
+     *
+     * @param out    receives the SVG
+     * @param width  width of the document
+     * @param height height of the document
+     * @throws IOException when the output cannot be written
+     */
+    public SvgGraphics2D(Writer out, int width, int height) throws IOException {
+        this.document = new Document(out);
+        this.transform = new AffineTransform();
+        this.color = Color.BLACK;
+        this.background = Color.WHITE;
+        this.paint = Color.BLACK;
+        this.stroke = new BasicStroke();
+        this.font = new Font(Font.SANS_SERIF, Font.PLAIN, 12);
+        this.composite = AlphaComposite.SrcOver;
+        this.hints = new RenderingHints(null);
+        out.write(String.format("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                        "<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" " +
+                        "width=\"%d\" height=\"%d\" viewBox=\"0 0 %d %d\">\n",
+                width, height, width, height));
+    }
+
+    private SvgGraphics2D(SvgGraphics2D parent) {
+        this.document = parent.document;
+        this.transform = new AffineTransform(parent.transform);
+        this.clip = parent.clip;
+        this.clipId = parent.clipId;
+        this.color = parent.color;
+        this.background = parent.background;
+        this.paint = parent.paint;
+        this.stroke = parent.stroke;
+        this.font = parent.font;
+        this.composite = parent.composite;
+        this.hints = (RenderingHints) parent.hints.clone();
+    }
+
+    /**
+     * Writes what is pending and the end of the document, the writer is not closed.
+     *
+     * @throws IOException when the output cannot be written
+     */
+    public void finish() throws IOException {
+        try {
+            this.document.flush();
+            this.document.write("</svg>\n");
+            this.document.out.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public Graphics create() {
+        return new SvgGraphics2D(this);
+    }
+
+    @Override
+    public void dispose() {
+        // nothing to release, the document is finished explicitly
+    }
+
+    // Shapes
+
+    @Override
+    public void draw(Shape shape) {
+        if (false == this.stroke instanceof BasicStroke) {
+            fill(this.stroke.createStrokedShape(shape));
+            return;
+        }
+        BasicStroke basicStroke = (BasicStroke) this.stroke;
+        Shape deviceShape = this.transform.createTransformedShape(shape);
+        double scale = Math.sqrt(Math.abs(this.transform.getDeterminant()));
+        double width = Math.max(1.0, basicStroke.getLineWidth() * scale);
+        if (isClippedOut(deviceShape, width)) {
+            return;
+        }
+        StringBuilder style = new StringBuilder(96);
+        style.append("fill=\"none\" stroke=\"").append(toHex(this.color)).append("\" stroke-width=\"");
+        appendNumber(style, width).append('"');
+        float[] dashes = basicStroke.getDashArray();
+        if (null != dashes) {
+            style.append(" stroke-dasharray=\"");
+            for (int i = 0; i < dashes.length; i++) {
+                appendNumber(0 == i ? style : style.append(','), dashes[i] * scale);
+            }
+            style.append('"');
+        }
+        if (BasicStroke.CAP_BUTT != basicStroke.getEndCap()) {
+            style.append(BasicStroke.CAP_ROUND == basicStroke.getEndCap() ?
+                    " stroke-linecap=\"round\"" : " stroke-linecap=\"square\"");
+        }
+        if (BasicStroke.JOIN_MITER != basicStroke.getLineJoin()) {
+            style.append(BasicStroke.JOIN_ROUND == basicStroke.getLineJoin() ?
+                    " stroke-linejoin=\"round\"" : " stroke-linejoin=\"bevel\"");
+        }
+        write(style, toPathData(deviceShape));
+    }
+
+    @Override
+    public void fill(Shape shape) {
+        Shape deviceShape = this.transform.createTransformedShape(shape);
+        if (isClippedOut(deviceShape, 0)) {
+            return;
+        }
+        StringBuilder style = new StringBuilder(48);
+        style.append("fill=\"").append(toHex(this.color)).append('"');
+        if (shape instanceof Ellipse2D && isAxisAligned(this.transform)) {
+            // the markers of the points, two arcs take a fraction of the size of four curves
+            write(style, toArcPathData(deviceShape.getBounds2D()));
+        } else {
+            write(style, toPathData(deviceShape));
+        }
+    }
+
+    private static boolean isAxisAligned(AffineTransform transform) {
+        return 0 == (transform.getType() & (AffineTransform.TYPE_GENERAL_ROTATION |
+                AffineTransform.TYPE_QUADRANT_ROTATION |
+                AffineTransform.TYPE_GENERAL_TRANSFORM));
+    }
+
+    private static StringBuilder toArcPathData(Rectangle2D bounds) {
+        double rx = bounds.getWidth() / 2;
+        double ry = bounds.getHeight() / 2;
+        StringBuilder data = new StringBuilder(64).append('M');
+        appendNumber(data, bounds.getMinX()).append(' ');
+        appendNumber(data, bounds.getCenterY());
+        for (int sign = 1; sign >= -1; sign -= 2) {
+            appendNumber(data.append('a'), rx).append(' ');
+            appendNumber(data, ry).append(" 0 1 0 ");
+            appendNumber(data, sign * 2 * rx).append(" 0");
+        }
+        return data;
+    }
+
+    private boolean isClippedOut(Shape deviceShape, double strokeWidth) {
+        if (null == this.clip) {
+            return false;
+        }
+        Rectangle2D bounds = deviceShape.getBounds2D();
+        double margin = strokeWidth / 2 + 1;
+        return false == this.clip.intersects(
+                bounds.getX() - margin, bounds.getY() - margin,
+                bounds.getWidth() + 2 * margin, bounds.getHeight() + 2 * margin);
+    }
+
+    private void write(StringBuilder style, StringBuilder pathData) {
+        int alpha = this.color.getAlpha();
+        if (alpha < 255) {
+            style.append(" opacity=\"");
+            appendNumber(style, alpha / 255.0).append('"');
+        }
+        String clipPath = getClipPath();
+        if (null != clipPath) {
+            style.append(" clip-path=\"url(#").append(clipPath).append(")\"");
+        }
+        if (alpha < 255) {
+            // shapes that overlap would not blend as they do when drawn one after the other
+            this.document.flush();
+            this.document.write(String.format("<path d=\"%s\" %s/>\n", pathData, style));
+        } else {
+            this.document.batch(style.toString(), pathData);
+        }
+    }
+
+    private String getClipPath() {
+        if (null != this.clip && null == this.clipId) {
+            this.clipId = "c" + (++this.document.clipCount);
+            this.document.write(String.format("<clipPath id=\"%s\"><path d=\"%s\"/></clipPath>\n",
+                    this.clipId, toPathData(this.clip)));
+        }
+        return this.clipId;
+    }
+
+    private static StringBuilder toPathData(Shape deviceShape) {
+        StringBuilder data = new StringBuilder(64);
+        double[] coords = new double[6];
+        for (PathIterator it = deviceShape.getPathIterator(null); false == it.isDone(); it.next()) {
+            switch (it.currentSegment(coords)) {
+                case PathIterator.SEG_MOVETO:
+                    appendPoints(data.append('M'), coords, 1);
+                    break;
+                case PathIterator.SEG_LINETO:
+                    appendPoints(data.append('L'), coords, 1);
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    appendPoints(data.append('Q'), coords, 2);
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    appendPoints(data.append('C'), coords, 3);
+                    break;
+                default:
+                    data.append('Z');
+            }
+        }
+        return data;
+    }
+
+    private static void appendPoints(StringBuilder data, double[] coords, int count) {
+        for (int i = 0; i < 2 * count; i++) {
+            appendNumber(0 == i ? data : data.append(' '), coords[i]);
+        }
+    }
+
+    /**
+     * Numbers are written with two decimals at most, a hundredth of a pixel.
+     */
+    private static StringBuilder appendNumber(StringBuilder sb, double value) {
+        long hundredths = Math.round(value * 100.0);
+        if (hundredths < 0) {
+            sb.append('-');
+            hundredths = -hundredths;
+        }
+        sb.append(hundredths / 100);
+        int decimals = (int) (hundredths % 100);
+        if (0 != decimals) {
+            sb.append('.').append(decimals / 10);
+            if (0 != decimals % 10) {
+                sb.append(decimals % 10);
+            }
+        }
+        return sb;
+    }
+
+    private static String toHex(Color color) {
+        return String.format("#%06x", color.getRGB() & 0xFFFFFF);
+    }
+
+    @Override
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        draw(new Line2D.Float(x1, y1, x2, y2));
+    }
+
+    @Override
+    public void drawRect(int x, int y, int width, int height) {
+        draw(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height) {
+        fill(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void clearRect(int x, int y, int width, int height) {
+        Color color = this.color;
+        setColor(this.background);
+        fillRect(x, y, width, height);
+        setColor(color);
+    }
+
+    @Override
+    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        draw(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    @Override
+    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        fill(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    @Override
+    public void drawOval(int x, int y, int width, int height) {
+        draw(new Ellipse2D.Float(x, y, width, height));
+    }
+
+    @Override
+    public void fillOval(int x, int y, int width, int height) {
+        fill(new Ellipse2D.Float(x, y, width, height));
+    }
+
+    @Override
+    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        draw(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+    }
+
+    @Override
+    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        fill(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+    }
+
+    @Override
+    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+        if (nPoints > 0) {
+            Path2D.Float path = new Path2D.Float();
+            path.moveTo(xPoints[0], yPoints[0]);
+            for (int i = 1; i < nPoints; i++) {
+                path.lineTo(xPoints[i], yPoints[i]);
+            }
+            draw(path);
+        }
+    }
+
+    @Override
+    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        draw(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    @Override
+    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        fill(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    @Override
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        // what is written cannot be read back
+    }
+
+    @Override
+    public boolean hit(Rectangle rect, Shape shape, boolean onStroke) {
+        Shape hitShape = onStroke ? this.stroke.createStrokedShape(shape) : shape;
+        return this.transform.createTransformedShape(hitShape).intersects(rect);
+    }
+
+    // Text
+
+    @Override
+    public void drawString(String text, int x, int y) {
+        drawString(text, (float) x, (float) y);
+    }
+
+    @Override
+    public void drawString(String text, float x, float y) {
+        if (null == text || text.isEmpty()) {
+            return;
+        }
+        double[] point = {x, y};
+        this.transform.transform(point, 0, point, 0, 1);
+        double scale = Math.sqrt(Math.abs(this.transform.getDeterminant()));
+        StringBuilder element = new StringBuilder(128 + text.length());
+        element.append("<text x=\"");
+        appendNumber(element, point[0]).append("\" y=\"");
+        appendNumber(element, point[1]).append("\" font-family=\"").append(escape(this.font.getFamily()))
+                .append("\" font-size=\"");
+        appendNumber(element, this.font.getSize2D() * scale).append('"');
+        if (this.font.isBold()) {
+            element.append(" font-weight=\"bold\"");
+        }
+        if (this.font.isItalic()) {
+            element.append(" font-style=\"italic\"");
+        }
+        element.append(" fill=\"").append(toHex(this.color)).append('"');
+        if (this.color.getAlpha() < 255) {
+            element.append(" opacity=\"");
+            appendNumber(element, this.color.getAlpha() / 255.0).append('"');
+        }
+        String clipPath = getClipPath();
+        if (null != clipPath) {
+            element.append(" clip-path=\"url(#").append(clipPath).append(")\"");
+        }
+        element.append('>').append(escape(text)).append("</text>\n");
+        this.document.flush();
+        this.document.write(element.toString());
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        drawString(iterator, (float) x, (float) y);
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+        fill(new TextLayout(iterator, getFontRenderContext()).getOutline(AffineTransform.getTranslateInstance(x, y)));
+    }
+
+    @Override
+    public void drawGlyphVector(GlyphVector glyphVector, float x, float y) {
+        fill(glyphVector.getOutline(x, y));
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    @Override
+    public Font getFont() {
+        return this.font;
+    }
+
+    @Override
+    public void setFont(Font font) {
+        if (null != font) {
+            this.font = font;
+        }
+    }
+
+    @Override
+    public FontMetrics getFontMetrics(Font font) {
+        return METRICS.getFontMetrics(font);
+    }
+
+    @Override
+    public FontRenderContext getFontRenderContext() {
+        return new FontRenderContext(null, true, false);
+    }
+
+    // Images, embedded as PNG
+
+    @Override
+    public boolean drawImage(Image image, AffineTransform xform, ImageObserver observer) {
+        if (false == image instanceof BufferedImage) {
+            return false;
+        }
+        AffineTransform deviceTransform = new AffineTransform(this.transform);
+        if (null != xform) {
+            deviceTransform.concatenate(xform);
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try {
+            PngEncoder.encode((BufferedImage) image, png);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        double[] matrix = new double[6];
+        deviceTransform.getMatrix(matrix);
+        StringBuilder element = new StringBuilder(png.size() * 4 / 3 + 256);
+        element.append("<image width=\"").append(image.getWidth(null))
+                .append("\" height=\"").append(image.getHeight(null))
+                .append("\" transform=\"matrix(");
+        for (int i = 0; i < matrix.length; i++) {
+            appendNumber(0 == i ? element : element.append(' '), matrix[i]);
+        }
+        element.append(")\"");
+        String clipPath = getClipPath();
+        if (null != clipPath) {
+            // the clip is in device space, the image is transformed
+            element.insert(0, String.format("<g clip-path=\"url(#%s)\">", clipPath));
+        }
+        element.append(" xlink:href=\"data:image/png;base64,")
+                .append(Base64.getEncoder().encodeToString(png.toByteArray()))
+                .append("\"/>");
+        element.append(null != clipPath ? "</g>\n" : "\n");
+        this.document.flush();
+        this.document.write(element.toString());
+        return true;
+    }
+
+    @Override
+    public boolean drawImage(Image image, int x, int y, ImageObserver observer) {
+        return drawImage(image, AffineTransform.getTranslateInstance(x, y), observer);
+    }
+
+    @Override
+    public boolean drawImage(Image image, int x, int y, int width, int height, ImageObserver observer) {
+        int imageWidth = image.getWidth(null);
+        int imageHeight = image.getHeight(null);
+        if (imageWidth <= 0 || imageHeight <= 0) {
+            return false;
+        }
+        AffineTransform xform = AffineTransform.getTranslateInstance(x, y);
+        xform.scale((double) width / imageWidth, (double) height / imageHeight);
+        return drawImage(image, xform, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image image, int x, int y, Color bgcolor, ImageObserver observer) {
+        return drawImage(image, x, y, image.getWidth(null), image.getHeight(null), bgcolor, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image image, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+        if (null != bgcolor) {
+            Color color = this.color;
+            setColor(bgcolor);
+            fillRect(x, y, width, height);
+            setColor(color);
+        }
+        return drawImage(image, x, y, width, height, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image image, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+        return drawImage(image, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null, observer);
+    }
+
+    @Override
+    public boolean drawImage(Image image, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+        if (false == image instanceof BufferedImage || sx1 == sx2 || sy1 == sy2) {
+            return false;
+        }
+        BufferedImage source = ((BufferedImage) image).getSubimage(
+                Math.min(sx1, sx2), Math.min(sy1, sy2), Math.abs(sx2 - sx1), Math.abs(sy2 - sy1));
+        return drawImage(source, Math.min(dx1, dx2), Math.min(dy1, dy2), Math.abs(dx2 - dx1), Math.abs(dy2 - dy1), bgcolor, observer);
+    }
+
+    @Override
+    public void drawImage(BufferedImage image, BufferedImageOp op, int x, int y) {
+        drawImage(null != op ? op.filter(image, null) : image, x, y, null);
+    }
+
+    @Override
+    public void drawRenderedImage(RenderedImage image, AffineTransform xform) {
+        if (image instanceof BufferedImage) {
+            drawImage((BufferedImage) image, xform, null);
+        }
+    }
+
+    @Override
+    public void drawRenderableImage(RenderableImage image, AffineTransform xform) {
+        drawRenderedImage(image.createDefaultRendering(), xform);
+    }
+
+    // Transform and clip
+
+    @Override
+    public void translate(int x, int y) {
+        this.transform.translate(x, y);
+    }
+
+    @Override
+    public void translate(double tx, double ty) {
+        this.transform.translate(tx, ty);
+    }
+
+    @Override
+    public void rotate(double theta) {
+        this.transform.rotate(theta);
+    }
+
+    @Override
+    public void rotate(double theta, double x, double y) {
+        this.transform.rotate(theta, x, y);
+    }
+
+    @Override
+    public void scale(double sx, double sy) {
+        this.transform.scale(sx, sy);
+    }
+
+    @Override
+    public void shear(double shx, double shy) {
+        this.transform.shear(shx, shy);
+    }
+
+    @Override
+    public void transform(AffineTransform tx) {
+        this.transform.concatenate(tx);
+    }
+
+    @Override
+    public void setTransform(AffineTransform tx) {
+        this.transform = new AffineTransform(tx);
+    }
+
+    @Override
+    public AffineTransform getTransform() {
+        return new AffineTransform(this.transform);
+    }
+
+    @Override
+    public Shape getClip() {
+        if (null == this.clip) {
+            return null;
+        }
+        try {
+            return this.transform.createInverse().createTransformedShape(this.clip);
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Rectangle getClipBounds() {
+        Shape clip = getClip();
+        return null != clip ? clip.getBounds() : null;
+    }
+
+    @Override
+    public void clip(Shape shape) {
+        if (null == shape) {
+            setClip(null);
+            return;
+        }
+        Shape deviceShape = this.transform.createTransformedShape(shape);
+        if (null != this.clip) {
+            if (this.clip instanceof Rectangle2D && deviceShape instanceof Rectangle2D) {
+                deviceShape = ((Rectangle2D) this.clip).createIntersection((Rectangle2D) deviceShape);
+            } else {
+                Area area = new Area(this.clip);
+                area.intersect(new Area(deviceShape));
+                deviceShape = area;
+            }
+        }
+        setDeviceClip(deviceShape);
+    }
+
+    @Override
+    public void clipRect(int x, int y, int width, int height) {
+        clip(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void setClip(int x, int y, int width, int height) {
+        setClip(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void setClip(Shape shape) {
+        setDeviceClip(null != shape ? this.transform.createTransformedShape(shape) : null);
+    }
+
+    private void setDeviceClip(Shape deviceShape) {
+        // rectangles transformed by translations and scales stay rectangles, cheaper to intersect
+        if (null != deviceShape && false == deviceShape instanceof Rectangle2D) {
+            Area area = new Area(deviceShape);
+            if (area.isRectangular()) {
+                deviceShape = area.getBounds2D();
+            }
+        }
+        this.clip = deviceShape;
+        this.clipId = null;
+    }
+
+    // State
+
+    @Override
+    public Color getColor() {
+        return this.color;
+    }
+
+    @Override
+    public void setColor(Color color) {
+        if (null != color) {
+            this.color = color;
+            this.paint = color;
+        }
+    }
+
+    @Override
+    public Paint getPaint() {
+        return this.paint;
+    }
+
+    @Override
+    public void setPaint(Paint paint) {
+        if (paint instanceof Color) {
+            setColor((Color) paint);
+        } else if (null != paint) {
+            this.paint = paint;
+        }
+    }
+
+    @Override
+    public Color getBackground() {
+        return this.background;
+    }
+
+    @Override
+    public void setBackground(Color color) {
+        this.background = color;
+    }
+
+    @Override
+    public Stroke getStroke() {
+        return this.stroke;
+    }
+
+    @Override
+    public void setStroke(Stroke stroke) {
+        this.stroke = stroke;
+    }
+
+    @Override
+    public Composite getComposite() {
+        return this.composite;
+    }
+
+    @Override
+    public void setComposite(Composite composite) {
+        this.composite = composite;
+    }
+
+    @Override
+    public void setPaintMode() {
+        this.composite = AlphaComposite.SrcOver;
+    }
+
+    @Override
+    public void setXORMode(Color color) {
+        // not supported, shapes are drawn with the current colour
+    }
+
+    @Override
+    public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+        this.hints.put(hintKey, hintValue);
+    }
+
+    @Override
+    public Object getRenderingHint(RenderingHints.Key hintKey) {
+        return this.hints.get(hintKey);
+    }
+
+    @Override
+    public void setRenderingHints(Map<?, ?> hints) {
+        this.hints = new RenderingHints(null);
+        this.hints.putAll(hints);
+    }
+
+    @Override
+    public void addRenderingHints(Map<?, ?> hints) {
+        this.hints.putAll(hints);
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return (RenderingHints) this.hints.clone();
+    }
+
+    @Override
+    public GraphicsConfiguration getDeviceConfiguration() {
+        return METRICS.getDeviceConfiguration();
+    }
+}
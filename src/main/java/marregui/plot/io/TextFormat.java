@@ -0,0 +1,185 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import marregui.plot.io.DataFileParser.Header;
+
+/**
+ * Layout of the rows of a text data file, which {@link MappedDataFileParser} parses
+ * whatever the format: the separator of the fields, how comment lines start, the token
+ * of missing values, and which fields are the x value and the value and error of each
+ * band. The header, the source and band names, either comes from the first line of the
+ * file, as in the format of {@link DataFileParser}, or is known up front.
+ *
+ * @author marregui
+ */
+final class TextFormat {
+    /**
+     * Separator of fields split at runs of blanks.
+     */
+    static final byte BLANKS = ' ';
+    static final int NO_COLUMN = -1;
+
+    /**
+     * The format of {@link DataFileParser}: header line, then x, (flux, err)*, separated by commas.
+     */
+    static final TextFormat LIGHT_CURVE = new TextFormat(
+            (byte) ',', "#", DataFileParser.NO_VALUE, false, null, null, null, null);
+
+    final byte separator;
+    final byte[] commentPrefixes;
+    final byte[] noValue; // lower case
+    final boolean hasCommands;
+    final Header header;
+    final int numberOfFields;
+    final int[] valueColumns, errorColumns, lowerErrorColumns;
+
+    private TextFormat(byte separator, String commentPrefixes, String noValue, boolean hasCommands,
+                       Header header, int[] valueColumns, int[] errorColumns, int[] lowerErrorColumns) {
+        this.separator = separator;
+        this.commentPrefixes = commentPrefixes.getBytes(StandardCharsets.US_ASCII);
+        this.noValue = noValue.toLowerCase().getBytes(StandardCharsets.US_ASCII);
+        this.hasCommands = hasCommands;
+        this.header = header;
+        this.valueColumns = valueColumns;
+        this.errorColumns = errorColumns;
+        this.lowerErrorColumns = lowerErrorColumns;
+        int numberOfFields = 1;
+        if (null != valueColumns) {
+            for (int i = 0; i < valueColumns.length; i++) {
+                numberOfFields = Math.max(numberOfFields, 1 + Math.max(valueColumns[i],
+                        Math.max(errorColumns[i], lowerErrorColumns[i])));
+            }
+        }
+        this.numberOfFields = numberOfFields;
+    }
+
+    /**
+     * Rows of x, then value and error of each band.
+     *
+     * @param separator       separator of the fields, or {@link #BLANKS}
+     * @param commentPrefixes characters that start a comment line
+     * @param noValue         token of missing values
+     * @param header          source and band names
+     */
+    static TextFormat pairs(byte separator, String commentPrefixes, String noValue, Header header) {
+        int[] valueColumns = new int[header.numberOfBands];
+        int[] errorColumns = new int[header.numberOfBands];
+        int[] lowerErrorColumns = new int[header.numberOfBands];
+        for (int i = 0; i < header.numberOfBands; i++) {
+            valueColumns[i] = 1 + (i * 2);
+            errorColumns[i] = valueColumns[i] + 1;
+            lowerErrorColumns[i] = NO_COLUMN;
+        }
+        return new TextFormat(separator, commentPrefixes, noValue, false, header, valueColumns, errorColumns, lowerErrorColumns);
+    }
+
+    /**
+     * Rows of x, the first field, then the columns of the bands, which have one error
+     * column, two (upper and lower, of which the largest is the error), or {@link #NO_COLUMN}.
+     *
+     * @param separator         separator of the fields, or {@link #BLANKS}
+     * @param commentPrefixes   characters that start a comment line
+     * @param noValue           token of missing values
+     * @param hasCommands       true when lines that start with a letter, other than a missing value,
+     *                          are commands, and rows without x separate groups of rows, as in QDP
+     * @param header            source and band names
+     * @param valueColumns      field of the value of each band
+     * @param errorColumns      field of the error of each band
+     * @param lowerErrorColumns field of the lower error of each band
+     */
+    static TextFormat columns(byte separator, String commentPrefixes, String noValue, boolean hasCommands, Header header,
+                              int[] valueColumns, int[] errorColumns, int[] lowerErrorColumns) {
+        return new TextFormat(separator, commentPrefixes, noValue, hasCommands, header, valueColumns, errorColumns, lowerErrorColumns);
+    }
+
+    /**
+     * @return the format for the header read from the first line of the file
+     */
+    TextFormat withHeader(Header header) {
+        return pairs(this.separator, new String(this.commentPrefixes, StandardCharsets.US_ASCII),
+                new String(this.noValue, StandardCharsets.US_ASCII), header);
+    }
+
+    boolean isCommentPrefix(byte b) {
+        for (byte prefix : this.commentPrefixes) {
+            if (prefix == b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Sniffing of the beginning of files
+
+    /**
+     * @param head   first bytes of the file
+     * @param length number of bytes read
+     * @return the lines of the head, trimmed, without the last one when it may be incomplete
+     */
+    static List<String> lines(byte[] head, int length) {
+        List<String> lines = new ArrayList<>();
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if ('\n' == head[i] || '\r' == head[i]) {
+                lines.add(new String(head, lineStart, i - lineStart, StandardCharsets.ISO_8859_1).trim());
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < length && length < head.length) {
+            lines.add(new String(head, lineStart, length - lineStart, StandardCharsets.ISO_8859_1).trim());
+        }
+        return lines;
+    }
+
+    /**
+     * @return the fields of the line, as {@link MappedDataFileParser} splits them
+     */
+    static String[] split(String line, byte separator) {
+        return BLANKS == separator ? line.trim().split("\\s+") : line.split(String.format("[%c]", (char) separator));
+    }
+
+    static boolean isNumber(String token) {
+        String trimmed = token.trim();
+        if (trimmed.isEmpty() || false == (Character.isDigit(trimmed.charAt(0)) ||
+                '-' == trimmed.charAt(0) || '+' == trimmed.charAt(0) || '.' == trimmed.charAt(0))) {
+            return false;
+        }
+        try {
+            Float.parseFloat(trimmed);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    static boolean isNumberOrNoValue(String token, String noValue) {
+        return isNumber(token) || token.trim().equalsIgnoreCase(noValue);
+    }
+
+    /**
+     * @return the name of the file without extension, as source name
+     */
+    static String sourceName(String fileName) {
+        int idx = fileName.lastIndexOf('.');
+        return idx > 0 ? fileName.substring(0, idx) : fileName;
+    }
+}
@@ -0,0 +1,367 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import marregui.plot.io.DataFileParser.Header;
+import marregui.plot.io.DataFileParser.SnapshotListener;
+
+/**
+ * Reader of a text format, whose layout is worked out from the head of the file into a
+ * {@link TextFormat}, and whose rows are parsed by {@link MappedDataFileParser}, so that
+ * all the text formats are parsed into the columns the same way, concurrently for big
+ * files, and can be followed as they grow. The built in text formats are nested.
+ *
+ * @author marregui
+ */
+abstract class TextFormatReader implements DataFormatReader {
+
+    /**
+     * @param fileName name of the file
+     * @param head     first bytes of the file
+     * @param length   number of bytes of the head
+     * @return the layout of the rows, null when the head is not of this format
+     */
+    abstract TextFormat sniff(String fileName, byte[] head, int length);
+
+    @Override
+    public boolean canRead(String fileName, byte[] head, int length) {
+        return null != sniff(fileName, head, length);
+    }
+
+    /**
+     * @return the layout of the rows of the head
+     * @throws Exception when the head is not of this format
+     */
+    TextFormat formatOf(String fileName, byte[] head, int length) throws Exception {
+        TextFormat format = sniff(fileName, head, length);
+        if (null == format) {
+            throw new Exception(String.format("File %s is not %s", fileName, getName()));
+        }
+        return format;
+    }
+
+    @Override
+    public Data read(File file, SnapshotListener listener) throws Exception {
+        byte[] head = new byte[DataFormats.SNIFF_SIZE];
+        int length = DataFormats.readHead(file, head);
+        return MappedDataFileParser.parse(file, formatOf(file.getName(), head, length), listener);
+    }
+
+    @Override
+    public Data read(String fileName, InputStream in, long size, SnapshotListener listener) throws Exception {
+        byte[] head = new byte[DataFormats.SNIFF_SIZE];
+        int length = DataFormats.readHead(in, head);
+        return MappedDataFileParser.parse(in, size, formatOf(fileName, head, length), listener);
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private static List<String> dataLines(List<String> lines, TextFormat format) {
+        List<String> dataLines = new ArrayList<>();
+        for (String line : lines) {
+            if (false == line.isEmpty() && false == format.isCommentPrefix((byte) line.charAt(0))) {
+                dataLines.add(line);
+            }
+        }
+        return dataLines;
+    }
+
+    private static boolean areNumbers(String[] fields, String noValue, int from) {
+        for (int i = from; i < fields.length; i++) {
+            if (false == TextFormat.isNumberOrNoValue(fields[i], noValue)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Format of {@link DataFileParser}: a header line, "source name, band name 1, ..., band
+     * name n", then lines of x, (flux, error)*, separated by commas.
+     */
+    static final class LightCurve extends TextFormatReader {
+
+        @Override
+        public String getName() {
+            return "Light curve";
+        }
+
+        @Override
+        TextFormat sniff(String fileName, byte[] head, int length) {
+            TextFormat format = TextFormat.LIGHT_CURVE;
+            List<String> lines = TextFormat.lines(head, length);
+            int headerIdx = 0;
+            while (headerIdx < lines.size() && lines.get(headerIdx).isEmpty()) {
+                headerIdx++;
+            }
+            if (headerIdx == lines.size()) {
+                return null;
+            }
+            String headerLine = lines.get(headerIdx);
+            if (format.isCommentPrefix((byte) headerLine.charAt(0))) {
+                headerLine = headerLine.substring(1);
+            }
+            String[] names = TextFormat.split(headerLine, format.separator);
+            if (names.length <= 1 || TextFormat.isNumber(names[0])) {
+                return null;
+            }
+            // a header without rows yet is of a file that is about to be appended to
+            List<String> dataLines = dataLines(lines.subList(headerIdx + 1, lines.size()), format);
+            if (false == dataLines.isEmpty() &&
+                    TextFormat.split(dataLines.get(0), format.separator).length != 1 + 2 * (names.length - 1)) {
+                return null;
+            }
+            return format;
+        }
+
+        /**
+         * Files of no known format are read as of this one, so that what is wrong with
+         * them is reported as it always was.
+         */
+        @Override
+        TextFormat formatOf(String fileName, byte[] head, int length) {
+            return TextFormat.LIGHT_CURVE;
+        }
+    }
+
+    /**
+     * MAXI light curves, and other CSV files whose header is in comment lines: lines of
+     * MJD, (flux, error)*, separated by commas, after '#' lines, the last of which with
+     * as many fields as the rows names the columns, e.g. "#MJD,3-5keV,error,5-12keV,error".
+     * The source name is the first field of the first comment line.
+     */
+    static final class MaxiCsv extends TextFormatReader {
+
+        @Override
+        public String getName() {
+            return "MAXI CSV";
+        }
+
+        @Override
+        TextFormat sniff(String fileName, byte[] head, int length) {
+            byte separator = ',';
+            String comments = "#";
+            TextFormat probe = TextFormat.columns(separator, comments, DataFileParser.NO_VALUE, false, null, null, null, null);
+            List<String> lines = TextFormat.lines(head, length);
+            List<String> dataLines = dataLines(lines, probe);
+            if (dataLines.isEmpty()) {
+                return null;
+            }
+            int numberOfFields = TextFormat.split(dataLines.get(0), separator).length;
+            if (numberOfFields < 3 || 0 == numberOfFields % 2) {
+                return null;
+            }
+            for (String line : dataLines) {
+                String[] fields = TextFormat.split(line, separator);
+                if (fields.length != numberOfFields || false == TextFormat.isNumber(fields[0]) ||
+                        false == areNumbers(fields, DataFileParser.NO_VALUE, 1)) {
+                    return null;
+                }
+            }
+            String sourceName = null;
+            String[] columnNames = null;
+            for (String line : lines) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (false == probe.isCommentPrefix((byte) line.charAt(0))) {
+                    break;
+                }
+                String[] fields = TextFormat.split(line.substring(1), separator);
+                if (null == sourceName && fields.length > 0 && false == fields[0].trim().isEmpty()) {
+                    sourceName = fields[0].trim();
+                }
+                if (fields.length == numberOfFields) {
+                    columnNames = fields;
+                }
+            }
+            if (null == columnNames) {
+                return null; // no comment header, rather plain columns
+            }
+            int numberOfBands = (numberOfFields - 1) / 2;
+            String[] names = new String[1 + numberOfBands];
+            names[0] = null != sourceName ? sourceName : TextFormat.sourceName(fileName);
+            for (int i = 0; i < numberOfBands; i++) {
+                names[1 + i] = columnNames[1 + (i * 2)].trim();
+            }
+            Header header = header(names);
+            return null != header ? TextFormat.pairs(separator, comments, DataFileParser.NO_VALUE, header) : null;
+        }
+    }
+
+    /**
+     * QDP files, as written by XRONOS/lcurve: commands, e.g. "READ SERR 1 2", "!" comments,
+     * then columns separated by blanks, "NO" for missing values. Columns named by READ
+     * SERR are followed by their error, by READ TERR by their upper and lower errors. The
+     * first column is x, each other column a band, and rows without x, which separate the
+     * groups of a QDP file, are skipped.
+     */
+    static final class Qdp extends TextFormatReader {
+        private static final String NO_VALUE = "NO";
+
+        @Override
+        public String getName() {
+            return "QDP";
+        }
+
+        @Override
+        TextFormat sniff(String fileName, byte[] head, int length) {
+            String comments = "!@";
+            List<Integer> symmetricErrors = new ArrayList<>();
+            List<Integer> twoSidedErrors = new ArrayList<>();
+            boolean hasReadCommand = false;
+            int numberOfFields = -1;
+            for (String line : TextFormat.lines(head, length)) {
+                if (line.isEmpty() || comments.indexOf(line.charAt(0)) >= 0) {
+                    continue;
+                }
+                String[] fields = TextFormat.split(line, TextFormat.BLANKS);
+                if (Character.isLetter(line.charAt(0)) && false == fields[0].equalsIgnoreCase(NO_VALUE)) {
+                    String command = fields[0].toUpperCase(Locale.ROOT);
+                    if (fields.length > 2 && "READ".startsWith(command) && command.length() >= 1) {
+                        String errorType = fields[1].toUpperCase(Locale.ROOT);
+                        List<Integer> errors = errorType.startsWith("S") ? symmetricErrors :
+                                errorType.startsWith("T") ? twoSidedErrors : null;
+                        if (null == errors) {
+                            continue;
+                        }
+                        for (int i = 2; i < fields.length; i++) {
+                            try {
+                                errors.add(Integer.valueOf(fields[i]));
+                            } catch (NumberFormatException e) {
+                                return null;
+                            }
+                        }
+                        hasReadCommand = true;
+                    }
+                    continue;
+                }
+                if (false == areNumbers(fields, NO_VALUE, 0)) {
+                    return null;
+                }
+                if (-1 == numberOfFields) {
+                    numberOfFields = fields.length;
+                } else if (numberOfFields != fields.length) {
+                    return null;
+                }
+            }
+            if (false == hasReadCommand || numberOfFields < 2) {
+                return null;
+            }
+            List<int[]> columns = new ArrayList<>(); // value, error, lower error
+            for (int field = 0, column = 1; field < numberOfFields; column++) {
+                int errors = symmetricErrors.contains(column) ? 1 : twoSidedErrors.contains(column) ? 2 : 0;
+                columns.add(new int[]{
+                        field,
+                        errors > 0 ? field + 1 : TextFormat.NO_COLUMN,
+                        errors > 1 ? field + 2 : TextFormat.NO_COLUMN
+                });
+                field += 1 + errors;
+                if (field > numberOfFields) {
+                    return null;
+                }
+            }
+            if (0 != columns.get(0)[0] || columns.size() < 2) {
+                return null;
+            }
+            int numberOfBands = columns.size() - 1;
+            String[] names = new String[1 + numberOfBands];
+            int[] valueColumns = new int[numberOfBands];
+            int[] errorColumns = new int[numberOfBands];
+            int[] lowerErrorColumns = new int[numberOfBands];
+            names[0] = TextFormat.sourceName(fileName);
+            for (int i = 0; i < numberOfBands; i++) {
+                int[] column = columns.get(1 + i);
+                names[1 + i] = String.format("column %d", 2 + i);
+                valueColumns[i] = column[0];
+                errorColumns[i] = column[1];
+                lowerErrorColumns[i] = column[2];
+            }
+            Header header = header(names);
+            return null != header ? TextFormat.columns(TextFormat.BLANKS, comments, NO_VALUE, true, header,
+                    valueColumns, errorColumns, lowerErrorColumns) : null;
+        }
+    }
+
+    /**
+     * Columns of numbers without header, separated by commas or blanks, '#' and '!' start
+     * comments. With an odd number of columns they are x, (value, error)*, otherwise x,
+     * value*, without errors. Bands are named after their column.
+     */
+    static final class Columns extends TextFormatReader {
+
+        @Override
+        public String getName() {
+            return "Columns";
+        }
+
+        @Override
+        TextFormat sniff(String fileName, byte[] head, int length) {
+            String comments = "#!";
+            TextFormat probe = TextFormat.columns(TextFormat.BLANKS, comments, DataFileParser.NO_VALUE, false, null, null, null, null);
+            List<String> dataLines = dataLines(TextFormat.lines(head, length), probe);
+            if (dataLines.isEmpty()) {
+                return null;
+            }
+            byte separator = dataLines.get(0).indexOf(',') >= 0 ? (byte) ',' : TextFormat.BLANKS;
+            int numberOfFields = TextFormat.split(dataLines.get(0), separator).length;
+            if (numberOfFields < 2) {
+                return null;
+            }
+            for (String line : dataLines) {
+                String[] fields = TextFormat.split(line, separator);
+                if (fields.length != numberOfFields || false == TextFormat.isNumber(fields[0]) ||
+                        false == areNumbers(fields, DataFileParser.NO_VALUE, 1)) {
+                    return null;
+                }
+            }
+            boolean hasErrors = numberOfFields >= 3 && 1 == numberOfFields % 2;
+            int numberOfBands = hasErrors ? (numberOfFields - 1) / 2 : numberOfFields - 1;
+            String[] names = new String[1 + numberOfBands];
+            int[] valueColumns = new int[numberOfBands];
+            int[] errorColumns = new int[numberOfBands];
+            int[] lowerErrorColumns = new int[numberOfBands];
+            names[0] = TextFormat.sourceName(fileName);
+            for (int i = 0; i < numberOfBands; i++) {
+                valueColumns[i] = hasErrors ? 1 + (i * 2) : 1 + i;
+                errorColumns[i] = hasErrors ? valueColumns[i] + 1 : TextFormat.NO_COLUMN;
+                lowerErrorColumns[i] = TextFormat.NO_COLUMN;
+                names[1 + i] = String.format("column %d", 1 + valueColumns[i]);
+            }
+            Header header = header(names);
+            return null != header ? TextFormat.columns(separator, comments, DataFileParser.NO_VALUE, false, header,
+                    valueColumns, errorColumns, lowerErrorColumns) : null;
+        }
+    }
+
+    private static Header header(String[] names) {
+        try {
+            return new Header(names);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
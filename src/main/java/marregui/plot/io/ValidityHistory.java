@@ -0,0 +1,167 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.io;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Undo/redo log of the changes to the validity of the points of the data sets of a
+ * {@link Data}. Each edit, such as invalidating the points outside of a rectangle in all
+ * the plots, is a list of range deltas, one per data set: the range of points changed and
+ * the words of the validity bitmap before and after the change, run length encoded. An
+ * edit over millions of points that leaves them all valid or non valid is a few longs,
+ * and undoing it is a few word fills.
+ * <p>
+ * Changes made between {@link #beginEdit(String)} and {@link #endEdit()} are one edit,
+ * changes made outside are an edit each. Edits are undone in reverse order, a new edit
+ * discards those that were undone.
+ *
+ * @author marregui
+ */
+public final class ValidityHistory {
+    public static final int MAX_EDITS = 100;
+
+    private static final class Change {
+        final DataSet dataSet;
+        final int from, to;
+        final long[] before, after;
+
+        Change(DataSet dataSet, int from, int to, long[] before, long[] after) {
+            this.dataSet = dataSet;
+            this.from = from;
+            this.to = to;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    private static final class Edit {
+        final String name;
+        final List<Change> changes;
+
+        Edit(String name) {
+            this.name = name;
+            this.changes = new ArrayList<>();
+        }
+    }
+
+    private final Deque<Edit> undoEdits;
+    private final Deque<Edit> redoEdits;
+    private Edit openEdit;
+
+    public ValidityHistory() {
+        this.undoEdits = new ArrayDeque<>();
+        this.redoEdits = new ArrayDeque<>();
+    }
+
+    /**
+     * Groups the changes made until {@link #endEdit()} into one edit.
+     *
+     * @param name what the edit does, e.g. the caption of the mode
+     */
+    public void beginEdit(String name) {
+        this.openEdit = new Edit(name);
+    }
+
+    /**
+     * @return true when changes were made since {@link #beginEdit(String)}
+     */
+    public boolean endEdit() {
+        Edit edit = this.openEdit;
+        this.openEdit = null;
+        if (null == edit || edit.changes.isEmpty()) {
+            return false;
+        }
+        push(edit);
+        return true;
+    }
+
+    void record(DataSet dataSet, int from, int to, long[] before, long[] after) {
+        Change change = new Change(dataSet, from, to, before, after);
+        if (null != this.openEdit) {
+            this.openEdit.changes.add(change);
+        } else {
+            Edit edit = new Edit(null);
+            edit.changes.add(change);
+            push(edit);
+        }
+    }
+
+    private void push(Edit edit) {
+        this.redoEdits.clear();
+        this.undoEdits.push(edit);
+        if (this.undoEdits.size() > MAX_EDITS) {
+            this.undoEdits.removeLast();
+        }
+    }
+
+    public boolean canUndo() {
+        return false == this.undoEdits.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return false == this.redoEdits.isEmpty();
+    }
+
+    /**
+     * @return name of the edit that would be undone, null if there is none or it has no name
+     */
+    public String getUndoName() {
+        return canUndo() ? this.undoEdits.peek().name : null;
+    }
+
+    /**
+     * @return name of the edit that would be redone, null if there is none or it has no name
+     */
+    public String getRedoName() {
+        return canRedo() ? this.redoEdits.peek().name : null;
+    }
+
+    /**
+     * @return true when an edit was undone
+     */
+    public boolean undo() {
+        if (false == canUndo()) {
+            return false;
+        }
+        Edit edit = this.undoEdits.pop();
+        for (int i = edit.changes.size() - 1; i >= 0; i--) {
+            Change change = edit.changes.get(i);
+            change.dataSet.restoreValidity(change.from, change.to, change.before);
+        }
+        this.redoEdits.push(edit);
+        return true;
+    }
+
+    /**
+     * @return true when an edit was redone
+     */
+    public boolean redo() {
+        if (false == canRedo()) {
+            return false;
+        }
+        Edit edit = this.redoEdits.pop();
+        for (Change change : edit.changes) {
+            change.dataSet.restoreValidity(change.from, change.to, change.after);
+        }
+        this.undoEdits.push(edit);
+        return true;
+    }
+}
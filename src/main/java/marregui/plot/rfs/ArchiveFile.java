@@ -0,0 +1,174 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.rfs;
+
+import marregui.plot.io.Data;
+import marregui.plot.io.DataFileParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * File, or folder, of a {@link TarGzArchive}, with path that of the archive followed by
+ * that of the member, e.g. 'datachest-downloads/crab.tgz/crab/lc.txt'. It answers the
+ * queries of a file chooser from the index of the archive, and its data is read from the
+ * archive, see {@link #parse(DataFileParser.SnapshotListener)}. It cannot be written.
+ *
+ * @author marregui
+ */
+public class ArchiveFile extends File {
+    private static final long serialVersionUID = 1L;
+
+    private final transient TarGzArchive archive;
+    private final transient TarGzArchive.Member member;
+
+    ArchiveFile(TarGzArchive archive, TarGzArchive.Member member) {
+        super(archive.getFile(), member.path);
+        this.archive = archive;
+        this.member = member;
+    }
+
+    /**
+     * @return the tar/gz file the member is in
+     */
+    public File getArchiveFile() {
+        return this.archive.getFile();
+    }
+
+    /**
+     * @return the data of the member, the stream must be closed
+     * @throws IOException when the archive cannot be read
+     */
+    public InputStream openStream() throws IOException {
+        return this.archive.open(this.member);
+    }
+
+    /**
+     * Streams the data of the member into the parser, as if it were a file of its own,
+     * nothing is extracted.
+     *
+     * @param listener receives the snapshots, may be null
+     * @return the data
+     * @throws Exception when the data cannot be read or does not have the expected format
+     */
+    public Data parse(DataFileParser.SnapshotListener listener) throws Exception {
+        try (InputStream in = openStream()) {
+            return DataFileParser.parse(getPath(), in, this.member.size, listener);
+        }
+    }
+
+    static File[] list(TarGzArchive archive, String folderPath) {
+        List<TarGzArchive.Member> members = archive.list(folderPath);
+        File[] files = new File[members.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new ArchiveFile(archive, members.get(i));
+        }
+        return files;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return this.member.isFolder;
+    }
+
+    @Override
+    public boolean isFile() {
+        return false == this.member.isFolder;
+    }
+
+    @Override
+    public boolean isHidden() {
+        return getName().startsWith(".");
+    }
+
+    @Override
+    public long length() {
+        return this.member.size;
+    }
+
+    @Override
+    public long lastModified() {
+        return this.member.lastModified;
+    }
+
+    @Override
+    public boolean canRead() {
+        return true;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return false;
+    }
+
+    @Override
+    public boolean canExecute() {
+        return this.member.isFolder;
+    }
+
+    @Override
+    public String getParent() {
+        return getParentFile().getPath();
+    }
+
+    /**
+     * @return the folder of the member, or the archive itself for members at its top
+     */
+    @Override
+    public File getParentFile() {
+        String parentPath = this.member.getParentPath();
+        if (parentPath.isEmpty()) {
+            return this.archive.getFile();
+        }
+        return new ArchiveFile(this.archive, this.archive.getMember(parentPath));
+    }
+
+    @Override
+    public String[] list() {
+        File[] files = listFiles();
+        if (null == files) {
+            return null;
+        }
+        String[] names = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            names[i] = files[i].getName();
+        }
+        return names;
+    }
+
+    @Override
+    public File[] listFiles() {
+        return this.member.isFolder ? list(this.archive, this.member.path) : null;
+    }
+
+    @Override
+    public File getAbsoluteFile() {
+        return this; // archives are opened by absolute path
+    }
+
+    @Override
+    public File getCanonicalFile() {
+        return this;
+    }
+}
@@ -0,0 +1,164 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.rfs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.Icon;
+import javax.swing.UIManager;
+import javax.swing.filechooser.FileSystemView;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * View of the local file system for a JFileChooser, in which tar/gz archives are
+ * folders that can be browsed, their members being {@link ArchiveFile}s. Everything
+ * else is answered by the default view.
+ *
+ * @author marregui
+ */
+public class ArchiveFileSystemView extends FileSystemView {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveFileSystemView.class);
+
+    private final FileSystemView fileSystemView = FileSystemView.getFileSystemView();
+
+    private static boolean isArchive(File file) {
+        return false == file instanceof ArchiveFile && TarGzArchive.isArchive(file) && file.isFile();
+    }
+
+    @Override
+    public Boolean isTraversable(File file) {
+        if (file instanceof ArchiveFile) {
+            return Boolean.valueOf(file.isDirectory());
+        }
+        return isArchive(file) ? Boolean.TRUE : this.fileSystemView.isTraversable(file);
+    }
+
+    @Override
+    public File[] getFiles(File folder, boolean useFileHiding) {
+        File[] files;
+        if (folder instanceof ArchiveFile) {
+            files = folder.listFiles();
+        } else if (isArchive(folder)) {
+            try {
+                files = ArchiveFile.list(TarGzArchive.open(folder), "");
+            } catch (IOException e) {
+                LOGGER.error(String.format("Cannot read archive %s: %s", folder.getAbsolutePath(), e.getMessage()));
+                return new File[0];
+            }
+        } else {
+            return this.fileSystemView.getFiles(folder, useFileHiding);
+        }
+        if (null == files) {
+            return new File[0];
+        }
+        if (useFileHiding) {
+            List<File> visible = new ArrayList<>(files.length);
+            for (File file : files) {
+                if (false == file.isHidden()) {
+                    visible.add(file);
+                }
+            }
+            files = visible.toArray(new File[0]);
+        }
+        return files;
+    }
+
+    @Override
+    public File getParentDirectory(File file) {
+        return file instanceof ArchiveFile ? file.getParentFile() : this.fileSystemView.getParentDirectory(file);
+    }
+
+    @Override
+    public File createFileObject(File folder, String fileName) {
+        if (folder instanceof ArchiveFile || (null != folder && isArchive(folder))) {
+            File member = createFileObject(new File(folder, fileName).getPath());
+            return null != member ? member : new File(folder, fileName);
+        }
+        return this.fileSystemView.createFileObject(folder, fileName);
+    }
+
+    /**
+     * @param path path of a file, which may be in an archive, e.g. 'downloads/crab.tgz/lc.txt'
+     * @return the file, an {@link ArchiveFile} when the path goes into an archive and the
+     * archive has such a member
+     */
+    @Override
+    public File createFileObject(String path) {
+        File file = new File(path).getAbsoluteFile();
+        for (File archiveFile = file.getParentFile(); null != archiveFile; archiveFile = archiveFile.getParentFile()) {
+            if (isArchive(archiveFile)) {
+                try {
+                    TarGzArchive archive = TarGzArchive.open(archiveFile);
+                    String memberPath = file.getPath().substring(archiveFile.getPath().length() + 1);
+                    TarGzArchive.Member member = archive.getMember(memberPath);
+                    if (null != member) {
+                        return new ArchiveFile(archive, member);
+                    }
+                } catch (IOException e) {
+                    LOGGER.error(String.format("Cannot read archive %s: %s", archiveFile.getAbsolutePath(), e.getMessage()));
+                }
+                break;
+            }
+        }
+        return this.fileSystemView.createFileObject(path);
+    }
+
+    @Override
+    public String getSystemDisplayName(File file) {
+        return file instanceof ArchiveFile ? file.getName() : this.fileSystemView.getSystemDisplayName(file);
+    }
+
+    @Override
+    public String getSystemTypeDescription(File file) {
+        return file instanceof ArchiveFile ? null : this.fileSystemView.getSystemTypeDescription(file);
+    }
+
+    @Override
+    public Icon getSystemIcon(File file) {
+        if (file instanceof ArchiveFile) {
+            return UIManager.getIcon(file.isDirectory() ? "FileView.directoryIcon" : "FileView.fileIcon");
+        }
+        return this.fileSystemView.getSystemIcon(file);
+    }
+
+    @Override
+    public File[] getRoots() {
+        return this.fileSystemView.getRoots();
+    }
+
+    @Override
+    public File getHomeDirectory() {
+        return this.fileSystemView.getHomeDirectory();
+    }
+
+    @Override
+    public File getDefaultDirectory() {
+        return this.fileSystemView.getDefaultDirectory();
+    }
+
+    @Override
+    public File createNewFolder(File containingFolder) throws IOException {
+        if (containingFolder instanceof ArchiveFile || isArchive(containingFolder)) {
+            throw new IOException(String.format("Archives are read only: %s", containingFolder.getPath()));
+        }
+        return this.fileSystemView.createNewFolder(containingFolder);
+    }
+}
@@ -0,0 +1,288 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.rfs;
+
+import marregui.plot.BackgroundTask;
+import marregui.plot.io.DataSet;
+
+import javax.swing.BorderFactory;
+import javax.swing.JComponent;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileFilter;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Accessory of the local file chooser that shows the {@link DataCatalog} of the downloads
+ * folder: a filter of the files by the terms typed, matched against their path, source
+ * and band names, and the summary of the selected file, with the sparkline of each band.
+ * The catalog is brought up to date in the background while the chooser is shown, the
+ * update is cancelled when it is closed, keeping the files read so far.
+ *
+ * @author marregui
+ */
+public class CatalogAccessory extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private static final int WIDTH = 240;
+    private static final int BAND_HEIGHT = 56;
+    private static final Font FONT = new Font("Arial", Font.PLAIN, 10);
+
+    private final JFileChooser fileChooser;
+    private final DataCatalog catalog;
+    private final JTextField filterField;
+    private final JLabel statusLabel;
+    private final Summary summary;
+    private String[] terms;
+    private BackgroundTask<int[], DataCatalog.Entry> updater;
+
+    /**
+     * @param fileChooser the chooser the accessory is set to
+     * @param catalog     the catalog, updated in the background
+     */
+    public CatalogAccessory(JFileChooser fileChooser, DataCatalog catalog) {
+        super(new BorderLayout(0, 4));
+        this.fileChooser = fileChooser;
+        this.catalog = catalog;
+        this.terms = new String[0];
+        this.filterField = new JTextField();
+        this.filterField.setToolTipText("Terms in the path, source or band names of the files");
+        this.filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterChanged();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterChanged();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterChanged();
+            }
+        });
+        JPanel filterPanel = new JPanel(new BorderLayout());
+        filterPanel.setBorder(BorderFactory.createTitledBorder("Filter"));
+        filterPanel.add(this.filterField, BorderLayout.CENTER);
+        this.statusLabel = new JLabel(String.format("%d files in catalog", Integer.valueOf(catalog.getEntries().size())));
+        this.statusLabel.setFont(FONT);
+        filterPanel.add(this.statusLabel, BorderLayout.SOUTH);
+        this.summary = new Summary();
+        this.summary.setBorder(BorderFactory.createTitledBorder("Summary"));
+        add(filterPanel, BorderLayout.NORTH);
+        add(this.summary, BorderLayout.CENTER);
+        setPreferredSize(new Dimension(WIDTH, 0));
+        fileChooser.addPropertyChangeListener(JFileChooser.SELECTED_FILE_CHANGED_PROPERTY, e -> selectedFileChanged());
+        fileChooser.addChoosableFileFilter(new CatalogFilter());
+        fileChooser.setFileFilter(fileChooser.getAcceptAllFileFilter());
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (null == this.updater || this.updater.isDone()) {
+            update();
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        if (null != this.updater) {
+            this.updater.cancel(true);
+        }
+    }
+
+    private void selectedFileChanged() {
+        File file = this.fileChooser.getSelectedFile();
+        this.summary.setEntry(null == file ? null : this.catalog.getEntry(file));
+    }
+
+    private void filterChanged() {
+        String text = this.filterField.getText().trim().toLowerCase(Locale.ENGLISH);
+        this.terms = text.isEmpty() ? new String[0] : text.split("\\s+");
+        for (FileFilter filter : this.fileChooser.getChoosableFileFilters()) {
+            if (filter instanceof CatalogFilter) {
+                this.fileChooser.setFileFilter(filter);
+                break;
+            }
+        }
+        this.fileChooser.rescanCurrentDirectory();
+    }
+
+    private void update() {
+        this.updater = new BackgroundTask<int[], DataCatalog.Entry>() {
+            @Override
+            protected int[] doInBackground() throws Exception {
+                return CatalogAccessory.this.catalog.update(
+                        Runtime.getRuntime().availableProcessors(),
+                        entry -> publish(entry));
+            }
+
+            @Override
+            protected void process(List<DataCatalog.Entry> entries) {
+                CatalogAccessory.this.statusLabel.setText(String.format("Indexing %s ... %d files in catalog",
+                        CatalogAccessory.this.catalog.getFolder().getName(),
+                        Integer.valueOf(CatalogAccessory.this.catalog.getEntries().size())));
+            }
+
+            @Override
+            protected void succeeded(int[] counts) {
+                long unreadable = CatalogAccessory.this.catalog.getEntries().stream()
+                        .filter(entry -> false == entry.isReadable())
+                        .count();
+                CatalogAccessory.this.statusLabel.setText(String.format("%d files in catalog, %d updated, %d unreadable",
+                        Integer.valueOf(CatalogAccessory.this.catalog.getEntries().size()),
+                        Integer.valueOf(counts[0] + counts[2]),
+                        Long.valueOf(unreadable)));
+                selectedFileChanged();
+                if (CatalogAccessory.this.terms.length > 0) {
+                    CatalogAccessory.this.fileChooser.rescanCurrentDirectory();
+                }
+            }
+
+            @Override
+            protected void failed(Throwable cause) {
+                CatalogAccessory.this.statusLabel.setText(String.format("Could not index: %s", cause.getMessage()));
+            }
+        };
+        this.updater.execute();
+    }
+
+    /**
+     * Files that are not in the catalog are matched by their name.
+     */
+    private class CatalogFilter extends FileFilter {
+        @Override
+        public boolean accept(File file) {
+            String[] terms = CatalogAccessory.this.terms;
+            if (0 == terms.length || CatalogAccessory.this.fileChooser.isTraversable(file)) {
+                return true;
+            }
+            DataCatalog.Entry entry = CatalogAccessory.this.catalog.getEntry(file);
+            if (null != entry) {
+                return entry.matches(terms);
+            }
+            String name = file.getName().toLowerCase(Locale.ENGLISH);
+            for (String term : terms) {
+                if (false == name.contains(term)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String getDescription() {
+            return "Catalog filter";
+        }
+    }
+
+    /**
+     * Source, rows and X span of the file, and for each band its name, minimum, maximum
+     * and mean, over its sparkline.
+     */
+    private static class Summary extends JComponent {
+        private static final long serialVersionUID = 1L;
+        private DataCatalog.Entry entry;
+
+        private void setEntry(DataCatalog.Entry entry) {
+            this.entry = entry;
+            repaint();
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Graphics2D g2 = (Graphics2D) g.create();
+            try {
+                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g2.setFont(FONT);
+                FontMetrics metrics = g2.getFontMetrics();
+                int lineHeight = metrics.getHeight();
+                int x = getInsets().left + 4;
+                int y = getInsets().top + lineHeight;
+                int width = getWidth() - getInsets().left - getInsets().right - 8;
+                g2.setColor(Color.BLACK);
+                DataCatalog.Entry entry = this.entry;
+                if (null == entry) {
+                    g2.drawString("Not in catalog", x, y);
+                    return;
+                }
+                if (false == entry.isReadable()) {
+                    g2.drawString("Unreadable:", x, y);
+                    g2.drawString(entry.error, x, y + lineHeight);
+                    return;
+                }
+                g2.drawString(String.format("%s, %,d rows", entry.sourceName, Integer.valueOf(entry.rows)), x, y);
+                y += lineHeight;
+                g2.drawString(String.format("X: %.5g .. %.5g", Float.valueOf(entry.minX), Float.valueOf(entry.maxX)), x, y);
+                for (DataCatalog.Band band : entry.bands) {
+                    if (y + BAND_HEIGHT > getHeight()) {
+                        break;
+                    }
+                    y += lineHeight + 4;
+                    g2.setColor(Color.BLACK);
+                    g2.drawString(band.name, x, y);
+                    y += lineHeight;
+                    g2.drawString(String.format("%.4g .. %.4g, mean %.4g",
+                            Float.valueOf(band.min), Float.valueOf(band.max), Float.valueOf(band.mean)), x, y);
+                    int top = y + 4;
+                    int height = BAND_HEIGHT - 2 * lineHeight - 8;
+                    g2.setColor(DataSet.DEFAULT_COLOR);
+                    Path2D.Float line = new Path2D.Float();
+                    boolean isDrawing = false;
+                    for (int i = 0; i < DataCatalog.SPARKLINE_SIZE; i++) {
+                        float value = band.getSparkline(i);
+                        if (Float.isNaN(value)) {
+                            isDrawing = false;
+                            continue;
+                        }
+                        float px = x + (float) i * width / (DataCatalog.SPARKLINE_SIZE - 1);
+                        float py = top + (1.0f - value) * height;
+                        if (isDrawing) {
+                            line.lineTo(px, py);
+                        } else {
+                            line.moveTo(px, py);
+                            line.lineTo(px, py);
+                            isDrawing = true;
+                        }
+                    }
+                    g2.draw(line);
+                    y = top + height;
+                }
+            } finally {
+                g2.dispose();
+            }
+        }
+    }
+}
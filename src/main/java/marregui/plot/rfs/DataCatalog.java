@@ -0,0 +1,463 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.rfs;
+
+import marregui.plot.io.ColumnarDataFile;
+import marregui.plot.io.Data;
+import marregui.plot.io.DataFileParser;
+import marregui.plot.io.DataSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Catalog of the data files of a folder, by default that of the downloads from the
+ * Datachest server, {@link FileChooser#DOWNLOAD_FOLDER}, with a summary of each: source
+ * name, bands, rows, X span, and for each band the minimum, maximum and mean of its valid
+ * values, and a {@link #SPARKLINE_SIZE} point sparkline. The members of tar/gz archives
+ * in the folder are data files of their own, read in place, see {@link TarGzArchive}.
+ * <p>
+ * The summaries are kept in the file {@link #INDEX_FILE_NAME} of the folder, or in the
+ * folder given by the system property {@link ColumnarDataFile#CACHE_FOLDER_PROPERTY},
+ * with the size and last modified time of each file, so that {@link #update(int, Consumer)}
+ * only reads the files that have changed since, on a pool, and the catalog is otherwise
+ * answered from memory, however many files there are. The files are read from their
+ * columnar cache when they have one, but no cache is written for them.
+ *
+ * @author marregui
+ */
+public final class DataCatalog {
+    public static final String INDEX_FILE_NAME = ".catalog.svcat";
+    public static final int SPARKLINE_SIZE = 256;
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataCatalog.class);
+    private static final int INDEX_MAGIC = 0x53564341; // SVCA
+    private static final int INDEX_VERSION = 1;
+    private static final int NO_VALUE = 0xFF; // in a sparkline, bins without valid values
+    private static final Map<String, DataCatalog> OPEN_CATALOGS = new HashMap<>();
+
+    /**
+     * Summary of a band. Its sparkline has the mean of the valid values in each of
+     * {@link #SPARKLINE_SIZE} bins of the X span, scaled from [min, max] to [0, 254].
+     */
+    public static final class Band {
+        public final String name;
+        public final float min, max, mean;
+        private final byte[] sparkline;
+
+        private Band(String name, float min, float max, float mean, byte[] sparkline) {
+            this.name = name;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.sparkline = sparkline;
+        }
+
+        /**
+         * @param i bin of the X span, less than {@link #SPARKLINE_SIZE}
+         * @return mean of the valid values in the bin, scaled from [min, max] to [0, 1],
+         * NaN when there are none
+         */
+        public float getSparkline(int i) {
+            int value = this.sparkline[i] & 0xFF;
+            return NO_VALUE == value ? Float.NaN : value / (float) (NO_VALUE - 1);
+        }
+    }
+
+    /**
+     * Summary of a data file. When it could not be read the error says why, and there
+     * are no bands.
+     */
+    public static final class Entry {
+        public final String path; // relative to the folder of the catalog, '/' separated
+        public final long length, lastModified;
+        public final String error;
+        public final String sourceName;
+        public final int rows;
+        public final float minX, maxX;
+        public final List<Band> bands;
+
+        private Entry(String path, long length, long lastModified, String error,
+                      String sourceName, int rows, float minX, float maxX, List<Band> bands) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.error = error;
+            this.sourceName = sourceName;
+            this.rows = rows;
+            this.minX = minX;
+            this.maxX = maxX;
+            this.bands = Collections.unmodifiableList(bands);
+        }
+
+        private static Entry failed(String path, File file, String error) {
+            return new Entry(path, file.length(), file.lastModified(), null == error ? "Unknown error" : error,
+                    "", 0, Float.NaN, Float.NaN, Collections.emptyList());
+        }
+
+        public boolean isReadable() {
+            return null == this.error;
+        }
+
+        /**
+         * @param terms lower case terms
+         * @return true when each of the terms is part of the path, the source name or the
+         * name of a band
+         */
+        public boolean matches(String... terms) {
+            for (String term : terms) {
+                boolean isMatched = this.path.toLowerCase(Locale.ENGLISH).contains(term) ||
+                        this.sourceName.toLowerCase(Locale.ENGLISH).contains(term);
+                for (int i = 0; i < this.bands.size() && false == isMatched; i++) {
+                    isMatched = this.bands.get(i).name.toLowerCase(Locale.ENGLISH).contains(term);
+                }
+                if (false == isMatched) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Catalogs are opened once, with the summaries of their index.
+     *
+     * @param folder folder of data files
+     * @return its catalog, which may need to be {@link #update(int, Consumer)}d
+     */
+    public static DataCatalog open(File folder) {
+        File absoluteFolder = folder.getAbsoluteFile();
+        synchronized (OPEN_CATALOGS) {
+            return OPEN_CATALOGS.computeIfAbsent(absoluteFolder.getPath(), path -> new DataCatalog(absoluteFolder));
+        }
+    }
+
+    private final File folder;
+    private final File indexFile;
+    private final Map<String, Entry> entries; // by path
+
+    private DataCatalog(File folder) {
+        this.folder = folder;
+        String cacheFolder = System.getProperty(ColumnarDataFile.CACHE_FOLDER_PROPERTY);
+        this.indexFile = null == cacheFolder ? new File(folder, INDEX_FILE_NAME) :
+                new File(cacheFolder, String.format("%s_%08x%s",
+                        folder.getName(), Integer.valueOf(folder.getPath().hashCode()), INDEX_FILE_NAME));
+        this.entries = new ConcurrentHashMap<>();
+        readIndex();
+    }
+
+    public File getFolder() {
+        return this.folder;
+    }
+
+    /**
+     * @return the summaries, of the files as they were when last updated
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(this.entries.values());
+    }
+
+    /**
+     * @param file a file of the folder, or a member of an archive of the folder
+     * @return its summary, null when it is not in the catalog
+     */
+    public Entry getEntry(File file) {
+        String path = relativePath(file);
+        return null == path ? null : this.entries.get(path);
+    }
+
+    private String relativePath(File file) {
+        String folderPath = this.folder.getPath() + File.separator;
+        String path = file.getAbsolutePath();
+        return path.startsWith(folderPath) ? path.substring(folderPath.length()).replace(File.separatorChar, '/') : null;
+    }
+
+    /**
+     * Reads the files that are not in the catalog, or have changed since they were read,
+     * and removes those that are gone. The index is written at the end.
+     *
+     * @param threads  size of the pool
+     * @param listener receives the summary of each file read, from the threads of the pool, may be null
+     * @return number of files {read, up to date, failed}
+     * @throws Exception when the folder cannot be listed, or the thread is interrupted
+     */
+    public synchronized int[] update(int threads, Consumer<Entry> listener) throws Exception {
+        List<File> files = listDataFiles();
+        Set<String> paths = new HashSet<>();
+        for (File file : files) {
+            paths.add(relativePath(file));
+        }
+        this.entries.keySet().retainAll(paths);
+        AtomicInteger read = new AtomicInteger();
+        AtomicInteger upToDate = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> tasks = new ArrayList<>(files.size());
+            for (File file : files) {
+                String path = relativePath(file);
+                Entry entry = this.entries.get(path);
+                if (null != entry && entry.length == file.length() && entry.lastModified == file.lastModified()) {
+                    upToDate.incrementAndGet();
+                    continue;
+                }
+                tasks.add(pool.submit(() -> {
+                    Entry summary = summarise(path, file);
+                    this.entries.put(path, summary);
+                    (summary.isReadable() ? read : failed).incrementAndGet();
+                    if (null != listener) {
+                        listener.accept(summary);
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            throw e;
+        } finally {
+            pool.shutdown();
+            writeIndex();
+        }
+        return new int[]{read.get(), upToDate.get(), failed.get()};
+    }
+
+    /**
+     * @return the files of the folder tree, but for hidden files, columnar caches and
+     * indexes, with archives replaced by their members
+     */
+    private List<File> listDataFiles() throws IOException {
+        if (false == this.folder.isDirectory()) {
+            return Collections.emptyList();
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(this.folder.toPath())) {
+            paths = walk
+                    .filter(Files::isRegularFile)
+                    .filter(path -> false == path.getFileName().toString().startsWith("."))
+                    .filter(path -> false == path.getFileName().toString().endsWith(TarGzArchive.INDEX_EXTENSION))
+                    .filter(path -> false == isCache(path))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        List<File> files = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            File file = path.toFile();
+            if (TarGzArchive.isArchive(file)) {
+                try {
+                    TarGzArchive archive = TarGzArchive.open(file);
+                    for (TarGzArchive.Member member : archive.getMembers()) {
+                        if (false == member.isFolder && false == member.getName().startsWith(".")) {
+                            files.add(new ArchiveFile(archive, member));
+                        }
+                    }
+                    continue;
+                } catch (IOException e) {
+                    LOGGER.warn(String.format("Cannot read archive %s: %s", file.getAbsolutePath(), e.getMessage()));
+                }
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Columnar caches written beside their text data file are not data files of their own.
+     */
+    private static boolean isCache(Path path) {
+        String name = path.getFileName().toString();
+        return ColumnarDataFile.isColumnarDataFile(path.toFile()) &&
+                Files.exists(path.resolveSibling(name.substring(0, name.length() - ColumnarDataFile.EXTENSION.length())));
+    }
+
+    private static Entry summarise(String path, File file) {
+        Data data;
+        try {
+            data = file instanceof ArchiveFile ? ((ArchiveFile) file).parse(null) : DataFileParser.parseWithoutCaching(file);
+        } catch (Exception e) {
+            return Entry.failed(path, file, e.getMessage());
+        } catch (OutOfMemoryError e) {
+            return Entry.failed(path, file, "Too large to be read");
+        }
+        List<Band> bands = new ArrayList<>(data.pointsPerBand.size());
+        int rows = 0;
+        float minX = Float.NaN, maxX = Float.NaN;
+        for (Map.Entry<String, DataSet> band : data.pointsPerBand.entrySet()) {
+            DataSet dataSet = band.getValue();
+            rows = Math.max(rows, dataSet.getSize());
+            minX = Float.isNaN(minX) ? dataSet.minX : Math.min(minX, dataSet.minX);
+            maxX = Float.isNaN(maxX) ? dataSet.maxX : Math.max(maxX, dataSet.maxX);
+        }
+        for (Map.Entry<String, DataSet> band : data.pointsPerBand.entrySet()) {
+            bands.add(summarise(band.getKey(), band.getValue(), minX, maxX));
+        }
+        return new Entry(path, file.length(), file.lastModified(), null,
+                null == data.sourceName ? "" : data.sourceName, rows, minX, maxX, bands);
+    }
+
+    private static Band summarise(String name, DataSet dataSet, float minX, float maxX) {
+        double[] sums = new double[SPARKLINE_SIZE];
+        int[] counts = new int[SPARKLINE_SIZE];
+        float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+        double sum = 0.0;
+        int count = 0;
+        double binsPerX = maxX > minX ? SPARKLINE_SIZE / ((double) maxX - minX) : 0.0;
+        for (int i = 0, size = dataSet.getSize(); i < size; i++) {
+            if (false == dataSet.isValid(i)) {
+                continue;
+            }
+            float y = dataSet.yValues.get(i);
+            if (Float.isNaN(y)) {
+                continue;
+            }
+            min = Math.min(min, y);
+            max = Math.max(max, y);
+            sum += y;
+            count++;
+            int bin = (int) Math.min(SPARKLINE_SIZE - 1, Math.max(0, (dataSet.xValues.get(i) - minX) * binsPerX));
+            sums[bin] += y;
+            counts[bin]++;
+        }
+        byte[] sparkline = new byte[SPARKLINE_SIZE];
+        Arrays.fill(sparkline, (byte) NO_VALUE);
+        if (0 == count) {
+            return new Band(name, Float.NaN, Float.NaN, Float.NaN, sparkline);
+        }
+        double range = max - min;
+        for (int bin = 0; bin < SPARKLINE_SIZE; bin++) {
+            if (counts[bin] > 0) {
+                double scaled = range > 0.0 ? (sums[bin] / counts[bin] - min) / range : 0.5;
+                sparkline[bin] = (byte) Math.round(Math.min(1.0, Math.max(0.0, scaled)) * (NO_VALUE - 1));
+            }
+        }
+        return new Band(name, min, max, (float) (sum / count), sparkline);
+    }
+
+    private void readIndex() {
+        if (false == this.indexFile.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile), IOUtils.BUFFER_SIZE))) {
+            if (INDEX_MAGIC != in.readInt() || INDEX_VERSION != in.readInt()) {
+                LOGGER.warn(String.format("Ignoring index %s, of another version", this.indexFile.getAbsolutePath()));
+                return;
+            }
+            for (int i = 0, count = in.readInt(); i < count; i++) {
+                String path = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                String error = in.readBoolean() ? in.readUTF() : null;
+                String sourceName = in.readUTF();
+                int rows = in.readInt();
+                float minX = in.readFloat();
+                float maxX = in.readFloat();
+                int bandCount = in.readInt();
+                List<Band> bands = new ArrayList<>(bandCount);
+                for (int b = 0; b < bandCount; b++) {
+                    String name = in.readUTF();
+                    float min = in.readFloat();
+                    float max = in.readFloat();
+                    float mean = in.readFloat();
+                    byte[] sparkline = new byte[SPARKLINE_SIZE];
+                    in.readFully(sparkline);
+                    bands.add(new Band(name, min, max, mean, sparkline));
+                }
+                this.entries.put(path, new Entry(path, length, lastModified, error, sourceName, rows, minX, maxX, bands));
+            }
+        } catch (IOException e) {
+            this.entries.clear();
+            LOGGER.warn(String.format("Ignoring index %s: %s", this.indexFile.getAbsolutePath(), e.getMessage()));
+        }
+    }
+
+    /**
+     * The index is written aside and moved in place, it is never seen half written.
+     */
+    private void writeIndex() {
+        File folder = this.indexFile.getAbsoluteFile().getParentFile();
+        if (false == folder.exists()) {
+            folder.mkdirs();
+        }
+        File tmp = new File(folder, this.indexFile.getName() + ".tmp");
+        List<Entry> entries = new ArrayList<>(this.entries.values());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), IOUtils.BUFFER_SIZE))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.length);
+                out.writeLong(entry.lastModified);
+                out.writeBoolean(null != entry.error);
+                if (null != entry.error) {
+                    out.writeUTF(entry.error.length() > 1000 ? entry.error.substring(0, 1000) : entry.error);
+                }
+                out.writeUTF(entry.sourceName);
+                out.writeInt(entry.rows);
+                out.writeFloat(entry.minX);
+                out.writeFloat(entry.maxX);
+                out.writeInt(entry.bands.size());
+                for (Band band : entry.bands) {
+                    out.writeUTF(band.name);
+                    out.writeFloat(band.min);
+                    out.writeFloat(band.max);
+                    out.writeFloat(band.mean);
+                    out.write(band.sparkline);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not write index %s: %s", this.indexFile.getAbsolutePath(), e.getMessage()));
+            tmp.delete();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), this.indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not write index %s: %s", this.indexFile.getAbsolutePath(), e.getMessage()));
+            tmp.delete();
+        }
+    }
+}
@@ -49,10 +49,20 @@ public abstract class DatachestProtocol {
      * @throws Exception
      */
     public static FSEntry list(String serverUrl) throws Exception {
+        return list(serverUrl, null);
+    }
+
+    /**
+     * @param serverUrl
+     * @param listener  receives the progress of the download of the tree, may be null
+     * @return the contents of the remote data space in the form of a file system tree structure
+     * @throws Exception InterruptedIOException when the calling thread is interrupted
+     */
+    public static FSEntry list(String serverUrl, IOUtils.TransferListener listener) throws Exception {
         LOGGER.debug("List command invoked");
         HttpClient client = new HttpClient(serverUrl, LIST_COMMAND_URL);
         ByteArrayOutputStream baos = new ByteArrayOutputStream(IOUtils.BUFFER_SIZE);
-        client.download(baos);
+        client.download(baos, listener);
         baos.close();
         return FSTreeParser.parse(baos.toString(CHARSET));
     }
@@ -65,6 +75,19 @@ public abstract class DatachestProtocol {
      * @throws Exception
      */
     public static File get(String serverUrl, FSEntry entry, File downloadFolder) throws Exception {
+        return get(serverUrl, entry, downloadFolder, null);
+    }
+
+    /**
+     * @param serverUrl
+     * @param entry
+     * @param downloadFolder
+     * @param listener       receives the progress of the download, may be null
+     * @return Downloads the entry from the remote data space into the download folder,
+     * a partially downloaded file is deleted
+     * @throws Exception InterruptedIOException when the calling thread is interrupted
+     */
+    public static File get(String serverUrl, FSEntry entry, File downloadFolder, IOUtils.TransferListener listener) throws Exception {
         if (null == entry) {
             return null;
         }
@@ -72,9 +95,12 @@ public abstract class DatachestProtocol {
         String path = (entry.isFolder && false == entry.isRoot()) ? entry.parentFolder() : entry.path;
         HttpClient client = new HttpClient(serverUrl, String.format(GET_FILE_COMMAND_URL_TPT, path, entry.name));
         File dstFile = new File(downloadFolder, entry.isFolder ? String.format("%s.tgz", entry.name) : entry.name);
-        FileOutputStream fos = new FileOutputStream(dstFile);
-        client.download(fos);
-        fos.close();
+        try (FileOutputStream fos = new FileOutputStream(dstFile)) {
+            client.download(fos, listener);
+        } catch (Exception e) {
+            dstFile.delete();
+            throw e;
+        }
         LOGGER.debug(String.format("Downloaded file: %s", dstFile.getAbsolutePath()));
         return dstFile;
     }
@@ -96,10 +122,13 @@ public abstract class DatachestProtocol {
             LOGGER.debug("Connected");
         }
 
-        private void download(OutputStream out) throws IOException {
+        private void download(OutputStream out, IOUtils.TransferListener listener) throws IOException {
             LOGGER.debug("Starting download");
             long init = System.currentTimeMillis();
-            long transferredBytes = IOUtils.readFromTo(this.conn.getInputStream(), out);
+            long transferredBytes;
+            try (InputStream in = this.conn.getInputStream()) {
+                transferredBytes = IOUtils.readFromTo(in, out, this.conn.getContentLengthLong(), listener);
+            }
             LOGGER.debug(String.format(
                     "Download of %d bytes took %d millis",
                     Long.valueOf(transferredBytes),
@@ -16,7 +16,9 @@
 
 package marregui.plot.rfs;
 
+import marregui.plot.BackgroundTask;
 import marregui.plot.ImageUtils;
+import marregui.plot.InfiniteProgress;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,6 +35,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.io.File;
+import java.util.function.Consumer;
 
 
 /**
@@ -45,7 +48,7 @@ import java.io.File;
 public class FileChooser extends JDialog {
     private static final Logger LOGGER = LoggerFactory.getLogger(FileChooser.class);
     private static final String REMOTE_URL = "http://integral.esac.esa.int/datachest";
-    private static final String DOWNLOAD_FOLDER = "datachest-downloads";
+    public static final String DOWNLOAD_FOLDER = "datachest-downloads";
     private static final long serialVersionUID = 1L;
     private static final long MILLIS_IN_A_DAY = 24 * 60 * 60 * 1000;
     private static final int ALLOWED_DAYS_IN_CACHE = 1;
@@ -57,48 +60,58 @@ public class FileChooser extends JDialog {
     private static final Color SELECTED_COLOR = new Color(40, 200, 40);
 
     /**
-     * @return Shows a selection dialog for a remote file of the
-     * Datachest server. The file is downloaded to the local
-     * file system (overriding any previous version) and a
-     * File handle is returned
+     * Shows a selection dialog for a remote file of the Datachest server. The file is
+     * downloaded in the background to the local file system (overriding any previous
+     * version), showing the progress, and a File handle is handed to the consumer in
+     * the event dispatch thread.
+     *
+     * @param fileConsumer receives the downloaded file
      */
-    public static File selectFile() {
+    public static void selectFile(Consumer<File> fileConsumer) {
         LOGGER.debug("Select FILE is invoked");
-        return select(SelectionMode.File);
+        select(SelectionMode.File, fileConsumer);
     }
 
     /**
-     * @return Shows a selection dialog for a remote folder of the
-     * Datachest server. The folder is downloaded to the local
-     * file system (overriding any previous version) in tar/gz
-     * format with '.tgz' extension and a File handle is returned
+     * Shows a selection dialog for a remote folder of the Datachest server. The folder
+     * is downloaded in the background to the local file system (overriding any previous
+     * version) in tar/gz format with '.tgz' extension, showing the progress, and its
+     * location is shown once downloaded.
      */
-    public static File selectFolder() {
+    public static void selectFolder() {
         LOGGER.debug("Select FOLDER is invoked");
-        File targz = select(SelectionMode.Folder);
-        JOptionPane.showMessageDialog(null, String.format("File available at: %s", targz.getAbsolutePath()));
-        return targz;
+        select(SelectionMode.Folder, targz -> JOptionPane.showMessageDialog(
+                null,
+                String.format("File available at: %s", targz.getAbsolutePath())));
     }
 
-    private static File select(SelectionMode selectionMode) {
+    private static void select(SelectionMode selectionMode, Consumer<File> fileConsumer) {
         // Choose a file
         FileChooser fileChooser = new FileChooser(REMOTE_URL, selectionMode);
         fileChooser.setVisible(true);
         FSEntry selectedEntry = fileChooser.getSelectedFSEntry();
+        if (null == selectedEntry) {
+            return;
+        }
 
         // Download the file to local
-        File file = null;
-        try {
-            file = DatachestProtocol.get(fileChooser.getServerURL(), selectedEntry, manageDownloadsFolder());
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(
-                    null,
-                    String.format("Problem: %s", IOUtils.exceptionAsString(e)),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
-        }
-        return file;
+        String serverURL = fileChooser.getServerURL();
+        BackgroundTask<File, Void> download = new BackgroundTask<File, Void>() {
+            @Override
+            protected File doInBackground() throws Exception {
+                String message = String.format("Downloading %s", selectedEntry.name);
+                long expectedBytes = selectedEntry.isFolder ? -1L : selectedEntry.size;
+                return DatachestProtocol.get(serverURL, selectedEntry, manageDownloadsFolder(),
+                        (bytes, totalBytes) -> reportProgress(message, bytes, totalBytes > 0 ? totalBytes : expectedBytes));
+            }
+
+            @Override
+            protected void succeeded(File file) {
+                fileConsumer.accept(file);
+            }
+        };
+        InfiniteProgress.showFor(download, String.format("Connecting to %s ...", serverURL));
+        download.execute();
     }
 
     private static File manageDownloadsFolder() {
@@ -126,6 +139,7 @@ public class FileChooser extends JDialog {
     private FSEntry selectedFSEntry;
     private JButton openButton;
     private String serverURL;
+    private BackgroundTask<FSEntry, Void> lister;
 
     private FileChooser(String defaultServerURL, final SelectionMode selectionMode) {
         this.serverURL = defaultServerURL;
@@ -161,7 +175,7 @@ public class FileChooser extends JDialog {
         });
 
         // Tree
-        this.tree = new JTree(createNodes(defaultServerURL));
+        this.tree = new JTree(createMessageNode(String.format("Connecting to %s ...", defaultServerURL)));
         this.tree.setBorder(BorderFactory.createTitledBorder("Data"));
         this.tree.getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
         this.tree.addTreeSelectionListener(new TreeSelectionListener() {
@@ -229,23 +243,62 @@ public class FileChooser extends JDialog {
         add(new JScrollPane(this.tree), BorderLayout.CENTER);
         add(buttonsPanel, BorderLayout.SOUTH);
         setSelectedFSEntry(null);
+        changeDataChestServerURL(defaultServerURL);
     }
 
     private String getServerURL() {
         return this.serverURL;
     }
 
+    /**
+     * The contents of the server are listed in the background, the tree shows the progress
+     * meanwhile. A listing in progress is cancelled.
+     */
     private void changeDataChestServerURL(String serverURL) {
-        try {
-            this.tree.setModel(new DefaultTreeModel(createNodes(serverURL)));
-            this.serverURL = serverURL;
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(
-                    this,
-                    String.format("Problem with the server URL: %s", e.getMessage()),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
+        if (null != this.lister) {
+            this.lister.cancel(true);
         }
+        setSelectedFSEntry(null);
+        this.tree.setModel(new DefaultTreeModel(createMessageNode(String.format("Connecting to %s ...", serverURL))));
+        this.lister = new BackgroundTask<FSEntry, Void>() {
+            @Override
+            protected FSEntry doInBackground() throws Exception {
+                String message = String.format("Listing %s", serverURL);
+                return DatachestProtocol.list(serverURL, (bytes, totalBytes) -> reportProgress(message, bytes, totalBytes));
+            }
+
+            @Override
+            protected void finished() {
+                if (this == FileChooser.this.lister) {
+                    FileChooser.this.lister = null;
+                }
+            }
+
+            @Override
+            protected void succeeded(FSEntry rootEntry) {
+                FileChooser.this.tree.setModel(new DefaultTreeModel(
+                        createNodes(new DefaultMutableTreeNode(rootEntry, rootEntry.isFolder), rootEntry)));
+                FileChooser.this.serverURL = serverURL;
+            }
+
+            @Override
+            protected void failed(Throwable cause) {
+                cause.printStackTrace();
+                FileChooser.this.tree.setModel(new DefaultTreeModel(createMessageNode("Server not accessible")));
+                JOptionPane.showMessageDialog(
+                        FileChooser.this,
+                        String.format("Cannot reach server: %s", serverURL),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        };
+        BackgroundTask<FSEntry, Void> lister = this.lister;
+        this.lister.addProgressObserver(progress -> {
+            if (lister == this.lister) {
+                this.tree.setModel(new DefaultTreeModel(createMessageNode(progress.toString())));
+            }
+        });
+        this.lister.execute();
     }
 
     private FSEntry getSelectedFSEntry() {
@@ -260,21 +313,8 @@ public class FileChooser extends JDialog {
         }
     }
 
-    private static DefaultMutableTreeNode createNodes(String serverURL) {
-        FSEntry rootEntry = null;
-        try {
-            rootEntry = DatachestProtocol.list(serverURL);
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(
-                    null,
-                    String.format("Cannot reach server: %s", serverURL),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
-            e.printStackTrace();
-            return new DefaultMutableTreeNode(FSEntry.folder("Server not accessible", 0), false);
-        }
-
-        return createNodes(new DefaultMutableTreeNode(rootEntry, rootEntry.isFolder), rootEntry);
+    private static DefaultMutableTreeNode createMessageNode(String message) {
+        return new DefaultMutableTreeNode(FSEntry.folder(message, 0), false);
     }
 
     private static DefaultMutableTreeNode createNodes(DefaultMutableTreeNode parent, FSEntry entry) {
@@ -293,11 +333,15 @@ public class FileChooser extends JDialog {
         dispose();
     }
 
-    public static void main(String[] args) throws Exception {
-//        File file = DatachestFileChooser.selectFile();
-//        System.out.println("File: " + file);
+    @Override
+    public void dispose() {
+        if (null != this.lister) {
+            this.lister.cancel(true);
+        }
+        super.dispose();
+    }
 
-        File file = FileChooser.selectFolder();
-        System.out.println("File: " + file);
+    public static void main(String[] args) throws Exception {
+        FileChooser.selectFile(file -> System.out.println("File: " + file));
     }
 }
@@ -0,0 +1,712 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.rfs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Index of restart points of a gzip file, so that its uncompressed data can be read from
+ * any offset without inflating everything before it. A restart point is the start of a
+ * deflate block, at a bit offset of the file, with the last 32 KB of uncompressed data
+ * before it, which the block may refer back to. There is one every {@link #SPAN} bytes of
+ * uncompressed data, and one at the start of each gzip member of the file.
+ * <p>
+ * The JDK inflater does not tell where its blocks start, nor can it start at a bit that
+ * is not the first of a byte, so the file is inflated by a {@link Scanner}, a plain
+ * inflater that reads it once, as a stream of uncompressed data, and records the restart
+ * points as it goes. Reads from an offset resume the scanner at the restart point before
+ * it, with the 32 KB as the data already inflated, and inflate at most {@link #SPAN}
+ * bytes to skip to the offset.
+ *
+ * @author marregui
+ */
+public final class GzipIndex {
+    public static final long SPAN = 1L << 20;
+    private static final int WINDOW_SIZE = 1 << 15;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Start of a deflate block, from which the file can be inflated.
+     */
+    private static final class RestartPoint {
+        private final long offset; // of the uncompressed data
+        private final long bitOffset; // of the file
+        private final byte[] window; // empty at the start of a gzip member
+
+        private RestartPoint(long offset, long bitOffset, byte[] window) {
+            this.offset = offset;
+            this.bitOffset = bitOffset;
+            this.window = window;
+        }
+
+        private boolean isMemberStart() {
+            return 0 == this.window.length;
+        }
+    }
+
+    private final List<RestartPoint> points;
+    private final long size;
+
+    private GzipIndex(List<RestartPoint> points, long size) {
+        this.points = points;
+        this.size = size;
+    }
+
+    /**
+     * @return size of the uncompressed data
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Stream of the uncompressed data, from the offset to the end.
+     *
+     * @param file   the gzip file of the index
+     * @param offset offset of the uncompressed data
+     * @return the stream, which must be closed
+     * @throws IOException when the file cannot be read
+     */
+    public InputStream open(File file, long offset) throws IOException {
+        if (offset < 0 || offset > this.size) {
+            throw new IOException(String.format("Offset %d out of the %d bytes of %s",
+                    Long.valueOf(offset), Long.valueOf(this.size), file.getName()));
+        }
+        int idx = 0;
+        for (int low = 0, high = this.points.size() - 1; low <= high; ) {
+            int mid = (low + high) >>> 1;
+            if (this.points.get(mid).offset <= offset) {
+                idx = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        RestartPoint point = this.points.get(idx);
+        FileInputStream fileIn = new FileInputStream(file);
+        try {
+            fileIn.getChannel().position(point.bitOffset >>> 3);
+            Scanner in = new Scanner(fileIn, point);
+            for (long skip = offset - point.offset; skip > 0; ) {
+                long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    throw new EOFException("Truncated gzip data");
+                }
+                skip -= skipped;
+            }
+            return in;
+        } catch (IOException e) {
+            fileIn.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Windows are kept deflated, most of them take a third of their size.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(this.size);
+        out.writeInt(this.points.size());
+        Deflater deflater = new Deflater();
+        byte[] buffer = new byte[WINDOW_SIZE + 64];
+        try {
+            for (RestartPoint point : this.points) {
+                out.writeLong(point.offset);
+                out.writeLong(point.bitOffset);
+                out.writeInt(point.window.length);
+                deflater.reset();
+                deflater.setInput(point.window);
+                deflater.finish();
+                int length = 0;
+                while (false == deflater.finished()) {
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    length += deflater.deflate(buffer, length, buffer.length - length);
+                }
+                out.writeInt(length);
+                out.write(buffer, 0, length);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static GzipIndex read(DataInputStream in) throws IOException {
+        long size = in.readLong();
+        int count = in.readInt();
+        List<RestartPoint> points = new ArrayList<>(count);
+        Inflater inflater = new Inflater();
+        try {
+            for (int i = 0; i < count; i++) {
+                long offset = in.readLong();
+                long bitOffset = in.readLong();
+                byte[] window = new byte[in.readInt()];
+                byte[] deflated = new byte[in.readInt()];
+                in.readFully(deflated);
+                inflater.reset();
+                inflater.setInput(deflated);
+                int length = 0;
+                while (length < window.length && false == inflater.finished()) {
+                    int inflated = inflater.inflate(window, length, window.length - length);
+                    if (0 == inflated && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != window.length) {
+                    throw new IOException("Corrupted index, window of a restart point");
+                }
+                points.add(new RestartPoint(offset, bitOffset, window));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted index, window of a restart point", e);
+        } finally {
+            inflater.end();
+        }
+        if (points.isEmpty()) {
+            throw new IOException("Corrupted index, no restart points");
+        }
+        return new GzipIndex(Collections.unmodifiableList(points), size);
+    }
+
+    /**
+     * Inflater of gzip files, as a stream of the uncompressed data, which builds the index
+     * as it goes, see {@link #getIndex()}. Multiple gzip members are read one after the
+     * other, as gzip does, and the CRC and size of each are checked.
+     */
+    public static final class Scanner extends InputStream {
+        private static final int MAX_MATCH = 258;
+        private static final int MAX_BITS = 15;
+        private static final int[] LENGTH_BASE = {
+                3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+                35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+        };
+        private static final int[] LENGTH_EXTRA = {
+                0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+                3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+        };
+        private static final int[] DISTANCE_BASE = {
+                1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+                257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577
+        };
+        private static final int[] DISTANCE_EXTRA = {
+                0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+                7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+        };
+        private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+        private static final int[] FIXED_LITERALS, FIXED_DISTANCES;
+
+        static {
+            int[] lengths = new int[288];
+            Arrays.fill(lengths, 0, 144, 8);
+            Arrays.fill(lengths, 144, 256, 9);
+            Arrays.fill(lengths, 256, 280, 7);
+            Arrays.fill(lengths, 280, 288, 8);
+            int[] distanceLengths = new int[32];
+            Arrays.fill(distanceLengths, 5);
+            try {
+                FIXED_LITERALS = table(lengths, 0, lengths.length);
+                FIXED_DISTANCES = table(distanceLengths, 0, distanceLengths.length);
+            } catch (IOException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private enum State {
+            MEMBER_HEADER, BLOCK_HEADER, STORED, HUFFMAN, DONE
+        }
+
+        private final InputStream in;
+        private final byte[] input;
+        private int inputPosition, inputLimit;
+        private long inputOffset;
+        private long bitBuffer;
+        private int bitCount;
+        private final byte[] output;
+        private int outputLimit, readPosition, crcPosition;
+        private long outputBase;
+        private State state;
+        private boolean isFinalBlock;
+        private int storedRemaining;
+        private int[] literals, distances;
+        private final CRC32 crc;
+        private long memberStart;
+        private boolean isCheckingMember;
+        private final List<RestartPoint> points; // null when resumed
+        private long lastPointOffset;
+
+        /**
+         * @param in the gzip data, it is not closed
+         */
+        public Scanner(InputStream in) {
+            this.in = in;
+            this.input = new byte[BUFFER_SIZE];
+            this.output = new byte[WINDOW_SIZE * 4];
+            this.state = State.MEMBER_HEADER;
+            this.crc = new CRC32();
+            this.points = new ArrayList<>();
+        }
+
+        /**
+         * Resumes inflating at a restart point. The CRC and size of the gzip member it is in
+         * are not checked, unless it is the start of the member, as only part of it is read.
+         *
+         * @param in the gzip data from the byte of the bit offset of the point, it is closed
+         *           with the scanner
+         */
+        private Scanner(InputStream in, RestartPoint point) throws IOException {
+            this.in = in;
+            this.input = new byte[BUFFER_SIZE];
+            this.output = new byte[WINDOW_SIZE * 4];
+            this.crc = new CRC32();
+            this.points = null;
+            bits((int) (point.bitOffset & 7));
+            System.arraycopy(point.window, 0, this.output, 0, point.window.length);
+            this.outputLimit = this.readPosition = this.crcPosition = point.window.length;
+            this.outputBase = point.offset - point.window.length;
+            this.memberStart = this.outputBase;
+            this.isCheckingMember = point.isMemberStart();
+            this.state = State.BLOCK_HEADER;
+        }
+
+        /**
+         * @return the index, once all the data has been read
+         * @throws IOException when the data has not been read to the end
+         */
+        public GzipIndex getIndex() throws IOException {
+            if (null == this.points || State.DONE != this.state || this.readPosition < this.outputLimit) {
+                throw new IOException("The gzip data has not been read to the end");
+            }
+            if (this.points.isEmpty()) {
+                throw new IOException("Not in gzip format, no data");
+            }
+            return new GzipIndex(Collections.unmodifiableList(new ArrayList<>(this.points)), offset());
+        }
+
+        private long offset() {
+            return this.outputBase + this.outputLimit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return -1 == read(b, 0, 1) ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (0 == len) {
+                return 0;
+            }
+            if (this.readPosition == this.outputLimit) {
+                fill();
+                if (this.readPosition == this.outputLimit) {
+                    return -1;
+                }
+            }
+            int length = Math.min(len, this.outputLimit - this.readPosition);
+            System.arraycopy(this.output, this.readPosition, b, off, length);
+            this.readPosition += length;
+            return length;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            if (this.readPosition == this.outputLimit) {
+                fill();
+            }
+            int length = (int) Math.min(n, this.outputLimit - this.readPosition);
+            this.readPosition += length;
+            return length;
+        }
+
+        /**
+         * Inflates until there is output, or the end. The output keeps the last 32 KB that
+         * have been read, that later blocks may refer back to.
+         */
+        private void fill() throws IOException {
+            if (this.outputLimit > this.output.length - WINDOW_SIZE) {
+                updateCrc();
+                System.arraycopy(this.output, this.outputLimit - WINDOW_SIZE, this.output, 0, WINDOW_SIZE);
+                this.outputBase += this.outputLimit - WINDOW_SIZE;
+                this.outputLimit = this.readPosition = this.crcPosition = WINDOW_SIZE;
+            }
+            while (this.readPosition == this.outputLimit && State.DONE != this.state) {
+                switch (this.state) {
+                    case MEMBER_HEADER:
+                        readMemberHeader();
+                        break;
+                    case BLOCK_HEADER:
+                        readBlockHeader();
+                        break;
+                    case STORED:
+                        inflateStored();
+                        break;
+                    case HUFFMAN:
+                        inflateHuffman();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private void updateCrc() {
+            this.crc.update(this.output, this.crcPosition, this.outputLimit - this.crcPosition);
+            this.crcPosition = this.outputLimit;
+        }
+
+        private void readMemberHeader() throws IOException {
+            if (false == hasMoreBits(16) || 0x1F != (int) (this.bitBuffer & 0xFF) || 0x8B != (int) ((this.bitBuffer >>> 8) & 0xFF)) {
+                if (null != this.points && this.points.isEmpty()) {
+                    throw new IOException("Not in gzip format");
+                }
+                this.state = State.DONE; // trailing garbage is ignored, as gzip does
+                return;
+            }
+            bits(16);
+            int method = bits(8);
+            int flags = bits(8);
+            if (8 != method) {
+                throw new IOException(String.format("Unsupported compression method: %d", Integer.valueOf(method)));
+            }
+            bits(32); // time
+            bits(16); // extra flags, OS
+            if (0 != (flags & 0x04)) {
+                for (int length = bits(16); length > 0; length--) {
+                    bits(8);
+                }
+            }
+            if (0 != (flags & 0x08)) {
+                while (0 != bits(8)) {
+                    // file name
+                }
+            }
+            if (0 != (flags & 0x10)) {
+                while (0 != bits(8)) {
+                    // comment
+                }
+            }
+            if (0 != (flags & 0x02)) {
+                bits(16); // header CRC
+            }
+            updateCrc();
+            this.crc.reset();
+            this.memberStart = this.lastPointOffset = offset();
+            this.isCheckingMember = true;
+            if (null != this.points) {
+                this.points.add(new RestartPoint(this.memberStart, bitOffset(), new byte[0]));
+            }
+            this.isFinalBlock = false;
+            this.state = State.BLOCK_HEADER;
+        }
+
+        private long bitOffset() {
+            return this.inputOffset * 8 - this.bitCount;
+        }
+
+        private void readBlockHeader() throws IOException {
+            if (this.isFinalBlock) {
+                readMemberTrailer();
+                return;
+            }
+            long offset = offset();
+            if (null != this.points && offset - this.lastPointOffset >= SPAN) {
+                int windowSize = (int) Math.min(WINDOW_SIZE, offset - this.memberStart);
+                this.points.add(new RestartPoint(offset, bitOffset(),
+                        Arrays.copyOfRange(this.output, this.outputLimit - windowSize, this.outputLimit)));
+                this.lastPointOffset = offset;
+            }
+            this.isFinalBlock = 1 == bits(1);
+            int type = bits(2);
+            switch (type) {
+                case 0:
+                    bits(this.bitCount & 7);
+                    int length = bits(16);
+                    int complement = bits(16);
+                    if (length != (~complement & 0xFFFF)) {
+                        throw new IOException("Invalid gzip data: stored block length");
+                    }
+                    this.storedRemaining = length;
+                    this.state = State.STORED;
+                    break;
+                case 1:
+                    this.literals = FIXED_LITERALS;
+                    this.distances = FIXED_DISTANCES;
+                    this.state = State.HUFFMAN;
+                    break;
+                case 2:
+                    readDynamicTables();
+                    this.state = State.HUFFMAN;
+                    break;
+                default:
+                    throw new IOException("Invalid gzip data: block type");
+            }
+        }
+
+        private void readMemberTrailer() throws IOException {
+            bits(this.bitCount & 7);
+            updateCrc();
+            long expectedCrc = bits(16) | ((long) bits(16) << 16);
+            long expectedSize = bits(16) | ((long) bits(16) << 16);
+            if (this.isCheckingMember) {
+                if (expectedCrc != this.crc.getValue()) {
+                    throw new IOException("Invalid gzip data: CRC mismatch");
+                }
+                if (expectedSize != ((offset() - this.memberStart) & 0xFFFFFFFFL)) {
+                    throw new IOException("Invalid gzip data: size mismatch");
+                }
+            }
+            this.state = State.MEMBER_HEADER;
+        }
+
+        private void readDynamicTables() throws IOException {
+            int literalCount = bits(5) + 257;
+            int distanceCount = bits(5) + 1;
+            int codeLengthCount = bits(4) + 4;
+            int[] codeLengthLengths = new int[19];
+            for (int i = 0; i < codeLengthCount; i++) {
+                codeLengthLengths[CODE_LENGTH_ORDER[i]] = bits(3);
+            }
+            int[] codeLengths = table(codeLengthLengths, 0, codeLengthLengths.length);
+            int[] lengths = new int[literalCount + distanceCount];
+            for (int i = 0; i < lengths.length; ) {
+                int symbol = decode(codeLengths);
+                if (symbol < 16) {
+                    lengths[i++] = symbol;
+                    continue;
+                }
+                int repeat;
+                int value = 0;
+                if (16 == symbol) {
+                    if (0 == i) {
+                        throw new IOException("Invalid gzip data: no length to repeat");
+                    }
+                    value = lengths[i - 1];
+                    repeat = 3 + bits(2);
+                } else if (17 == symbol) {
+                    repeat = 3 + bits(3);
+                } else {
+                    repeat = 11 + bits(7);
+                }
+                if (i + repeat > lengths.length) {
+                    throw new IOException("Invalid gzip data: too many code lengths");
+                }
+                Arrays.fill(lengths, i, i + repeat, value);
+                i += repeat;
+            }
+            if (0 == lengths[256]) {
+                throw new IOException("Invalid gzip data: no end of block code");
+            }
+            this.literals = table(lengths, 0, literalCount);
+            this.distances = table(lengths, literalCount, distanceCount);
+        }
+
+        private void inflateStored() throws IOException {
+            int length = Math.min(this.storedRemaining, this.output.length - this.outputLimit);
+            int copied = 0;
+            while (copied < length && this.bitCount > 0) {
+                this.output[this.outputLimit++] = (byte) bits(8); // whole bytes already in the bit buffer
+                copied++;
+            }
+            while (copied < length) {
+                if (this.inputPosition == this.inputLimit && false == refill()) {
+                    throw new EOFException("Truncated gzip data");
+                }
+                int chunk = Math.min(length - copied, this.inputLimit - this.inputPosition);
+                System.arraycopy(this.input, this.inputPosition, this.output, this.outputLimit, chunk);
+                this.inputPosition += chunk;
+                this.inputOffset += chunk;
+                this.outputLimit += chunk;
+                copied += chunk;
+            }
+            this.storedRemaining -= length;
+            if (0 == this.storedRemaining) {
+                this.state = State.BLOCK_HEADER;
+            }
+        }
+
+        private void inflateHuffman() throws IOException {
+            byte[] output = this.output;
+            int limit = output.length - MAX_MATCH;
+            int position = this.outputLimit;
+            try {
+                while (position < limit) {
+                    int symbol = decode(this.literals);
+                    if (symbol < 256) {
+                        output[position++] = (byte) symbol;
+                    } else if (256 == symbol) {
+                        this.state = State.BLOCK_HEADER;
+                        return;
+                    } else {
+                        symbol -= 257;
+                        if (symbol >= LENGTH_BASE.length) {
+                            throw new IOException("Invalid gzip data: length code");
+                        }
+                        int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+                        int distanceSymbol = decode(this.distances);
+                        if (distanceSymbol >= DISTANCE_BASE.length) {
+                            throw new IOException("Invalid gzip data: distance code");
+                        }
+                        int distance = DISTANCE_BASE[distanceSymbol] + bits(DISTANCE_EXTRA[distanceSymbol]);
+                        if (distance > this.outputBase + position - this.memberStart || distance > position) {
+                            throw new IOException("Invalid gzip data: distance too far back");
+                        }
+                        int from = position - distance;
+                        for (int i = 0; i < length; i++) {
+                            output[position++] = output[from++];
+                        }
+                    }
+                }
+            } finally {
+                this.outputLimit = position;
+            }
+        }
+
+        /**
+         * @return table of 2^n entries, n the longest code, indexed by the next n bits of the
+         * data, with the symbol and the length of the code they start with, 0 when none
+         */
+        private static int[] table(int[] lengths, int from, int count) throws IOException {
+            int[] lengthCounts = new int[MAX_BITS + 1];
+            int maxLength = 1;
+            for (int i = from; i < from + count; i++) {
+                lengthCounts[lengths[i]]++;
+                maxLength = Math.max(maxLength, lengths[i]);
+            }
+            lengthCounts[0] = 0;
+            int left = 1;
+            int[] nextCode = new int[MAX_BITS + 1];
+            for (int length = 1, code = 0; length <= MAX_BITS; length++) {
+                left = (left << 1) - lengthCounts[length];
+                if (left < 0) {
+                    throw new IOException("Invalid gzip data: over-subscribed code");
+                }
+                code = (code + lengthCounts[length - 1]) << 1;
+                nextCode[length] = code;
+            }
+            int[] table = new int[1 << maxLength];
+            for (int symbol = 0; symbol < count; symbol++) {
+                int length = lengths[from + symbol];
+                if (0 == length) {
+                    continue;
+                }
+                int reversed = Integer.reverse(nextCode[length]++) >>> (Integer.SIZE - length);
+                for (int i = reversed; i < table.length; i += 1 << length) {
+                    table[i] = (symbol << 4) | length;
+                }
+            }
+            return table;
+        }
+
+        private int decode(int[] table) throws IOException {
+            int maxLength = Integer.numberOfTrailingZeros(table.length);
+            if (this.bitCount < maxLength) {
+                hasMoreBits(maxLength); // at the end of the data the code may take fewer bits
+            }
+            int entry = table[(int) this.bitBuffer & (table.length - 1)];
+            int length = entry & 0xF;
+            if (0 == length || length > this.bitCount) {
+                throw new IOException("Invalid gzip data: code");
+            }
+            this.bitBuffer >>>= length;
+            this.bitCount -= length;
+            return entry >>> 4;
+        }
+
+        private int bits(int count) throws IOException {
+            if (0 == count) {
+                return 0;
+            }
+            if (false == hasMoreBits(count)) {
+                throw new EOFException("Truncated gzip data");
+            }
+            int value = (int) (this.bitBuffer & ((1L << count) - 1));
+            this.bitBuffer >>>= count;
+            this.bitCount -= count;
+            return value;
+        }
+
+        /**
+         * @return true when there are at least count bits in the bit buffer
+         */
+        @Override
+        public void close() throws IOException {
+            if (null == this.points) {
+                this.in.close();
+            }
+        }
+
+        private boolean hasMoreBits(int count) throws IOException {
+            while (this.bitCount < count) {
+                if (this.inputPosition == this.inputLimit && false == refill()) {
+                    return false;
+                }
+                this.bitBuffer |= (long) (this.input[this.inputPosition++] & 0xFF) << this.bitCount;
+                this.bitCount += 8;
+                this.inputOffset++;
+            }
+            return true;
+        }
+
+        private boolean refill() throws IOException {
+            int read = this.in.read(this.input, 0, this.input.length);
+            if (read <= 0) {
+                return false;
+            }
+            this.inputPosition = 0;
+            this.inputLimit = read;
+            return true;
+        }
+    }
+
+    /**
+     * Reads the gzip file to the end.
+     *
+     * @param file the gzip file
+     * @return its index
+     * @throws IOException when the file cannot be read, or is not in gzip format
+     */
+    public static GzipIndex build(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            Scanner scanner = new Scanner(in);
+            byte[] discarded = new byte[BUFFER_SIZE];
+            while (-1 != scanner.read(discarded, 0, discarded.length)) {
+                // the index is built as the data is read
+            }
+            return scanner.getIndex();
+        }
+    }
+}
@@ -155,6 +155,32 @@ public class IOUtils {
      * @throws IOException
      */
     public static long readFromTo(InputStream in, OutputStream out) throws IOException {
+        return readFromTo(in, out, -1L, null);
+    }
+
+    /**
+     * Receives the progress of a transfer, from the thread doing it.
+     */
+    public interface TransferListener {
+        /**
+         * @param transferredBytes bytes transferred so far
+         * @param totalBytes       bytes to transfer, -1 when not known
+         */
+        void transferred(long transferredBytes, long totalBytes);
+    }
+
+    /**
+     * Moves bytes until exhaustion from in to out using an internal buffer. The transfer
+     * is cancelled by interrupting the thread doing it, which is checked between reads.
+     *
+     * @param in
+     * @param out
+     * @param totalBytes bytes expected, -1 when not known
+     * @param listener   receives the progress after each read, may be null
+     * @return The amount of bytes transferred
+     * @throws IOException InterruptedIOException when the transfer is cancelled
+     */
+    public static long readFromTo(InputStream in, OutputStream out, long totalBytes, TransferListener listener) throws IOException {
         byte[] buffer = new byte[BUFFER_SIZE];
         long transferredBytes = 0;
         int bread = 0;
@@ -162,6 +188,12 @@ public class IOUtils {
             out.write(buffer, 0, bread);
             out.flush();
             transferredBytes += bread;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException(String.format("Transfer cancelled after %d bytes", transferredBytes));
+            }
+            if (null != listener) {
+                listener.transferred(transferredBytes, totalBytes);
+            }
         }
         return transferredBytes;
     }
@@ -171,14 +203,24 @@ public class IOUtils {
      * @return A nicely formatted String representing the size
      */
     public static String hummanReadableSize(long size) {
+        if (size < 1024) {
+            return String.format("%d bytes", Long.valueOf(size));
+        }
+        return String.format("%d bytes (%s)", Long.valueOf(size), shortSize(size));
+    }
+
+    /**
+     * @param size
+     * @return A short formatted String representing the size, in the biggest unit
+     */
+    public static String shortSize(long size) {
         final int unit = 1024;
         if (size < unit) {
             return String.format("%d bytes", Long.valueOf(size));
         }
         int exp = (int) (Math.log(size) / Math.log(unit));
         return String.format(
-                "%d bytes (%.1f %cB)",
-                Long.valueOf(size),
+                "%.1f %cB",
                 Double.valueOf(size / Math.pow(unit, exp)),
                 "KMGTPE".charAt(exp - 1));
     }
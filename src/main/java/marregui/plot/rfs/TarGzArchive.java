@@ -0,0 +1,400 @@
+/* **
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright 2020, Miguel Arregui a.k.a. marregui
+ */
+
+package marregui.plot.rfs;
+
+import marregui.plot.io.ColumnarDataFile;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Read only view of the members of a tar/gz archive, as downloaded from the Datachest
+ * server, which are read in place, without extracting them.
+ * <p>
+ * Opening the archive reads it once, to index its members, the offset and size of their
+ * data in the uncompressed tar, and the restart points of its gzip compression, see
+ * {@link GzipIndex}. The index is kept next to the archive, with extension
+ * {@link #INDEX_EXTENSION}, or in the folder given by the system property
+ * {@link ColumnarDataFile#CACHE_FOLDER_PROPERTY}, and opening the archive again reads it
+ * instead, while the archive keeps its size and modification time. A member is then read
+ * by inflating the archive from the restart point before it, at most {@link GzipIndex#SPAN}
+ * bytes away, so reading one member costs about as much as its own size.
+ *
+ * @author marregui
+ */
+public final class TarGzArchive {
+    public static final String INDEX_EXTENSION = ".svidx";
+    private static final Logger LOGGER = LoggerFactory.getLogger(TarGzArchive.class);
+    private static final int INDEX_MAGIC = 0x53564958; // SVIX
+    private static final int INDEX_VERSION = 1;
+    private static final Map<String, TarGzArchive> OPEN_ARCHIVES = new HashMap<>();
+
+    /**
+     * File or folder of the archive. Folders are not always members of a tar, those
+     * implied by the paths of its members are added to the index.
+     */
+    public static final class Member {
+        public final String path; // relative to the archive, '/' separated
+        public final boolean isFolder;
+        public final long offset; // of the data in the uncompressed tar
+        public final long size;
+        public final long lastModified;
+
+        private Member(String path, boolean isFolder, long offset, long size, long lastModified) {
+            this.path = path;
+            this.isFolder = isFolder;
+            this.offset = offset;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public String getName() {
+            return this.path.substring(this.path.lastIndexOf('/') + 1);
+        }
+
+        /**
+         * @return the path of the folder of the member, empty at the top of the archive
+         */
+        public String getParentPath() {
+            int idx = this.path.lastIndexOf('/');
+            return idx < 0 ? "" : this.path.substring(0, idx);
+        }
+    }
+
+    /**
+     * @param file a file
+     * @return true when its name has extension .tgz or .tar.gz
+     */
+    public static boolean isArchive(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".tgz") || name.endsWith(".tar.gz");
+    }
+
+    /**
+     * Archives are opened once, and again only when they change.
+     *
+     * @param file tar/gz file
+     * @return the archive
+     * @throws IOException when the file cannot be read, or is not a tar/gz
+     */
+    public static TarGzArchive open(File file) throws IOException {
+        File absoluteFile = file.getAbsoluteFile();
+        String key = absoluteFile.getPath();
+        synchronized (OPEN_ARCHIVES) {
+            TarGzArchive archive = OPEN_ARCHIVES.get(key);
+            if (null == archive || archive.length != absoluteFile.length() || archive.lastModified != absoluteFile.lastModified()) {
+                archive = new TarGzArchive(absoluteFile);
+                OPEN_ARCHIVES.put(key, archive);
+            }
+            return archive;
+        }
+    }
+
+    private final File file;
+    private final long length, lastModified;
+    private GzipIndex gzipIndex;
+    private final Map<String, Member> members; // by path, sorted
+    private final Map<String, List<Member>> membersPerFolder; // by path of the folder
+
+    private TarGzArchive(File file) throws IOException {
+        if (false == IOUtils.checkFileAccess(file)) {
+            throw new IOException(String.format("Cannot access: %s", file.getAbsolutePath()));
+        }
+        this.file = file;
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+        this.members = new TreeMap<>();
+        File indexFile = indexFileFor(file);
+        if (false == readIndex(indexFile)) {
+            this.members.clear();
+            long start = System.currentTimeMillis();
+            scan();
+            LOGGER.debug(String.format("Indexed %s, %d members, in %d millis",
+                    file.getName(), Integer.valueOf(this.members.size()), Long.valueOf(System.currentTimeMillis() - start)));
+            writeIndex(indexFile);
+        }
+        this.membersPerFolder = new HashMap<>();
+        for (Member member : this.members.values()) {
+            this.membersPerFolder.computeIfAbsent(member.getParentPath(), path -> new ArrayList<>()).add(member);
+        }
+    }
+
+    /**
+     * @return the tar/gz file
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @param path path of the member, relative to the archive, '/' separated
+     * @return the member, null when there is none
+     */
+    public Member getMember(String path) {
+        return this.members.get(normalise(path));
+    }
+
+    /**
+     * @return the files and folders of the archive, sorted by path
+     */
+    public List<Member> getMembers() {
+        return Collections.unmodifiableList(new ArrayList<>(this.members.values()));
+    }
+
+    /**
+     * @param folderPath path of a folder of the archive, empty for the top
+     * @return the members in the folder, sorted by path
+     */
+    public List<Member> list(String folderPath) {
+        List<Member> members = this.membersPerFolder.get(normalise(folderPath));
+        return null == members ? Collections.emptyList() : Collections.unmodifiableList(members);
+    }
+
+    /**
+     * @param member a file of the archive
+     * @return the data of the member, the stream must be closed
+     * @throws IOException when the archive cannot be read
+     */
+    public InputStream open(Member member) throws IOException {
+        if (member.isFolder) {
+            throw new IOException(String.format("Not a file: %s", member.path));
+        }
+        return new MemberInputStream(this.gzipIndex.open(this.file, member.offset), member.size);
+    }
+
+    private static String normalise(String path) {
+        String normalised = path.replace('\\', '/');
+        while (normalised.startsWith("./")) {
+            normalised = normalised.substring(2);
+        }
+        while (normalised.startsWith("/")) {
+            normalised = normalised.substring(1);
+        }
+        while (normalised.endsWith("/")) {
+            normalised = normalised.substring(0, normalised.length() - 1);
+        }
+        return ".".equals(normalised) ? "" : normalised;
+    }
+
+    /**
+     * Reads the tar, as it is inflated by the scanner of the gzip index, counting the
+     * bytes of the tar consumed up to the data of each member.
+     */
+    private void scan() throws IOException {
+        try (InputStream fileIn = new FileInputStream(this.file)) {
+            GzipIndex.Scanner scanner = new GzipIndex.Scanner(fileIn);
+            CountingInputStream tarIn = new CountingInputStream(scanner);
+            TarArchiveInputStream tar = new TarArchiveInputStream(tarIn);
+            for (TarArchiveEntry entry; null != (entry = tar.getNextTarEntry()); ) {
+                String path = normalise(entry.getName());
+                if (path.isEmpty() || entry.isSymbolicLink() || entry.isLink() || entry.isSparse()) {
+                    continue;
+                }
+                long lastModified = entry.getModTime().getTime();
+                if (entry.isDirectory()) {
+                    this.members.put(path, new Member(path, true, -1L, 0L, lastModified));
+                } else if (entry.isFile()) {
+                    this.members.put(path, new Member(path, false, tarIn.count, entry.getSize(), lastModified));
+                }
+                addFolders(path, lastModified);
+            }
+            byte[] discarded = new byte[IOUtils.BUFFER_SIZE];
+            while (-1 != scanner.read(discarded, 0, discarded.length)) {
+                // the blocks after the end of the tar
+            }
+            this.gzipIndex = scanner.getIndex();
+        }
+    }
+
+    private void addFolders(String path, long lastModified) {
+        for (int idx = path.lastIndexOf('/'); idx > 0; idx = path.lastIndexOf('/', idx - 1)) {
+            String folderPath = path.substring(0, idx);
+            if (this.members.containsKey(folderPath)) {
+                break;
+            }
+            this.members.put(folderPath, new Member(folderPath, true, -1L, 0L, lastModified));
+        }
+    }
+
+    private static File indexFileFor(File file) {
+        String cacheFolder = System.getProperty(ColumnarDataFile.CACHE_FOLDER_PROPERTY);
+        if (null == cacheFolder) {
+            return new File(file.getPath() + INDEX_EXTENSION);
+        }
+        return new File(cacheFolder, String.format("%s_%08x%s",
+                file.getName(), Integer.valueOf(file.getPath().hashCode()), INDEX_EXTENSION));
+    }
+
+    /**
+     * @return true when the index was read, false when there is none, or it is not that of
+     * the archive as it is
+     */
+    private boolean readIndex(File indexFile) {
+        if (false == indexFile.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), IOUtils.BUFFER_SIZE))) {
+            if (INDEX_MAGIC != in.readInt() || INDEX_VERSION != in.readInt()
+                    || this.length != in.readLong() || this.lastModified != in.readLong()) {
+                return false;
+            }
+            this.gzipIndex = GzipIndex.read(in);
+            for (int i = 0, count = in.readInt(); i < count; i++) {
+                String path = in.readUTF();
+                this.members.put(path, new Member(path, in.readBoolean(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Ignoring index %s: %s", indexFile.getAbsolutePath(), e.getMessage()));
+            return false;
+        }
+    }
+
+    private void writeIndex(File indexFile) {
+        File folder = indexFile.getAbsoluteFile().getParentFile();
+        if (null != folder && false == folder.exists()) {
+            folder.mkdirs();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), IOUtils.BUFFER_SIZE))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(this.length);
+            out.writeLong(this.lastModified);
+            this.gzipIndex.write(out);
+            out.writeInt(this.members.size());
+            for (Member member : this.members.values()) {
+                out.writeUTF(member.path);
+                out.writeBoolean(member.isFolder);
+                out.writeLong(member.offset);
+                out.writeLong(member.size);
+                out.writeLong(member.lastModified);
+            }
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Could not write index %s: %s", indexFile.getAbsolutePath(), e.getMessage()));
+            indexFile.delete();
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (-1 != b) {
+                this.count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                this.count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            this.count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * The data of a member, the bytes of the tar that follow it are not read.
+     */
+    private static final class MemberInputStream extends FilterInputStream {
+        private long remaining;
+
+        private MemberInputStream(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (-1 != b) {
+                this.remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, this.remaining));
+            if (read > 0) {
+                this.remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, this.remaining));
+            this.remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), this.remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}